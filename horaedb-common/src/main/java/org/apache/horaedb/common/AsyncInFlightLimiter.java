@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.horaedb.common.util.Clock;
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.Requires;
+import org.apache.horaedb.common.util.internal.ThrowUtil;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * An in-flight limiter that never parks the acquiring thread.
+ *
+ * <p> {@link #acquireAsync(int, long, TimeUnit)} returns a future that is
+ * completed with {@code true} once the permits are granted, or with
+ * {@code false} when the timeout expires first. Waiters are served in
+ * FIFO order by {@link #release(int)}, a large waiter at the head is not
+ * overtaken by smaller ones behind it. Cancelling the future gives up
+ * waiting.
+ *
+ */
+public class AsyncInFlightLimiter implements Limiter {
+
+    private final int                      permits;
+    private final ScheduledExecutorService timer;
+    private final Timer                    acquireTimer;
+    private final ArrayDeque<Waiter>       waiters = new ArrayDeque<>();
+
+    private int available;
+
+    public AsyncInFlightLimiter(int permits, ScheduledExecutorService timer, String metricPrefix) {
+        Requires.requireTrue(permits > 0, "Invalid permits: %d", permits);
+        this.permits = permits;
+        this.available = permits;
+        this.timer = Requires.requireNonNull(timer, "AsyncInFlightLimiter.timer");
+        this.acquireTimer = MetricsUtil.timer(metricPrefix, "wait_time");
+    }
+
+    /**
+     * Acquires the given number of permits without blocking.
+     *
+     * @param permits the number of permits to acquire
+     * @param timeout the maximum time to wait for the permits, 0 means do not
+     *                wait at all, a negative value means wait forever
+     * @param unit    the time unit of the timeout argument
+     * @return a future completed with {@code true} if the permits were acquired
+     */
+    public CompletableFuture<Boolean> acquireAsync(final int permits, final long timeout, final TimeUnit unit) {
+        final Waiter waiter;
+        synchronized (this) {
+            if (this.waiters.isEmpty() && this.available >= permits) {
+                this.available -= permits;
+                this.acquireTimer.update(0, TimeUnit.MILLISECONDS);
+                return CompletableFuture.completedFuture(true);
+            }
+            if (timeout == 0) {
+                return CompletableFuture.completedFuture(false);
+            }
+            waiter = new Waiter(permits);
+            this.waiters.addLast(waiter);
+        }
+
+        if (timeout > 0) {
+            waiter.timeout = this.timer.schedule(() -> waiter.future.complete(false), timeout, unit);
+        }
+        waiter.future.whenComplete((granted, e) -> {
+            if (waiter.timeout != null) {
+                waiter.timeout.cancel(false);
+            }
+            this.acquireTimer.update(Clock.defaultClock().duration(waiter.startCall), TimeUnit.MILLISECONDS);
+            if (!Boolean.TRUE.equals(granted)) {
+                // Timed out or cancelled, the waiters behind it may be able to go now
+                remove(waiter);
+            }
+        });
+        return waiter.future;
+    }
+
+    @Override
+    public void acquire(final int permits) {
+        try {
+            acquireAsync(permits, -1, TimeUnit.MILLISECONDS).get();
+        } catch (final Exception e) {
+            ThrowUtil.throwException(e);
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(final int permits, final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            return acquireAsync(permits, 0, unit).join();
+        }
+        try {
+            return acquireAsync(permits, timeout, unit).get();
+        } catch (final Exception e) {
+            ThrowUtil.throwException(e);
+        }
+        return false;
+    }
+
+    @Override
+    public void release(final int permits) {
+        final List<Waiter> granted;
+        synchronized (this) {
+            this.available += permits;
+            granted = drain();
+        }
+        complete(granted);
+    }
+
+    @Override
+    public synchronized int availablePermits() {
+        return this.available;
+    }
+
+    @Override
+    public int maxPermits() {
+        return this.permits;
+    }
+
+    public synchronized int waitingCount() {
+        return this.waiters.size();
+    }
+
+    private void remove(final Waiter waiter) {
+        final List<Waiter> granted;
+        synchronized (this) {
+            if (!this.waiters.remove(waiter)) {
+                return;
+            }
+            granted = drain();
+        }
+        complete(granted);
+    }
+
+    // Must be called with the lock held
+    private List<Waiter> drain() {
+        List<Waiter> granted = Collections.emptyList();
+        Waiter head;
+        while ((head = this.waiters.peekFirst()) != null) {
+            if (head.future.isDone()) {
+                // Timed out or cancelled, its completion callback will find it gone
+                this.waiters.pollFirst();
+                continue;
+            }
+            if (this.available < head.permits) {
+                break;
+            }
+            this.waiters.pollFirst();
+            this.available -= head.permits;
+            if (granted.isEmpty()) {
+                granted = new ArrayList<>();
+            }
+            granted.add(head);
+        }
+        return granted;
+    }
+
+    // Completes the futures outside of the lock, the callbacks may run the acquired actions
+    private void complete(final List<Waiter> granted) {
+        for (final Waiter waiter : granted) {
+            if (!waiter.future.complete(true)) {
+                // Lost the race with a timeout or a cancellation, give the permits back
+                release(waiter.permits);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        final int                        permits;
+        final long                       startCall = Clock.defaultClock().getTick();
+        final CompletableFuture<Boolean> future    = new CompletableFuture<>();
+        volatile ScheduledFuture<?>      timeout;
+
+        Waiter(int permits) {
+            this.permits = permits;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -142,6 +143,15 @@ public final class MetricsUtil {
         return METRIC_REGISTRY.histogram(named(names));
     }
 
+    /**
+     * Return the {@link Gauge} registered under this name; or register
+     * the given {@link Gauge} if none is registered.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Gauge<T> gauge(final Object name, final Gauge<T> gauge) {
+        return METRIC_REGISTRY.gauge(named(name), () -> gauge);
+    }
+
     public static String named(final Object name) {
         return String.valueOf(name);
     }
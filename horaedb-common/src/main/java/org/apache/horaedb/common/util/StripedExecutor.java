@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.common.util;
+
+import java.util.concurrent.Executor;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * A set of {@link SerializingExecutor} lanes, tasks with the same key always
+ * run in one lane, in the order they were submitted, while tasks of
+ * different lanes run concurrently.
+ *
+ * Tasks submitted without a key are assigned a lane by the submitting
+ * thread, so the tasks submitted by one thread still run in sequence.
+ *
+ */
+public class StripedExecutor implements Executor {
+
+    private final String name;
+    private final Lane[] lanes;
+    private final int    mask;
+
+    public StripedExecutor(String name) {
+        this(name, Cpus.cpus());
+    }
+
+    public StripedExecutor(String name, int lanes) {
+        Requires.requireTrue(lanes > 0, "lanes must > 0");
+        this.name = name;
+        // round up to a power of 2
+        final int n = lanes == 1 ? 1 : Integer.highestOneBit(lanes - 1) << 1;
+        this.lanes = new Lane[n];
+        for (int i = 0; i < n; i++) {
+            this.lanes[i] = new Lane(name, i);
+        }
+        this.mask = n - 1;
+    }
+
+    /**
+     * Returns the lane of the given key.
+     *
+     * @param key the key, e.g., an endpoint or a table name
+     * @return the executor runs all tasks of the key in sequence
+     */
+    public Executor laneFor(final Object key) {
+        return key == null ? laneOf(Thread.currentThread().getId()) : laneOf(key.hashCode());
+    }
+
+    public int laneCount() {
+        return this.lanes.length;
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public void execute(final Runnable task) {
+        laneOf(Thread.currentThread().getId()).execute(task);
+    }
+
+    private Lane laneOf(final long hash) {
+        final int h = (int) (hash ^ (hash >>> 32));
+        return this.lanes[(h ^ (h >>> 16)) & this.mask];
+    }
+
+    private static final class Lane implements Executor {
+        private final SerializingExecutor executor;
+        private final Counter             queueSize;
+
+        Lane(String name, int index) {
+            this.executor = new SerializingExecutor(name + "_" + index);
+            this.queueSize = MetricsUtil.counter("striped_executor_lane_queue_size", name, index);
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public void execute(final Runnable task) {
+            Requires.requireNonNull(task, "task");
+            this.queueSize.inc();
+            this.executor.execute(() -> {
+                this.queueSize.dec();
+                task.run();
+            });
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StripedExecutor{" + "name='" + name + '\'' + ", lanes=" + lanes.length + '}';
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncInFlightLimiterTest {
+
+    private ScheduledExecutorService timer;
+    private AsyncInFlightLimiter     limiter;
+
+    @Before
+    public void before() {
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+        this.limiter = new AsyncInFlightLimiter(10, this.timer, "async_limiter_test");
+    }
+
+    @After
+    public void after() {
+        this.timer.shutdownNow();
+    }
+
+    @Test
+    public void fifoTest() throws Exception {
+        Assert.assertTrue(this.limiter.acquireAsync(8, -1, TimeUnit.SECONDS).get());
+
+        final CompletableFuture<Boolean> big = this.limiter.acquireAsync(5, -1, TimeUnit.SECONDS);
+        // enough permits, but it must not overtake the waiter in front of it
+        final CompletableFuture<Boolean> small = this.limiter.acquireAsync(1, -1, TimeUnit.SECONDS);
+        Assert.assertFalse(big.isDone());
+        Assert.assertFalse(small.isDone());
+        Assert.assertEquals(2, this.limiter.waitingCount());
+
+        this.limiter.release(4);
+        Assert.assertTrue(big.getNow(false));
+        Assert.assertTrue(small.getNow(false));
+        Assert.assertEquals(0, this.limiter.availablePermits());
+        Assert.assertEquals(0, this.limiter.waitingCount());
+
+        this.limiter.release(10);
+        Assert.assertEquals(10, this.limiter.availablePermits());
+    }
+
+    @Test
+    public void tryOnceTest() {
+        Assert.assertTrue(this.limiter.acquireAsync(10, 0, TimeUnit.SECONDS).join());
+        Assert.assertFalse(this.limiter.acquireAsync(1, 0, TimeUnit.SECONDS).join());
+        Assert.assertEquals(0, this.limiter.waitingCount());
+    }
+
+    @Test
+    public void timeoutTest() throws Exception {
+        Assert.assertTrue(this.limiter.acquireAsync(8, -1, TimeUnit.SECONDS).get());
+
+        final CompletableFuture<Boolean> head = this.limiter.acquireAsync(5, 50, TimeUnit.MILLISECONDS);
+        final CompletableFuture<Boolean> next = this.limiter.acquireAsync(2, -1, TimeUnit.SECONDS);
+        Assert.assertFalse(head.get(5, TimeUnit.SECONDS));
+        // the head timed out, the waiter behind it goes with the available permits
+        Assert.assertTrue(next.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, this.limiter.availablePermits());
+        Assert.assertEquals(0, this.limiter.waitingCount());
+    }
+
+    @Test
+    public void cancelTest() throws Exception {
+        Assert.assertTrue(this.limiter.acquireAsync(10, -1, TimeUnit.SECONDS).get());
+
+        final CompletableFuture<Boolean> f = this.limiter.acquireAsync(3, -1, TimeUnit.SECONDS);
+        Assert.assertEquals(1, this.limiter.waitingCount());
+        Assert.assertTrue(f.cancel(false));
+        Assert.assertEquals(0, this.limiter.waitingCount());
+
+        this.limiter.release(10);
+        Assert.assertEquals(10, this.limiter.availablePermits());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.common.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+    @Test
+    public void laneCountTest() {
+        Assert.assertEquals(1, new StripedExecutor("lane_count_test", 1).laneCount());
+        Assert.assertEquals(4, new StripedExecutor("lane_count_test", 3).laneCount());
+        Assert.assertEquals(8, new StripedExecutor("lane_count_test", 8).laneCount());
+    }
+
+    @Test
+    public void sameKeySameLaneTest() {
+        final StripedExecutor executor = new StripedExecutor("same_key_test", 8);
+        Assert.assertSame(executor.laneFor("key1"), executor.laneFor("key1"));
+        Assert.assertSame(executor.laneFor(null), executor.laneFor(null));
+    }
+
+    @Test
+    public void perKeyOrderTest() throws InterruptedException {
+        final StripedExecutor executor = new StripedExecutor("per_key_order_test", 4);
+        final int keys = 8;
+        final int tasksPerKey = 1000;
+        final Map<Integer, List<Integer>> seen = new ConcurrentHashMap<>();
+        for (int k = 0; k < keys; k++) {
+            seen.put(k, Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        final ExecutorService submitters = Executors.newFixedThreadPool(keys);
+        final CountDownLatch latch = new CountDownLatch(keys);
+        for (int k = 0; k < keys; k++) {
+            final int key = k;
+            submitters.execute(() -> {
+                for (int i = 0; i < tasksPerKey; i++) {
+                    final int seq = i;
+                    executor.laneFor(key).execute(() -> seen.get(key).add(seq));
+                }
+                latch.countDown();
+            });
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        submitters.shutdown();
+
+        for (int k = 0; k < keys; k++) {
+            final List<Integer> seqs = seen.get(k);
+            Assert.assertEquals(tasksPerKey, seqs.size());
+            for (int i = 0; i < tasksPerKey; i++) {
+                Assert.assertEquals(i, (int) seqs.get(i));
+            }
+        }
+        for (int i = 0; i < executor.laneCount(); i++) {
+            Assert.assertEquals(0,
+                    MetricsUtil.counter("striped_executor_lane_queue_size", "per_key_order_test", i).getCount());
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import io.grpc.CallOptions;
@@ -29,10 +30,13 @@ import io.grpc.ClientInterceptor;
 import io.grpc.ConnectivityState;
 import io.grpc.ManagedChannel;
 import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
 import io.grpc.netty.shaded.io.netty.channel.ChannelOption;
 import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCallStreamObserver;
 import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
 import org.apache.horaedb.rpc.interceptors.AuthenticationInterceptor;
@@ -53,10 +57,13 @@ import org.apache.horaedb.common.util.SharedThreadPool;
 import org.apache.horaedb.common.util.StringBuilderHelper;
 import org.apache.horaedb.common.util.SystemPropertyUtil;
 import org.apache.horaedb.common.util.ThreadPoolUtil;
+import org.apache.horaedb.rpc.errors.AbortedException;
 import org.apache.horaedb.rpc.errors.ConnectFailException;
 import org.apache.horaedb.rpc.errors.InvokeTimeoutException;
 import org.apache.horaedb.rpc.errors.OnlyErrorMessage;
 import org.apache.horaedb.rpc.errors.RemotingException;
+import org.apache.horaedb.rpc.errors.ResourceExhaustedException;
+import org.apache.horaedb.rpc.errors.UnavailableException;
 import org.apache.horaedb.rpc.interceptors.ClientRequestLimitInterceptor;
 import org.apache.horaedb.rpc.interceptors.ContextToHeadersInterceptor;
 import org.apache.horaedb.rpc.interceptors.MetricInterceptor;
@@ -214,7 +221,7 @@ public class GrpcClient implements RpcClient {
                                         final long timeoutMs) {
         checkArgs(endpoint, request, ctx, observer);
 
-        final MethodDescriptor<Message, Message> method = getCallMethod(request, MethodDescriptor.MethodType.UNARY);
+        final MethodDescriptor<Object, Message> method = getCallMethod(request, MethodDescriptor.MethodType.UNARY);
         final long timeout = calcTimeout(timeoutMs);
         final CallOptions callOpts = CallOptions.DEFAULT //
                 .withDeadlineAfter(timeout, TimeUnit.MILLISECONDS) //
@@ -235,7 +242,7 @@ public class GrpcClient implements RpcClient {
 
         final String target = target(ch, address);
 
-        ClientCalls.asyncUnaryCall(ch.newCall(method, callOpts), (Message) request, new StreamObserver<Message>() {
+        ClientCalls.asyncUnaryCall(ch.newCall(method, callOpts), request, new StreamObserver<Message>() {
 
             @SuppressWarnings("unchecked")
             @Override
@@ -247,8 +254,9 @@ public class GrpcClient implements RpcClient {
 
             @Override
             public void onError(final Throwable err) {
-                attachErrMsg(err, UNARY_CALL, methodName, target, startCall, onReceived(true), ctx);
-                observer.onError(err);
+                final Throwable e = toRemotingErr(err);
+                attachErrMsg(e, UNARY_CALL, methodName, target, startCall, onReceived(true), ctx);
+                observer.onError(e);
             }
 
             @Override
@@ -279,7 +287,7 @@ public class GrpcClient implements RpcClient {
                                                   final Observer<Resp> observer) {
         checkArgs(endpoint, request, ctx, observer);
 
-        final MethodDescriptor<Message, Message> method = getCallMethod(request,
+        final MethodDescriptor<Object, Message> method = getCallMethod(request,
                 MethodDescriptor.MethodType.SERVER_STREAMING);
         final CallOptions callOpts = CallOptions.DEFAULT.withExecutor(getObserverExecutor(observer));
 
@@ -298,26 +306,26 @@ public class GrpcClient implements RpcClient {
 
         final String target = target(ch, address);
 
-        ClientCalls.asyncServerStreamingCall(ch.newCall(method, callOpts), (Message) request,
-                new StreamObserver<Message>() {
+        ClientCalls.asyncServerStreamingCall(ch.newCall(method, callOpts), request, new StreamObserver<Message>() {
 
-                    @SuppressWarnings("unchecked")
-                    @Override
-                    public void onNext(final Message value) {
-                        observer.onNext((Resp) value);
-                    }
+            @SuppressWarnings("unchecked")
+            @Override
+            public void onNext(final Message value) {
+                observer.onNext((Resp) value);
+            }
 
-                    @Override
-                    public void onError(final Throwable err) {
-                        attachErrMsg(err, SERVER_STREAMING_CALL, methodName, target, startCall, -1, ctx);
-                        observer.onError(err);
-                    }
+            @Override
+            public void onError(final Throwable err) {
+                final Throwable e = toRemotingErr(err);
+                attachErrMsg(e, SERVER_STREAMING_CALL, methodName, target, startCall, -1, ctx);
+                observer.onError(e);
+            }
 
-                    @Override
-                    public void onCompleted() {
-                        observer.onCompleted();
-                    }
-                });
+            @Override
+            public void onCompleted() {
+                observer.onCompleted();
+            }
+        });
     }
 
     @Override
@@ -327,7 +335,7 @@ public class GrpcClient implements RpcClient {
                                                            final Observer<Resp> respObserver) {
         checkArgs(endpoint, defaultReqIns, ctx, respObserver);
 
-        final MethodDescriptor<Message, Message> method = getCallMethod(defaultReqIns,
+        final MethodDescriptor<Object, Message> method = getCallMethod(defaultReqIns,
                 MethodDescriptor.MethodType.CLIENT_STREAMING);
         final CallOptions callOpts = CallOptions.DEFAULT.withExecutor(getObserverExecutor(respObserver));
 
@@ -348,8 +356,20 @@ public class GrpcClient implements RpcClient {
 
         final String target = target(ch, address);
 
-        final StreamObserver<Message> gRpcObs = ClientCalls.asyncClientStreamingCall(ch.newCall(method, callOpts),
-                new StreamObserver<Message>() {
+        final AtomicReference<Runnable> onReadyHandler = new AtomicReference<>();
+        final StreamObserver<Object> gRpcObs = ClientCalls.asyncClientStreamingCall(ch.newCall(method, callOpts),
+                new ClientResponseObserver<Object, Message>() {
+
+                    @Override
+                    public void beforeStart(final ClientCallStreamObserver<Object> reqStream) {
+                        // the handler can only be set before the call starts, delegates to the one set later
+                        reqStream.setOnReadyHandler(() -> {
+                            final Runnable handler = onReadyHandler.get();
+                            if (handler != null) {
+                                handler.run();
+                            }
+                        });
+                    }
 
                     @SuppressWarnings("unchecked")
                     @Override
@@ -359,8 +379,9 @@ public class GrpcClient implements RpcClient {
 
                     @Override
                     public void onError(final Throwable err) {
-                        attachErrMsg(err, CLIENT_STREAMING_CALL, methodName, target, startCall, -1, ctx);
-                        respObserver.onError(err);
+                        final Throwable e = toRemotingErr(err);
+                        attachErrMsg(e, CLIENT_STREAMING_CALL, methodName, target, startCall, -1, ctx);
+                        respObserver.onError(e);
                     }
 
                     @Override
@@ -373,7 +394,7 @@ public class GrpcClient implements RpcClient {
 
             @Override
             public void onNext(final Req value) {
-                gRpcObs.onNext((Message) value);
+                gRpcObs.onNext(value);
             }
 
             @Override
@@ -385,6 +406,16 @@ public class GrpcClient implements RpcClient {
             public void onCompleted() {
                 gRpcObs.onCompleted();
             }
+
+            @Override
+            public boolean isReady() {
+                return ((ClientCallStreamObserver<Object>) gRpcObs).isReady();
+            }
+
+            @Override
+            public void setOnReadyHandler(final Runnable handler) {
+                onReadyHandler.set(handler);
+            }
         };
     }
 
@@ -460,6 +491,25 @@ public class GrpcClient implements RpcClient {
         }
     }
 
+    /**
+     * Maps the gRPC status of a failed call to the remoting exception the
+     * callers know about, the other errors are passed on as they are.
+     */
+    static Throwable toRemotingErr(final Throwable err) {
+        switch (Status.fromThrowable(err).getCode()) {
+            case UNAVAILABLE:
+                return new UnavailableException(err);
+            case DEADLINE_EXCEEDED:
+                return new InvokeTimeoutException(err);
+            case RESOURCE_EXHAUSTED:
+                return new ResourceExhaustedException(err);
+            case ABORTED:
+                return new AbortedException(err);
+            default:
+                return err;
+        }
+    }
+
     private void attachErrMsg(final Throwable err, //
                               final String callType, //
                               final String method, //
@@ -568,20 +618,24 @@ public class GrpcClient implements RpcClient {
         this.transientFailures.remove(endpoint);
     }
 
-    private MethodDescriptor<Message, Message> getCallMethod(final Object request, //
-                                                             final MethodDescriptor.MethodType methodType) {
-        Requires.requireTrue(request instanceof Message, "gRPC impl only support protobuf");
-        final Class<? extends Message> reqCls = ((Message) request).getClass();
+    @SuppressWarnings("unchecked")
+    private MethodDescriptor<Object, Message> getCallMethod(final Object request, //
+                                                            final MethodDescriptor.MethodType methodType) {
+        // A serialized request is routed by the type of the message it was encoded from
+        final Class<?> cls = request instanceof SerializedRequest ? ((SerializedRequest) request).messageType() :
+                request.getClass();
+        Requires.requireTrue(Message.class.isAssignableFrom(cls), "gRPC impl only support protobuf");
+        final Class<? extends Message> reqCls = (Class<? extends Message>) cls;
         final Message defaultReqIns = this.marshallerRegistry.getDefaultRequestInstance(reqCls);
         final Message defaultRespIns = this.marshallerRegistry.getDefaultResponseInstance(reqCls);
         Requires.requireNonNull(defaultReqIns, "null default request instance: " + reqCls.getName());
         Requires.requireNonNull(defaultRespIns, "null default response instance: " + reqCls.getName());
 
         return MethodDescriptor //
-                .<Message, Message> newBuilder() //
+                .<Object, Message> newBuilder() //
                 .setType(methodType) //
                 .setFullMethodName(this.marshallerRegistry.getMethodName(reqCls, methodType)) //
-                .setRequestMarshaller(ProtoUtils.marshaller(defaultReqIns)) //
+                .setRequestMarshaller(new RequestMarshaller(ProtoUtils.marshaller(defaultReqIns))) //
                 .setResponseMarshaller(ProtoUtils.marshaller(defaultRespIns)) //
                 .build();
     }
@@ -627,6 +681,9 @@ public class GrpcClient implements RpcClient {
     private IdChannel newChannel(final Endpoint endpoint) {
         final ManagedChannel innerChannel = NettyChannelBuilder.forAddress(endpoint.getIp(), endpoint.getPort()) //
                 .usePlaintext() //
+                // the client retries on its own, and a serialized request is released once streamed, see
+                // RequestMarshaller, so the transport must never stream a request twice
+                .disableRetry() //
                 .executor(this.asyncPool) //
                 .intercept(this.interceptors) //
                 .maxInboundMessageSize(this.opts.getMaxInboundMessageSize()) //
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+
+import com.google.protobuf.Message;
+
+/**
+ * A request marshaller that accepts both protobuf messages and
+ * {@link SerializedRequest}s, the latter are streamed to the transport
+ * as they are.
+ *
+ */
+final class RequestMarshaller implements MethodDescriptor.Marshaller<Object> {
+
+    private final MethodDescriptor.Marshaller<Message> protoMarshaller;
+
+    RequestMarshaller(MethodDescriptor.Marshaller<Message> protoMarshaller) {
+        this.protoMarshaller = protoMarshaller;
+    }
+
+    @Override
+    public InputStream stream(final Object value) {
+        if (value instanceof SerializedRequest) {
+            return new SerializedStream((SerializedRequest) value);
+        }
+        return this.protoMarshaller.stream((Message) value);
+    }
+
+    @Override
+    public Object parse(final InputStream stream) {
+        return this.protoMarshaller.parse(stream);
+    }
+
+    /**
+     * gRPC drains the stream into its own buffers and then closes it, the
+     * serialized request is released on close.
+     *
+     * The released array goes back to the pool of the encoder, so the
+     * request must be streamed only once: the channels are built with the
+     * transparent retries and hedging of gRPC disabled, which would ask for
+     * another stream of the same request.
+     */
+    static final class SerializedStream extends InputStream implements Drainable, KnownLength {
+
+        private final SerializedRequest req;
+        private final int               size;
+        private int                     pos;
+        private boolean                 released;
+
+        SerializedStream(SerializedRequest req) {
+            this.req = req;
+            this.size = req.size();
+        }
+
+        @Override
+        public int drainTo(final OutputStream target) throws IOException {
+            final int len = this.size - this.pos;
+            if (len > 0) {
+                target.write(this.req.array(), this.pos, len);
+                this.pos = this.size;
+            }
+            return len;
+        }
+
+        @Override
+        public int read() {
+            if (this.pos >= this.size) {
+                return -1;
+            }
+            return this.req.array()[this.pos++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (this.pos >= this.size) {
+                return -1;
+            }
+            final int n = Math.min(len, this.size - this.pos);
+            System.arraycopy(this.req.array(), this.pos, b, off, n);
+            this.pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.size - this.pos;
+        }
+
+        @Override
+        public void close() {
+            if (!this.released) {
+                this.released = true;
+                this.req.release();
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 
 import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.rpc.SerializedRequest;
 import com.codahale.metrics.Counter;
 import com.google.protobuf.MessageLite;
 
@@ -59,8 +60,15 @@ public class MetricInterceptor implements ClientInterceptor {
 
             @Override
             public void sendMessage(final ReqT msg) {
+                final int size;
                 if (msg instanceof MessageLite) {
-                    final int size = ((MessageLite) msg).getSerializedSize();
+                    size = ((MessageLite) msg).getSerializedSize();
+                } else if (msg instanceof SerializedRequest) {
+                    size = ((SerializedRequest) msg).size();
+                } else {
+                    size = -1;
+                }
+                if (size >= 0) {
                     MetricsUtil.histogram(REQ_TYPE, SERIALIZED_BYTES, methodName).update(size);
                     REQ_BYTES.inc(size);
                 }
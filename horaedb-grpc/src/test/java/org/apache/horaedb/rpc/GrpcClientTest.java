@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.rpc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.rpc.errors.AbortedException;
+import org.apache.horaedb.rpc.errors.InvokeTimeoutException;
+import org.apache.horaedb.rpc.errors.ResourceExhaustedException;
+import org.apache.horaedb.rpc.errors.UnavailableException;
+
+import io.grpc.Status;
+
+public class GrpcClientTest {
+
+    @Test
+    public void toRemotingErrTest() {
+        final Throwable unavailable = Status.UNAVAILABLE.withDescription("io exception").asRuntimeException();
+        final Throwable mapped = GrpcClient.toRemotingErr(unavailable);
+        Assert.assertTrue(mapped instanceof UnavailableException);
+        Assert.assertSame(unavailable, mapped.getCause());
+
+        Assert.assertTrue(GrpcClient.toRemotingErr(Status.DEADLINE_EXCEEDED.asException()) //
+        instanceof InvokeTimeoutException);
+        Assert.assertTrue(GrpcClient.toRemotingErr(Status.RESOURCE_EXHAUSTED.asRuntimeException()) //
+        instanceof ResourceExhaustedException);
+        Assert.assertTrue(GrpcClient.toRemotingErr(Status.ABORTED.asRuntimeException()) instanceof AbortedException);
+
+        // the other errors are passed on as they are
+        final Throwable invalid = Status.INVALID_ARGUMENT.withDescription("bad").asRuntimeException();
+        Assert.assertSame(invalid, GrpcClient.toRemotingErr(invalid));
+        final Throwable other = new IllegalStateException("test");
+        Assert.assertSame(other, GrpcClient.toRemotingErr(other));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.horaedb.common.util.Clock;
+import org.apache.horaedb.common.util.Spines;
+
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.util.StreamWriteBuf;
+
+/**
+ * The buffer of the stream writers, flushes automatically once it holds
+ * {@code streamAutoFlushPoints} points or its first point is older than
+ * {@code streamAutoFlushMaxAgeMs}, the age is checked on each write.
+ *
+ * Like other {@link StreamWriteBuf}s, it is not thread-safe.
+ *
+ */
+abstract class AbstractStreamWriteBuf implements StreamWriteBuf<Point, WriteOk> {
+
+    private static final CompletableFuture<Void> FLUSHED = CompletableFuture.completedFuture(null);
+
+    private final int         autoFlushPoints;
+    private final long        autoFlushMaxAgeMs;
+    private final List<Point> buf = Spines.newBuf();
+    private long              firstWriteTick;
+
+    AbstractStreamWriteBuf(WriteOptions opts) {
+        this.autoFlushPoints = opts.getStreamAutoFlushPoints();
+        this.autoFlushMaxAgeMs = opts.getStreamAutoFlushMaxAgeMs();
+    }
+
+    /**
+     * Sends the points over the stream(s).
+     *
+     * @param points the points to send
+     * @return a future completed once the points are handed to the transport
+     */
+    protected abstract CompletableFuture<Void> send(final List<Point> points);
+
+    /**
+     * Completes the stream(s), the buffer has been flushed already.
+     *
+     * @return the streaming-wrote future result
+     */
+    protected abstract CompletableFuture<WriteOk> complete();
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> write(final Point val) {
+        markFirstWrite();
+        this.buf.add(val);
+        autoFlush();
+        return this;
+    }
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> write(final Collection<Point> c) {
+        markFirstWrite();
+        this.buf.addAll(c);
+        autoFlush();
+        return this;
+    }
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> flush() {
+        flushAsync();
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Void> flushAsync() {
+        if (this.buf.isEmpty()) {
+            return FLUSHED;
+        }
+        final List<Point> points = new ArrayList<>(this.buf);
+        this.buf.clear();
+        return send(points);
+    }
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> writeAndFlush(final Collection<Point> c) {
+        flush(); // flush the previous write
+        if (!c.isEmpty()) {
+            send(new ArrayList<>(c));
+        }
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<WriteOk> completed() {
+        flush();
+        return complete();
+    }
+
+    private void markFirstWrite() {
+        if (this.buf.isEmpty()) {
+            this.firstWriteTick = Clock.defaultClock().getTick();
+        }
+    }
+
+    private void autoFlush() {
+        if (this.autoFlushPoints > 0 && this.buf.size() >= this.autoFlushPoints) {
+            flush();
+        } else if (this.autoFlushMaxAgeMs > 0
+                   && Clock.defaultClock().duration(this.firstWriteTick) >= this.autoFlushMaxAgeMs) {
+            flush();
+        }
+    }
+}
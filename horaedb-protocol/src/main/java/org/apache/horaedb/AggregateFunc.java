@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+/**
+ * How the {@link AggregatingWriter} aggregates the values of a field within
+ * a window. The numeric functions keep the data type of the field, the non
+ * numeric fields (string, boolean, varbinary) always keep the last value.
+ *
+ */
+public enum AggregateFunc {
+
+    /**
+     * The sum of the values
+     */
+    SUM,
+
+    /**
+     * The value of the point with the greatest timestamp
+     */
+    LAST,
+
+    /**
+     * The minimum value
+     */
+    MIN,
+
+    /**
+     * The maximum value
+     */
+    MAX,
+
+    /**
+     * The number of the non-null values, the field must be of type Int64
+     */
+    COUNT
+}
@@ -0,0 +1,678 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.horaedb.common.Display;
+import org.apache.horaedb.common.Lifecycle;
+import org.apache.horaedb.common.util.Clock;
+import org.apache.horaedb.common.util.Cpus;
+import org.apache.horaedb.common.util.ExecutorServiceHelper;
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.NamedThreadFactory;
+import org.apache.horaedb.common.util.Requires;
+import org.apache.horaedb.common.util.SharedScheduledPool;
+import org.apache.horaedb.common.util.Strings;
+import org.apache.horaedb.common.util.ThreadPoolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.models.WriteRequest;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.StreamWriteBuf;
+import org.apache.horaedb.util.Utils;
+import org.apache.horaedb.util.WriteResultAggregator;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+
+/**
+ * Pre-aggregates (downsamples) high-frequency points on the client side
+ * before they are written by the underlying {@link Write}.
+ * <p>
+ * The points of each series (database, table and tags) are folded into
+ * tumbling windows of {@code aggregationWindowMs}, aligned to the epoch, the
+ * fields are aggregated by the {@link AggregateFunc} configured for their
+ * names. A timer emits one point per series per closed window, with the start
+ * of the window as its timestamp, the points are written by an emit pool of
+ * the writer. The series are kept in a sharded open addressing table keyed
+ * by a 64-bit hash, series receiving no point in a window are evicted when
+ * it closes.
+ * <p>
+ * The memory is bounded by {@code aggregationMaxSeries}: once reached, the
+ * points of new series are written through without aggregation, so are the
+ * late points of the already emitted windows. The future of an aggregated
+ * write completes once its points are accepted, the failures of the emitted
+ * writes are logged and counted.
+ * <p>
+ * Only {@link #write(WriteRequest, Context)} and
+ * {@link #writeAsyncNoResult(WriteRequest, Context)} aggregate, the batch
+ * and stream writes are delegated as is.
+ *
+ */
+public class AggregatingWriter implements Write, Lifecycle<WriteOptions>, Display {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregatingWriter.class);
+
+    private static final SharedScheduledPool TIMER_POOL = Utils.getSharedScheduledPool("aggregating_write_timer", 1);
+
+    static final String EMIT_POOL_NAME = "aggregating_write_emit";
+
+    private final Write         write;
+    private final AtomicBoolean started     = new AtomicBoolean(false);
+    private final AtomicInteger seriesCount = new AtomicInteger();
+
+    private WriteOptions               opts;
+    private long                       windowMs;
+    private int                        maxSeries;
+    private AggregateFunc              defaultFunc;
+    private Map<String, AggregateFunc> funcs;
+    private Shard[]                    shards;
+    private ScheduledExecutorService   timer;
+    private ScheduledFuture<?>         emitTask;
+    private ExecutorService            emitPool;
+
+    static final class InnerMetrics {
+        static final Meter   INPUT_POINTS       = MetricsUtil.meter("aggregating_write_input_points");
+        static final Meter   OUTPUT_POINTS      = MetricsUtil.meter("aggregating_write_output_points");
+        static final Meter   PASSTHROUGH_POINTS = MetricsUtil.meter("aggregating_write_passthrough_points");
+        static final Meter   EMIT_FAILED        = MetricsUtil.meter("aggregating_write_emit_failed");
+        static final Counter SERIES             = MetricsUtil.counter("aggregating_write_series");
+
+        static Meter inputPoints() {
+            return INPUT_POINTS;
+        }
+
+        static Meter outputPoints() {
+            return OUTPUT_POINTS;
+        }
+
+        static Meter passthroughPoints() {
+            return PASSTHROUGH_POINTS;
+        }
+
+        static Meter emitFailed() {
+            return EMIT_FAILED;
+        }
+
+        static Counter series() {
+            return SERIES;
+        }
+    }
+
+    public AggregatingWriter(Write write) {
+        this.write = Requires.requireNonNull(write, "AggregatingWriter.write");
+    }
+
+    @Override
+    public boolean init(final WriteOptions opts) {
+        if (!this.started.compareAndSet(false, true)) {
+            throw new IllegalStateException("AggregatingWriter has started");
+        }
+        this.opts = Requires.requireNonNull(opts, "AggregatingWriter.opts").copy();
+        this.windowMs = this.opts.getAggregationWindowMs();
+        this.maxSeries = this.opts.getAggregationMaxSeries();
+        this.defaultFunc = Requires.requireNonNull(this.opts.getAggregationDefaultFunc(),
+                "WriteOptions.aggregationDefaultFunc");
+        this.funcs = this.opts.getAggregationFuncs() == null ? Collections.emptyMap() : this.opts.getAggregationFuncs();
+        Requires.requireTrue(this.windowMs > 0, "Invalid aggregationWindowMs: %d", this.windowMs);
+        Requires.requireTrue(this.maxSeries > 0, "Invalid aggregationMaxSeries: %d", this.maxSeries);
+
+        this.shards = new Shard[Integer.highestOneBit(Math.max(1, Cpus.cpus() - 1)) << 1];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard();
+        }
+        // The timer is shared by all the writers, it only collects the closed windows: the emitted points are
+        // written, possibly blocking on the limiter, by the emit pool of the writer
+        this.emitPool = ThreadPoolUtil.newBuilder() //
+                .poolName(EMIT_POOL_NAME) //
+                .enableMetric(true) //
+                .coreThreads(Cpus.cpus()) //
+                .maximumThreads(Cpus.cpus()) //
+                .keepAliveSeconds(60L) //
+                .workQueue(new LinkedBlockingQueue<>()) //
+                .threadFactory(new NamedThreadFactory(EMIT_POOL_NAME, true)) //
+                // a tick racing with the shutdown writes its points itself rather than dropping them
+                .rejectedHandler(new ThreadPoolExecutor.CallerRunsPolicy()) //
+                .build();
+        this.timer = TIMER_POOL.getObject();
+        this.emitTask = this.timer.scheduleAtFixedRate(
+                () -> collect(false)
+                        .forEach((database, points) -> this.emitPool.execute(() -> writeEmitted(database, points))),
+                this.windowMs, this.windowMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    @Override
+    public void shutdownGracefully() {
+        if (!this.started.compareAndSet(true, false)) {
+            return;
+        }
+        this.emitTask.cancel(false);
+        TIMER_POOL.returnObject(this.timer);
+        this.timer = null;
+        ExecutorServiceHelper.shutdownAndAwaitTermination(this.emitPool);
+        emit(true);
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final WriteRequest req, final Context ctx) {
+        final String database = databaseOf(req);
+        final List<Point> points = req.getPoints();
+        final List<Point> passthrough = aggregate(database, points);
+
+        final int aggregated = points.size() - (passthrough == null ? 0 : passthrough.size());
+        final CompletableFuture<Result<WriteOk, Err>> accepted = Utils
+                .completedCf(WriteOk.ok(aggregated, 0, tablesOf(points)).mapToResult());
+        if (passthrough == null) {
+            return accepted;
+        }
+        final CompletableFuture<Result<WriteOk, Err>> written = this.write
+                .write(new WriteRequest(newReqCtx(database), passthrough), ctx);
+        if (aggregated == 0) {
+            return written;
+        }
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>(2);
+        fs.add(accepted);
+        fs.add(written);
+        return WriteResultAggregator.combineAll(fs);
+    }
+
+    @Override
+    public void writeAsyncNoResult(final WriteRequest req, final Context ctx) {
+        final String database = databaseOf(req);
+        final List<Point> passthrough = aggregate(database, req.getPoints());
+        if (passthrough != null) {
+            // the points written through are reported like any write without result
+            this.write.writeAsyncNoResult(new WriteRequest(newReqCtx(database), passthrough), ctx);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final PointBatch batch,
+                                                         final Context ctx) {
+        return this.write.write(reqCtx, batch, ctx);
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final Iterator<Point> points,
+                                                         final Context ctx) {
+        // each batch is aggregated like a write request
+        return PipelinedWrite.write(this, reqCtx, points, ctx, this.opts.getMaxWriteSize(),
+                this.opts.getPipelineMaxInFlight());
+    }
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> streamWrite(final RequestContext reqCtx, final String table,
+                                                      final Context ctx) {
+        return this.write.streamWrite(reqCtx, table, ctx);
+    }
+
+    @Override
+    public StreamWriteBuf<Point, WriteOk> multiStreamWrite(final RequestContext reqCtx, final Context ctx) {
+        return this.write.multiStreamWrite(reqCtx, ctx);
+    }
+
+    /**
+     * Emits the aggregated points of the closed windows now, or of all the
+     * windows if {@code all} is true, they are written on the calling thread.
+     *
+     * @param all emits the open windows as well
+     */
+    public void emit(final boolean all) {
+        collect(all).forEach(this::writeEmitted);
+    }
+
+    private Map<String, List<Point>> collect(final boolean all) {
+        final long now = Clock.defaultClock().getTick();
+        final Map<String, List<Point>> out = new HashMap<>();
+        for (final Shard shard : this.shards) {
+            shard.emit(all ? Long.MAX_VALUE : now, this.windowMs, out);
+        }
+        return out;
+    }
+
+    private void writeEmitted(final String database, final List<Point> points) {
+        InnerMetrics.outputPoints().mark(points.size());
+        try {
+            this.write.write(new WriteRequest(newReqCtx(database), points), Context.newDefault()) //
+                    .whenComplete((r, t) -> {
+                        if (t != null || !r.isOk()) {
+                            InnerMetrics.emitFailed().mark();
+                            LOG.warn("Fail to write {} aggregated points: {}.", points.size(),
+                                    t != null ? t : r.getErr());
+                        }
+                    });
+        } catch (final Throwable t) {
+            InnerMetrics.emitFailed().mark();
+            LOG.warn("Fail to write {} aggregated points.", points.size(), t);
+        }
+    }
+
+    /**
+     * The number of series being aggregated.
+     *
+     * @return the number of series
+     */
+    public int seriesCount() {
+        return this.seriesCount.get();
+    }
+
+    private String databaseOf(final WriteRequest req) {
+        Requires.requireTrue(this.started.get(), "AggregatingWriter is not started");
+        Requires.requireNonNull(req.getPoints(), "Null.data");
+
+        final RequestContext reqCtx = req.getReqCtx();
+        final String database = reqCtx == null || Strings.isNullOrEmpty(reqCtx.getDatabase()) ?
+                this.opts.getDatabase() :
+                reqCtx.getDatabase();
+        Requires.requireTrue(Strings.isNotBlank(database), "No database selected");
+        return database;
+    }
+
+    private static RequestContext newReqCtx(final String database) {
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase(database);
+        return reqCtx;
+    }
+
+    /**
+     * Aggregates the points.
+     *
+     * @return the points to write through, null if all of them are aggregated
+     */
+    private List<Point> aggregate(final String database, final List<Point> points) {
+        InnerMetrics.inputPoints().mark(points.size());
+        List<Point> passthrough = null;
+        for (final Point point : points) {
+            if (!aggregate(database, point)) {
+                if (passthrough == null) {
+                    passthrough = new ArrayList<>();
+                }
+                passthrough.add(point);
+            }
+        }
+        if (passthrough != null) {
+            InnerMetrics.passthroughPoints().mark(passthrough.size());
+        }
+        return passthrough;
+    }
+
+    private boolean aggregate(final String database, final Point point) {
+        final long hash = seriesHash(database, point);
+        final Shard shard = this.shards[(int) (hash ^ (hash >>> 32)) & (this.shards.length - 1)];
+        final long windowStart = point.getTimestamp() - Math.floorMod(point.getTimestamp(), this.windowMs);
+        synchronized (shard) {
+            Series series = shard.get(hash);
+            if (series == null) {
+                if (windowStart <= shard.watermark) {
+                    // a late point of a window emitted by an evicted series, or by the other series of the
+                    // shard, creating the series would emit the window again
+                    return false;
+                }
+                if (this.seriesCount.incrementAndGet() > this.maxSeries) {
+                    this.seriesCount.decrementAndGet();
+                    return false;
+                }
+                InnerMetrics.series().inc();
+                series = new Series(database, point.getTable(), point.getTags(), windowStart);
+                shard.put(hash, series);
+            } else if (!series.isSameSeries(database, point)) {
+                // 64-bit hash collision, rare enough to write it through
+                return false;
+            }
+
+            if (windowStart <= series.emittedUpTo) {
+                // a late point of an emitted window, aggregating it again would overwrite the emitted point
+                return false;
+            }
+            if (windowStart != series.windowStart) {
+                if (windowStart < series.windowStart) {
+                    // a late point of a window already replaced by a newer one
+                    return false;
+                }
+                if (series.pointCount > 0) {
+                    // a newer window starts, closes the current one before the timer does
+                    shard.closed(series);
+                }
+                series.windowStart = windowStart;
+            }
+            series.add(point, this.funcs, this.defaultFunc);
+            return true;
+        }
+    }
+
+    private static long seriesHash(final String database, final Point point) {
+        long h = mix64(database.hashCode());
+        h = mix64(h * 31 + point.getTable().hashCode());
+        for (final Map.Entry<String, Value> tag : point.getTags().entrySet()) {
+            if (Value.isNull(tag.getValue())) {
+                continue;
+            }
+            h = mix64(h * 31 + tag.getKey().hashCode());
+            h = mix64(h * 31 + tag.getValue().hashCode());
+        }
+        return h;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static Set<String> tablesOf(final List<Point> points) {
+        if (!WriteOk.isCollectWroteDetail()) {
+            return null;
+        }
+        final Set<String> tables = new HashSet<>();
+        points.forEach(p -> tables.add(p.getTable()));
+        return tables;
+    }
+
+    @Override
+    public void display(final Printer out) {
+        out.println("--- AggregatingWriter ---") //
+                .print("started=") //
+                .println(this.started) //
+                .print("windowMs=") //
+                .println(this.windowMs) //
+                .print("maxSeries=") //
+                .println(this.maxSeries) //
+                .print("series=") //
+                .println(this.seriesCount);
+    }
+
+    @Override
+    public String toString() {
+        return "AggregatingWriter{" + //
+               "windowMs=" + windowMs + //
+               ", maxSeries=" + maxSeries + //
+               ", defaultFunc=" + defaultFunc + //
+               ", funcs=" + funcs + //
+               ", series=" + seriesCount + //
+               '}';
+    }
+
+    /**
+     * An open addressing table of series keyed by their 64-bit hashes, guarded
+     * by its own monitor.
+     */
+    final class Shard {
+        private long[]   keys   = new long[16];
+        private Series[] values = new Series[16];
+        private int      size;
+        // the start of the last window emitted or evicted in this shard, the points of new series up to it
+        // are written through
+        private long watermark = Long.MIN_VALUE;
+        // the points of the windows closed by newer points, emitted by the next tick
+        private final Map<String, List<Point>> closed = new HashMap<>();
+
+        Series get(final long key) {
+            final int mask = this.keys.length - 1;
+            for (int i = (int) key & mask;; i = (i + 1) & mask) {
+                final Series s = this.values[i];
+                if (s == null || this.keys[i] == key) {
+                    return s;
+                }
+            }
+        }
+
+        void put(final long key, final Series series) {
+            if ((this.size + 1) << 1 > this.keys.length) {
+                rebuild(this.keys.length << 1);
+            }
+            insert(this.keys, this.values, key, series);
+            this.size++;
+        }
+
+        void closed(final Series series) {
+            this.watermark = Math.max(this.watermark, series.windowStart);
+            this.closed.computeIfAbsent(series.database, k -> new ArrayList<>()).add(series.emit());
+        }
+
+        /**
+         * Emits the windows closed before {@code now}, and evicts the series
+         * that received no point in their last window.
+         */
+        synchronized void emit(final long now, final long windowMs, final Map<String, List<Point>> out) {
+            this.closed.forEach(
+                    (database, points) -> out.computeIfAbsent(database, k -> new ArrayList<>()).addAll(points));
+            this.closed.clear();
+            int evicted = 0;
+            for (int i = 0; i < this.values.length; i++) {
+                final Series s = this.values[i];
+                if (s == null || s.windowStart + windowMs > now) {
+                    continue;
+                }
+                if (s.pointCount == 0) {
+                    this.watermark = Math.max(this.watermark, s.emittedUpTo);
+                    this.values[i] = null;
+                    evicted++;
+                    continue;
+                }
+                this.watermark = Math.max(this.watermark, s.windowStart);
+                out.computeIfAbsent(s.database, k -> new ArrayList<>()).add(s.emit());
+            }
+            if (evicted > 0) {
+                this.size -= evicted;
+                seriesCount.addAndGet(-evicted);
+                InnerMetrics.series().dec(evicted);
+                // removing from a linear probing table breaks the probe chains, rebuild it
+                rebuild(this.keys.length);
+            }
+        }
+
+        private void rebuild(final int capacity) {
+            final long[] newKeys = new long[capacity];
+            final Series[] newValues = new Series[capacity];
+            for (int i = 0; i < this.values.length; i++) {
+                if (this.values[i] != null) {
+                    insert(newKeys, newValues, this.keys[i], this.values[i]);
+                }
+            }
+            this.keys = newKeys;
+            this.values = newValues;
+        }
+
+        private void insert(final long[] keys, final Series[] values, final long key, final Series series) {
+            final int mask = keys.length - 1;
+            int i = (int) key & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = series;
+        }
+    }
+
+    /**
+     * The window of one series being aggregated.
+     */
+    static final class Series {
+        final String                   database;
+        final String                   table;
+        final SortedMap<String, Value> tags;
+        final Map<String, FieldState>  fields = new HashMap<>();
+        long                           windowStart;
+        int                            pointCount;
+        // the start of the last emitted window, its points are written through
+        long emittedUpTo = Long.MIN_VALUE;
+
+        Series(String database, String table, SortedMap<String, Value> tags, long windowStart) {
+            this.database = database;
+            this.table = table;
+            this.tags = tags;
+            this.windowStart = windowStart;
+        }
+
+        boolean isSameSeries(final String database, final Point point) {
+            if (!this.database.equals(database) || !this.table.equals(point.getTable())) {
+                return false;
+            }
+            int n = 0;
+            for (final Map.Entry<String, Value> tag : point.getTags().entrySet()) {
+                if (Value.isNull(tag.getValue())) {
+                    continue;
+                }
+                if (!tag.getValue().equals(this.tags.get(tag.getKey()))) {
+                    return false;
+                }
+                n++;
+            }
+            for (final Value v : this.tags.values()) {
+                if (!Value.isNull(v)) {
+                    n--;
+                }
+            }
+            return n == 0;
+        }
+
+        void add(final Point point, final Map<String, AggregateFunc> funcs, final AggregateFunc defaultFunc) {
+            this.pointCount++;
+            point.getFields().forEach((name, value) -> {
+                if (Value.isNull(value)) {
+                    return;
+                }
+                FieldState state = this.fields.get(name);
+                if (state == null) {
+                    state = new FieldState(funcs.getOrDefault(name, defaultFunc));
+                    this.fields.put(name, state);
+                }
+                state.add(point.getTimestamp(), value);
+            });
+        }
+
+        Point emit() {
+            final Point.PointBuilder builder = Point.newPointBuilder(this.table).setTimestamp(this.windowStart);
+            this.tags.forEach((k, v) -> {
+                if (!Value.isNull(v)) {
+                    builder.addTag(k, v);
+                }
+            });
+            this.fields.forEach((name, state) -> {
+                if (state.count > 0) {
+                    builder.addField(name, state.emit());
+                }
+            });
+            this.pointCount = 0;
+            this.emittedUpTo = this.windowStart;
+            return builder.build();
+        }
+    }
+
+    /**
+     * The aggregation state of one field within a window, integers are folded
+     * in a {@code long}, floats in a {@code double}, and the other types only
+     * keep the last value.
+     */
+    static final class FieldState {
+        final AggregateFunc func;
+        Value.DataType      type;
+        long                count;
+        long                longAcc;
+        double              doubleAcc;
+        Value               last;
+        long                lastTs;
+
+        FieldState(AggregateFunc func) {
+            this.func = func;
+        }
+
+        void add(final long ts, final Value value) {
+            if (this.count == 0 || value.getDataType() != this.type) {
+                // the first value of the window, or the type changed, starts over
+                this.type = value.getDataType();
+                this.count = 0;
+                this.longAcc = this.func == AggregateFunc.SUM ? 0 : toLong(value);
+                this.doubleAcc = this.func == AggregateFunc.SUM ? 0 : toDouble(value);
+                this.last = value;
+                this.lastTs = ts;
+            }
+            this.count++;
+            if (ts >= this.lastTs) {
+                this.last = value;
+                this.lastTs = ts;
+            }
+            switch (this.func) {
+                case SUM:
+                    this.longAcc += toLong(value);
+                    this.doubleAcc += toDouble(value);
+                    break;
+                case MIN:
+                    this.longAcc = Math.min(this.longAcc, toLong(value));
+                    this.doubleAcc = Math.min(this.doubleAcc, toDouble(value));
+                    break;
+                case MAX:
+                    this.longAcc = Math.max(this.longAcc, toLong(value));
+                    this.doubleAcc = Math.max(this.doubleAcc, toDouble(value));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Value emit() {
+            final Value v;
+            if (this.func == AggregateFunc.COUNT) {
+                v = Value.withInt64(this.count);
+            } else if (this.func == AggregateFunc.LAST || !isNumeric(this.type)) {
+                v = this.last;
+            } else if (this.type == Value.DataType.Double) {
+                v = Value.withDouble(this.doubleAcc);
+            } else if (this.type == Value.DataType.Float) {
+                v = Value.withFloat((float) this.doubleAcc);
+            } else if (this.type.getJavaType() == Integer.class) {
+                v = new Value(this.type, (int) this.longAcc);
+            } else {
+                v = new Value(this.type, this.longAcc);
+            }
+            this.count = 0;
+            this.last = null;
+            return v;
+        }
+
+        private static boolean isNumeric(final Value.DataType type) {
+            final Class<?> javaType = type.getJavaType();
+            return javaType == Long.class || javaType == Integer.class || javaType == Double.class
+                   || javaType == Float.class;
+        }
+
+        private static long toLong(final Value value) {
+            final Object o = value.getObject();
+            return o instanceof Number ? ((Number) o).longValue() : 0;
+        }
+
+        private static double toDouble(final Value value) {
+            final Object o = value.getObject();
+            return o instanceof Number ? ((Number) o).doubleValue() : 0;
+        }
+    }
+}
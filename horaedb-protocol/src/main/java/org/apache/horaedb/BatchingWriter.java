@@ -0,0 +1,469 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.horaedb.common.Display;
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.common.Lifecycle;
+import org.apache.horaedb.common.util.Cpus;
+import org.apache.horaedb.common.util.ExecutorServiceHelper;
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.NamedThreadFactory;
+import org.apache.horaedb.common.util.Requires;
+import org.apache.horaedb.common.util.SharedScheduledPool;
+import org.apache.horaedb.common.util.Strings;
+import org.apache.horaedb.common.util.ThreadPoolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.models.WriteRequest;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.Utils;
+import org.apache.horaedb.util.WriteResultAggregator;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+
+/**
+ * Batches the points of many small writes, from any number of threads,
+ * into larger write requests, like the record accumulator of a kafka
+ * producer.
+ * <p>
+ * Points are routed first and then accumulated per (database, endpoint) in
+ * lock-free queues. A queue is flushed through the underlying {@link Write}
+ * when it reaches {@code maxWriteSize} points or {@code batchingMaxBytes}
+ * estimated bytes, or when its oldest points have waited for
+ * {@code batchingLingerMs}, by a flush pool of the writer so that the
+ * shared linger timer never waits for the limiter. Every caller gets its
+ * own future, which completes when the batches holding its points are
+ * acknowledged.
+ *
+ */
+public class BatchingWriter implements Lifecycle<WriteOptions>, Display {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingWriter.class);
+
+    private static final SharedScheduledPool LINGER_POOL = Utils.getSharedScheduledPool("batching_write_linger", 1);
+
+    static final String FLUSH_POOL_NAME = "batching_write_flush";
+
+    private final Write                 write;
+    private final Map<Key, Accumulator> accumulators = new ConcurrentHashMap<>();
+    private final AtomicBoolean         started      = new AtomicBoolean(false);
+    // the batches being written, awaited on shutdown
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+    private WriteOptions             opts;
+    private RouterClient             routerClient;
+    private ScheduledExecutorService lingerTimer;
+    private ExecutorService          flushPool;
+
+    static final class InnerMetrics {
+        static final Histogram POINTS_PER_BATCH  = MetricsUtil.histogram("batching_write_points_per_batch");
+        static final Histogram CALLERS_PER_BATCH = MetricsUtil.histogram("batching_write_callers_per_batch");
+        static final Meter     FLUSH_BY_SIZE     = MetricsUtil.meter("batching_write_flush_by_size");
+        static final Meter     FLUSH_BY_LINGER   = MetricsUtil.meter("batching_write_flush_by_linger");
+
+        static Histogram pointsPerBatch() {
+            return POINTS_PER_BATCH;
+        }
+
+        static Histogram callersPerBatch() {
+            return CALLERS_PER_BATCH;
+        }
+
+        static Meter flushBySize() {
+            return FLUSH_BY_SIZE;
+        }
+
+        static Meter flushByLinger() {
+            return FLUSH_BY_LINGER;
+        }
+    }
+
+    public BatchingWriter(Write write) {
+        this.write = Requires.requireNonNull(write, "BatchingWriter.write");
+    }
+
+    @Override
+    public boolean init(final WriteOptions opts) {
+        if (!this.started.compareAndSet(false, true)) {
+            throw new IllegalStateException("BatchingWriter has started");
+        }
+        this.opts = Requires.requireNonNull(opts, "BatchingWriter.opts").copy();
+        this.routerClient = Requires.requireNonNull(this.opts.getRoutedClient(), "BatchingWriter.routerClient");
+        Requires.requireTrue(this.opts.getBatchingLingerMs() >= 0, "Invalid batchingLingerMs: %d",
+                this.opts.getBatchingLingerMs());
+        Requires.requireTrue(this.opts.getBatchingMaxBytes() > 0, "Invalid batchingMaxBytes: %d",
+                this.opts.getBatchingMaxBytes());
+        this.lingerTimer = LINGER_POOL.getObject();
+        // The linger timer is shared by all the writers, it only ticks: the batches are written, i.e., encoded
+        // and limited, possibly blocking on the limiter, by the flush pool of the writer
+        this.flushPool = ThreadPoolUtil.newBuilder() //
+                .poolName(FLUSH_POOL_NAME) //
+                .enableMetric(true) //
+                .coreThreads(Cpus.cpus()) //
+                .maximumThreads(Cpus.cpus()) //
+                .keepAliveSeconds(60L) //
+                .workQueue(new LinkedBlockingQueue<>()) //
+                .threadFactory(new NamedThreadFactory(FLUSH_POOL_NAME, true)) //
+                // after shutdown, the pending points are flushed by the shutdown itself
+                .rejectedHandler(new ThreadPoolExecutor.DiscardPolicy()) //
+                .build();
+        return true;
+    }
+
+    @Override
+    public void shutdownGracefully() {
+        if (!this.started.compareAndSet(true, false)) {
+            return;
+        }
+        ExecutorServiceHelper.shutdownAndAwaitTermination(this.flushPool);
+        flush();
+        // waits for every batch in flight, before the write client and its router are shut down
+        CompletableFuture.allOf(this.inFlight.toArray(new CompletableFuture[0])) //
+                .handle((v, t) -> null) //
+                .join();
+        LINGER_POOL.returnObject(this.lingerTimer);
+        this.lingerTimer = null;
+    }
+
+    /**
+     * @see #write(RequestContext, List)
+     */
+    public CompletableFuture<Result<WriteOk, Err>> write(final List<Point> points) {
+        return write(null, points);
+    }
+
+    /**
+     * Adds the points to the batches of their endpoints.
+     *
+     * @param reqCtx the request context, the database of the client is used if null
+     * @param points the points to write, must not be modified until the future completes
+     * @return the write result of the given points
+     */
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final List<Point> points) {
+        Requires.requireTrue(this.started.get(), "BatchingWriter is not started");
+        Requires.requireNonNull(points, "Null.points");
+
+        final String database = reqCtx == null || Strings.isNullOrEmpty(reqCtx.getDatabase()) ?
+                this.opts.getDatabase() :
+                reqCtx.getDatabase();
+        Requires.requireTrue(Strings.isNotBlank(database), "No database selected");
+
+        if (points.isEmpty()) {
+            return Utils.completedCf(WriteOk.emptyOk().mapToResult());
+        }
+
+        final RequestContext finalReqCtx = new RequestContext();
+        finalReqCtx.setDatabase(database);
+        final Set<String> tables = points.stream().map(Point::getTable).collect(Collectors.toSet());
+
+        return this.routerClient.routeFor(finalReqCtx, tables) //
+                .handle((routes, t) -> {
+                    if (t != null) {
+                        LOG.warn("Fail to route points for batching, write them directly.", t);
+                        return null;
+                    }
+                    return routes;
+                }) //
+                .thenCompose(routes -> {
+                    if (routes == null) {
+                        // Can not route, leave it to the underlying write, which reports the error
+                        return this.write.write(new WriteRequest(finalReqCtx, points), Context.newDefault());
+                    }
+                    return WriteResultAggregator.combineAll(Utils.splitDataByRoute(points, routes).entrySet().stream() //
+                            .map(e -> append(new Key(database, e.getKey()), e.getValue())) //
+                            .collect(Collectors.toList()));
+                });
+    }
+
+    /**
+     * Flushes all pending points now.
+     *
+     * @return a future completed once the flushed batches are written,
+     *         successfully or not
+     */
+    public CompletableFuture<Void> flush() {
+        final List<CompletableFuture<?>> fs = new ArrayList<>();
+        this.accumulators.values().forEach(acc -> {
+            while (!acc.queue.isEmpty()) {
+                final CompletableFuture<?> f = send(acc,
+                        acc.drain(this.opts.getMaxWriteSize(), this.opts.getBatchingMaxBytes()));
+                if (f != null) {
+                    fs.add(f);
+                }
+            }
+        });
+        return CompletableFuture.allOf(fs.toArray(new CompletableFuture[0])).handle((v, t) -> null);
+    }
+
+    /**
+     * The number of points that are waiting to be batched.
+     *
+     * @return the number of pending points
+     */
+    public int pendingPoints() {
+        return this.accumulators.values().stream().mapToInt(acc -> acc.points.get()).sum();
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> append(final Key key, final List<Point> points) {
+        final Accumulator acc = this.accumulators.computeIfAbsent(key, Accumulator::new);
+        final Pending pending = new Pending(points);
+        acc.queue.offer(pending);
+
+        final int pendingPoints = acc.points.addAndGet(points.size());
+        final long pendingBytes = acc.bytes.addAndGet(pending.bytes);
+        if (pendingPoints >= this.opts.getMaxWriteSize() || pendingBytes >= this.opts.getBatchingMaxBytes()) {
+            InnerMetrics.flushBySize().mark();
+            send(acc, acc.drain(this.opts.getMaxWriteSize(), this.opts.getBatchingMaxBytes()));
+        } else if (acc.lingerScheduled.compareAndSet(false, true)) {
+            scheduleLinger(acc);
+        }
+        return pending.future;
+    }
+
+    private void scheduleLinger(final Accumulator acc) {
+        final ScheduledExecutorService timer = this.lingerTimer;
+        if (timer == null) {
+            acc.lingerScheduled.set(false);
+            flush();
+            return;
+        }
+        final ExecutorService flushPool = this.flushPool;
+        timer.schedule(() -> flushPool.execute(() -> {
+            // Must be reset before draining, points appended after this will schedule a new linger
+            acc.lingerScheduled.set(false);
+            if (!acc.queue.isEmpty()) {
+                InnerMetrics.flushByLinger().mark();
+            }
+            while (!acc.queue.isEmpty()) {
+                send(acc, acc.drain(this.opts.getMaxWriteSize(), this.opts.getBatchingMaxBytes()));
+            }
+        }), this.opts.getBatchingLingerMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private CompletableFuture<?> send(final Accumulator acc, final List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return null;
+        }
+
+        final List<Point> data;
+        if (batch.size() == 1) {
+            data = batch.get(0).points;
+        } else {
+            data = new ArrayList<>(batch.stream().mapToInt(p -> p.points.size()).sum());
+            batch.forEach(p -> data.addAll(p.points));
+        }
+
+        InnerMetrics.pointsPerBatch().update(data.size());
+        InnerMetrics.callersPerBatch().update(batch.size());
+
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase(acc.key.database);
+
+        final CompletableFuture<Result<WriteOk, Err>> f;
+        try {
+            f = this.write.write(new WriteRequest(reqCtx, data), Context.newDefault());
+        } catch (final Throwable t) {
+            batch.forEach(p -> p.future.completeExceptionally(t));
+            return null;
+        }
+        // completes once the futures of the callers are completed
+        final CompletableFuture<?> done = f.whenComplete((r, t) -> {
+            if (t != null) {
+                batch.forEach(p -> p.future.completeExceptionally(t));
+            } else if (batch.size() == 1) {
+                batch.get(0).future.complete(r);
+            } else {
+                completeEach(batch, r);
+            }
+        });
+        this.inFlight.add(done);
+        done.whenComplete((r, t) -> this.inFlight.remove(done));
+        return done;
+    }
+
+    /**
+     * Splits the result of a batch into the results of its callers, the failed
+     * points of an {@link Err} are attributed to the callers they came from.
+     */
+    private static void completeEach(final List<Pending> batch, final Result<WriteOk, Err> r) {
+        if (r.isOk()) {
+            if (r.getOk().getFailed() > 0) {
+                // The failed points are unknown, every caller sees the result of the whole batch
+                batch.forEach(p -> p.future.complete(r));
+                return;
+            }
+            batch.forEach(p -> p.future.complete(WriteOk.ok(p.points.size(), 0, tablesOf(p.points)).mapToResult()));
+            return;
+        }
+
+        final Map<Point, Err> failedBy = new IdentityHashMap<>();
+        r.getErr().stream().forEach(err -> {
+            if (err.getFailedWrites() != null) {
+                err.getFailedWrites().forEach(point -> failedBy.put(point, err));
+            }
+        });
+
+        for (final Pending p : batch) {
+            final Map<Err, List<Point>> failed = new IdentityHashMap<>();
+            for (final Point point : p.points) {
+                final Err err = failedBy.get(point);
+                if (err != null) {
+                    failed.computeIfAbsent(err, k -> new ArrayList<>()).add(point);
+                }
+            }
+            if (failed.isEmpty()) {
+                p.future.complete(WriteOk.ok(p.points.size(), 0, tablesOf(p.points)).mapToResult());
+                continue;
+            }
+
+            int failedNum = 0;
+            Err callerErr = null;
+            for (final Map.Entry<Err, List<Point>> e : failed.entrySet()) {
+                final Err src = e.getKey();
+                final Err err = Err.writeErr(src.getCode(), src.getError(), src.getErrTo(), e.getValue());
+                failedNum += e.getValue().size();
+                callerErr = callerErr == null ? err : callerErr.combine(err);
+            }
+            final List<Point> succeeded = p.points.stream().filter(point -> !failedBy.containsKey(point))
+                    .collect(Collectors.toList());
+            p.future.complete(
+                    callerErr.combine(WriteOk.ok(p.points.size() - failedNum, 0, tablesOf(succeeded))).mapToResult());
+        }
+    }
+
+    private static Set<String> tablesOf(final List<Point> points) {
+        if (!WriteOk.isCollectWroteDetail()) {
+            return null;
+        }
+        return points.stream().map(Point::getTable).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    @Override
+    public void display(final Printer out) {
+        out.println("--- BatchingWriter ---") //
+                .print("started=") //
+                .println(this.started) //
+                .print("batchingLingerMs=") //
+                .println(this.opts == null ? null : this.opts.getBatchingLingerMs()) //
+                .print("batchingMaxBytes=") //
+                .println(this.opts == null ? null : this.opts.getBatchingMaxBytes()) //
+                .print("accumulators=") //
+                .println(this.accumulators.size()) //
+                .print("pendingPoints=") //
+                .println(pendingPoints());
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingWriter{" + //
+               "opts=" + opts + //
+               ", accumulators=" + accumulators.size() + //
+               '}';
+    }
+
+    static final class Key {
+        final String   database;
+        final Endpoint endpoint;
+
+        Key(String database, Endpoint endpoint) {
+            this.database = database;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return database.equals(key.database) && Objects.equals(endpoint, key.endpoint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(database, endpoint);
+        }
+    }
+
+    static final class Pending {
+        final List<Point>                             points;
+        final int                                     bytes;
+        final CompletableFuture<Result<WriteOk, Err>> future = new CompletableFuture<>();
+
+        Pending(List<Point> points) {
+            this.points = points;
+            int bytes = 0;
+            for (final Point point : points) {
+                bytes += Utils.estimatedSize(point);
+            }
+            this.bytes = bytes;
+        }
+    }
+
+    static final class Accumulator {
+        final Key                            key;
+        final ConcurrentLinkedQueue<Pending> queue           = new ConcurrentLinkedQueue<>();
+        final AtomicInteger                  points          = new AtomicInteger();
+        final AtomicLong                     bytes           = new AtomicLong();
+        final AtomicBoolean                  lingerScheduled = new AtomicBoolean(false);
+
+        Accumulator(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Takes whole pendings from the queue until the batch reaches the limits,
+         * the last pending may exceed them, the write client splits oversize
+         * requests anyway.
+         */
+        List<Pending> drain(final int maxPoints, final int maxBytes) {
+            final List<Pending> batch = new ArrayList<>();
+            int n = 0;
+            long size = 0;
+            Pending p;
+            while (n < maxPoints && size < maxBytes && (p = this.queue.poll()) != null) {
+                batch.add(p);
+                n += p.points.size();
+                size += p.bytes;
+            }
+            if (!batch.isEmpty()) {
+                this.points.addAndGet(-n);
+                this.bytes.addAndGet(-size);
+            }
+            return batch;
+        }
+    }
+}
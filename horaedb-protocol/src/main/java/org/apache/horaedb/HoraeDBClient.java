@@ -4,6 +4,7 @@
 package org.apache.horaedb;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -24,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
 import org.apache.horaedb.models.RequestContext;
 import org.apache.horaedb.models.SqlQueryOk;
 import org.apache.horaedb.models.SqlQueryRequest;
@@ -66,7 +68,10 @@ public class HoraeDBClient implements Write, Query, Lifecycle<HoraeDBOptions>, D
     private HoraeDBOptions opts;
     private RouterClient   routerClient;
     private WriteClient    writeClient;
-    private QueryClient    queryClient;
+    // created on first use, it takes a linger timer thread
+    private volatile BatchingWriter batchingWriter;
+    private AggregatingWriter       aggregatingWriter;
+    private QueryClient             queryClient;
 
     // Note: We do not close it to free resources, as we view it as shared
     private Executor asyncWritePool;
@@ -99,6 +104,7 @@ public class HoraeDBClient implements Write, Query, Lifecycle<HoraeDBOptions>, D
         this.asyncWritePool = withMetricPool(this.opts.getAsyncWritePool(), "async_write_pool.time");
         this.asyncReadPool = withMetricPool(this.opts.getAsyncReadPool(), "async_read_pool.time");
         this.writeClient = initWriteClient(this.opts, this.routerClient, this.asyncWritePool);
+        this.aggregatingWriter = initAggregatingWriter(this.opts, this.writeClient);
         this.queryClient = initQueryClient(this.opts, this.routerClient, this.asyncReadPool);
 
         INSTANCES.put(this.id, this);
@@ -114,6 +120,17 @@ public class HoraeDBClient implements Write, Query, Lifecycle<HoraeDBOptions>, D
             return;
         }
 
+        if (this.aggregatingWriter != null) {
+            this.aggregatingWriter.shutdownGracefully();
+        }
+
+        synchronized (this) {
+            if (this.batchingWriter != null) {
+                this.batchingWriter.shutdownGracefully();
+                this.batchingWriter = null;
+            }
+        }
+
         if (this.writeClient != null) {
             this.writeClient.shutdownGracefully();
         }
@@ -140,15 +157,51 @@ public class HoraeDBClient implements Write, Query, Lifecycle<HoraeDBOptions>, D
     @Override
     public CompletableFuture<Result<WriteOk, Err>> write(final WriteRequest req, final Context ctx) {
         ensureInitialized();
+        if (this.aggregatingWriter != null) {
+            return this.aggregatingWriter.write(req, attachCtx(ctx));
+        }
         return this.writeClient.write(req, attachCtx(ctx));
     }
 
+    @Override
+    public void writeAsyncNoResult(final WriteRequest req, final Context ctx) {
+        ensureInitialized();
+        if (this.aggregatingWriter != null) {
+            this.aggregatingWriter.writeAsyncNoResult(req, attachCtx(ctx));
+            return;
+        }
+        this.writeClient.writeAsyncNoResult(req, attachCtx(ctx));
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final PointBatch batch,
+                                                         final Context ctx) {
+        ensureInitialized();
+        return this.writeClient.write(reqCtx, batch, attachCtx(ctx));
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final Iterator<Point> points,
+                                                         final Context ctx) {
+        ensureInitialized();
+        final WriteOptions writeOpts = this.opts.getWriteOptions();
+        // each batch goes through write(WriteRequest, Context), aggregated if enabled
+        return PipelinedWrite.write(this, reqCtx, points, attachCtx(ctx), writeOpts.getMaxWriteSize(),
+                writeOpts.getPipelineMaxInFlight());
+    }
+
     @Override
     public StreamWriteBuf<Point, WriteOk> streamWrite(RequestContext reqCtx, final String table, final Context ctx) {
         ensureInitialized();
         return this.writeClient.streamWrite(reqCtx, table, attachCtx(ctx));
     }
 
+    @Override
+    public StreamWriteBuf<Point, WriteOk> multiStreamWrite(final RequestContext reqCtx, final Context ctx) {
+        ensureInitialized();
+        return this.writeClient.multiStreamWrite(reqCtx, attachCtx(ctx));
+    }
+
     @Override
     public CompletableFuture<Result<SqlQueryOk, Err>> sqlQuery(final SqlQueryRequest req, final Context ctx) {
         ensureInitialized();
@@ -177,6 +230,28 @@ public class HoraeDBClient implements Write, Query, Lifecycle<HoraeDBOptions>, D
         return this.routerClient;
     }
 
+    /**
+     * A writer that batches the points of many small writes together, see
+     * {@link BatchingWriter}, created on first use.
+     *
+     * @return the batching writer of this client
+     */
+    public BatchingWriter batchingWriter() {
+        ensureInitialized();
+        BatchingWriter batchingWriter = this.batchingWriter;
+        if (batchingWriter == null) {
+            synchronized (this) {
+                ensureInitialized();
+                batchingWriter = this.batchingWriter;
+                if (batchingWriter == null) {
+                    batchingWriter = initBatchingWriter(this.opts, this.writeClient);
+                    this.batchingWriter = batchingWriter;
+                }
+            }
+        }
+        return batchingWriter;
+    }
+
     @Override
     public void display(final Printer out) {
         out.println("--- HoraeDBClient ---") //
@@ -203,6 +278,17 @@ public class HoraeDBClient implements Write, Query, Lifecycle<HoraeDBOptions>, D
             this.writeClient.display(out);
         }
 
+        final BatchingWriter batchingWriter = this.batchingWriter;
+        if (batchingWriter != null) {
+            out.println("");
+            batchingWriter.display(out);
+        }
+
+        if (this.aggregatingWriter != null) {
+            out.println("");
+            this.aggregatingWriter.display(out);
+        }
+
         if (this.queryClient != null) {
             out.println("");
             this.queryClient.display(out);
@@ -278,6 +364,25 @@ public class HoraeDBClient implements Write, Query, Lifecycle<HoraeDBOptions>, D
         return writeClient;
     }
 
+    private static BatchingWriter initBatchingWriter(final HoraeDBOptions opts, final WriteClient writeClient) {
+        final BatchingWriter batchingWriter = new BatchingWriter(writeClient);
+        if (!batchingWriter.init(opts.getWriteOptions())) {
+            throw new IllegalStateException("Fail to start batching writer");
+        }
+        return batchingWriter;
+    }
+
+    private static AggregatingWriter initAggregatingWriter(final HoraeDBOptions opts, final WriteClient writeClient) {
+        if (opts.getWriteOptions().getAggregationWindowMs() <= 0) {
+            return null;
+        }
+        final AggregatingWriter aggregatingWriter = new AggregatingWriter(writeClient);
+        if (!aggregatingWriter.init(opts.getWriteOptions())) {
+            throw new IllegalStateException("Fail to start aggregating writer");
+        }
+        return aggregatingWriter;
+    }
+
     private static QueryClient initQueryClient(final HoraeDBOptions opts, //
                                                final RouterClient routerClient, //
                                                final Executor asyncPool) {
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.apache.horaedb.common.Endpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.proto.internal.Storage;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.Utils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A stream-write buffer for points of any tables. On each flush the points
+ * are routed and sent over one long-lived stream per endpoint, at most
+ * {@code maxWriteSize} points per request, with the backpressure of
+ * {@link StreamSender}.
+ *
+ * The routes are looked up on the flushing thread, which blocks until the
+ * route of each table is known, i.e., only while a route is not cached by
+ * the router client yet.
+ *
+ * When the route of a table moves to another endpoint and no table routes
+ * to the old endpoint anymore, the old stream is completed. A failed stream
+ * is dropped and the routes of its tables are refreshed, so the next flush
+ * opens a new one. At most {@link #MAX_TRACKED_TABLES} routes are tracked,
+ * the least recently flushed tables are forgotten first.
+ *
+ */
+final class MultiStreamWriteBuf extends AbstractStreamWriteBuf {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiStreamWriteBuf.class);
+
+    // the same as the default size of the route cache
+    static final int MAX_TRACKED_TABLES = 10_000;
+
+    private final WriteClient    writeClient;
+    private final RouterClient   routerClient;
+    private final RequestContext reqCtx;
+    private final Context        ctx;
+    private final WriteOptions   opts;
+
+    private final Map<Endpoint, EndpointStream> streams = new HashMap<>();
+    // in access order, the least recently flushed table first
+    private final Map<String, Endpoint> tableEndpoints = new LinkedHashMap<>(16, 0.75f, true);
+    // the number of the tracked tables routed to each endpoint
+    private final Map<Endpoint, Integer>           endpointTables = new HashMap<>();
+    private final List<CompletableFuture<WriteOk>> retired        = new ArrayList<>();
+
+    MultiStreamWriteBuf(WriteClient writeClient, RouterClient routerClient, RequestContext reqCtx, Context ctx,
+                        WriteOptions opts) {
+        super(opts);
+        this.writeClient = writeClient;
+        this.routerClient = routerClient;
+        this.reqCtx = reqCtx;
+        this.ctx = ctx;
+        this.opts = opts;
+    }
+
+    @Override
+    protected CompletableFuture<WriteOk> complete() {
+        this.streams.values().forEach(stream -> {
+            stream.sender.complete();
+            this.retired.add(stream.respFuture);
+        });
+        this.streams.clear();
+
+        final List<CompletableFuture<WriteOk>> fs = new ArrayList<>(this.retired);
+        return CompletableFuture.allOf(fs.toArray(new CompletableFuture[0])) //
+                .thenApply(v -> fs.stream() //
+                        .map(CompletableFuture::join) //
+                        .reduce(WriteOk.emptyOk(), WriteOk::combine));
+    }
+
+    @Override
+    protected CompletableFuture<Void> send(final List<Point> points) {
+        final Set<String> tables = points.stream().map(Point::getTable).collect(Collectors.toSet());
+        final Map<String, Route> routes = this.routerClient.routeFor(this.reqCtx, tables).join();
+        rebalance(routes);
+
+        final List<CompletableFuture<Void>> fs = new ArrayList<>();
+        for (final Map.Entry<Endpoint, List<Point>> e : Utils.splitDataByRoute(points, routes).entrySet()) {
+            final EndpointStream stream = streamOf(e.getKey());
+            for (final List<Point> part : Lists.partition(e.getValue(), this.opts.getMaxWriteSize())) {
+                fs.add(stream.sender.send(this.writeClient.toWriteRequestObj(this.reqCtx, part.stream())));
+            }
+        }
+        return CompletableFuture.allOf(fs.toArray(new CompletableFuture[0]));
+    }
+
+    private EndpointStream streamOf(final Endpoint endpoint) {
+        final EndpointStream stream = this.streams.get(endpoint);
+        if (stream == null) {
+            final EndpointStream newStream = new EndpointStream(endpoint);
+            this.streams.put(endpoint, newStream);
+            return newStream;
+        }
+        if (stream.respFuture.isCompletedExceptionally()) {
+            this.streams.remove(endpoint);
+            final Set<String> tables = tablesOf(endpoint);
+            this.tableEndpoints.values().removeIf(endpoint::equals);
+            this.endpointTables.remove(endpoint);
+            this.routerClient.clearRouteCacheBy(tables);
+            stream.respFuture.getNow(null); // throw the exception now
+        }
+        return stream;
+    }
+
+    private void rebalance(final Map<String, Route> routes) {
+        final List<Endpoint> moved = new ArrayList<>();
+        routes.forEach((table, route) -> {
+            final Endpoint prev = this.tableEndpoints.put(table, route.getEndpoint());
+            if (!route.getEndpoint().equals(prev)) {
+                this.endpointTables.merge(route.getEndpoint(), 1, Integer::sum);
+                if (prev != null && untrack(prev)) {
+                    moved.add(prev);
+                }
+            }
+        });
+        // forgets the least recently flushed tables, their streams are completed like moved ones
+        final Iterator<Map.Entry<String, Endpoint>> it = this.tableEndpoints.entrySet().iterator();
+        while (this.tableEndpoints.size() > MAX_TRACKED_TABLES && it.hasNext()) {
+            final Endpoint endpoint = it.next().getValue();
+            it.remove();
+            if (untrack(endpoint)) {
+                moved.add(endpoint);
+            }
+        }
+        for (final Endpoint endpoint : moved) {
+            final EndpointStream stream = this.streams.remove(endpoint);
+            if (stream != null) {
+                LOG.info("No table routes to {} anymore, complete its stream.", endpoint);
+                stream.sender.complete();
+                this.retired.add(stream.respFuture);
+            }
+        }
+    }
+
+    /**
+     * Decrements the number of the tables routed to the endpoint.
+     *
+     * @return true if no table routes to the endpoint anymore
+     */
+    private boolean untrack(final Endpoint endpoint) {
+        return this.endpointTables.computeIfPresent(endpoint, (k, n) -> n > 1 ? n - 1 : null) == null;
+    }
+
+    private Set<String> tablesOf(final Endpoint endpoint) {
+        return this.tableEndpoints.entrySet().stream() //
+                .filter(e -> endpoint.equals(e.getValue())) //
+                .map(Map.Entry::getKey) //
+                .collect(Collectors.toSet());
+    }
+
+    private final class EndpointStream {
+        final CompletableFuture<WriteOk>         respFuture = new CompletableFuture<>();
+        final StreamSender<Storage.WriteRequest> sender;
+
+        EndpointStream(Endpoint endpoint) {
+            this.sender = new StreamSender<>(
+                    writeClient.openStreamWrite(endpoint, ctx.copy(), Utils.toUnaryObserver(this.respFuture)),
+                    opts.getStreamFlowControl(), opts.getStreamReadyTimeoutMs(), opts.getStreamMaxPendingRequests());
+            this.respFuture.whenComplete((r, e) -> {
+                if (e != null) {
+                    this.sender.fail(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.Requires;
+
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.models.WriteRequest;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.Utils;
+
+import com.codahale.metrics.Histogram;
+
+/**
+ * Writes the points of an iterator lazily: the points are pulled into
+ * batches of {@code batchSize} and at most {@code maxInFlight} batches are
+ * written at the same time, the next batch is pulled when one completes.
+ * <p>
+ * The results of the batches are folded into one as they complete, so only
+ * the counts of the written points and the failed subsets are retained, the
+ * memory stays bounded by the window whatever the size of the input.
+ *
+ */
+final class PipelinedWrite {
+
+    // the defaults of WriteOptions#maxWriteSize and WriteOptions#pipelineMaxInFlight
+    static final int DEFAULT_BATCH_SIZE    = 512;
+    static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    static final class InnerMetrics {
+        static final Histogram IN_FLIGHT_BATCHES = MetricsUtil.histogram("pipelined_write_in_flight_batches");
+
+        static Histogram inFlightBatches() {
+            return IN_FLIGHT_BATCHES;
+        }
+    }
+
+    private final Write                                   write;
+    private final RequestContext                          reqCtx;
+    private final Iterator<Point>                         points;
+    private final Context                                 ctx;
+    private final int                                     batchSize;
+    private final int                                     maxInFlight;
+    private final CompletableFuture<Result<WriteOk, Err>> future   = new CompletableFuture<>();
+    private final AtomicInteger                           inFlight = new AtomicInteger();
+    // work in progress of drain, so that only one thread pulls the iterator at a time
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean   exhausted;
+    private volatile Throwable error;
+    // guarded by this
+    private Result<WriteOk, Err> result = WriteOk.emptyOk().mapToResult();
+
+    private PipelinedWrite(Write write, RequestContext reqCtx, Iterator<Point> points, Context ctx, int batchSize,
+                           int maxInFlight) {
+        this.write = write;
+        this.reqCtx = reqCtx;
+        this.points = points;
+        this.ctx = ctx == null ? Context.newDefault() : ctx;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Writes the points through {@code write} in batches of
+     * {@code batchSize} points, with at most {@code maxInFlight} batches in
+     * flight.
+     *
+     * @param write       the write to write each batch through
+     * @param reqCtx      the request context of the batches
+     * @param points      the points to write
+     * @param ctx         the invoked context, copied for each batch
+     * @param batchSize   the points per batch
+     * @param maxInFlight the maximum batches in flight
+     * @return the combined result of all the batches, completes exceptionally
+     *         if the iterator or the write throws
+     */
+    static CompletableFuture<Result<WriteOk, Err>> write(final Write write, //
+                                                         final RequestContext reqCtx, //
+                                                         final Iterator<Point> points, //
+                                                         final Context ctx, //
+                                                         final int batchSize, //
+                                                         final int maxInFlight) {
+        Requires.requireNonNull(points, "Null.points");
+        Requires.requireTrue(batchSize > 0, "Invalid batchSize: %d", batchSize);
+        Requires.requireTrue(maxInFlight > 0, "Invalid maxInFlight: %d", maxInFlight);
+
+        final PipelinedWrite pw = new PipelinedWrite(write, reqCtx, points, ctx, batchSize, maxInFlight);
+        pw.drain();
+        return pw.future;
+    }
+
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (!this.exhausted && this.error == null && this.inFlight.get() < this.maxInFlight) {
+                final List<Point> batch;
+                try {
+                    batch = nextBatch();
+                } catch (final Throwable t) {
+                    this.error = t;
+                    break;
+                }
+                if (batch.isEmpty()) {
+                    this.exhausted = true;
+                    break;
+                }
+                InnerMetrics.inFlightBatches().update(this.inFlight.incrementAndGet());
+                writeBatch(batch);
+            }
+            tryComplete();
+        } while (this.wip.decrementAndGet() != 0);
+    }
+
+    private List<Point> nextBatch() {
+        final List<Point> batch = new ArrayList<>(this.batchSize);
+        while (batch.size() < this.batchSize && this.points.hasNext()) {
+            batch.add(this.points.next());
+        }
+        return batch;
+    }
+
+    private void writeBatch(final List<Point> batch) {
+        final CompletableFuture<Result<WriteOk, Err>> f;
+        try {
+            f = this.write.write(new WriteRequest(this.reqCtx, batch), this.ctx.copy());
+        } catch (final Throwable t) {
+            onBatchComplete(null, t);
+            return;
+        }
+        f.whenComplete(this::onBatchComplete);
+    }
+
+    private void onBatchComplete(final Result<WriteOk, Err> r, final Throwable t) {
+        if (t != null) {
+            this.error = t;
+        } else {
+            synchronized (this) {
+                this.result = Utils.combineResult(this.result, r);
+            }
+        }
+        this.inFlight.decrementAndGet();
+        drain();
+    }
+
+    private void tryComplete() {
+        if (this.inFlight.get() != 0 || !(this.exhausted || this.error != null)) {
+            return;
+        }
+        final Throwable t = this.error;
+        if (t != null) {
+            this.future.completeExceptionally(t);
+        } else {
+            synchronized (this) {
+                this.future.complete(this.result);
+            }
+        }
+    }
+}
@@ -3,10 +3,18 @@
  */
 package org.apache.horaedb;
 
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.apache.horaedb.limit.LimitedPolicy;
 import org.apache.horaedb.limit.QueryLimiter;
@@ -18,7 +26,9 @@ import org.apache.horaedb.common.VisibleForTest;
 import org.apache.horaedb.common.parser.SqlParser;
 import org.apache.horaedb.common.parser.SqlParserFactoryProvider;
 import org.apache.horaedb.common.util.*;
+import org.apache.horaedb.common.util.internal.ThrowUtil;
 import org.apache.horaedb.proto.internal.Storage;
+import org.apache.arrow.memory.BufferAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,8 +38,10 @@ import org.apache.horaedb.models.SqlQueryOk;
 import org.apache.horaedb.models.SqlQueryRequest;
 import org.apache.horaedb.models.Result;
 import org.apache.horaedb.options.QueryOptions;
+import org.apache.horaedb.retry.RetryPolicy;
 import org.apache.horaedb.rpc.Context;
 import org.apache.horaedb.rpc.Observer;
+import org.apache.horaedb.util.ArrowAllocators;
 import org.apache.horaedb.util.Utils;
 
 import com.codahale.metrics.Histogram;
@@ -41,17 +53,24 @@ import com.codahale.metrics.Meter;
  */
 public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
 
-    private static final Logger LOG = LoggerFactory.getLogger(QueryClient.class);
+    private static final Logger              LOG        = LoggerFactory.getLogger(QueryClient.class);
+    private static final SharedScheduledPool TIMER_POOL = Utils.getSharedScheduledPool("query_client_timer", 1);
 
-    private QueryOptions opts;
-    private RouterClient routerClient;
-    private Executor     asyncPool;
-    private QueryLimiter queryLimiter;
+    private QueryOptions             opts;
+    private RouterClient             routerClient;
+    private Executor                 asyncPool;
+    private QueryLimiter             queryLimiter;
+    private RetryPolicy              retryPolicy;
+    private ScheduledExecutorService timer;
+    private BufferAllocator          arrowAllocator;
+    private ForkJoinPool             decodePool;
 
     static final class InnerMetrics {
-        static final Histogram READ_ROWS_COUNT = MetricsUtil.histogram("read_rows_count");
-        static final Meter     READ_FAILED     = MetricsUtil.meter("read_failed");
-        static final Meter     READ_QPS        = MetricsUtil.meter("read_qps");
+        static final Histogram READ_ROWS_COUNT        = MetricsUtil.histogram("read_rows_count");
+        static final Meter     READ_FAILED            = MetricsUtil.meter("read_failed");
+        static final Meter     READ_QPS               = MetricsUtil.meter("read_qps");
+        static final Meter     RETRY_BUDGET_EXHAUSTED = MetricsUtil.meter("read_retry_budget_exhausted");
+        static final Meter     PARALLEL_DECODE        = MetricsUtil.meter("read_parallel_decode");
 
         static Histogram readRowsCount() {
             return READ_ROWS_COUNT;
@@ -65,6 +84,14 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
             return READ_QPS;
         }
 
+        static Meter retryBudgetExhausted() {
+            return RETRY_BUDGET_EXHAUSTED;
+        }
+
+        static Meter parallelDecode() {
+            return PARALLEL_DECODE;
+        }
+
         static Meter readByRetries(final int retries) {
             // more than 3 retries are classified as the same metric
             return MetricsUtil.meter("read_by_retries", Math.min(3, retries));
@@ -76,15 +103,43 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
         this.opts = Requires.requireNonNull(opts, "QueryOptions.opts");
         this.routerClient = this.opts.getRouterClient();
         final Executor pool = this.opts.getAsyncPool();
-        this.asyncPool = pool != null ? pool : new SerializingExecutor("query_client");
+        this.asyncPool = pool != null ? pool : new StripedExecutor("query_client");
+        this.retryPolicy = Requires.requireNonNull(this.opts.getRetryPolicy(), "QueryOptions.retryPolicy");
+        this.timer = TIMER_POOL.getObject();
         this.queryLimiter = new DefaultQueryLimiter(this.opts.getMaxInFlightQueryRequests(),
-                this.opts.getLimitedPolicy());
+                this.opts.getLimitedPolicy(), this.opts.isAsyncLimit() ? this.timer : null);
+        this.arrowAllocator = ArrowAllocators.newClientAllocator("query_client", this.opts.getMaxArrowMemory());
+        this.decodePool = this.opts.getDecodeParallelism() > 1 ? newDecodePool(this.opts.getDecodeParallelism()) : null;
         return true;
     }
 
+    private static ForkJoinPool newDecodePool(final int parallelism) {
+        final AtomicInteger idx = new AtomicInteger();
+        return new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("query_decode-" + idx.getAndIncrement());
+            return t;
+        }, null, true);
+    }
+
     @Override
     public void shutdownGracefully() {
-        // NO-OP
+        if (this.decodePool != null) {
+            this.decodePool.shutdown();
+        }
+        if (this.timer != null) {
+            TIMER_POOL.returnObject(this.timer);
+            this.timer = null;
+        }
+        if (this.arrowAllocator != null) {
+            try {
+                this.arrowAllocator.close();
+            } catch (final IllegalStateException e) {
+                LOG.warn("Some columnar results are not closed, {} bytes leaked.",
+                        this.arrowAllocator.getAllocatedMemory(), e);
+            }
+            this.arrowAllocator = null;
+        }
     }
 
     @Override
@@ -142,6 +197,9 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
                                                               final Context ctx, //
                                                               final int retries) {
         InnerMetrics.readByRetries(retries).mark();
+        if (retries == 0) {
+            this.retryPolicy.onRequest();
+        }
 
         return this.routerClient.routeFor(req.getReqCtx(), req.getTables()) //
                 .thenApplyAsync(routes -> routes.values() //
@@ -158,24 +216,34 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
                     final Err err = r.getErr();
                     LOG.warn("Failed to read from {}, err={}.", Utils.DB_NAME, err);
 
+                    final RetryPolicy.Decision decision = this.retryPolicy.classify(err);
+
                     // Should refresh route table
-                    final Set<String> toRefresh = err.stream() //
-                            .filter(Utils::shouldRefreshRouteTable) //
-                            .flatMap(e -> e.getFailedTables().stream()) //
-                            .collect(Collectors.toSet());
+                    final Collection<String> toRefresh = decision == RetryPolicy.Decision.REFRESH_ROUTE ?
+                            err.getFailedTables() :
+                            Collections.emptySet();
                     this.routerClient.clearRouteCacheBy(toRefresh);
 
                     // Should not retry
-                    if (Utils.shouldNotRetry(err)) {
+                    if (decision == RetryPolicy.Decision.FATAL) {
                         return Utils.completedCf(r);
                     }
 
-                    // Async to refresh route info
-                    if (retries > this.opts.getMaxRetries()) {
+                    if (retries + 1 > this.opts.getMaxRetries()) {
                         LOG.error("Retried {} times still failed.", retries);
                         return Utils.completedCf(r);
                     }
+
+                    if (!this.retryPolicy.tryAcquireRetry()) {
+                        LOG.warn("Retry budget exhausted, give up retrying {}.", req);
+                        InnerMetrics.retryBudgetExhausted().mark();
+                        return Utils.completedCf(r);
+                    }
+
+                    // Async to refresh route info, and back off before retrying
                     return this.routerClient.routeFor(req.getReqCtx(), toRefresh)
+                            .thenCombine(Utils.delay(this.timer, this.retryPolicy.backoffMs(retries)),
+                                    (routes, v) -> routes)
                             .thenComposeAsync(routes -> query0(req, ctx, retries + 1), this.asyncPool);
                 }, this.asyncPool);
     }
@@ -217,9 +285,23 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
                 ctx.with("retries", retries) // server can use this in metrics
         );
 
-        return qrf.thenApplyAsync(
-                resp -> Utils.toResult(resp, req.getSql(), endpoint, req.getTables(), new ErrHandler(req)),
-                this.asyncPool);
+        // The decoding of a large result completes on the decode pool, the lane never waits for it
+        return qrf.handleAsync((resp, e) -> {
+            if (e == null) {
+                return Utils.toResultAsync(resp, req.getSql(), endpoint, req.getTables(), new ErrHandler(req),
+                        req.isColumnar(), this.arrowAllocator, decodePoolFor(resp));
+            }
+            // Turns a retryable transport error into an Err, so that it is retried like
+            // an error returned by the server
+            final RetryPolicy.Decision decision = this.retryPolicy.classify(e);
+            if (decision == RetryPolicy.Decision.FATAL) {
+                ThrowUtil.throwException(e);
+            }
+            final int code = decision == RetryPolicy.Decision.REFRESH_ROUTE ? Result.INVALID_ROUTE :
+                    Result.SHOULD_RETRY;
+            return Utils.completedCf(Err.queryErr(code, String.valueOf(e), endpoint, req.getSql(), req.getTables())
+                    .<SqlQueryOk> mapToResult());
+        }, Utils.laneFor(this.asyncPool, endpoint)).thenCompose(Function.identity());
     }
 
     private void streamQueryFrom(final Endpoint endpoint, //
@@ -234,25 +316,101 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
 
         this.routerClient.invokeServerStreaming(endpoint, request, ctx, new Observer<Storage.SqlQueryResponse>() {
 
+            // The responses are decoded concurrently but delivered in order, each one after the previous
+            private CompletableFuture<Void> delivered = Utils.completedCf(null);
+            // With no executor of the observer, the results are delivered on this transport callback thread
+            // rather than on the decode pool: the ready ones on each callback, the rest on the terminal one
+            private final Deque<CompletableFuture<Result<SqlQueryOk, Err>>> pending = new ArrayDeque<>();
+            // Set by the first onError/onCompleted delivered, nothing is delivered after it. Only read and
+            // written by the deliveries, which run one after another.
+            private boolean terminated;
+
             @Override
             public void onNext(final Storage.SqlQueryResponse value) {
-                final Result<SqlQueryOk, Err> ret = Utils.toResult(value, req.getSql(), endpoint, req.getTables(),
-                        new ErrHandler(req));
-                if (ret.isOk()) {
-                    observer.onNext(ret.getOk());
+                final CompletableFuture<Result<SqlQueryOk, Err>> f = Utils.toResultAsync(value, req.getSql(), endpoint,
+                        req.getTables(), new ErrHandler(req), req.isColumnar(), arrowAllocator, decodePoolFor(value));
+                final Executor executor = observer.executor();
+                if (executor == null) {
+                    this.pending.add(f);
+                    deliverPending(false);
+                    return;
+                }
+                final CompletableFuture<Result<SqlQueryOk, Err>> ordered = this.delivered.thenCombine(f,
+                        (v, ret) -> ret);
+                // Delivers on the executor of the observer, unless it is ready right now, i.e., on this thread
+                this.delivered = ordered.isDone() ? ordered.handle(this::deliver) :
+                        ordered.handleAsync(this::deliver, executor);
+            }
+
+            private void deliverPending(final boolean await) {
+                CompletableFuture<Result<SqlQueryOk, Err>> f;
+                while ((f = this.pending.peek()) != null && (await || f.isDone())) {
+                    this.pending.poll();
+                    if (!f.isDone()) {
+                        // waits for the decoding, so that the delivery below runs on this thread
+                        f.handle((ret, e) -> null).join();
+                    }
+                    f.handle(this::deliver);
+                }
+            }
+
+            private Void deliver(final Result<SqlQueryOk, Err> ret, final Throwable e) {
+                if (this.terminated) {
+                    // the stream already failed, a columnar result nobody will see is released here
+                    if (e == null && ret.isOk() && ret.getOk().isColumnar()) {
+                        ret.getOk().getColumns().close();
+                    }
+                    return null;
+                }
+                if (e != null) {
+                    terminate(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                } else if (ret.isOk()) {
+                    try {
+                        observer.onNext(ret.getOk());
+                    } catch (final Throwable t) {
+                        // a failing observer ends the stream, the results after it are released
+                        terminate(t);
+                    }
                 } else {
-                    observer.onError(new StreamException("Failed to do stream query: " + ret.getErr()));
+                    terminate(new StreamException("Failed to do stream query: " + ret.getErr()));
+                }
+                return null;
+            }
+
+            private void terminate(final Throwable err) {
+                if (this.terminated) {
+                    return;
+                }
+                this.terminated = true;
+                try {
+                    if (err != null) {
+                        observer.onError(err);
+                    } else {
+                        observer.onCompleted();
+                    }
+                } catch (final Throwable t) {
+                    LOG.error("Fail to terminate the stream query observer: {}.", observer, t);
                 }
             }
 
             @Override
             public void onError(final Throwable err) {
-                observer.onError(err);
+                if (observer.executor() == null) {
+                    deliverPending(true);
+                    terminate(err);
+                    return;
+                }
+                this.delivered = this.delivered.whenComplete((v, e) -> terminate(err));
             }
 
             @Override
             public void onCompleted() {
-                observer.onCompleted();
+                if (observer.executor() == null) {
+                    deliverPending(true);
+                    terminate(null);
+                    return;
+                }
+                this.delivered = this.delivered.whenComplete((v, e) -> terminate(null));
             }
 
             @Override
@@ -262,13 +420,37 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
         });
     }
 
+    /**
+     * Decodes the record batches of a response on the decode pool if there
+     * are enough of them, or on the current thread otherwise, saving a
+     * thread hop.
+     */
+    private Executor decodePoolFor(final Storage.SqlQueryResponse resp) {
+        final ForkJoinPool pool = this.decodePool;
+        if (pool == null
+            || resp.getArrow().getRecordBatchesCount() < Math.max(2, this.opts.getParallelDecodeMinBatches())) {
+            return null;
+        }
+        InnerMetrics.parallelDecode().mark();
+        return pool;
+    }
+
+    @VisibleForTest
+    BufferAllocator getArrowAllocator() {
+        return this.arrowAllocator;
+    }
+
     @Override
     public void display(final Printer out) {
         out.println("--- QueryClient ---") //
                 .print("maxRetries=") //
                 .println(this.opts.getMaxRetries()) //
                 .print("asyncPool=") //
-                .println(this.asyncPool);
+                .println(this.asyncPool) //
+                .print("arrowAllocatedBytes=") //
+                .println(this.arrowAllocator == null ? 0 : this.arrowAllocator.getAllocatedMemory()) //
+                .print("maxArrowMemory=") //
+                .println(this.opts.getMaxArrowMemory());
     }
 
     @Override
@@ -284,7 +466,11 @@ public class QueryClient implements Query, Lifecycle<QueryOptions>, Display {
     static class DefaultQueryLimiter extends QueryLimiter {
 
         public DefaultQueryLimiter(int maxInFlight, LimitedPolicy policy) {
-            super(maxInFlight, policy, "query_limiter_acquire");
+            this(maxInFlight, policy, null);
+        }
+
+        public DefaultQueryLimiter(int maxInFlight, LimitedPolicy policy, ScheduledExecutorService timer) {
+            super(maxInFlight, policy, "query_limiter_acquire", timer);
         }
 
         @Override
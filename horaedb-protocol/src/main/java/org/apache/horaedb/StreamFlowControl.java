@@ -0,0 +1,28 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+/**
+ * How a stream writer behaves when the stream is not ready, i.e., the
+ * transport is still busy sending the previous requests.
+ *
+ */
+public enum StreamFlowControl {
+
+    /**
+     * The flush blocks until the stream is ready, or fails once the ready timeout elapses
+     */
+    BLOCK,
+
+    /**
+     * The flush fails immediately with a {@link org.apache.horaedb.errors.LimitedException}
+     */
+    FAIL_FAST,
+
+    /**
+     * The flush never blocks, requests are queued and sent once the stream is ready, the future
+     * returned by {@link org.apache.horaedb.util.StreamWriteBuf#flushAsync()} completes when sent
+     */
+    ASYNC
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.horaedb.common.util.Clock;
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.Requires;
+
+import org.apache.horaedb.errors.LimitedException;
+import org.apache.horaedb.errors.StreamException;
+import org.apache.horaedb.rpc.Observer;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+/**
+ * Sends requests over a client stream, applying backpressure as the given
+ * {@link StreamFlowControl} decides when the stream is not ready.
+ *
+ */
+final class StreamSender<T> {
+
+    private static final CompletableFuture<Void> SENT = CompletableFuture.completedFuture(null);
+
+    static final class InnerMetrics {
+        static final Meter   NOT_READY       = MetricsUtil.meter("stream_write_not_ready");
+        static final Timer   READY_WAIT_TIME = MetricsUtil.timer("stream_write_ready_wait_time");
+        static final Counter PENDING         = MetricsUtil.counter("stream_write_pending_requests");
+
+        static Meter notReady() {
+            return NOT_READY;
+        }
+
+        static Timer readyWaitTime() {
+            return READY_WAIT_TIME;
+        }
+
+        static Counter pending() {
+            return PENDING;
+        }
+    }
+
+    private final Observer<T>            rpcObs;
+    private final StreamFlowControl      mode;
+    private final long                   readyTimeoutMs;
+    private final int                    maxPending;
+    private final ArrayDeque<Pending<T>> pending = new ArrayDeque<>();
+
+    private boolean   completing;
+    private Throwable failure;
+
+    StreamSender(Observer<T> rpcObs, StreamFlowControl mode, long readyTimeoutMs, int maxPending) {
+        Requires.requireTrue(maxPending > 0, "Invalid maxPending: %d", maxPending);
+        this.rpcObs = Requires.requireNonNull(rpcObs, "StreamSender.rpcObs");
+        this.mode = Requires.requireNonNull(mode, "StreamSender.mode");
+        this.readyTimeoutMs = readyTimeoutMs;
+        this.maxPending = maxPending;
+        this.rpcObs.setOnReadyHandler(this::onReady);
+    }
+
+    /**
+     * Sends a request, or queues it in {@link StreamFlowControl#ASYNC} mode
+     * if the stream is not ready, at most {@code maxPending} requests are
+     * queued, the following ones fail fast until the queue drains.
+     *
+     * @param req the request to send
+     * @return a future completed once the request is handed to the transport
+     */
+    synchronized CompletableFuture<Void> send(final T req) {
+        if (this.failure != null) {
+            throw new StreamException("Stream failed: " + this.failure.getMessage(), this.failure);
+        }
+        if (this.pending.isEmpty() && this.rpcObs.isReady()) {
+            this.rpcObs.onNext(req);
+            return SENT;
+        }
+
+        InnerMetrics.notReady().mark();
+        switch (this.mode) {
+            case FAIL_FAST:
+                throw new LimitedException("Stream is not ready, the transport is busy.");
+            case ASYNC:
+                if (this.pending.size() >= this.maxPending) {
+                    throw new LimitedException(String.format("Stream is not ready and %d requests are pending already.",
+                            this.pending.size()));
+                }
+                final Pending<T> p = new Pending<>(req);
+                this.pending.addLast(p);
+                InnerMetrics.pending().inc();
+                return p.future;
+            default:
+                awaitReady();
+                this.rpcObs.onNext(req);
+                return SENT;
+        }
+    }
+
+    /**
+     * Completes the stream, after the queued requests are sent.
+     */
+    synchronized void complete() {
+        if (this.pending.isEmpty()) {
+            this.rpcObs.onCompleted();
+        } else {
+            this.completing = true;
+        }
+    }
+
+    /**
+     * Fails the queued requests, called when the stream fails.
+     *
+     * @param err the error of the stream
+     */
+    void fail(final Throwable err) {
+        final List<Pending<T>> failed;
+        synchronized (this) {
+            this.failure = err;
+            failed = new ArrayList<>(this.pending);
+            this.pending.clear();
+            InnerMetrics.pending().dec(failed.size());
+            notifyAll();
+        }
+        failed.forEach(p -> p.future.completeExceptionally(err));
+    }
+
+    private void awaitReady() {
+        final long startCall = Clock.defaultClock().getTick();
+        try {
+            while (this.failure == null && !this.rpcObs.isReady()) {
+                final long remaining = this.readyTimeoutMs - Clock.defaultClock().duration(startCall);
+                if (remaining <= 0) {
+                    throw new StreamException(String.format("Stream is not ready in %d ms.", this.readyTimeoutMs));
+                }
+                wait(remaining);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StreamException("Interrupted while waiting for the stream to be ready.", e);
+        } finally {
+            InnerMetrics.readyWaitTime().update(Clock.defaultClock().duration(startCall), TimeUnit.MILLISECONDS);
+        }
+        if (this.failure != null) {
+            throw new StreamException("Stream failed: " + this.failure.getMessage(), this.failure);
+        }
+    }
+
+    private void onReady() {
+        final List<Pending<T>> sent = new ArrayList<>();
+        synchronized (this) {
+            while (!this.pending.isEmpty() && this.rpcObs.isReady()) {
+                final Pending<T> p = this.pending.pollFirst();
+                InnerMetrics.pending().dec();
+                this.rpcObs.onNext(p.req);
+                sent.add(p);
+            }
+            if (this.completing && this.pending.isEmpty()) {
+                this.completing = false;
+                this.rpcObs.onCompleted();
+            }
+            notifyAll();
+        }
+        sent.forEach(p -> p.future.complete(null));
+    }
+
+    private static final class Pending<T> {
+        final T                       req;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(T req) {
+            this.req = req;
+        }
+    }
+}
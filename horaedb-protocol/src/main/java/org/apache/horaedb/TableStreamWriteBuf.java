@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.horaedb.errors.StreamException;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.proto.internal.Storage;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.Utils;
+
+/**
+ * A stream-write buffer bound to one table, the points are sent over one
+ * stream to the endpoint of the table.
+ *
+ */
+final class TableStreamWriteBuf extends AbstractStreamWriteBuf {
+
+    private final WriteClient                        writeClient;
+    private final String                             table;
+    private final RequestContext                     reqCtx;
+    private final CompletableFuture<WriteOk>         respFuture = new CompletableFuture<>();
+    private final StreamSender<Storage.WriteRequest> sender;
+
+    TableStreamWriteBuf(WriteClient writeClient, Route route, RequestContext reqCtx, Context ctx, WriteOptions opts) {
+        super(opts);
+        this.writeClient = writeClient;
+        this.table = route.getTable();
+        this.reqCtx = reqCtx;
+        this.sender = new StreamSender<>(
+                writeClient.openStreamWrite(route.getEndpoint(), ctx, Utils.toUnaryObserver(this.respFuture)),
+                opts.getStreamFlowControl(), opts.getStreamReadyTimeoutMs(), opts.getStreamMaxPendingRequests());
+        this.respFuture.whenComplete((r, e) -> {
+            if (e != null) {
+                this.sender.fail(e);
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Void> send(final List<Point> points) {
+        if (this.respFuture.isCompletedExceptionally()) {
+            this.respFuture.getNow(null); // throw the exception now
+        }
+        for (final Point point : points) {
+            if (!this.table.equals(point.getTable())) {
+                throw new StreamException(
+                        String.format("Invalid table %s, only can write %s.", point.getTable(), this.table));
+            }
+        }
+        return this.sender.send(this.writeClient.toWriteRequestObj(this.reqCtx, points.stream()));
+    }
+
+    @Override
+    protected CompletableFuture<WriteOk> complete() {
+        this.sender.complete();
+        return this.respFuture;
+    }
+}
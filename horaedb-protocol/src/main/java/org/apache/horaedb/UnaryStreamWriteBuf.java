@@ -0,0 +1,75 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.models.WriteRequest;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.rpc.Context;
+
+/**
+ * A stream-write buffer for points of any tables, without streams: each
+ * flush is written by {@link Write#write(WriteRequest, Context)}, it is the
+ * default of {@link Write#multiStreamWrite(RequestContext, Context)}.
+ *
+ * The failed points are counted as failed in the result.
+ *
+ */
+final class UnaryStreamWriteBuf extends AbstractStreamWriteBuf {
+
+    private final Write                                         write;
+    private final RequestContext                                reqCtx;
+    private final Context                                       ctx;
+    private final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>();
+
+    UnaryStreamWriteBuf(Write write, RequestContext reqCtx, Context ctx) {
+        super(new WriteOptions());
+        this.write = write;
+        this.reqCtx = reqCtx;
+        this.ctx = ctx == null ? Context.newDefault() : ctx;
+    }
+
+    @Override
+    protected CompletableFuture<Void> send(final List<Point> points) {
+        final CompletableFuture<Result<WriteOk, Err>> f = this.write.write(new WriteRequest(this.reqCtx, points),
+                this.ctx.copy());
+        this.fs.add(f);
+        return f.thenApply(r -> null);
+    }
+
+    @Override
+    protected CompletableFuture<WriteOk> complete() {
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>(this.fs);
+        this.fs.clear();
+        return CompletableFuture.allOf(fs.toArray(new CompletableFuture[0])) //
+                .thenApply(v -> fs.stream() //
+                        .map(CompletableFuture::join) //
+                        .map(UnaryStreamWriteBuf::toWriteOk) //
+                        .reduce(WriteOk.emptyOk(), WriteOk::combine));
+    }
+
+    private static WriteOk toWriteOk(final Result<WriteOk, Err> r) {
+        if (r.isOk()) {
+            return r.getOk();
+        }
+        final WriteOk ok = WriteOk.emptyOk();
+        r.getErr().stream().forEach(err -> {
+            if (err.getSubOk() != null) {
+                ok.combine(err.getSubOk());
+            }
+            if (err.getFailedWrites() != null) {
+                ok.setFailed(ok.getFailed() + err.getFailedWrites().size());
+            }
+        });
+        return ok;
+    }
+}
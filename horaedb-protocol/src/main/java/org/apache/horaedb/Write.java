@@ -3,10 +3,13 @@
  */
 package org.apache.horaedb;
 
+import java.util.Iterator;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
 import org.apache.horaedb.models.RequestContext;
 import org.apache.horaedb.models.Result;
 import org.apache.horaedb.models.WriteOk;
@@ -37,6 +40,92 @@ public interface Write {
      */
     CompletableFuture<Result<WriteOk, Err>> write(final WriteRequest req, final Context ctx);
 
+    /**
+     * @see #writeAsyncNoResult(WriteRequest, Context)
+     */
+    default void writeAsyncNoResult(final WriteRequest req) {
+        writeAsyncNoResult(req, Context.newDefault());
+    }
+
+    /**
+     * Write the data to the database without result, for the telemetry that
+     * never inspects it: no future is returned to the caller, the failures,
+     * after the retries, are only recorded in the metrics and reported to the
+     * {@link WriteErrorListener} of the options, if any.
+     *
+     * @param req write request
+     * @param ctx the invoked context
+     */
+    default void writeAsyncNoResult(final WriteRequest req, final Context ctx) {
+        write(req, ctx);
+    }
+
+    /**
+     * @see #write(RequestContext, PointBatch, Context)
+     */
+    default CompletableFuture<Result<WriteOk, Err>> write(final PointBatch batch) {
+        return write(null, batch, Context.newDefault());
+    }
+
+    /**
+     * Write a columnar batch of points to the database, the batch is encoded
+     * directly without materializing {@link Point}s. The batch must not be
+     * modified until the returned future completes.
+     *
+     * <p> The default implementation materializes the points of the batch and
+     * writes them by {@link #write(WriteRequest, Context)}.
+     *
+     * @param reqCtx the request context, the database of the client is used if null
+     * @param batch  the batch to write
+     * @param ctx    the invoked context
+     * @return write result
+     */
+    default CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final PointBatch batch,
+                                                          final Context ctx) {
+        return write(new WriteRequest(reqCtx, batch.toPoints()), ctx);
+    }
+
+    /**
+     * @see #write(RequestContext, Iterator, Context)
+     */
+    default CompletableFuture<Result<WriteOk, Err>> write(final Iterator<Point> points) {
+        return write(null, points, Context.newDefault());
+    }
+
+    /**
+     * Writes the points of the stream lazily, the stream is closed once the
+     * write completes.
+     *
+     * @see #write(RequestContext, Iterator, Context)
+     */
+    default CompletableFuture<Result<WriteOk, Err>> write(final Stream<Point> points) {
+        return write(null, points.iterator(), Context.newDefault()).whenComplete((r, e) -> points.close());
+    }
+
+    /**
+     * Write the points of an iterator to the database without materializing
+     * them all: the points are pulled lazily into batches of
+     * {@code maxWriteSize} points and at most {@code pipelineMaxInFlight}
+     * batches are written at the same time. The results are aggregated as the
+     * batches complete and only the failed points are retained, so the memory
+     * stays bounded whatever the size of the input.
+     *
+     * <p> The default implementation writes each batch by
+     * {@link #write(WriteRequest, Context)}, with the default
+     * {@code maxWriteSize} and {@code pipelineMaxInFlight}.
+     *
+     * @param reqCtx the request context, the database of the client is used if null
+     * @param points the points to write, pulled from the calling thread and
+     *               from the threads completing the batches, one at a time
+     * @param ctx    the invoked context
+     * @return write result, completes exceptionally if the iterator throws
+     */
+    default CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final Iterator<Point> points,
+                                                          final Context ctx) {
+        return PipelinedWrite.write(this, reqCtx, points, ctx, PipelinedWrite.DEFAULT_BATCH_SIZE,
+                PipelinedWrite.DEFAULT_MAX_IN_FLIGHT);
+    }
+
     /**
      * @see #streamWrite(RequestContext, String, Context)
      */
@@ -56,4 +145,29 @@ public interface Write {
      * @return a write request observer for streaming-write
      */
     StreamWriteBuf<Point, WriteOk> streamWrite(RequestContext reqCtx, final String table, final Context ctx);
+
+    /**
+     * @see #multiStreamWrite(RequestContext, Context)
+     */
+    default StreamWriteBuf<Point, WriteOk> multiStreamWrite() {
+        return multiStreamWrite(null, Context.newDefault());
+    }
+
+    /**
+     * Executes stream-write-calls for points of any tables. The points are
+     * routed on each flush and sent over one stream per endpoint, which is
+     * opened on first use and completed once no table routes to it anymore.
+     * A flush blocks the calling thread while the routes of its tables are
+     * looked up, i.e., until they are cached.
+     *
+     * <p> The default implementation has no streams, it writes each flush by
+     * {@link #write(WriteRequest, Context)}.
+     *
+     * @param reqCtx the request context, the database of the client is used if null
+     * @param ctx    the invoked context
+     * @return a write request observer for streaming-write
+     */
+    default StreamWriteBuf<Point, WriteOk> multiStreamWrite(final RequestContext reqCtx, final Context ctx) {
+        return new UnaryStreamWriteBuf(this, reqCtx, ctx);
+    }
 }
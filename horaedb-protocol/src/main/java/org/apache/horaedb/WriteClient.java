@@ -3,9 +3,9 @@
  */
 package org.apache.horaedb;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -13,7 +13,14 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.apache.horaedb.common.Display;
@@ -21,25 +28,37 @@ import org.apache.horaedb.common.Endpoint;
 import org.apache.horaedb.common.Lifecycle;
 import org.apache.horaedb.common.VisibleForTest;
 import org.apache.horaedb.common.util.*;
+import org.apache.horaedb.common.util.internal.ThrowUtil;
 import org.apache.horaedb.proto.internal.Storage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.horaedb.errors.StreamException;
+import org.apache.horaedb.limit.AdaptiveWriteSize;
 import org.apache.horaedb.limit.LimitedPolicy;
 import org.apache.horaedb.limit.WriteLimiter;
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
 import org.apache.horaedb.models.RequestContext;
 import org.apache.horaedb.models.Result;
 import org.apache.horaedb.models.Value;
 import org.apache.horaedb.models.WriteOk;
 import org.apache.horaedb.models.WriteRequest;
 import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.retry.RetryPolicy;
+import org.apache.horaedb.spill.SpillReplayer;
+import org.apache.horaedb.spill.SpillStore;
 import org.apache.horaedb.rpc.Context;
 import org.apache.horaedb.rpc.Observer;
+import org.apache.horaedb.util.NameDict;
 import org.apache.horaedb.util.StreamWriteBuf;
+import org.apache.horaedb.util.TableGroup;
+import org.apache.horaedb.util.TagCache;
+import org.apache.horaedb.util.TimestampSorter;
 import org.apache.horaedb.util.Utils;
+import org.apache.horaedb.util.WriteRequestEncoder;
+import org.apache.horaedb.util.WriteResultAggregator;
 
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
@@ -51,19 +70,33 @@ import com.google.common.collect.Lists;
  */
 public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
 
-    private static final Logger LOG = LoggerFactory.getLogger(WriteClient.class);
-
-    private WriteOptions opts;
-    private RouterClient routerClient;
-    private Executor     asyncPool;
-    private WriteLimiter writeLimiter;
+    private static final Logger              LOG        = LoggerFactory.getLogger(WriteClient.class);
+    private static final SharedScheduledPool TIMER_POOL = Utils.getSharedScheduledPool("write_client_timer", 1);
+
+    private WriteOptions             opts;
+    private RouterClient             routerClient;
+    private Executor                 asyncPool;
+    private WriteLimiter             writeLimiter;
+    private RetryPolicy              retryPolicy;
+    private ScheduledExecutorService timer;
+    private SpillStore               spillStore;
+    private SpillReplayer            spillReplayer;
+    private TagCache                 tagCache;
+    private ForkJoinPool             encodePool;
+    private AdaptiveWriteSize        adaptiveWriteSize;
+    private boolean                  sortedEncoding;
 
     static final class InnerMetrics {
-        static final Histogram WRITE_POINTS_SUCCESS = MetricsUtil.histogram("write_points_success_num");
-        static final Histogram WRITE_POINTS_FAILED  = MetricsUtil.histogram("write_points_failed_num");
-        static final Histogram POINTS_NUM_PER_WRITE = MetricsUtil.histogram("points_num_per_write");
-        static final Meter     WRITE_FAILED         = MetricsUtil.meter("write_failed");
-        static final Meter     WRITE_QPS            = MetricsUtil.meter("write_qps");
+        static final Histogram WRITE_POINTS_SUCCESS   = MetricsUtil.histogram("write_points_success_num");
+        static final Histogram WRITE_POINTS_FAILED    = MetricsUtil.histogram("write_points_failed_num");
+        static final Histogram POINTS_NUM_PER_WRITE   = MetricsUtil.histogram("points_num_per_write");
+        static final Meter     WRITE_FAILED           = MetricsUtil.meter("write_failed");
+        static final Meter     WRITE_QPS              = MetricsUtil.meter("write_qps");
+        static final Meter     RETRY_BUDGET_EXHAUSTED = MetricsUtil.meter("write_retry_budget_exhausted");
+        static final Meter     SPILL_POINTS           = MetricsUtil.meter("spill_points");
+        static final Meter     SPILL_REJECTED         = MetricsUtil.meter("spill_rejected_points");
+        static final Meter     PARALLEL_ENCODE        = MetricsUtil.meter("write_parallel_encode");
+        static final Meter     NO_RESULT_FAILED       = MetricsUtil.meter("write_no_result_failed");
 
         static Histogram writePointsSuccess() {
             return WRITE_POINTS_SUCCESS;
@@ -85,6 +118,26 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
             return WRITE_QPS;
         }
 
+        static Meter retryBudgetExhausted() {
+            return RETRY_BUDGET_EXHAUSTED;
+        }
+
+        static Meter spillPoints() {
+            return SPILL_POINTS;
+        }
+
+        static Meter spillRejected() {
+            return SPILL_REJECTED;
+        }
+
+        static Meter parallelEncode() {
+            return PARALLEL_ENCODE;
+        }
+
+        static Meter noResultFailed() {
+            return NO_RESULT_FAILED;
+        }
+
         static Meter writeByRetries(final int retries) {
             // more than 3 retries are classified as the same metric
             return MetricsUtil.meter("write_by_retries", Math.min(3, retries));
@@ -96,15 +149,65 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         this.opts = Requires.requireNonNull(opts, "WriteClient.opts");
         this.routerClient = this.opts.getRoutedClient();
         final Executor pool = this.opts.getAsyncPool();
-        this.asyncPool = pool != null ? pool : new SerializingExecutor("write_client");
-        this.writeLimiter = new DefaultWriteLimiter(this.opts.getMaxInFlightWritePoints(),
-                this.opts.getLimitedPolicy());
+        this.asyncPool = pool != null ? pool : new StripedExecutor("write_client");
+        this.retryPolicy = Requires.requireNonNull(this.opts.getRetryPolicy(), "WriteOptions.retryPolicy");
+        this.timer = TIMER_POOL.getObject();
+        final ScheduledExecutorService limiterTimer = this.opts.isAsyncLimit() ? this.timer : null;
+        this.writeLimiter = this.opts.getMaxInFlightWriteBytes() > 0 ?
+                new ByteSizeWriteLimiter(this.opts.getMaxInFlightWriteBytes(), this.opts.getLimitedPolicy(),
+                        limiterTimer) :
+                new DefaultWriteLimiter(this.opts.getMaxInFlightWritePoints(), this.opts.getLimitedPolicy(),
+                        limiterTimer);
+        this.tagCache = this.opts.getTagCacheSize() > 0 ? new TagCache(this.opts.getTagCacheSize()) : null;
+        this.sortedEncoding = this.opts.isSortedEncoding();
+        this.adaptiveWriteSize = this.opts.isAdaptiveWriteSize() ?
+                new AdaptiveWriteSize(this.opts.getAdaptiveMinWriteSize(), this.opts.getAdaptiveMaxWriteSize(),
+                        this.opts.getMaxWriteSize(), this.opts.getAdaptiveTargetLatencyMs()) :
+                null;
+        this.encodePool = this.opts.getEncodeParallelism() > 1 ? newEncodePool(this.opts.getEncodeParallelism()) : null;
+        return this.opts.getSpillDir() == null || initSpill();
+    }
+
+    private boolean initSpill() {
+        try {
+            this.spillStore = new SpillStore(this.opts.getSpillDir(), this.opts.getSpillSegmentBytes(),
+                    this.opts.getSpillMaxDiskBytes());
+        } catch (final IOException e) {
+            LOG.error("Fail to open the spill store in {}.", this.opts.getSpillDir(), e);
+            return false;
+        }
+        // Replays through the limiter, so the replay competes fairly with the live writes, but never
+        // waits for the permits: the replay backs off instead of blocking its thread
+        this.spillReplayer = new SpillReplayer(this.spillStore,
+                (reqCtx, points) -> this.writeLimiter.tryAcquireAndDo(points,
+                        () -> write0(reqCtx, points, Context.newDefault(), 0)),
+                this.retryPolicy, this.opts.getSpillReplayPointsPerSecond());
+        this.spillReplayer.start(this.timer);
         return true;
     }
 
+    private static ForkJoinPool newEncodePool(final int parallelism) {
+        final AtomicInteger idx = new AtomicInteger();
+        return new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("write_encode-" + idx.getAndIncrement());
+            return t;
+        }, null, true);
+    }
+
     @Override
     public void shutdownGracefully() {
-        // NO-OP
+        if (this.encodePool != null) {
+            this.encodePool.shutdown();
+        }
+        if (this.spillReplayer != null) {
+            this.spillReplayer.stop();
+            this.spillStore.close();
+        }
+        if (this.timer != null) {
+            TIMER_POOL.returnObject(this.timer);
+            this.timer = null;
+        }
     }
 
     @Override
@@ -115,23 +218,132 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         Requires.requireNonNull(req.getPoints(), "Null.data");
 
         final long startCall = Clock.defaultClock().getTick();
-        return this.writeLimiter.acquireAndDo(req.getPoints(),
-                () -> write0(req.getReqCtx(), req.getPoints(), ctx, 0).whenCompleteAsync((r, e) -> {
-                    InnerMetrics.writeQps().mark();
-                    if (r != null) {
-                        if (Utils.isRwLogging()) {
-                            LOG.info("Write to {}, duration={} ms, result={}.", Utils.DB_NAME,
-                                    Clock.defaultClock().duration(startCall), r);
-                        }
-                        if (r.isOk()) {
-                            final WriteOk ok = r.getOk();
-                            InnerMetrics.writePointsSuccess().update(ok.getSuccess());
-                            InnerMetrics.writePointsFailed().update(ok.getFailed());
-                            return;
-                        }
-                    }
-                    InnerMetrics.writeFailed().mark();
-                }, this.asyncPool));
+        final CompletableFuture<Result<WriteOk, Err>> f = this.writeLimiter.acquireAndDo(req.getPoints(),
+                () -> write0(req.getReqCtx(), req.getPoints(), ctx, 0) //
+                        .whenCompleteAsync(onWriteCompleted(startCall), this.asyncPool));
+        if (this.spillStore == null) {
+            return f;
+        }
+        return Utils.propagateCancel(f.thenApply(r -> spillOnErr(req.getReqCtx(), r)), f);
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final PointBatch batch,
+                                                         final Context ctx) {
+        final RequestContext finalReqCtx = attachRequestCtx(reqCtx);
+
+        Requires.requireTrue(Strings.isNotBlank(finalReqCtx.getDatabase()), "No database selected");
+        Requires.requireNonNull(batch, "Null.batch");
+
+        final long startCall = Clock.defaultClock().getTick();
+        final CompletableFuture<Result<WriteOk, Err>> f = this.writeLimiter.acquireAndDo(
+                this.writeLimiter.calculatePermits(batch), //
+                state -> this.writeLimiter.rejected(batch.toPoints(), state), //
+                () -> writeBatch0(finalReqCtx, batch, ctx, 0) //
+                        .whenCompleteAsync(onWriteCompleted(startCall), this.asyncPool));
+        if (this.spillStore == null) {
+            return f;
+        }
+        return Utils.propagateCancel(f.thenApply(r -> spillOnErr(finalReqCtx, r)), f);
+    }
+
+    @Override
+    public void writeAsyncNoResult(final WriteRequest req, final Context ctx) {
+        req.setReqCtx(attachRequestCtx(req.getReqCtx()));
+
+        Requires.requireTrue(Strings.isNotBlank(req.getReqCtx().getDatabase()), "No database selected");
+        Requires.requireNonNull(req.getPoints(), "Null.data");
+
+        final long startCall = Clock.defaultClock().getTick();
+        final RequestContext reqCtx = req.getReqCtx();
+        // Completes on the thread finishing the write, no hop to the async pool and no future for the caller
+        this.writeLimiter.acquireAndDo(req.getPoints(), () -> write0(reqCtx, req.getPoints(), ctx, 0), (r, e) -> {
+            onWriteCompleted(startCall, r, e);
+            onNoResultCompleted(reqCtx, r == null || this.spillStore == null ? r : spillOnErr(reqCtx, r), e);
+        });
+    }
+
+    /**
+     * Reports the failure of a write without result to the metrics and the
+     * error listener.
+     *
+     * @param reqCtx the request context
+     * @param ret    the result of the write, the points worth it already spilled
+     * @param e      the error of the write
+     */
+    private void onNoResultCompleted(final RequestContext reqCtx, final Result<WriteOk, Err> ret, final Throwable e) {
+        if (e == null && ret.isOk()) {
+            return;
+        }
+        InnerMetrics.noResultFailed().mark();
+        if (e != null) {
+            LOG.error("Fail to write to {} without result.", Utils.DB_NAME, e);
+        }
+        final WriteErrorListener listener = this.opts.getErrorListener();
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onError(reqCtx, e == null ? ret.getErr() : null, e);
+        } catch (final Throwable t) {
+            LOG.error("Fail to notify the write error listener.", t);
+        }
+    }
+
+    /**
+     * Spills the points failed with transient errors, they are taken over by
+     * the spill replayer. The write still fails, the number of the spilled
+     * points is noted in {@link WriteOk#getSpilled()} of the sub ok.
+     */
+    private Result<WriteOk, Err> spillOnErr(final RequestContext reqCtx, final Result<WriteOk, Err> r) {
+        if (r.isOk()) {
+            return r;
+        }
+
+        final Err err = r.getErr();
+        final List<Point> toSpill = err.stream() //
+                .filter(e -> e.getFailedWrites() != null && SpillReplayer.isTransient(this.retryPolicy, e)) //
+                .flatMap(e -> e.getFailedWrites().stream()) //
+                .collect(Collectors.toList());
+        if (toSpill.isEmpty()) {
+            return r;
+        }
+        if (!this.spillStore.append(reqCtx.getDatabase(), toSpill)) {
+            LOG.warn("The spill store is full, {} points are not spilled.", toSpill.size());
+            InnerMetrics.spillRejected().mark(toSpill.size());
+            return r;
+        }
+        InnerMetrics.spillPoints().mark(toSpill.size());
+
+        return err.combine(WriteOk.spilled(toSpill.size())).mapToResult();
+    }
+
+    private BiConsumer<Result<WriteOk, Err>, Throwable> onWriteCompleted(final long startCall) {
+        return (r, e) -> onWriteCompleted(startCall, r, e);
+    }
+
+    private static void onWriteCompleted(final long startCall, final Result<WriteOk, Err> r, final Throwable e) {
+        InnerMetrics.writeQps().mark();
+        if (r != null) {
+            if (Utils.isRwLogging()) {
+                LOG.info("Write to {}, duration={} ms, result={}.", Utils.DB_NAME,
+                        Clock.defaultClock().duration(startCall), r);
+            }
+            if (r.isOk()) {
+                final WriteOk ok = r.getOk();
+                InnerMetrics.writePointsSuccess().update(ok.getSuccess());
+                InnerMetrics.writePointsFailed().update(ok.getFailed());
+                return;
+            }
+        }
+        InnerMetrics.writeFailed().mark();
+    }
+
+    @Override
+    public CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final Iterator<Point> points,
+                                                         final Context ctx) {
+        return PipelinedWrite.write(this, reqCtx, points, ctx, this.opts.getMaxWriteSize(),
+                this.opts.getPipelineMaxInFlight());
     }
 
     @Override
@@ -142,53 +354,19 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         Requires.requireTrue(Strings.isNotBlank(finalReqCtx.getDatabase()), "No database selected");
         Requires.requireTrue(Strings.isNotBlank(table), "Blank.table");
 
-        final CompletableFuture<WriteOk> respFuture = new CompletableFuture<>();
-
         return this.routerClient.routeFor(finalReqCtx, Collections.singleton(table))
                 .thenApply(routes -> routes.values().stream().findFirst().orElseGet(() -> Route.invalid(table)))
-                .thenApply(route -> streamWriteTo(route, finalReqCtx, ctx, Utils.toUnaryObserver(respFuture)))
-                .thenApply(reqObserver -> new StreamWriteBuf<Point, WriteOk>() {
-
-                    private final List<Point> buf = Spines.newBuf();
-
-                    @Override
-                    public StreamWriteBuf<Point, WriteOk> write(final Point val) {
-                        this.buf.add(val);
-                        return this;
-                    }
-
-                    @Override
-                    public StreamWriteBuf<Point, WriteOk> write(final Collection<Point> c) {
-                        this.buf.addAll(c);
-                        return this;
-                    }
+                .thenApply(route -> new TableStreamWriteBuf(this, route, finalReqCtx, ctx, this.opts)) //
+                .join();
+    }
 
-                    @Override
-                    public StreamWriteBuf<Point, WriteOk> flush() {
-                        if (respFuture.isCompletedExceptionally()) {
-                            respFuture.getNow(null); // throw the exception now
-                        }
-                        if (!this.buf.isEmpty()) {
-                            reqObserver.onNext(this.buf.stream());
-                            this.buf.clear();
-                        }
-                        return this;
-                    }
+    @Override
+    public StreamWriteBuf<Point, WriteOk> multiStreamWrite(final RequestContext reqCtx, final Context ctx) {
+        final RequestContext finalReqCtx = attachRequestCtx(reqCtx);
 
-                    @Override
-                    public StreamWriteBuf<Point, WriteOk> writeAndFlush(final Collection<Point> c) {
-                        flush(); // flush the previous write
-                        reqObserver.onNext(c.stream());
-                        return this;
-                    }
+        Requires.requireTrue(Strings.isNotBlank(finalReqCtx.getDatabase()), "No database selected");
 
-                    @Override
-                    public CompletableFuture<WriteOk> completed() {
-                        flush();
-                        reqObserver.onCompleted();
-                        return respFuture;
-                    }
-                }).join();
+        return new MultiStreamWriteBuf(this, this.routerClient, finalReqCtx, ctx, this.opts);
     }
 
     private RequestContext attachRequestCtx(RequestContext reqCtx) {
@@ -205,6 +383,9 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
                                                            final Context ctx, //
                                                            final int retries) {
         InnerMetrics.writeByRetries(retries).mark();
+        if (retries == 0) {
+            this.retryPolicy.onRequest();
+        }
 
         final Set<String> tables = data.stream() //
                 .map(Point::getTable) //
@@ -215,111 +396,250 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
         // 1. Get routes
         return this.routerClient.routeFor(reqCtx, tables)
                 // 2. Split data by route info and write to DB
-                .thenComposeAsync(routes -> Utils.splitDataByRoute(data, routes).entrySet().stream()
-                        // Write to database
-                        .map(e -> writeTo(e.getKey(), reqCtx, e.getValue(), ctx.copy(), retries))
-                        // Reduce and combine write result
-                        .reduce((f1, f2) -> f1.thenCombineAsync(f2, Utils::combineResult, this.asyncPool))
-                        .orElse(Utils.completedCf(WriteOk.emptyOk().mapToResult())), this.asyncPool)
-                // 3. If failed, refresh route info and retry on INVALID_ROUTE
-                .thenComposeAsync(r -> {
-                    if (r.isOk()) {
-                        LOG.debug("Success to write to {}, ok={}.", Utils.DB_NAME, r.getOk());
-                        return Utils.completedCf(r);
-                    }
+                .thenComposeAsync(routes -> {
+                    final Map<Endpoint, List<Point>> splits = Utils.splitDataByRoute(data, routes);
+                    // Encodes the requests of the endpoints in parallel if there are more than one
+                    final boolean parallel = splits.size() > 1;
+                    return WriteResultAggregator.combineAll(splits.entrySet().stream()
+                            // Write to database
+                            .map(e -> writeTo(e.getKey(), reqCtx, e.getValue(), ctx.copy(), retries, parallel))
+                            .collect(Collectors.toList()));
+                }, this.asyncPool)
+                // 3. If failed, refresh route info and retry as the retry policy decides
+                .thenComposeAsync(r -> retryOnErr(reqCtx, r, ctx, retries), this.asyncPool);
+    }
 
-                    final Err err = r.getErr();
-                    LOG.warn("Failed to write to {}, err={}.", Utils.DB_NAME, err);
-
-                    // Should refresh route table
-                    final Set<String> toRefresh = err.stream() //
-                            .filter(Utils::shouldRefreshRouteTable) //
-                            .flatMap(e -> e.getFailedWrites().stream()) //
-                            .map(Point::getTable) //
-                            .collect(Collectors.toSet());
-                    this.routerClient.clearRouteCacheBy(toRefresh);
-
-                    // Should retry
-                    final List<Point> pointsToRetry = err.stream() //
-                            .filter(Utils::shouldRetry) //
-                            .flatMap(e -> e.getFailedWrites().stream()) //
-                            .collect(Collectors.toList());
-                    if (pointsToRetry.isEmpty()) {
-                        return Utils.completedCf(r);
-                    }
+    private CompletableFuture<Result<WriteOk, Err>> retryOnErr(final RequestContext reqCtx, //
+                                                               final Result<WriteOk, Err> r, //
+                                                               final Context ctx, //
+                                                               final int retries) {
+        if (r.isOk()) {
+            LOG.debug("Success to write to {}, ok={}.", Utils.DB_NAME, r.getOk());
+            return Utils.completedCf(r);
+        }
 
-                    if (retries + 1 > this.opts.getMaxRetries()) {
-                        LOG.error("Retried {} times still failed.", retries);
-                        return Utils.completedCf(r);
-                    }
+        final Err err = r.getErr();
+        LOG.warn("Failed to write to {}, err={}.", Utils.DB_NAME, err);
+
+        // Should refresh route table
+        final Set<String> toRefresh = err.stream() //
+                .filter(e -> this.retryPolicy.classify(e) == RetryPolicy.Decision.REFRESH_ROUTE) //
+                .flatMap(e -> e.getFailedWrites().stream()) //
+                .map(Point::getTable) //
+                .collect(Collectors.toSet());
+        this.routerClient.clearRouteCacheBy(toRefresh);
+
+        // Should retry
+        final List<Point> pointsToRetry = err.stream() //
+                .filter(e -> this.retryPolicy.classify(e) != RetryPolicy.Decision.FATAL) //
+                .flatMap(e -> e.getFailedWrites().stream()) //
+                .collect(Collectors.toList());
+        if (pointsToRetry.isEmpty()) {
+            return Utils.completedCf(r);
+        }
 
-                    final CompletableFuture<Result<WriteOk, Err>> rwf = this.routerClient.routeFor(reqCtx, toRefresh)
-                            // Even for some data that does not require a refresh of the routing table,
-                            // we still wait until the routing table is flushed successfully before
-                            // retrying it, in order to give the server a break.
-                            .thenComposeAsync(routes -> write0(reqCtx, pointsToRetry, ctx, retries + 1),
-                                    this.asyncPool);
-
-                    // Should not retry
-                    final Optional<Err> noRetryErr = err.stream() //
-                            .filter(Utils::shouldNotRetry) //
-                            .reduce(Err::combine);
-                    return noRetryErr.isPresent() ?
-                            rwf.thenApplyAsync(ret -> Utils.combineResult(noRetryErr.get().mapToResult(), ret),
-                                    this.asyncPool) :
-                            rwf.thenApplyAsync(ret -> Utils.combineResult(err.getSubOk().mapToResult(), ret),
-                                    this.asyncPool);
-                }, this.asyncPool);
+        if (retries + 1 > this.opts.getMaxRetries()) {
+            LOG.error("Retried {} times still failed.", retries);
+            return Utils.completedCf(r);
+        }
+
+        if (!this.retryPolicy.tryAcquireRetry()) {
+            LOG.warn("Retry budget exhausted, give up retrying {} points.", pointsToRetry.size());
+            InnerMetrics.retryBudgetExhausted().mark();
+            return Utils.completedCf(r);
+        }
+
+        final CompletableFuture<Result<WriteOk, Err>> rwf = this.routerClient.routeFor(reqCtx, toRefresh)
+                // Even for some data that does not require a refresh of the routing table,
+                // we still wait until the routing table is flushed successfully and the
+                // backoff has elapsed before retrying it, in order to give the server a break.
+                .thenCombine(Utils.delay(this.timer, this.retryPolicy.backoffMs(retries)), (routes, v) -> routes)
+                .thenComposeAsync(routes -> write0(reqCtx, pointsToRetry, ctx, retries + 1), this.asyncPool);
+
+        // Should not retry
+        final Optional<Err> noRetryErr = err.stream() //
+                .filter(e -> this.retryPolicy.classify(e) == RetryPolicy.Decision.FATAL) //
+                .reduce(Err::combine);
+        final WriteOk subOk = err.getSubOk() == null ? WriteOk.emptyOk() : err.getSubOk();
+        return noRetryErr.isPresent() ?
+                rwf.thenApplyAsync(ret -> Utils.combineResult(noRetryErr.get().mapToResult(), ret), this.asyncPool) :
+                rwf.thenApplyAsync(ret -> Utils.combineResult(subOk.mapToResult(), ret), this.asyncPool);
     }
 
     private CompletableFuture<Result<WriteOk, Err>> writeTo(final Endpoint endpoint, //
                                                             final RequestContext reqCtx, //
                                                             final List<Point> data, //
                                                             final Context ctx, //
-                                                            final int retries) {
+                                                            final int retries, //
+                                                            final boolean parallel) {
         // The cost is worth it
         final int rowCount = data.size();
-        final int maxWriteSize = this.opts.getMaxWriteSize();
+        final int maxWriteSize = maxWriteSize(endpoint);
         if (rowCount <= maxWriteSize) {
-            return writeTo0(endpoint, reqCtx, data, ctx, retries);
+            return writeTo0(endpoint, reqCtx, data, ctx, retries, parallel);
         }
 
-        final Stream.Builder<CompletableFuture<Result<WriteOk, Err>>> fs = Stream.builder();
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>();
 
         for (List<Point> part : Lists.partition(data, maxWriteSize)) {
-            fs.add(writeTo0(endpoint, reqCtx, part, ctx.copy(), retries));
+            fs.add(writeTo0(endpoint, reqCtx, part, ctx.copy(), retries, true));
         }
 
-        return fs.build() //
-                .reduce((f1, f2) -> f1.thenCombineAsync(f2, Utils::combineResult, this.asyncPool)) //
-                .orElse(Utils.completedCf(WriteOk.emptyOk().mapToResult()));
+        return WriteResultAggregator.combineAll(fs);
     }
 
     private CompletableFuture<Result<WriteOk, Err>> writeTo0(final Endpoint endpoint, //
                                                              final RequestContext reqCtx, //
                                                              final List<Point> data, //
                                                              final Context ctx, //
-                                                             final int retries) {
-        final CompletableFuture<Storage.WriteResponse> wrf = this.routerClient.invoke(endpoint, //
-                toWriteRequestObj(reqCtx, data.stream()), //
-                ctx.with("retries", retries) // server can use this in metrics
-        );
+                                                             final int retries, //
+                                                             final boolean parallel) {
+        // The direct encoded request is released by the transport once it has been sent
+        return encode(() -> this.opts.isDirectEncoding() ?
+                WriteRequestEncoder.encode(reqCtx, data.stream(), this.sortedEncoding) :
+                toWriteRequestObj(reqCtx, data.stream()), parallel) //
+                        .thenCompose(req -> {
+                            final long startCall = Clock.defaultClock().getTick();
+                            return this.routerClient.<Object, Storage.WriteResponse> invoke(endpoint, //
+                                    req, //
+                                    ctx.with("retries", retries) // server can use this in metrics
+                            ).handleAsync((resp, e) -> {
+                                final Result<WriteOk, Err> r = e == null ? Utils.toResult(resp, endpoint, data) :
+                                        onTransportErr(e, endpoint, data);
+                                feedbackWriteSize(endpoint, data.size(), startCall, r);
+                                return r;
+                            }, Utils.laneFor(this.asyncPool, endpoint));
+                        });
+    }
 
-        return wrf.thenApplyAsync(resp -> Utils.toResult(resp, endpoint, data), this.asyncPool);
+    private int maxWriteSize(final Endpoint endpoint) {
+        final AdaptiveWriteSize adaptive = this.adaptiveWriteSize;
+        return adaptive == null ? this.opts.getMaxWriteSize() : adaptive.sizeFor(endpoint);
     }
 
-    private Observer<Stream<Point>> streamWriteTo(final Route route, //
-                                                  final RequestContext reqCtx, //
-                                                  final Context ctx, //
-                                                  final Observer<WriteOk> respObserver) {
-        final Observer<Storage.WriteRequest> rpcObs = this.routerClient.invokeClientStreaming(route.getEndpoint(), //
+    /**
+     * Feeds back the round trip time and the flow control errors of a
+     * request to the adaptive write size, if enabled.
+     */
+    private void feedbackWriteSize(final Endpoint endpoint, final int points, final long startCall,
+                                   final Result<WriteOk, Err> r) {
+        final AdaptiveWriteSize adaptive = this.adaptiveWriteSize;
+        if (adaptive != null) {
+            adaptive.onResult(endpoint, points, Clock.defaultClock().duration(startCall),
+                    !r.isOk() && r.getErr().getCode() == Result.FLOW_CONTROL);
+        }
+    }
+
+    /**
+     * Encodes a request on the encode pool if {@code parallel}, i.e., there
+     * are other requests of the same write to encode, or on the current
+     * thread otherwise, saving a thread hop.
+     */
+    private CompletableFuture<Object> encode(final Supplier<Object> encoder, final boolean parallel) {
+        final ForkJoinPool pool = this.encodePool;
+        if (!parallel || pool == null) {
+            return Utils.completedCf(encoder.get());
+        }
+        InnerMetrics.parallelEncode().mark();
+        return CompletableFuture.supplyAsync(encoder, pool);
+    }
+
+    /**
+     * Turns a retryable transport error into an {@link Err} so that it is
+     * retried like an error returned by the server, others are rethrown.
+     */
+    private Result<WriteOk, Err> onTransportErr(final Throwable err, final Endpoint endpoint, final List<Point> data) {
+        final RetryPolicy.Decision decision = this.retryPolicy.classify(err);
+        if (decision == RetryPolicy.Decision.FATAL) {
+            ThrowUtil.throwException(err);
+        }
+        final int code = decision == RetryPolicy.Decision.REFRESH_ROUTE ? Result.INVALID_ROUTE : Result.SHOULD_RETRY;
+        return Err.writeErr(code, String.valueOf(err), endpoint, data).mapToResult();
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> writeBatch0(final RequestContext reqCtx, //
+                                                                final PointBatch batch, //
+                                                                final Context ctx, //
+                                                                final int retries) {
+        InnerMetrics.writeByRetries(retries).mark();
+        if (retries == 0) {
+            this.retryPolicy.onRequest();
+        }
+
+        if (batch.isEmpty()) {
+            return Utils.completedCf(WriteOk.emptyOk().mapToResult());
+        }
+
+        InnerMetrics.pointsNumPerWrite().update(1);
+
+        final String table = batch.getTable();
+        // 1. Get route, a batch always belongs to one table
+        return this.routerClient.routeFor(reqCtx, Collections.singleton(table))
+                // 2. Write to DB
+                .thenComposeAsync(routes -> {
+                    final Route route = routes.get(table);
+                    Requires.requireNonNull(route, "Null.route for " + table);
+                    return writeBatchTo(route.getEndpoint(), reqCtx, batch, ctx.copy(), retries);
+                }, this.asyncPool)
+                // 3. If failed, refresh route info and retry, the failed rows are retried as points
+                .thenComposeAsync(r -> retryOnErr(reqCtx, r, ctx, retries), this.asyncPool);
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> writeBatchTo(final Endpoint endpoint, //
+                                                                 final RequestContext reqCtx, //
+                                                                 final PointBatch batch, //
+                                                                 final Context ctx, //
+                                                                 final int retries) {
+        final int rowCount = batch.getRowCount();
+        final int maxWriteSize = maxWriteSize(endpoint);
+        if (rowCount <= maxWriteSize) {
+            return writeBatchTo0(endpoint, reqCtx, batch, 0, rowCount, ctx, retries, false);
+        }
+
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>();
+
+        for (int from = 0; from < rowCount; from += maxWriteSize) {
+            final int end = Math.min(rowCount, from + maxWriteSize);
+            fs.add(writeBatchTo0(endpoint, reqCtx, batch, from, end, ctx.copy(), retries, true));
+        }
+
+        return WriteResultAggregator.combineAll(fs);
+    }
+
+    private CompletableFuture<Result<WriteOk, Err>> writeBatchTo0(final Endpoint endpoint, //
+                                                                  final RequestContext reqCtx, //
+                                                                  final PointBatch batch, //
+                                                                  final int from, //
+                                                                  final int end, //
+                                                                  final Context ctx, //
+                                                                  final int retries, //
+                                                                  final boolean parallel) {
+        return encode(() -> toWriteRequestObj(reqCtx, batch, from, end), parallel) //
+                .thenCompose(req -> {
+                    final long startCall = Clock.defaultClock().getTick();
+                    return this.routerClient.<Object, Storage.WriteResponse> invoke(endpoint, //
+                            req, //
+                            ctx.with("retries", retries) // server can use this in metrics
+                    ).handleAsync((resp, e) -> {
+                        final Result<WriteOk, Err> r = e == null ? Utils.toResult(resp, endpoint, batch, from, end) :
+                                onTransportErr(e, endpoint, batch.toPoints(from, end));
+                        feedbackWriteSize(endpoint, end - from, startCall, r);
+                        return r;
+                    }, Utils.laneFor(this.asyncPool, endpoint));
+                });
+    }
+
+    Observer<Storage.WriteRequest> openStreamWrite(final Endpoint endpoint, //
+                                                   final Context ctx, //
+                                                   final Observer<WriteOk> respObserver) {
+        return this.routerClient.invokeClientStreaming(endpoint, //
                 Storage.WriteRequest.getDefaultInstance(), //
                 ctx, //
                 new Observer<Storage.WriteResponse>() {
 
                     @Override
                     public void onNext(final Storage.WriteResponse value) {
-                        final Result<WriteOk, Err> ret = Utils.toResult(value, route.getEndpoint(), null);
+                        final Result<WriteOk, Err> ret = Utils.toResult(value, endpoint, null);
                         if (ret.isOk()) {
                             respObserver.onNext(ret.getOk());
                         } else {
@@ -337,159 +657,203 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
                         respObserver.onCompleted();
                     }
                 });
+    }
 
-        return new Observer<Stream<Point>>() {
-
-            private final String table = route.getTable();
+    @VisibleForTest
+    public Storage.WriteRequest toWriteRequestObj(final RequestContext reqCtx, final Stream<Point> data) {
+        final Storage.WriteRequest.Builder writeRequestBuilder = Storage.WriteRequest.newBuilder();
 
-            @Override
-            public void onNext(final Stream<Point> value) {
-                final Stream<Point> data = value.filter(point -> {
-                    if (this.table.equals(point.getTable())) {
-                        return true;
+        for (final TableGroup group : TableGroup.group(data, this.sortedEncoding)) {
+            final NameDict tagDict = group.getTagDict();
+            final NameDict fieldDict = group.getFieldDict();
+            final Storage.WriteTableRequest.Builder tableBuilder = Storage.WriteTableRequest.newBuilder() //
+                    .setTable(group.getTable()) //
+                    .addAllTagNames(tagDict.toOrdered()) //
+                    .addAllFieldNames(fieldDict.toOrdered());
+
+            for (final TableGroup.Series series : group.getSeries()) {
+                final Storage.WriteSeriesEntry.Builder seBuilder = Storage.WriteSeriesEntry.newBuilder();
+                series.getTags().forEach((tagK, tagV) -> {
+                    if (Value.isNull(tagV)) {
+                        return;
                     }
-                    throw new StreamException(
-                            String.format("Invalid table %s, only can write %s.", point.getTable(), this.table));
+                    seBuilder.addTags(toTagObj(tagDict.indexOf(tagK), tagV));
                 });
-
-                rpcObs.onNext(toWriteRequestObj(reqCtx, data));
+                for (final Point point : series.getPoints()) {
+                    final Storage.FieldGroup.Builder fgBui = Storage.FieldGroup.newBuilder()
+                            .setTimestamp(point.getTimestamp());
+                    point.getFields().forEach((fieldK, fieldV) -> {
+                        if (Value.isNull(fieldV)) {
+                            return;
+                        }
+                        fgBui.addFields(Storage.Field.newBuilder() //
+                                .setNameIndex(fieldDict.indexOf(fieldK)) //
+                                .setValue(Utils.toProtoValue(fieldV)) //
+                                .build());
+                    });
+                    seBuilder.addFieldGroups(fgBui.build());
+                }
+                tableBuilder.addEntries(seBuilder.build());
             }
+            writeRequestBuilder.addTableRequests(tableBuilder.build());
+        }
 
-            @Override
-            public void onError(final Throwable err) {
-                rpcObs.onError(err);
-            }
+        Storage.RequestContext.Builder ctxBuilder = Storage.RequestContext.newBuilder();
+        ctxBuilder.setDatabase(reqCtx.getDatabase());
+        writeRequestBuilder.setContext(ctxBuilder.build());
 
-            @Override
-            public void onCompleted() {
-                rpcObs.onCompleted();
-            }
-        };
+        return writeRequestBuilder.build();
     }
 
-    private static class NameDict {
-        private final Map<String, Integer> nameIndexes = new HashMap<>();
-        private int                        index       = 0;
+    /**
+     * Encodes the rows in [from, end) of the given batch. The tag and field
+     * name indexes are the column indexes of the batch, and the rows are
+     * grouped into series by their tag dictionary codes, so no {@link Point}
+     * or {@link Value} is materialized. If the encoding is sorted, the rows
+     * of a series are added in timestamp order and the series are ordered
+     * by their tags.
+     */
+    @VisibleForTest
+    public Storage.WriteRequest toWriteRequestObj(final RequestContext reqCtx, final PointBatch batch, //
+                                                  final int from, final int end) {
+        final int tagCount = batch.getTagCount();
+        final int fieldCount = batch.getFieldCount();
+
+        final Storage.WriteTableRequest.Builder tableBuilder = Storage.WriteTableRequest.newBuilder() //
+                .setTable(batch.getTable()) //
+                .addAllTagNames(batch.getTemplate().getTagNames()) //
+                .addAllFieldNames(batch.getTemplate().getFieldNames());
+
+        // Open addressing table: series id + 1, 0 means empty
+        final int[] slots = new int[tableSizeFor((end - from) << 1)];
+        final int mask = slots.length - 1;
+        final int[] seriesFirstRows = new int[end - from];
+        final int[] rowSeries = new int[end - from];
+        final List<Storage.WriteSeriesEntry.Builder> series = new ArrayList<>();
+        // Tags are shared by all series with the same value, cached by dictionary code
+        final Storage.Tag[][] tags = new Storage.Tag[tagCount][];
+
+        // 1. Group the rows into series
+        for (int row = from; row < end; row++) {
+            int hash = 1;
+            for (int tag = 0; tag < tagCount; tag++) {
+                hash = 31 * hash + batch.getTagCode(tag, row);
+            }
 
-        public int insert(final String name) {
-            return this.nameIndexes.computeIfAbsent(name, s -> this.index++);
+            for (int i = (hash ^ (hash >>> 16)) & mask;; i = (i + 1) & mask) {
+                final int s = slots[i];
+                if (s == 0) {
+                    final Storage.WriteSeriesEntry.Builder seriesBuilder = Storage.WriteSeriesEntry.newBuilder();
+                    for (int tag = 0; tag < tagCount; tag++) {
+                        final int code = batch.getTagCode(tag, row);
+                        if (code >= 0) {
+                            seriesBuilder.addTags(toTagObj(batch, tags, tag, code));
+                        }
+                    }
+                    rowSeries[row - from] = series.size();
+                    seriesFirstRows[series.size()] = row;
+                    series.add(seriesBuilder);
+                    slots[i] = series.size();
+                    break;
+                }
+                if (isSameSeries(batch, seriesFirstRows[s - 1], row)) {
+                    rowSeries[row - from] = s - 1;
+                    break;
+                }
+            }
         }
 
-        public Iterable<String> toOrdered() {
-            final String[] arr = new String[this.index];
-            this.nameIndexes.forEach((name, i) -> arr[i] = name);
-
-            return () -> new Iterator<String>() {
-
-                private int index = 0;
-
-                @Override
-                public boolean hasNext() {
-                    return this.index < arr.length;
+        // 2. Add the rows to their series, in timestamp order if sorted
+        final int[] order = this.sortedEncoding ? timestampOrder(batch, from, end) : null;
+        for (int i = 0; i < end - from; i++) {
+            final int row = from + (order == null ? i : order[i]);
+            final Storage.FieldGroup.Builder fgBui = Storage.FieldGroup.newBuilder() //
+                    .setTimestamp(batch.getTimestamp(row));
+            for (int field = 0; field < fieldCount; field++) {
+                if (batch.isNull(field, row)) {
+                    continue;
                 }
+                fgBui.addFields(Storage.Field.newBuilder().setNameIndex(field) //
+                        .setValue(Utils.toProtoValue(batch, field, row)) //
+                        .build());
+            }
+            series.get(rowSeries[row - from]).addFieldGroups(fgBui.build());
+        }
 
-                @Override
-                public String next() {
-                    return arr[this.index++];
-                }
-            };
+        // 3. Add the series, ordered by tags if sorted
+        if (this.sortedEncoding) {
+            IntStream.range(0, series.size()) //
+                    .boxed() //
+                    .sorted((s1, s2) -> compareSeries(batch, seriesFirstRows[s1], seriesFirstRows[s2])) //
+                    .forEach(s -> tableBuilder.addEntries(series.get(s).build()));
+        } else {
+            for (final Storage.WriteSeriesEntry.Builder seriesBuilder : series) {
+                tableBuilder.addEntries(seriesBuilder.build());
+            }
         }
+
+        return Storage.WriteRequest.newBuilder() //
+                .setContext(Storage.RequestContext.newBuilder().setDatabase(reqCtx.getDatabase()).build()) //
+                .addTableRequests(tableBuilder.build()) //
+                .build();
     }
 
-    private static class WriteTuple3 {
-        String                                        table;
-        Map<String, Storage.WriteSeriesEntry.Builder> seriesBuilders;
-        NameDict                                      tagDict;
-        NameDict                                      fieldDict;
+    private Storage.Tag toTagObj(final int nameIndex, final Value value) {
+        final TagCache cache = this.tagCache;
+        return cache == null ? TagCache.encode(nameIndex, value) : cache.getTag(nameIndex, value);
+    }
 
-        public WriteTuple3(String table) {
-            this.table = table;
-            this.seriesBuilders = new HashMap<>();
-            this.tagDict = new NameDict();
-            this.fieldDict = new NameDict();
+    private Storage.Tag toTagObj(final PointBatch batch, final Storage.Tag[][] tags, final int tag, final int code) {
+        Storage.Tag[] cached = tags[tag];
+        if (cached == null) {
+            cached = tags[tag] = new Storage.Tag[batch.getTagCardinality(tag)];
         }
-
-        public Map<String, Storage.WriteSeriesEntry.Builder> getSeriesBuilders() {
-            return seriesBuilders;
+        Storage.Tag t = cached[code];
+        if (t == null) {
+            t = cached[code] = toTagObj(tag, Value.withString(batch.decodeTag(tag, code)));
         }
+        return t;
+    }
 
-        public NameDict getTagDict() {
-            return tagDict;
+    private static boolean isSameSeries(final PointBatch batch, final int row1, final int row2) {
+        for (int tag = 0; tag < batch.getTagCount(); tag++) {
+            if (batch.getTagCode(tag, row1) != batch.getTagCode(tag, row2)) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        public NameDict getFieldDict() {
-            return fieldDict;
+    private static int[] timestampOrder(final PointBatch batch, final int from, final int end) {
+        final long[] ts = new long[end - from];
+        for (int row = from; row < end; row++) {
+            ts[row - from] = batch.getTimestamp(row);
         }
+        return TimestampSorter.sortedOrder(ts);
+    }
 
-        public Storage.WriteTableRequest build() {
-            Storage.WriteTableRequest.Builder writeTableRequest = Storage.WriteTableRequest.newBuilder()
-                    .setTable(table);
-
-            seriesBuilders.forEach((key, builder) -> {
-                writeTableRequest.addEntries(builder.build());
-            });
-
-            return writeTableRequest //
-                    .addAllTagNames(this.tagDict.toOrdered()) //
-                    .addAllFieldNames(this.fieldDict.toOrdered()) //
-                    .build();
+    /**
+     * Compares two series by their tag values in the order of the tags of
+     * the batch, the null tags first.
+     */
+    private static int compareSeries(final PointBatch batch, final int row1, final int row2) {
+        for (int tag = 0; tag < batch.getTagCount(); tag++) {
+            final int code1 = batch.getTagCode(tag, row1);
+            final int code2 = batch.getTagCode(tag, row2);
+            if (code1 == code2) {
+                continue;
+            }
+            if (code1 < 0 || code2 < 0) {
+                return code1 < 0 ? -1 : 1;
+            }
+            return batch.decodeTag(tag, code1).compareTo(batch.decodeTag(tag, code2));
         }
+        return 0;
     }
 
-    @VisibleForTest
-    public Storage.WriteRequest toWriteRequestObj(final RequestContext reqCtx, final Stream<Point> data) {
-        final Storage.WriteRequest.Builder writeRequestBuilder = Storage.WriteRequest.newBuilder();
-        final Map<String, WriteTuple3> tuple3s = new HashMap<>();
-
-        data.forEach(point -> {
-            final String table = point.getTable();
-            final WriteTuple3 tp3 = tuple3s.computeIfAbsent(table, WriteTuple3::new);
-
-            final NameDict tagDict = tp3.getTagDict();
-            point.getTags().forEach((tagK, tagV) -> {
-                tagDict.insert(tagK);
-            });
-            StringBuffer seriesKeyBuffer = new StringBuffer();
-            tagDict.toOrdered().forEach((tagK) -> {
-                Value tagV = point.getTags().get(tagK);
-                if (!Value.isNull(tagV)) {
-                    seriesKeyBuffer.append(tagV.getObject().toString());
-                }
-            });
-            Storage.WriteSeriesEntry.Builder seriesEntryBuilder = tp3.getSeriesBuilders()
-                    .computeIfAbsent(seriesKeyBuffer.toString(), seriesKey -> {
-                        final Storage.WriteSeriesEntry.Builder seBuilder = Storage.WriteSeriesEntry.newBuilder();
-                        point.getTags().forEach((tagK, tagV) -> {
-                            if (Value.isNull(tagV)) {
-                                return;
-                            }
-                            final Storage.Tag.Builder tBui = Storage.Tag.newBuilder().setNameIndex(tagDict.insert(tagK))
-                                    .setValue(Utils.toProtoValue(tagV));
-                            seBuilder.addTags(tBui.build());
-                        });
-                        return seBuilder;
-                    });
-
-            final NameDict fieldDict = tp3.getFieldDict();
-            final Storage.FieldGroup.Builder fgBui = Storage.FieldGroup.newBuilder().setTimestamp(point.getTimestamp());
-            point.getFields().forEach((fieldK, fieldV) -> {
-                if (Value.isNull(fieldV)) {
-                    return;
-                }
-                final Storage.Field.Builder fBui = Storage.Field.newBuilder().setNameIndex(fieldDict.insert(fieldK))
-                        .setValue(Utils.toProtoValue(fieldV));
-                fgBui.addFields(fBui.build());
-            });
-            seriesEntryBuilder.addFieldGroups(fgBui.build());
-        });
-
-        Storage.RequestContext.Builder ctxBuilder = Storage.RequestContext.newBuilder();
-        ctxBuilder.setDatabase(reqCtx.getDatabase());
-        writeRequestBuilder.setContext(ctxBuilder.build());
-
-        tuple3s.values().forEach(tp3 -> writeRequestBuilder.addTableRequests(tp3.build()));
-
-        return writeRequestBuilder.build();
+    private static int tableSizeFor(final int n) {
+        final int size = Integer.highestOneBit(Math.max(2, n - 1)) << 1;
+        return size < 0 ? 1 << 30 : size;
     }
 
     @Override
@@ -501,6 +865,9 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
                 .println(this.opts.getMaxWriteSize()) //
                 .print("asyncPool=") //
                 .println(this.asyncPool);
+        if (this.adaptiveWriteSize != null) {
+            this.adaptiveWriteSize.display(out);
+        }
     }
 
     @Override
@@ -516,7 +883,16 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
     static class DefaultWriteLimiter extends WriteLimiter {
 
         public DefaultWriteLimiter(int maxInFlight, LimitedPolicy policy) {
-            super(maxInFlight, policy, "write_limiter_acquire");
+            this(maxInFlight, policy, null);
+        }
+
+        public DefaultWriteLimiter(int maxInFlight, LimitedPolicy policy, ScheduledExecutorService timer) {
+            this(maxInFlight, policy, "write_limiter_acquire", timer);
+        }
+
+        protected DefaultWriteLimiter(int maxInFlight, LimitedPolicy policy, String metricPrefix,
+                                      ScheduledExecutorService timer) {
+            super(maxInFlight, policy, metricPrefix, timer);
         }
 
         @Override
@@ -534,4 +910,46 @@ public class WriteClient implements Write, Lifecycle<WriteOptions>, Display {
             return Result.err(Err.writeErr(Result.FLOW_CONTROL, errMsg, null, in));
         }
     }
+
+    /**
+     * Charges the estimated serialized bytes of the points instead of the
+     * number of points, so that a wide point costs more than a narrow one.
+     */
+    static class ByteSizeWriteLimiter extends DefaultWriteLimiter {
+
+        public ByteSizeWriteLimiter(int maxInFlightBytes, LimitedPolicy policy) {
+            this(maxInFlightBytes, policy, null);
+        }
+
+        public ByteSizeWriteLimiter(int maxInFlightBytes, LimitedPolicy policy, ScheduledExecutorService timer) {
+            super(maxInFlightBytes, policy, "write_bytes_limiter_acquire", timer);
+        }
+
+        @Override
+        public int calculatePermits(final List<Point> in) {
+            if (in == null) {
+                return 0;
+            }
+            long bytes = 0;
+            for (final Point point : in) {
+                bytes += Utils.estimatedSize(point);
+            }
+            return (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int calculatePermits(final PointBatch batch) {
+            return batch == null ? 0 : (int) Math.min(Utils.estimatedSize(batch), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public Result<WriteOk, Err> rejected(final List<Point> in, final RejectedState state) {
+            final String errMsg = String.format(
+                    "Write limited by client, acquireBytes=%d, maxBytes=%d, availableBytes=%d.", //
+                    state.acquirePermits(), //
+                    state.maxPermits(), //
+                    state.availablePermits());
+            return Result.err(Err.writeErr(Result.FLOW_CONTROL, errMsg, null, in));
+        }
+    }
 }
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.RequestContext;
+
+/**
+ * Listens to the failures of the writes without result, see
+ * {@link Write#writeAsyncNoResult}. It is called on the thread completing
+ * the write, so it must not block.
+ *
+ */
+@FunctionalInterface
+public interface WriteErrorListener {
+
+    /**
+     * Called when a write without result failed, after its retries.
+     *
+     * @param reqCtx the request context of the write
+     * @param err    the error with the failed points, null if the write threw
+     * @param cause  the exception thrown by the write, null if it failed with err
+     */
+    void onError(final RequestContext reqCtx, final Err err, final Throwable cause);
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.limit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.horaedb.common.Display;
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.common.util.Clock;
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.Requires;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Picks the number of points per write request of each endpoint with AIMD
+ * (additive increase, multiplicative decrease) feedback, instead of a static
+ * {@code maxWriteSize}.
+ *
+ * <p> A full-sized request acknowledged within {@code targetLatencyMs} grows
+ * the size of its endpoint by a constant step, a flow control error (503)
+ * or a request slower than twice the target halves it, at most once per
+ * target latency, so that the requests in flight with the old size do not
+ * halve it again and again. The size always stays in [min, max].
+ *
+ */
+public class AdaptiveWriteSize implements Display {
+
+    static final class InnerMetrics {
+        static final Meter INCREASE = MetricsUtil.meter("write_adaptive_size_increase");
+        static final Meter DECREASE = MetricsUtil.meter("write_adaptive_size_decrease");
+
+        static Meter increase() {
+            return INCREASE;
+        }
+
+        static Meter decrease() {
+            return DECREASE;
+        }
+
+        static void size(final Endpoint endpoint, final int size) {
+            MetricsUtil.histogram("write_adaptive_size", endpoint).update(size);
+        }
+    }
+
+    private final int                  minSize;
+    private final int                  maxSize;
+    private final int                  initialSize;
+    private final int                  step;
+    private final long                 targetLatencyMs;
+    private final Map<Endpoint, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * @param minSize         the minimum points of a request
+     * @param maxSize         the maximum points of a request
+     * @param initialSize     the points of the first requests of an endpoint
+     * @param targetLatencyMs the latency under which the size may grow
+     */
+    public AdaptiveWriteSize(int minSize, int maxSize, int initialSize, long targetLatencyMs) {
+        Requires.requireTrue(minSize > 0, "Invalid minSize: %d", minSize);
+        Requires.requireTrue(maxSize >= minSize, "Invalid maxSize: %d, minSize: %d", maxSize, minSize);
+        Requires.requireTrue(targetLatencyMs > 0, "Invalid targetLatencyMs: %d", targetLatencyMs);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.initialSize = Math.max(minSize, Math.min(maxSize, initialSize));
+        this.step = Math.max(1, (maxSize - minSize) / 64);
+        this.targetLatencyMs = targetLatencyMs;
+    }
+
+    /**
+     * The current number of points per request of the endpoint.
+     *
+     * @param endpoint the endpoint to write to
+     * @return the size of the requests
+     */
+    public int sizeFor(final Endpoint endpoint) {
+        return this.states.computeIfAbsent(endpoint, ep -> new State(this.initialSize)).size;
+    }
+
+    /**
+     * Feeds back the result of a request.
+     *
+     * @param endpoint      the endpoint written to
+     * @param points        the points of the request
+     * @param latencyMs     the round trip time of the request
+     * @param flowControlled whether the server rejected it for flow control
+     */
+    public void onResult(final Endpoint endpoint, final int points, final long latencyMs,
+                         final boolean flowControlled) {
+        final State state = this.states.computeIfAbsent(endpoint, ep -> new State(this.initialSize));
+        synchronized (state) {
+            final int size = state.size;
+            if (flowControlled || latencyMs > this.targetLatencyMs << 1) {
+                final long now = Clock.defaultClock().getTick();
+                if (now - state.lastDecrease < this.targetLatencyMs || size == this.minSize) {
+                    return;
+                }
+                state.lastDecrease = now;
+                state.size = Math.max(this.minSize, size >>> 1);
+                InnerMetrics.decrease().mark();
+            } else if (latencyMs <= this.targetLatencyMs && points >= size && size < this.maxSize) {
+                // only a full-sized request tells that the size can grow
+                state.size = Math.min(this.maxSize, size + this.step);
+                InnerMetrics.increase().mark();
+            } else {
+                return;
+            }
+            InnerMetrics.size(endpoint, state.size);
+        }
+    }
+
+    @Override
+    public void display(final Printer out) {
+        out.println("--- AdaptiveWriteSize ---") //
+                .print("minSize=") //
+                .println(this.minSize) //
+                .print("maxSize=") //
+                .println(this.maxSize) //
+                .print("targetLatencyMs=") //
+                .println(this.targetLatencyMs);
+        this.states.forEach((endpoint, state) -> out.print("size[") //
+                .print(endpoint) //
+                .print("]=") //
+                .println(state.size));
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveWriteSize{" + //
+               "minSize=" + minSize + //
+               ", maxSize=" + maxSize + //
+               ", targetLatencyMs=" + targetLatencyMs + //
+               ", endpoints=" + states.size() + //
+               '}';
+    }
+
+    static final class State {
+        volatile int size;
+        long         lastDecrease;
+
+        State(int size) {
+            this.size = size;
+        }
+    }
+}
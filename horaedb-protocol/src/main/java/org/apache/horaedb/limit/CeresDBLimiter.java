@@ -4,10 +4,14 @@
 package org.apache.horaedb.limit;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import org.apache.horaedb.util.Utils;
 import com.codahale.metrics.Histogram;
+import org.apache.horaedb.common.AsyncInFlightLimiter;
 import org.apache.horaedb.common.InFlightLimiter;
 import org.apache.horaedb.common.Limiter;
 import org.apache.horaedb.common.util.MetricsUtil;
@@ -21,15 +25,41 @@ import org.apache.horaedb.common.util.MetricsUtil;
  * that the available permits are equal to the maximum number of permits,
  * i.e., there are no in-flight requests.
  *
+ * <p> When it is created with a timer, permits are acquired asynchronously
+ * by an {@link AsyncInFlightLimiter}, the calling thread never blocks and
+ * the action runs once the permits are granted. Cancelling the returned
+ * future before then gives up waiting, the action never runs.
+ *
  */
 public abstract class CeresDBLimiter<In, Out> {
 
-    private final Limiter       limiter;
-    private final LimitedPolicy policy;
-    private final Histogram     acquireAvailablePermits;
+    private final Limiter              limiter;
+    private final AsyncInFlightLimiter asyncLimiter;
+    private final LimitedPolicy        policy;
+    private final Histogram            acquireAvailablePermits;
 
     public CeresDBLimiter(int maxInFlight, LimitedPolicy policy, String metricPrefix) {
-        this.limiter = maxInFlight > 0 ? new InFlightLimiter(maxInFlight, metricPrefix) : null;
+        this(maxInFlight, policy, metricPrefix, null);
+    }
+
+    /**
+     * @param maxInFlight  the maximum permits in-flight, no limit if it is not positive
+     * @param policy       the limited policy
+     * @param metricPrefix the metric prefix
+     * @param timer        the timer for the timeouts of asynchronous acquisitions, the
+     *                     permits are acquired synchronously if it is null
+     */
+    public CeresDBLimiter(int maxInFlight, LimitedPolicy policy, String metricPrefix, ScheduledExecutorService timer) {
+        if (maxInFlight <= 0) {
+            this.limiter = null;
+            this.asyncLimiter = null;
+        } else if (timer == null) {
+            this.limiter = new InFlightLimiter(maxInFlight, metricPrefix);
+            this.asyncLimiter = null;
+        } else {
+            this.asyncLimiter = new AsyncInFlightLimiter(maxInFlight, timer, metricPrefix);
+            this.limiter = this.asyncLimiter;
+        }
         this.policy = policy;
         this.acquireAvailablePermits = MetricsUtil.histogram(metricPrefix, "available_permits");
     }
@@ -38,8 +68,26 @@ public abstract class CeresDBLimiter<In, Out> {
         if (this.limiter == null || this.policy == null) {
             return action.get();
         }
+        return acquireAndDo(calculatePermits(in), state -> rejected(in, state), action);
+    }
+
+    /**
+     * Acquires the given number of permits and then executes the action, it
+     * is used by callers whose input is not an {@code In}, e.g. a columnar
+     * batch.
+     *
+     * @param acquirePermits the number of permits to acquire
+     * @param rejected       builds the result when the permits are rejected
+     * @param action         the action to execute
+     * @return the result of the action, or the rejected result
+     */
+    public CompletableFuture<Out> acquireAndDo(final int acquirePermits, //
+                                               final Function<RejectedState, Out> rejected, //
+                                               final Supplier<CompletableFuture<Out>> action) {
+        if (this.limiter == null || this.policy == null) {
+            return action.get();
+        }
 
-        final int acquirePermits = calculatePermits(in);
         final int maxPermits = this.limiter.maxPermits();
         // If the number of permits requested at one time is greater than the total number of permits,
         // we will allow this request under the condition that the available permits are equal to the
@@ -52,20 +100,144 @@ public abstract class CeresDBLimiter<In, Out> {
 
         this.acquireAvailablePermits.update(this.limiter.availablePermits());
 
+        if (this.asyncLimiter != null) {
+            final CompletableFuture<Boolean> acquire = this.policy.acquireAsync(this.asyncLimiter, permits);
+            final CompletableFuture<Out> result = new CompletableFuture<>();
+            acquire.whenComplete((acquired, err) -> {
+                if (err != null) {
+                    result.completeExceptionally(err);
+                } else if (!acquired) {
+                    result.complete(rejected
+                            .apply(new RejectedState(acquirePermits, maxPermits, this.limiter.availablePermits())));
+                } else if (result.isDone()) {
+                    // the caller has given up while the permits were being granted
+                    release(permits);
+                } else {
+                    doAndRelease(action, permits, (r, e) -> {
+                        if (e != null) {
+                            result.completeExceptionally(e);
+                        } else {
+                            result.complete(r);
+                        }
+                    });
+                }
+            });
+            // cancelling the result gives up waiting for the permits
+            return Utils.propagateCancel(result, acquire);
+        }
+
         if (this.policy.acquire(this.limiter, permits)) {
             return action.get().whenComplete((r, e) -> release(permits));
         }
-        return Utils.completedCf(rejected(in, acquirePermits, maxPermits));
+        return Utils.completedCf(
+                rejected.apply(new RejectedState(acquirePermits, maxPermits, this.limiter.availablePermits())));
     }
 
-    public abstract int calculatePermits(final In in);
+    /**
+     * Acquires the permits and then executes the action like
+     * {@link #acquireAndDo(Object, Supplier)}, but hands the result to the
+     * callback instead of returning a future, so that no future is chained
+     * for the caller: the permits are released and the callback called in one
+     * stage of the action's future, a rejected result is passed to the
+     * callback directly.
+     *
+     * @param in          the input
+     * @param action      the action to execute
+     * @param onCompleted called with the result of the action, or the
+     *                    rejected result
+     */
+    public void acquireAndDo(final In in, final Supplier<CompletableFuture<Out>> action,
+                             final BiConsumer<Out, Throwable> onCompleted) {
+        if (this.limiter == null || this.policy == null) {
+            action.get().whenComplete(onCompleted);
+            return;
+        }
 
-    public abstract Out rejected(final In in, final RejectedState state);
+        final int acquirePermits = calculatePermits(in);
+        final int maxPermits = this.limiter.maxPermits();
+        final int permits = Math.min(acquirePermits, maxPermits);
+
+        if (permits <= 0) { // fast path
+            action.get().whenComplete(onCompleted);
+            return;
+        }
+
+        this.acquireAvailablePermits.update(this.limiter.availablePermits());
+
+        if (this.asyncLimiter != null) {
+            this.policy.acquireAsync(this.asyncLimiter, permits).whenComplete((acquired, err) -> {
+                if (err != null) {
+                    onCompleted.accept(null, err);
+                } else if (acquired) {
+                    doAndRelease(action, permits, onCompleted);
+                } else {
+                    onCompleted.accept(
+                            rejected(in,
+                                    new RejectedState(acquirePermits, maxPermits, this.limiter.availablePermits())),
+                            null);
+                }
+            });
+            return;
+        }
 
-    private Out rejected(final In in, final int acquirePermits, final int maxPermits) {
-        return rejected(in, new RejectedState(acquirePermits, maxPermits, this.limiter.availablePermits()));
+        if (this.policy.acquire(this.limiter, permits)) {
+            doAndRelease(action, permits, onCompleted);
+            return;
+        }
+        onCompleted.accept(rejected(in, new RejectedState(acquirePermits, maxPermits, this.limiter.availablePermits())),
+                null);
     }
 
+    private void doAndRelease(final Supplier<CompletableFuture<Out>> action, final int permits,
+                              final BiConsumer<Out, Throwable> onCompleted) {
+        final CompletableFuture<Out> f;
+        try {
+            f = action.get();
+        } catch (final Throwable t) {
+            release(permits);
+            onCompleted.accept(null, t);
+            return;
+        }
+        f.whenComplete((r, e) -> {
+            release(permits);
+            onCompleted.accept(r, e);
+        });
+    }
+
+    /**
+     * Acquires the permits without blocking regardless of the limited policy,
+     * it is used by background tasks that would rather try again later than
+     * hold their thread, e.g. the spill replayer.
+     *
+     * @param in     the input
+     * @param action the action to execute
+     * @return the result of the action, or the rejected result if the permits
+     *         are not available right now
+     */
+    public CompletableFuture<Out> tryAcquireAndDo(final In in, final Supplier<CompletableFuture<Out>> action) {
+        if (this.limiter == null || this.policy == null) {
+            return action.get();
+        }
+
+        final int acquirePermits = calculatePermits(in);
+        final int maxPermits = this.limiter.maxPermits();
+        final int permits = Math.min(acquirePermits, maxPermits);
+
+        if (permits <= 0) { // fast path
+            return action.get();
+        }
+
+        if (this.limiter.tryAcquire(permits)) {
+            return action.get().whenComplete((r, e) -> release(permits));
+        }
+        return Utils.completedCf(
+                rejected(in, new RejectedState(acquirePermits, maxPermits, this.limiter.availablePermits())));
+    }
+
+    public abstract int calculatePermits(final In in);
+
+    public abstract Out rejected(final In in, final RejectedState state);
+
     private void release(final int permits) {
         this.limiter.release(permits);
     }
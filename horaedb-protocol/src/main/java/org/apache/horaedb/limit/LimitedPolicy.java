@@ -3,10 +3,13 @@
  */
 package org.apache.horaedb.limit;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.horaedb.common.AsyncInFlightLimiter;
 import org.apache.horaedb.errors.LimitedException;
 import org.apache.horaedb.common.Limiter;
+import org.apache.horaedb.util.Utils;
 
 /**
  * A limited policy using a given {@code Limiter}.
@@ -23,6 +26,26 @@ public interface LimitedPolicy {
      */
     boolean acquire(final Limiter limiter, final int permits);
 
+    /**
+     * Acquires the given number of permits from the given async limiter
+     * without blocking the calling thread. The default implementation falls
+     * back to {@link #acquire(Limiter, int)}, which may block.
+     *
+     * @param limiter the given limiter
+     * @param permits the number of permits to acquire
+     * @return a future completed with true if can continue processing the data,
+     *         otherwise false, or completed exceptionally to abort
+     */
+    default CompletableFuture<Boolean> acquireAsync(final AsyncInFlightLimiter limiter, final int permits) {
+        try {
+            return CompletableFuture.completedFuture(acquire(limiter, permits));
+        } catch (final Throwable t) {
+            final CompletableFuture<Boolean> f = new CompletableFuture<>();
+            f.completeExceptionally(t);
+            return f;
+        }
+    }
+
     static LimitedPolicy defaultWriteLimitedPolicy() {
         return new AbortOnBlockingTimeoutPolicy(3, TimeUnit.SECONDS);
     }
@@ -37,6 +60,11 @@ public interface LimitedPolicy {
         public boolean acquire(final Limiter limiter, final int permits) {
             return limiter.tryAcquire(permits);
         }
+
+        @Override
+        public CompletableFuture<Boolean> acquireAsync(final AsyncInFlightLimiter limiter, final int permits) {
+            return limiter.acquireAsync(permits, 0, TimeUnit.NANOSECONDS);
+        }
     }
 
     class AbortPolicy implements LimitedPolicy {
@@ -46,13 +74,26 @@ public interface LimitedPolicy {
             if (limiter.tryAcquire(permits)) {
                 return true;
             }
+            throw limited(limiter, permits);
+        }
 
+        @Override
+        public CompletableFuture<Boolean> acquireAsync(final AsyncInFlightLimiter limiter, final int permits) {
+            return limiter.acquireAsync(permits, 0, TimeUnit.NANOSECONDS).thenApply(acquired -> {
+                if (acquired) {
+                    return true;
+                }
+                throw limited(limiter, permits);
+            });
+        }
+
+        private static LimitedException limited(final Limiter limiter, final int permits) {
             final String err = String.format(
                     "Limited by `AbortPolicy`, acquirePermits=%d, maxPermits=%d, availablePermits=%d.", //
                     permits, //
                     limiter.maxPermits(), //
                     limiter.availablePermits());
-            throw new LimitedException(err);
+            return new LimitedException(err);
         }
     }
 
@@ -63,6 +104,11 @@ public interface LimitedPolicy {
             limiter.acquire(permits);
             return true;
         }
+
+        @Override
+        public CompletableFuture<Boolean> acquireAsync(final AsyncInFlightLimiter limiter, final int permits) {
+            return limiter.acquireAsync(permits, -1, TimeUnit.NANOSECONDS);
+        }
     }
 
     class BlockingTimeoutPolicy implements LimitedPolicy {
@@ -80,6 +126,11 @@ public interface LimitedPolicy {
             return limiter.tryAcquire(permits, this.timeout, this.unit);
         }
 
+        @Override
+        public CompletableFuture<Boolean> acquireAsync(final AsyncInFlightLimiter limiter, final int permits) {
+            return limiter.acquireAsync(permits, this.timeout, this.unit);
+        }
+
         public long timeout() {
             return this.timeout;
         }
@@ -100,7 +151,21 @@ public interface LimitedPolicy {
             if (super.acquire(limiter, permits)) {
                 return true;
             }
+            throw limited(limiter, permits);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> acquireAsync(final AsyncInFlightLimiter limiter, final int permits) {
+            final CompletableFuture<Boolean> acquire = super.acquireAsync(limiter, permits);
+            return Utils.propagateCancel(acquire.thenApply(acquired -> {
+                if (acquired) {
+                    return true;
+                }
+                throw limited(limiter, permits);
+            }), acquire);
+        }
 
+        private LimitedException limited(final Limiter limiter, final int permits) {
             final String err = String
                     .format("Limited by `AbortOnBlockingTimeoutPolicy[timeout=%d, unit=%s]`, acquirePermits=%d, " + //
                             "maxPermits=%d, availablePermits=%d.", //
@@ -109,7 +174,7 @@ public interface LimitedPolicy {
                             permits, //
                             limiter.maxPermits(), //
                             limiter.availablePermits());
-            throw new LimitedException(err);
+            return new LimitedException(err);
         }
     }
 }
@@ -3,6 +3,8 @@
  */
 package org.apache.horaedb.limit;
 
+import java.util.concurrent.ScheduledExecutorService;
+
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.SqlQueryOk;
 import org.apache.horaedb.models.SqlQueryRequest;
@@ -17,4 +19,8 @@ public abstract class QueryLimiter extends CeresDBLimiter<SqlQueryRequest, Resul
     public QueryLimiter(int maxInFlight, LimitedPolicy policy, String metricPrefix) {
         super(maxInFlight, policy, metricPrefix);
     }
+
+    public QueryLimiter(int maxInFlight, LimitedPolicy policy, String metricPrefix, ScheduledExecutorService timer) {
+        super(maxInFlight, policy, metricPrefix, timer);
+    }
 }
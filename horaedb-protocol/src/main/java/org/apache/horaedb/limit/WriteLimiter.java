@@ -4,9 +4,11 @@
 package org.apache.horaedb.limit;
 
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
 import org.apache.horaedb.models.Result;
 import org.apache.horaedb.models.WriteOk;
 
@@ -19,4 +21,18 @@ public abstract class WriteLimiter extends CeresDBLimiter<List<Point>, Result<Wr
     public WriteLimiter(int maxInFlight, LimitedPolicy policy, String table) {
         super(maxInFlight, policy, table);
     }
+
+    public WriteLimiter(int maxInFlight, LimitedPolicy policy, String table, ScheduledExecutorService timer) {
+        super(maxInFlight, policy, table, timer);
+    }
+
+    /**
+     * The permits a columnar batch costs, one permit per row by default.
+     *
+     * @param batch the batch to write
+     * @return the permits to acquire
+     */
+    public int calculatePermits(final PointBatch batch) {
+        return batch == null ? 0 : batch.getRowCount();
+    }
 }
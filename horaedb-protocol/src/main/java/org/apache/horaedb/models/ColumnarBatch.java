@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.FloatingPointVector;
+import org.apache.arrow.vector.TimeStampVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * One decoded arrow record batch of a query result, a thin typed accessor
+ * layer over its {@link VectorSchemaRoot}: the cells are read from the arrow
+ * buffers on demand, nothing is boxed or copied unless asked for, e.g. by
+ * {@link #getString(int, int)}.
+ * <p>
+ * The buffers are owned by the {@link ColumnarResult} of the batch, it must
+ * not be used after the result is closed.
+ *
+ */
+public class ColumnarBatch {
+
+    private final VectorSchemaRoot root;
+
+    public ColumnarBatch(VectorSchemaRoot root) {
+        this.root = root;
+    }
+
+    /**
+     * The decoded vectors of the batch, for the consumers working on arrow
+     * directly.
+     *
+     * @return the vector schema root of the batch
+     */
+    public VectorSchemaRoot getRoot() {
+        return root;
+    }
+
+    public Schema getSchema() {
+        return this.root.getSchema();
+    }
+
+    public int getRowCount() {
+        return this.root.getRowCount();
+    }
+
+    public int getColumnCount() {
+        return this.root.getFieldVectors().size();
+    }
+
+    public String getColumnName(final int column) {
+        return this.root.getVector(column).getName();
+    }
+
+    /**
+     * Returns the index of the column with the given name.
+     *
+     * @param name the column name
+     * @return the index of the column, -1 if not found
+     */
+    public int getColumnIndex(final String name) {
+        final List<Field> fields = this.root.getSchema().getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public FieldVector getVector(final int column) {
+        return this.root.getVector(column);
+    }
+
+    public boolean isNull(final int column, final int row) {
+        return this.root.getVector(column).isNull(row);
+    }
+
+    /**
+     * Reads an integer cell (any signed or unsigned integer, or timestamp
+     * column) as a long, the unsigned values are widened without sign.
+     */
+    public long getLong(final int column, final int row) {
+        final FieldVector vector = this.root.getVector(column);
+        if (vector instanceof BaseIntVector) {
+            return ((BaseIntVector) vector).getValueAsLong(row);
+        }
+        if (vector instanceof TimeStampVector) {
+            return ((TimeStampVector) vector).get(row);
+        }
+        throw invalidType(vector, "long");
+    }
+
+    /**
+     * Reads a floating point cell (double or float column) as a double.
+     */
+    public double getDouble(final int column, final int row) {
+        final FieldVector vector = this.root.getVector(column);
+        if (vector instanceof FloatingPointVector) {
+            return ((FloatingPointVector) vector).getValueAsDouble(row);
+        }
+        throw invalidType(vector, "double");
+    }
+
+    public boolean getBoolean(final int column, final int row) {
+        final FieldVector vector = this.root.getVector(column);
+        if (vector instanceof BitVector) {
+            return ((BitVector) vector).get(row) != 0;
+        }
+        throw invalidType(vector, "boolean");
+    }
+
+    /**
+     * Decodes a string cell, the only accessor that allocates a {@link String},
+     * use {@link #getBytes(int, int)} or the vector to avoid it.
+     */
+    public String getString(final int column, final int row) {
+        final FieldVector vector = this.root.getVector(column);
+        if (vector instanceof VarCharVector) {
+            final byte[] bytes = ((VarCharVector) vector).get(row);
+            return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+        throw invalidType(vector, "string");
+    }
+
+    /**
+     * Copies a string (UTF-8) or varbinary cell.
+     */
+    public byte[] getBytes(final int column, final int row) {
+        final FieldVector vector = this.root.getVector(column);
+        if (vector instanceof VarCharVector) {
+            return ((VarCharVector) vector).get(row);
+        }
+        if (vector instanceof VarBinaryVector) {
+            return ((VarBinaryVector) vector).get(row);
+        }
+        throw invalidType(vector, "bytes");
+    }
+
+    private static IllegalArgumentException invalidType(final FieldVector vector, final String type) {
+        return new IllegalArgumentException(
+                "Column " + vector.getName() + " of type " + vector.getMinorType() + " can not be read as " + type);
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarBatch{" + //
+               "schema=" + getSchema() + //
+               ", rowCount=" + getRowCount() + //
+               '}';
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * The columnar result of a query, the decoded arrow record batches as they
+ * are, without converting them into {@link Row}s. The arrow buffers are held
+ * off-heap until {@link #close()} is called, which must always be done.
+ *
+ */
+public class ColumnarResult implements AutoCloseable {
+
+    private final BufferAllocator     allocator;
+    private final List<ColumnarBatch> batches;
+    private final AtomicBoolean       closed = new AtomicBoolean(false);
+
+    public ColumnarResult(BufferAllocator allocator, List<ColumnarBatch> batches) {
+        this.allocator = allocator;
+        this.batches = batches == null ? Collections.emptyList() : batches;
+    }
+
+    public static ColumnarResult empty() {
+        return new ColumnarResult(null, null);
+    }
+
+    public List<ColumnarBatch> getBatches() {
+        return Collections.unmodifiableList(this.batches);
+    }
+
+    public int getBatchCount() {
+        return this.batches.size();
+    }
+
+    public int getRowCount() {
+        int rows = 0;
+        for (final ColumnarBatch batch : this.batches) {
+            rows += batch.getRowCount();
+        }
+        return rows;
+    }
+
+    /**
+     * @return the schema of the batches, null if there is none
+     */
+    public Schema getSchema() {
+        return this.batches.isEmpty() ? null : this.batches.get(0).getSchema();
+    }
+
+    public boolean isClosed() {
+        return this.closed.get();
+    }
+
+    /**
+     * Releases the arrow buffers of all the batches, idempotent.
+     */
+    @Override
+    public void close() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.batches.forEach(batch -> batch.getRoot().close());
+        if (this.allocator != null) {
+            this.allocator.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarResult{" + //
+               "batches=" + getBatchCount() + //
+               ", rows=" + getRowCount() + //
+               ", closed=" + isClosed() + //
+               '}';
+    }
+}
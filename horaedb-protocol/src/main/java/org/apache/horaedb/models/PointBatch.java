@@ -0,0 +1,529 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.horaedb.common.util.Requires;
+
+/**
+ * A columnar batch of points that belong to the same table.
+ *
+ * <p> Unlike {@link Point}, a batch does not allocate any map or {@link Value}
+ * per cell: timestamps are stored in a {@code long[]}, tag columns are
+ * dictionary-encoded into {@code int[]} codes and field columns are stored
+ * in primitive arrays with a null bitmap. The schema (tag names, field names
+ * and field types) is declared and checked once, and rows are appended
+ * positionally:
+ *
+ * <pre>
+ *   final PointBatch batch = PointBatch.newBuilder("machine_table") //
+ *           .addTag("city") //
+ *           .addTag("ip") //
+ *           .addField("cpu", Value.DataType.Double) //
+ *           .addField("mem", Value.DataType.Int64) //
+ *           .build();
+ *   batch.addRow(timestamp) //
+ *           .setTag(0, "Singapore") //
+ *           .setTag(1, "10.0.0.1") //
+ *           .setDouble(0, 0.23) //
+ *           .setLong(1, 1024);
+ * </pre>
+ *
+ * <p> Cells that are not set are null. Tag values are strings. A batch is
+ * not thread-safe.
+ *
+ */
+public class PointBatch {
+
+    static final int         DEFAULT_CAPACITY = 64;
+    private static final int NULL_CODE        = -1;
+
+    private final TableTemplate    template;
+    private final String           table;
+    private final String[]         tagNames;
+    private final String[]         fieldNames;
+    private final Value.DataType[] fieldTypes;
+
+    private int    rowCount;
+    private long[] timestamps;
+
+    // tag columns, dictionary-encoded, NULL_CODE means null
+    private final int[][]   tagCodes;
+    private final TagDict[] tagDicts;
+    // field columns, only one of them is non-null for a field
+    private final long[][]   longColumns;
+    private final double[][] doubleColumns;
+    private final Object[][] objectColumns;
+    // field null bitmaps, a set bit means the cell has a value
+    private final long[][] validity;
+
+    protected PointBatch(TableTemplate template, int capacity) {
+        this.template = template;
+        this.table = template.getTable();
+        // shared with the template, never modified
+        this.tagNames = template.tagNames();
+        this.fieldNames = template.fieldNames();
+        this.fieldTypes = template.fieldTypes();
+
+        this.timestamps = new long[capacity];
+        this.tagCodes = new int[tagNames.length][];
+        this.tagDicts = new TagDict[tagNames.length];
+        for (int i = 0; i < tagNames.length; i++) {
+            this.tagCodes[i] = new int[capacity];
+            this.tagDicts[i] = new TagDict();
+        }
+        this.longColumns = new long[fieldNames.length][];
+        this.doubleColumns = new double[fieldNames.length][];
+        this.objectColumns = new Object[fieldNames.length][];
+        this.validity = new long[fieldNames.length][];
+        for (int i = 0; i < fieldNames.length; i++) {
+            switch (storageOf(fieldTypes[i])) {
+                case LONG:
+                    this.longColumns[i] = new long[capacity];
+                    break;
+                case DOUBLE:
+                    this.doubleColumns[i] = new double[capacity];
+                    break;
+                default:
+                    this.objectColumns[i] = new Object[capacity];
+            }
+            this.validity[i] = new long[bitmapWords(capacity)];
+        }
+    }
+
+    /**
+     * Returns the schema of this batch.
+     */
+    public TableTemplate getTemplate() {
+        return template;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean isEmpty() {
+        return this.rowCount == 0;
+    }
+
+    public int getTagCount() {
+        return this.tagNames.length;
+    }
+
+    public int getFieldCount() {
+        return this.fieldNames.length;
+    }
+
+    public String getTagName(final int tag) {
+        return this.tagNames[tag];
+    }
+
+    public String getFieldName(final int field) {
+        return this.fieldNames[field];
+    }
+
+    public Value.DataType getFieldType(final int field) {
+        return this.fieldTypes[field];
+    }
+
+    /**
+     * Returns the column index of the given tag name, or -1 if the batch has
+     * no such tag.
+     */
+    public int tagIndex(final String name) {
+        return this.template.tagIndex(name);
+    }
+
+    /**
+     * Returns the column index of the given field name, or -1 if the batch
+     * has no such field.
+     */
+    public int fieldIndex(final String name) {
+        return this.template.fieldIndex(name);
+    }
+
+    /**
+     * Appends a new row, all of its tags and fields are null until they
+     * are set by the following {@code setXxx} calls.
+     *
+     * @param timestamp the timestamp of the new row
+     * @return this batch
+     */
+    public PointBatch addRow(final long timestamp) {
+        if (this.rowCount == this.timestamps.length) {
+            grow();
+        }
+        final int row = this.rowCount++;
+        this.timestamps[row] = timestamp;
+        for (final int[] codes : this.tagCodes) {
+            codes[row] = NULL_CODE;
+        }
+        for (final long[] bits : this.validity) {
+            bits[row >>> 6] &= ~(1L << row);
+        }
+        return this;
+    }
+
+    public PointBatch setTag(final int tag, final String value) {
+        this.tagCodes[tag][currentRow()] = value == null ? NULL_CODE : this.tagDicts[tag].encode(value);
+        return this;
+    }
+
+    public PointBatch setTag(final String name, final String value) {
+        return setTag(this.template.requireTagIndex(name), value);
+    }
+
+    /**
+     * Sets a field of type {@code Double} or {@code Float} of the current row.
+     */
+    public PointBatch setDouble(final int field, final double value) {
+        checkStorage(field, Storage.DOUBLE);
+        final int row = currentRow();
+        this.doubleColumns[field][row] = value;
+        markValid(field, row);
+        return this;
+    }
+
+    /**
+     * Sets a field of an integer type or {@code Timestamp} of the current row.
+     */
+    public PointBatch setLong(final int field, final long value) {
+        checkStorage(field, Storage.LONG);
+        Requires.requireTrue(this.fieldTypes[field] != Value.DataType.Boolean, "Invalid type %s for field %s",
+                Value.DataType.Boolean, this.fieldNames[field]);
+        final int row = currentRow();
+        this.longColumns[field][row] = value;
+        markValid(field, row);
+        return this;
+    }
+
+    public PointBatch setBoolean(final int field, final boolean value) {
+        checkType(field, Value.DataType.Boolean);
+        final int row = currentRow();
+        this.longColumns[field][row] = value ? 1 : 0;
+        markValid(field, row);
+        return this;
+    }
+
+    public PointBatch setString(final int field, final String value) {
+        checkType(field, Value.DataType.String);
+        return setObject(field, value);
+    }
+
+    public PointBatch setVarbinary(final int field, final byte[] value) {
+        checkType(field, Value.DataType.Varbinary);
+        return setObject(field, value);
+    }
+
+    public PointBatch setNull(final int field) {
+        final int row = currentRow();
+        this.validity[field][row >>> 6] &= ~(1L << row);
+        if (this.objectColumns[field] != null) {
+            this.objectColumns[field][row] = null;
+        }
+        return this;
+    }
+
+    public long getTimestamp(final int row) {
+        return this.timestamps[row];
+    }
+
+    /**
+     * Returns the dictionary code of the tag value at the given row, -1 if
+     * the tag is null.
+     */
+    public int getTagCode(final int tag, final int row) {
+        return this.tagCodes[tag][row];
+    }
+
+    public String getTagValue(final int tag, final int row) {
+        final int code = this.tagCodes[tag][row];
+        return code == NULL_CODE ? null : this.tagDicts[tag].decode(code);
+    }
+
+    /**
+     * Returns the number of distinct values of the given tag column.
+     */
+    public int getTagCardinality(final int tag) {
+        return this.tagDicts[tag].size();
+    }
+
+    public String decodeTag(final int tag, final int code) {
+        return this.tagDicts[tag].decode(code);
+    }
+
+    public boolean isNull(final int field, final int row) {
+        return (this.validity[field][row >>> 6] & (1L << row)) == 0;
+    }
+
+    public double getDouble(final int field, final int row) {
+        return this.doubleColumns[field][row];
+    }
+
+    public long getLong(final int field, final int row) {
+        return this.longColumns[field][row];
+    }
+
+    public boolean getBoolean(final int field, final int row) {
+        return this.longColumns[field][row] != 0;
+    }
+
+    public String getString(final int field, final int row) {
+        return (String) this.objectColumns[field][row];
+    }
+
+    public byte[] getVarbinary(final int field, final int row) {
+        return (byte[]) this.objectColumns[field][row];
+    }
+
+    /**
+     * Boxes the field at the given row, only used on slow paths.
+     */
+    public Value getFieldValue(final int field, final int row) {
+        final Value.DataType type = this.fieldTypes[field];
+        if (isNull(field, row)) {
+            return new Value(type, null);
+        }
+        switch (type) {
+            case Double:
+                return Value.withDouble(getDouble(field, row));
+            case Float:
+                return Value.withFloat((float) getDouble(field, row));
+            case Boolean:
+                return Value.withBoolean(getBoolean(field, row));
+            case String:
+                return Value.withString(getString(field, row));
+            case Varbinary:
+                return Value.withVarbinary(getVarbinary(field, row));
+            case Int64:
+                return Value.withInt64(getLong(field, row));
+            case UInt64:
+                return Value.withUInt64(getLong(field, row));
+            case Timestamp:
+                return Value.withTimestamp(getLong(field, row));
+            case Int32:
+                return Value.withInt32((int) getLong(field, row));
+            case Int16:
+                return Value.withInt16((int) getLong(field, row));
+            case Int8:
+                return Value.withInt8((int) getLong(field, row));
+            case UInt32:
+                return Value.withUInt32((int) getLong(field, row));
+            case UInt16:
+                return Value.withUInt16((int) getLong(field, row));
+            case UInt8:
+                return Value.withUInt8((int) getLong(field, row));
+            default:
+                throw new IllegalArgumentException("Invalid type " + type);
+        }
+    }
+
+    /**
+     * Materializes the rows in [from, to) as {@link Point}s, this is costly
+     * and only used to report failed writes.
+     */
+    public List<Point> toPoints(final int from, final int to) {
+        final List<Point> points = new ArrayList<>(to - from);
+        for (int row = from; row < to; row++) {
+            final Point point = new Point(this.table);
+            point.timestamp = this.timestamps[row];
+            for (int tag = 0; tag < this.tagNames.length; tag++) {
+                final String v = getTagValue(tag, row);
+                if (v != null) {
+                    point.tags.put(this.tagNames[tag], Value.withString(v));
+                }
+            }
+            for (int field = 0; field < this.fieldNames.length; field++) {
+                point.fields.put(this.fieldNames[field], getFieldValue(field, row));
+            }
+            points.add(point);
+        }
+        return points;
+    }
+
+    public List<Point> toPoints() {
+        return toPoints(0, this.rowCount);
+    }
+
+    /**
+     * Clears all rows and tag dictionaries so that the batch can be reused.
+     */
+    public void clear() {
+        this.rowCount = 0;
+        for (final TagDict dict : this.tagDicts) {
+            dict.clear();
+        }
+        for (final Object[] objs : this.objectColumns) {
+            if (objs != null) {
+                Arrays.fill(objs, null);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PointBatch{" + //
+               "table='" + table + '\'' + //
+               ", tagNames=" + Arrays.toString(tagNames) + //
+               ", fieldNames=" + Arrays.toString(fieldNames) + //
+               ", fieldTypes=" + Arrays.toString(fieldTypes) + //
+               ", rowCount=" + rowCount + //
+               '}';
+    }
+
+    private int currentRow() {
+        Requires.requireTrue(this.rowCount > 0, "No row added, call `addRow` first");
+        return this.rowCount - 1;
+    }
+
+    private PointBatch setObject(final int field, final Object value) {
+        if (value == null) {
+            return setNull(field);
+        }
+        final int row = currentRow();
+        this.objectColumns[field][row] = value;
+        markValid(field, row);
+        return this;
+    }
+
+    private void markValid(final int field, final int row) {
+        this.validity[field][row >>> 6] |= 1L << row;
+    }
+
+    private void checkType(final int field, final Value.DataType expected) {
+        Requires.requireTrue(this.fieldTypes[field] == expected, "Invalid type %s for field %s, expected is %s",
+                expected, this.fieldNames[field], this.fieldTypes[field]);
+    }
+
+    private void checkStorage(final int field, final Storage expected) {
+        Requires.requireTrue(storageOf(this.fieldTypes[field]) == expected, "Invalid type for field %s, expected is %s",
+                this.fieldNames[field], this.fieldTypes[field]);
+    }
+
+    private void grow() {
+        final int newCapacity = Math.max(DEFAULT_CAPACITY, this.timestamps.length << 1);
+        this.timestamps = Arrays.copyOf(this.timestamps, newCapacity);
+        for (int i = 0; i < this.tagCodes.length; i++) {
+            this.tagCodes[i] = Arrays.copyOf(this.tagCodes[i], newCapacity);
+        }
+        for (int i = 0; i < this.fieldNames.length; i++) {
+            if (this.longColumns[i] != null) {
+                this.longColumns[i] = Arrays.copyOf(this.longColumns[i], newCapacity);
+            } else if (this.doubleColumns[i] != null) {
+                this.doubleColumns[i] = Arrays.copyOf(this.doubleColumns[i], newCapacity);
+            } else {
+                this.objectColumns[i] = Arrays.copyOf(this.objectColumns[i], newCapacity);
+            }
+            this.validity[i] = Arrays.copyOf(this.validity[i], bitmapWords(newCapacity));
+        }
+    }
+
+    private static int bitmapWords(final int capacity) {
+        return (capacity + 63) >>> 6;
+    }
+
+    private static Storage storageOf(final Value.DataType type) {
+        switch (type) {
+            case Double:
+            case Float:
+                return Storage.DOUBLE;
+            case String:
+            case Varbinary:
+                return Storage.OBJECT;
+            default:
+                return Storage.LONG;
+        }
+    }
+
+    private enum Storage {
+        LONG, DOUBLE, OBJECT
+    }
+
+    /**
+     * A per column string dictionary, codes are assigned in insertion order.
+     */
+    private static final class TagDict {
+        private final Map<String, Integer> codes  = new HashMap<>();
+        private final List<String>         values = new ArrayList<>();
+
+        int encode(final String value) {
+            final Integer code = this.codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            final int newCode = this.values.size();
+            this.values.add(value);
+            this.codes.put(value, newCode);
+            return newCode;
+        }
+
+        String decode(final int code) {
+            return this.values.get(code);
+        }
+
+        int size() {
+            return this.values.size();
+        }
+
+        void clear() {
+            this.codes.clear();
+            this.values.clear();
+        }
+    }
+
+    public static Builder newBuilder(final String table) {
+        return new Builder(table);
+    }
+
+    public static class Builder {
+        private final TableTemplate.Builder template;
+        private int                         capacity = DEFAULT_CAPACITY;
+
+        protected Builder(String table) {
+            this.template = TableTemplate.newBuilder(table);
+        }
+
+        public Builder addTag(final String name) {
+            this.template.addTag(name);
+            return this;
+        }
+
+        public Builder addTags(final String... names) {
+            this.template.addTags(names);
+            return this;
+        }
+
+        public Builder addField(final String name, final Value.DataType type) {
+            this.template.addField(name, type);
+            return this;
+        }
+
+        /**
+         * The initial number of rows, the batch grows automatically.
+         */
+        public Builder capacity(final int capacity) {
+            Requires.requireTrue(capacity > 0, "capacity must > 0");
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Builds a batch with a new template, prefer
+         * {@link TableTemplate#newBatch()} to build the batches of the same
+         * schema repeatedly.
+         */
+        public PointBatch build() {
+            return new PointBatch(this.template.build(), this.capacity);
+        }
+    }
+}
@@ -13,9 +13,16 @@ import java.util.function.Function;
  */
 public final class Result<Ok, Err> {
 
-    public static final int SUCCESS      = 200;
-    public static final int BAD_REQUEST  = 400;
-    public static final int FLOW_CONTROL = 503;
+    public static final int SUCCESS = 200;
+    // The route of the table is stale, refresh it before retrying
+    public static final int INVALID_ROUTE = 302;
+    public static final int SHOULD_RETRY  = 310;
+    public static final int BAD_REQUEST   = 400;
+    // The result exceeds the off-heap memory limit of the client to decode it
+    public static final int RESULT_TOO_LARGE = 413;
+    // The result can not be decoded by the client, e.g. a corrupted arrow payload
+    public static final int INVALID_RESULT = 422;
+    public static final int FLOW_CONTROL   = 503;
 
     private final Ok  ok;
     private final Err err;
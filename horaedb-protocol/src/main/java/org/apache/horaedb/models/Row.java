@@ -22,18 +22,19 @@ public class Row {
     public Column getColumn(String name) {
         int columnIdx = getColumnIdx(name);
         if (columnIdx > -1) {
-            return Column.of(name, values[columnIdx]);
+            return Column.of(name, getValue(columnIdx));
         }
         return null;
     }
 
     public List<Column> getColumns() {
-        if (fields == null) {
+        final int columnCount = getColumnCount();
+        if (columnCount == 0) {
             return Collections.emptyList();
         }
-        List<Column> columns = new ArrayList<>(getColumnCount());
-        for (int idx = 0; idx < fields.length; idx++) {
-            columns.add(Column.of(fields[idx], values[idx]));
+        List<Column> columns = new ArrayList<>(columnCount);
+        for (int idx = 0; idx < columnCount; idx++) {
+            columns.add(Column.of(getColumnName(idx), getValue(idx)));
         }
         return columns;
     }
@@ -45,7 +46,88 @@ public class Row {
         return fields.length;
     }
 
-    private int getColumnIdx(String name) {
+    public String getColumnName(int column) {
+        return fields[column];
+    }
+
+    public Value getValue(int column) {
+        return values[column];
+    }
+
+    public boolean isNull(int column) {
+        return Value.isNull(getValue(column));
+    }
+
+    /**
+     * Reads an integer cell (any signed or unsigned integer, or timestamp
+     * column) as a long, without creating a {@link Value} if the row is a
+     * view of a {@link RowBatch}.
+     *
+     * @param column the index of the column
+     * @return the value, 0 if the cell is null
+     */
+    public long getLong(int column) {
+        final Value value = getValue(column);
+        final Class<?> javaType = value == null ? null : value.getDataType().getJavaType();
+        if (javaType != Long.class && javaType != Integer.class) {
+            throw invalidType(column, value, "long");
+        }
+        return value.isNull() ? 0 : ((Number) value.getObject()).longValue();
+    }
+
+    public long getLong(String name) {
+        return getLong(requireColumnIdx(name));
+    }
+
+    /**
+     * Reads a floating point cell (double or float column) as a double, same
+     * as {@link #getLong(int)}.
+     *
+     * @param column the index of the column
+     * @return the value, 0 if the cell is null
+     */
+    public double getDouble(int column) {
+        final Value value = getValue(column);
+        checkType(column, value, "double", Value.DataType.Double, Value.DataType.Float);
+        if (value.isNull()) {
+            return 0;
+        }
+        return value.getDataType() == Value.DataType.Double ? value.getDouble() : value.getFloat();
+    }
+
+    public double getDouble(String name) {
+        return getDouble(requireColumnIdx(name));
+    }
+
+    /**
+     * @param column the index of the column
+     * @return the value, false if the cell is null
+     */
+    public boolean getBoolean(int column) {
+        final Value value = getValue(column);
+        checkType(column, value, "boolean", Value.DataType.Boolean);
+        return !Value.isNull(value) && value.getBoolean();
+    }
+
+    public boolean getBoolean(String name) {
+        return getBoolean(requireColumnIdx(name));
+    }
+
+    /**
+     * @param column the index of the column
+     * @return the value, null if the cell is null
+     */
+    public String getString(int column) {
+        final Value value = getValue(column);
+        checkType(column, value, "string", Value.DataType.String);
+        return Value.isNull(value) ? null : value.getString();
+    }
+
+    public String getString(String name) {
+        return getString(requireColumnIdx(name));
+    }
+
+    protected int getColumnIdx(String name) {
         if (fields == null) {
             return -1;
         }
@@ -57,9 +139,32 @@ public class Row {
         return -1;
     }
 
+    private int requireColumnIdx(String name) {
+        final int columnIdx = getColumnIdx(name);
+        if (columnIdx < 0) {
+            throw new IllegalArgumentException("Column not found: " + name);
+        }
+        return columnIdx;
+    }
+
+    private void checkType(int column, Value value, String type, Value.DataType... types) {
+        for (final Value.DataType t : types) {
+            if (value != null && value.getDataType() == t) {
+                return;
+            }
+        }
+        throw invalidType(column, value, type);
+    }
+
+    private IllegalArgumentException invalidType(int column, Value value, String type) {
+        return new IllegalArgumentException(
+                "Column " + getColumnName(column) + " of type " + (value == null ? null : value.getDataType())
+                                            + " can not be read as " + type);
+    }
+
     @Override
     public String toString() {
-        if (this.fields == null || this.fields.length == 0) {
+        if (getColumnCount() == 0) {
             return "[Empty Row]";
         }
 
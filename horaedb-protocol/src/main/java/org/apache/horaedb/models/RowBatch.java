@@ -0,0 +1,617 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeStampMilliVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.UInt1Vector;
+import org.apache.arrow.vector.UInt2Vector;
+import org.apache.arrow.vector.UInt4Vector;
+import org.apache.arrow.vector.UInt8Vector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.Types;
+import org.apache.arrow.vector.types.pojo.Field;
+
+/**
+ * The columns of one arrow record batch, copied on heap column by column so
+ * the arrow buffers can be released right after decoding, and exposed as
+ * lazy {@link Row} views: a row only holds the batch and its index, and a
+ * {@link Value} is only created when a cell is read through
+ * {@link Row#getColumn(String)}, the typed getters of the row read the
+ * column arrays directly.
+ *
+ */
+public final class RowBatch {
+
+    private final String[]         names;
+    private final Value.DataType[] types;
+    // long[], int[], double[], float[], boolean[] or VarColumn by type, null for an unsupported type
+    private final Object[] columns;
+    // null for a column without any null
+    private final BitSet[] nulls;
+    private final int      rowCount;
+
+    private RowBatch(String[] names, Value.DataType[] types, Object[] columns, BitSet[] nulls, int rowCount) {
+        this.names = names;
+        this.types = types;
+        this.columns = columns;
+        this.nulls = nulls;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Copies the vectors of an arrow record batch, the values of the integer
+     * types are kept as they were read into {@link Value}s.
+     *
+     * @param root the loaded record batch
+     * @return the decoded batch, independent of the arrow buffers
+     */
+    public static RowBatch decode(final VectorSchemaRoot root) {
+        final List<Field> fields = root.getSchema().getFields();
+        final int columnCount = fields.size();
+        final int rowCount = root.getRowCount();
+        final String[] names = new String[columnCount];
+        final Value.DataType[] types = new Value.DataType[columnCount];
+        final Object[] columns = new Object[columnCount];
+        final BitSet[] nulls = new BitSet[columnCount];
+
+        for (int col = 0; col < columnCount; col++) {
+            final Field field = fields.get(col);
+            final FieldVector vector = root.getVector(col);
+            names[col] = field.getName();
+            nulls[col] = nullsOf(vector, rowCount);
+            final BitSet colNulls = nulls[col];
+
+            switch (Types.getMinorTypeForArrowType(field.getType())) {
+                case VARCHAR:
+                    types[col] = Value.DataType.String;
+                    columns[col] = VarColumn.copyOf((BaseVariableWidthVector) vector, rowCount);
+                    break;
+                case VARBINARY:
+                    types[col] = Value.DataType.Varbinary;
+                    columns[col] = VarColumn.copyOf((BaseVariableWidthVector) vector, rowCount);
+                    break;
+                case BIT: {
+                    final BitVector v = (BitVector) vector;
+                    final boolean[] values = new boolean[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        values[row] = !isNull(colNulls, row) && v.get(row) > 0;
+                    }
+                    types[col] = Value.DataType.Boolean;
+                    columns[col] = values;
+                    break;
+                }
+                case FLOAT8: {
+                    final Float8Vector v = (Float8Vector) vector;
+                    final double[] values = new double[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.Double;
+                    columns[col] = values;
+                    break;
+                }
+                case FLOAT4: {
+                    final Float4Vector v = (Float4Vector) vector;
+                    final float[] values = new float[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.Float;
+                    columns[col] = values;
+                    break;
+                }
+                case BIGINT: {
+                    final BigIntVector v = (BigIntVector) vector;
+                    final long[] values = new long[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.Int64;
+                    columns[col] = values;
+                    break;
+                }
+                case UINT8: {
+                    final UInt8Vector v = (UInt8Vector) vector;
+                    final long[] values = new long[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.UInt64;
+                    columns[col] = values;
+                    break;
+                }
+                case TIMESTAMPMILLI: {
+                    final TimeStampMilliVector v = (TimeStampMilliVector) vector;
+                    final long[] values = new long[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.Timestamp;
+                    columns[col] = values;
+                    break;
+                }
+                case INT: {
+                    final IntVector v = (IntVector) vector;
+                    final int[] values = new int[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.Int32;
+                    columns[col] = values;
+                    break;
+                }
+                case SMALLINT: {
+                    final SmallIntVector v = (SmallIntVector) vector;
+                    final int[] values = new int[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.Int16;
+                    columns[col] = values;
+                    break;
+                }
+                case TINYINT: {
+                    final TinyIntVector v = (TinyIntVector) vector;
+                    final int[] values = new int[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.Int8;
+                    columns[col] = values;
+                    break;
+                }
+                case UINT4: {
+                    final UInt4Vector v = (UInt4Vector) vector;
+                    final int[] values = new int[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.UInt32;
+                    columns[col] = values;
+                    break;
+                }
+                case UINT2: {
+                    final UInt2Vector v = (UInt2Vector) vector;
+                    final int[] values = new int[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.UInt16;
+                    columns[col] = values;
+                    break;
+                }
+                case UINT1: {
+                    final UInt1Vector v = (UInt1Vector) vector;
+                    final int[] values = new int[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!isNull(colNulls, row)) {
+                            values[row] = v.get(row);
+                        }
+                    }
+                    types[col] = Value.DataType.UInt8;
+                    columns[col] = values;
+                    break;
+                }
+                default:
+                    // unsupported, the cells read as null values
+            }
+        }
+        return new RowBatch(names, types, columns, nulls, rowCount);
+    }
+
+    /**
+     * Concatenates the rows of the batches into one list, the rows are
+     * created on demand by {@link List#get(int)}.
+     *
+     * @param batches the batches
+     * @return the rows of all the batches
+     */
+    public static List<Row> rowsOf(final List<RowBatch> batches) {
+        if (batches.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (batches.size() == 1) {
+            return batches.get(0).rows();
+        }
+        return new ConcatRows(batches);
+    }
+
+    /**
+     * Whether the rows are the read-only view of {@link #rowsOf(List)}.
+     */
+    static boolean isView(final List<Row> rows) {
+        return rows instanceof ConcatRows || rows instanceof BatchRows || rows == Collections.<Row> emptyList();
+    }
+
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    public int getColumnCount() {
+        return this.names.length;
+    }
+
+    public String getColumnName(final int column) {
+        return this.names[column];
+    }
+
+    /**
+     * @return the type of the column, null if the arrow type is not supported
+     */
+    public Value.DataType getColumnType(final int column) {
+        return this.types[column];
+    }
+
+    /**
+     * Returns the index of the column with the given name.
+     *
+     * @param name the column name
+     * @return the index of the column, -1 if not found
+     */
+    public int getColumnIndex(final String name) {
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isNull(final int column, final int row) {
+        return this.columns[column] == null || isNull(this.nulls[column], row);
+    }
+
+    /**
+     * Reads an integer cell (any signed or unsigned integer, or timestamp
+     * column) as a long.
+     *
+     * @return the value, 0 if the cell is null
+     */
+    public long getLong(final int column, final int row) {
+        final Object values = this.columns[column];
+        if (values instanceof long[]) {
+            return ((long[]) values)[row];
+        }
+        if (values instanceof int[]) {
+            return ((int[]) values)[row];
+        }
+        throw invalidType(column, "long");
+    }
+
+    /**
+     * Reads a floating point cell (double or float column) as a double.
+     *
+     * @return the value, 0 if the cell is null
+     */
+    public double getDouble(final int column, final int row) {
+        final Object values = this.columns[column];
+        if (values instanceof double[]) {
+            return ((double[]) values)[row];
+        }
+        if (values instanceof float[]) {
+            return ((float[]) values)[row];
+        }
+        throw invalidType(column, "double");
+    }
+
+    /**
+     * @return the value, false if the cell is null
+     */
+    public boolean getBoolean(final int column, final int row) {
+        final Object values = this.columns[column];
+        if (values instanceof boolean[]) {
+            return ((boolean[]) values)[row];
+        }
+        throw invalidType(column, "boolean");
+    }
+
+    /**
+     * @return the value, null if the cell is null
+     */
+    public String getString(final int column, final int row) {
+        if (this.types[column] != Value.DataType.String) {
+            throw invalidType(column, "string");
+        }
+        return isNull(column, row) ? null : ((VarColumn) this.columns[column]).getString(row);
+    }
+
+    /**
+     * Copies a string (UTF-8) or varbinary cell.
+     *
+     * @return the value, null if the cell is null
+     */
+    public byte[] getBytes(final int column, final int row) {
+        if (!(this.columns[column] instanceof VarColumn)) {
+            throw invalidType(column, "bytes");
+        }
+        return isNull(column, row) ? null : ((VarColumn) this.columns[column]).getBytes(row);
+    }
+
+    /**
+     * Creates the {@link Value} of a cell, typed as it is by
+     * {@link Row.RowBuilder}.
+     *
+     * @return the value, null if the type of the column is not supported
+     */
+    public Value getValue(final int column, final int row) {
+        final Value.DataType type = this.types[column];
+        if (type == null) {
+            return null;
+        }
+        if (isNull(column, row)) {
+            return new Value(type, null);
+        }
+        switch (type) {
+            case String:
+                return Value.withString(getString(column, row));
+            case Varbinary:
+                return Value.withVarbinary(getBytes(column, row));
+            case Boolean:
+                return Value.withBoolean(getBoolean(column, row));
+            case Double:
+                return Value.withDouble(getDouble(column, row));
+            case Float:
+                return Value.withFloat(((float[]) this.columns[column])[row]);
+            case Int64:
+                return Value.withInt64(getLong(column, row));
+            case UInt64:
+                return Value.withUInt64(getLong(column, row));
+            case Timestamp:
+                return Value.withTimestamp(getLong(column, row));
+            case Int32:
+                return Value.withInt32((int) getLong(column, row));
+            case Int16:
+                return Value.withInt16((int) getLong(column, row));
+            case Int8:
+                return Value.withInt8((int) getLong(column, row));
+            case UInt32:
+                return Value.withUInt32((int) getLong(column, row));
+            case UInt16:
+                return Value.withUInt16((int) getLong(column, row));
+            case UInt8:
+                return Value.withUInt8((int) getLong(column, row));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param row the index of the row
+     * @return a view of the row
+     */
+    public Row row(final int row) {
+        if (row < 0 || row >= this.rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + this.rowCount);
+        }
+        return new BatchRow(this, row);
+    }
+
+    /**
+     * @return the views of the rows, created on demand
+     */
+    public List<Row> rows() {
+        return new BatchRows(this);
+    }
+
+    private IllegalArgumentException invalidType(final int column, final String type) {
+        return new IllegalArgumentException(
+                "Column " + this.names[column] + " of type " + this.types[column] + " can not be read as " + type);
+    }
+
+    private static BitSet nullsOf(final FieldVector vector, final int rowCount) {
+        if (vector.getNullCount() == 0) {
+            return null;
+        }
+        final BitSet nulls = new BitSet(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            if (vector.isNull(row)) {
+                nulls.set(row);
+            }
+        }
+        return nulls;
+    }
+
+    private static boolean isNull(final BitSet nulls, final int row) {
+        return nulls != null && nulls.get(row);
+    }
+
+    @Override
+    public String toString() {
+        return "RowBatch{" + //
+               "columns=" + Arrays.toString(this.names) + //
+               ", rowCount=" + this.rowCount + //
+               '}';
+    }
+
+    /**
+     * The bytes of a variable width column in one array, sliced by offsets.
+     */
+    private static final class VarColumn {
+
+        private final byte[] data;
+        private final int[]  offsets;
+
+        private VarColumn(byte[] data, int[] offsets) {
+            this.data = data;
+            this.offsets = offsets;
+        }
+
+        static VarColumn copyOf(final BaseVariableWidthVector vector, final int rowCount) {
+            final int[] offsets = new int[rowCount + 1];
+            if (rowCount == 0) {
+                return new VarColumn(new byte[0], offsets);
+            }
+            final ArrowBuf offsetBuf = vector.getOffsetBuffer();
+            for (int i = 0; i <= rowCount; i++) {
+                offsets[i] = offsetBuf.getInt((long) i * BaseVariableWidthVector.OFFSET_WIDTH);
+            }
+            final byte[] data = new byte[offsets[rowCount]];
+            vector.getDataBuffer().getBytes(0, data, 0, data.length);
+            return new VarColumn(data, offsets);
+        }
+
+        String getString(final int row) {
+            final int start = this.offsets[row];
+            return new String(this.data, start, this.offsets[row + 1] - start, StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes(final int row) {
+            return Arrays.copyOfRange(this.data, this.offsets[row], this.offsets[row + 1]);
+        }
+    }
+
+    /**
+     * A row of a batch, reads its cells from the columns of the batch.
+     */
+    private static final class BatchRow extends Row {
+
+        private final RowBatch batch;
+        private final int      row;
+
+        private BatchRow(RowBatch batch, int row) {
+            this.batch = batch;
+            this.row = row;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return this.batch.getColumnCount();
+        }
+
+        @Override
+        public String getColumnName(final int column) {
+            return this.batch.getColumnName(column);
+        }
+
+        @Override
+        protected int getColumnIdx(final String name) {
+            return this.batch.getColumnIndex(name);
+        }
+
+        @Override
+        public Value getValue(final int column) {
+            return this.batch.getValue(column, this.row);
+        }
+
+        @Override
+        public boolean isNull(final int column) {
+            return this.batch.isNull(column, this.row);
+        }
+
+        @Override
+        public long getLong(final int column) {
+            return this.batch.getLong(column, this.row);
+        }
+
+        @Override
+        public double getDouble(final int column) {
+            return this.batch.getDouble(column, this.row);
+        }
+
+        @Override
+        public boolean getBoolean(final int column) {
+            return this.batch.getBoolean(column, this.row);
+        }
+
+        @Override
+        public String getString(final int column) {
+            return this.batch.getString(column, this.row);
+        }
+    }
+
+    private static final class BatchRows extends AbstractList<Row> implements RandomAccess {
+
+        private final RowBatch batch;
+
+        private BatchRows(RowBatch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public Row get(final int index) {
+            return this.batch.row(index);
+        }
+
+        @Override
+        public int size() {
+            return this.batch.getRowCount();
+        }
+    }
+
+    private static final class ConcatRows extends AbstractList<Row> implements RandomAccess {
+
+        private final List<RowBatch> batches;
+        // the index of the first row of each batch, plus the total row count
+        private final int[] starts;
+
+        private ConcatRows(List<RowBatch> batches) {
+            this.batches = new ArrayList<>(batches);
+            this.starts = new int[batches.size() + 1];
+            for (int i = 0; i < batches.size(); i++) {
+                this.starts[i + 1] = this.starts[i] + batches.get(i).getRowCount();
+            }
+        }
+
+        @Override
+        public Row get(final int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Row " + index + " of " + size());
+            }
+            int i = Arrays.binarySearch(this.starts, index);
+            if (i < 0) {
+                i = -i - 2;
+            } else {
+                // skips the empty batches starting at the same index
+                while (this.starts[i + 1] == index) {
+                    i++;
+                }
+            }
+            return this.batches.get(i).row(index - this.starts[i]);
+        }
+
+        @Override
+        public int size() {
+            return this.starts[this.starts.length - 1];
+        }
+    }
+}
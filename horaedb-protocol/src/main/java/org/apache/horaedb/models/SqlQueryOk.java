@@ -5,6 +5,7 @@ package org.apache.horaedb.models;
 
 import org.apache.horaedb.common.Streamable;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
@@ -19,6 +20,8 @@ public class SqlQueryOk implements Streamable<Row> {
     private String    sql;
     private int       affectedRows;
     private List<Row> rows;
+    // Set instead of the rows if the query asked for a columnar result
+    private ColumnarResult columns;
 
     public String getSql() {
         return sql;
@@ -29,19 +32,53 @@ public class SqlQueryOk implements Streamable<Row> {
     }
 
     public int getRowCount() {
+        if (columns != null) {
+            return columns.getRowCount();
+        }
         if (rows == null) {
             return 0;
         }
         return rows.size();
     }
 
+    /**
+     * The rows of the result, a mutable list: the rows decoded lazily from
+     * the arrow batches are copied into it on the first call, prefer
+     * {@link #stream()} to read them without the copy.
+     *
+     * @return the rows
+     */
     public List<Row> getRowList() {
         if (rows == null) {
             return Collections.EMPTY_LIST;
         }
+        if (RowBatch.isView(rows)) {
+            rows = new ArrayList<>(rows);
+        }
         return rows;
     }
 
+    /**
+     * Whether the result is columnar, see {@link SqlQueryRequest#isColumnar()},
+     * its data are then only exposed by {@link #getColumns()}.
+     *
+     * @return true if the result is columnar
+     */
+    public boolean isColumnar() {
+        return columns != null;
+    }
+
+    /**
+     * The decoded arrow batches of a columnar result, an alternative to
+     * {@link #getRowList()} without boxing every cell, the caller must close
+     * it to release the arrow buffers.
+     *
+     * @return the columnar result, null if the result is not columnar
+     */
+    public ColumnarResult getColumns() {
+        return columns;
+    }
+
     public <R> Stream<R> map(final Function<Row, ? extends R> mapper) {
         return this.stream().map(mapper);
     }
@@ -52,7 +89,7 @@ public class SqlQueryOk implements Streamable<Row> {
 
     @Override
     public Stream<Row> stream() {
-        if (this.getRowCount() == 0) {
+        if (this.rows == null || this.rows.isEmpty()) {
             return Stream.empty();
         }
         return this.rows.stream();
@@ -71,6 +108,14 @@ public class SqlQueryOk implements Streamable<Row> {
         return ok("", 0, Collections.EMPTY_LIST);
     }
 
+    public static SqlQueryOk columnar(final String sql, final int affectedRows, final ColumnarResult columns) {
+        final SqlQueryOk ok = new SqlQueryOk();
+        ok.sql = sql;
+        ok.affectedRows = affectedRows;
+        ok.columns = columns;
+        return ok;
+    }
+
     public static SqlQueryOk ok(final String sql, final int affectedRows, final List<Row> rows) {
         final SqlQueryOk ok = new SqlQueryOk();
         ok.sql = sql;
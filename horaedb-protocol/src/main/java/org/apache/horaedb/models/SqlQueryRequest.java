@@ -20,6 +20,7 @@ public class SqlQueryRequest {
     private RequestContext reqCtx;
     private List<String>   tables = Collections.emptyList();
     private String         sql;
+    private boolean        columnar;
 
     protected SqlQueryRequest() {
     }
@@ -53,11 +54,26 @@ public class SqlQueryRequest {
         return sql;
     }
 
+    /**
+     * Whether the result is returned as decoded arrow batches, see
+     * {@link SqlQueryOk#getColumns()}, instead of rows.
+     *
+     * @return true if the result is columnar
+     */
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    public void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+    }
+
     @Override
     public String toString() {
         return "QueryRequest{" + //
                "tables=" + tables + //
                ", sql='" + sql + '\'' + //
+               ", columnar=" + columnar + //
                '}';
     }
 
@@ -78,6 +94,7 @@ public class SqlQueryRequest {
     public static class Builder {
         private final List<String> tables = new ArrayList<>();
         private String             sql;
+        private boolean            columnar;
 
         /**
          * Client does not parse the QL, so please fill in which metrics you queried.
@@ -116,10 +133,22 @@ public class SqlQueryRequest {
             return this;
         }
 
+        /**
+         * Returns the result as decoded arrow batches, which the caller must
+         * close, instead of rows, see {@link SqlQueryOk#getColumns()}.
+         *
+         * @return this builder
+         */
+        public Builder columnar() {
+            this.columnar = true;
+            return this;
+        }
+
         public SqlQueryRequest build() {
             final SqlQueryRequest qr = new SqlQueryRequest();
             qr.tables = this.tables;
             qr.sql = this.sql;
+            qr.columnar = this.columnar;
             return qr;
         }
     }
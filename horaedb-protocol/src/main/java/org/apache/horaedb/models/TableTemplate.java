@@ -0,0 +1,288 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.horaedb.common.util.Requires;
+import org.apache.horaedb.common.util.Strings;
+import org.apache.horaedb.util.Utils;
+
+/**
+ * The fixed schema of a table: the ordered tag names, field names and field
+ * types. A template is declared and validated once (blank, duplicate and
+ * reserved names), and then shared by all the {@link PointBatch}es and
+ * {@link PointWriter}s it creates, which address the tags and fields by
+ * their positions without any keyword check or name lookup:
+ *
+ * <pre>
+ *   // declared once, e.g. as a static field
+ *   final TableTemplate template = TableTemplate.newBuilder("machine_table") //
+ *           .addTags("city", "ip") //
+ *           .addField("cpu", Value.DataType.Double) //
+ *           .build();
+ *
+ *   final PointBatch batch = template.newBatch();
+ *   batch.addRow(timestamp).setTag(0, "Singapore").setTag(1, "10.0.0.1").setDouble(0, 0.23);
+ *
+ *   final Point point = template.newPoint(timestamp) //
+ *           .setTag(0, "Singapore") //
+ *           .setTag(1, "10.0.0.1") //
+ *           .setField(0, Value.withDouble(0.23)) //
+ *           .build();
+ * </pre>
+ *
+ * <p> A template is immutable and thread-safe.
+ *
+ */
+public final class TableTemplate {
+
+    private final String               table;
+    private final String[]             tagNames;
+    private final String[]             fieldNames;
+    private final Value.DataType[]     fieldTypes;
+    private final Map<String, Integer> tagIndexes;
+    private final Map<String, Integer> fieldIndexes;
+    private final List<String>         tagNameList;
+    private final List<String>         fieldNameList;
+
+    private TableTemplate(String table, String[] tagNames, String[] fieldNames, Value.DataType[] fieldTypes) {
+        this.table = table;
+        this.tagNames = tagNames;
+        this.fieldNames = fieldNames;
+        this.fieldTypes = fieldTypes;
+        this.tagIndexes = toIndexes(tagNames);
+        this.fieldIndexes = toIndexes(fieldNames);
+        this.tagNameList = Collections.unmodifiableList(Arrays.asList(tagNames));
+        this.fieldNameList = Collections.unmodifiableList(Arrays.asList(fieldNames));
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public int getTagCount() {
+        return this.tagNames.length;
+    }
+
+    public int getFieldCount() {
+        return this.fieldNames.length;
+    }
+
+    public String getTagName(final int tag) {
+        return this.tagNames[tag];
+    }
+
+    public String getFieldName(final int field) {
+        return this.fieldNames[field];
+    }
+
+    public Value.DataType getFieldType(final int field) {
+        return this.fieldTypes[field];
+    }
+
+    /**
+     * Returns the tag names in column order.
+     */
+    public List<String> getTagNames() {
+        return tagNameList;
+    }
+
+    /**
+     * Returns the field names in column order.
+     */
+    public List<String> getFieldNames() {
+        return fieldNameList;
+    }
+
+    /**
+     * Returns the column index of the given tag name, or -1 if the template
+     * has no such tag.
+     */
+    public int tagIndex(final String name) {
+        final Integer idx = this.tagIndexes.get(name);
+        return idx == null ? -1 : idx;
+    }
+
+    /**
+     * Returns the column index of the given field name, or -1 if the
+     * template has no such field.
+     */
+    public int fieldIndex(final String name) {
+        final Integer idx = this.fieldIndexes.get(name);
+        return idx == null ? -1 : idx;
+    }
+
+    /**
+     * Creates an empty batch of this schema.
+     */
+    public PointBatch newBatch() {
+        return newBatch(PointBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch of this schema.
+     *
+     * @param capacity the initial number of rows, the batch grows automatically
+     */
+    public PointBatch newBatch(final int capacity) {
+        Requires.requireTrue(capacity > 0, "capacity must > 0");
+        return new PointBatch(this, capacity);
+    }
+
+    /**
+     * Creates a positional writer of one point of this schema.
+     *
+     * @param timestamp the timestamp of the point
+     */
+    public PointWriter newPoint(final long timestamp) {
+        return new PointWriter(this, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return "TableTemplate{" + //
+               "table='" + table + '\'' + //
+               ", tagNames=" + Arrays.toString(tagNames) + //
+               ", fieldNames=" + Arrays.toString(fieldNames) + //
+               ", fieldTypes=" + Arrays.toString(fieldTypes) + //
+               '}';
+    }
+
+    String[] tagNames() {
+        return tagNames;
+    }
+
+    String[] fieldNames() {
+        return fieldNames;
+    }
+
+    Value.DataType[] fieldTypes() {
+        return fieldTypes;
+    }
+
+    int requireTagIndex(final String name) {
+        return requireIndex(this.tagIndexes, name, "tag");
+    }
+
+    private static int requireIndex(final Map<String, Integer> indexes, final String name, final String kind) {
+        final Integer idx = indexes.get(name);
+        Requires.requireNonNull(idx, "Unknown " + kind + ": " + name);
+        return idx;
+    }
+
+    private static Map<String, Integer> toIndexes(final String[] names) {
+        final Map<String, Integer> indexes = new HashMap<>(names.length << 1);
+        for (int i = 0; i < names.length; i++) {
+            indexes.put(names[i], i);
+        }
+        return indexes;
+    }
+
+    /**
+     * Builds one {@link Point} of a template by the positions of its tags and
+     * fields, the names are already checked by the template. A writer is not
+     * thread-safe and is consumed by {@link #build()}.
+     */
+    public static final class PointWriter {
+        private final TableTemplate template;
+        private Point               point;
+
+        private PointWriter(TableTemplate template, long timestamp) {
+            this.template = template;
+            this.point = new Point(template.table);
+            this.point.timestamp = timestamp;
+        }
+
+        public PointWriter setTag(final int tag, final String value) {
+            current().tags.put(this.template.tagNames[tag], Value.withStringOrNull(value));
+            return this;
+        }
+
+        public PointWriter setTag(final int tag, final Value value) {
+            current().tags.put(this.template.tagNames[tag], value);
+            return this;
+        }
+
+        /**
+         * Sets a field, a non-null value must be of the declared type.
+         */
+        public PointWriter setField(final int field, final Value value) {
+            final Value.DataType type = this.template.fieldTypes[field];
+            Requires.requireTrue(Value.isNull(value) || value.getDataType() == type,
+                    "Invalid type %s for field %s, expected is %s", value == null ? null : value.getDataType(),
+                    this.template.fieldNames[field], type);
+            current().fields.put(this.template.fieldNames[field], value);
+            return this;
+        }
+
+        public Point build() {
+            final Point p = current();
+            this.point = null;
+            return p;
+        }
+
+        private Point current() {
+            Requires.requireNonNull(this.point, "The point is already built");
+            return this.point;
+        }
+    }
+
+    public static Builder newBuilder(final String table) {
+        return new Builder(table);
+    }
+
+    public static class Builder {
+        private final String                                table;
+        private final List<String>                          tagNames = new ArrayList<>();
+        private final LinkedHashMap<String, Value.DataType> fields   = new LinkedHashMap<>();
+
+        protected Builder(String table) {
+            this.table = table;
+        }
+
+        public Builder addTag(final String name) {
+            Requires.requireTrue(Strings.isNotBlank(name), "Blank.tag");
+            Requires.requireTrue(!this.tagNames.contains(name), "Duplicate tag: %s", name);
+            this.tagNames.add(name);
+            return this;
+        }
+
+        public Builder addTags(final String... names) {
+            for (final String name : names) {
+                addTag(name);
+            }
+            return this;
+        }
+
+        public Builder addField(final String name, final Value.DataType type) {
+            Requires.requireTrue(Strings.isNotBlank(name), "Blank.field");
+            Requires.requireNonNull(type, "Null.type");
+            Requires.requireTrue(!this.fields.containsKey(name), "Duplicate field: %s", name);
+            this.fields.put(name, type);
+            return this;
+        }
+
+        public TableTemplate build() {
+            Requires.requireTrue(Strings.isNotBlank(this.table), "Blank.table");
+            Requires.requireTrue(!this.fields.isEmpty(), "Empty.fields");
+            for (final String tag : this.tagNames) {
+                Requires.requireTrue(!this.fields.containsKey(tag), "Duplicate name for tag and field: %s", tag);
+            }
+            Utils.checkKeywords(this.tagNames.iterator());
+            Utils.checkKeywords(this.fields.keySet().iterator());
+
+            return new TableTemplate(this.table, //
+                    this.tagNames.toArray(new String[0]), //
+                    this.fields.keySet().toArray(new String[0]), //
+                    this.fields.values().toArray(new Value.DataType[0]));
+        }
+    }
+}
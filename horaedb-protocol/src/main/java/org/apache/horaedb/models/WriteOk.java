@@ -23,6 +23,8 @@ public class WriteOk {
 
     private int success;
     private int failed;
+    // the failed points taken over by the spill replayer, counted in neither success nor failed
+    private int spilled;
 
     /**
      * Empty if {@link #COLLECT_WROTE_DETAIL == false}.
@@ -45,6 +47,14 @@ public class WriteOk {
         this.failed = failed;
     }
 
+    public int getSpilled() {
+        return spilled;
+    }
+
+    public void setSpilled(int spilled) {
+        this.spilled = spilled;
+    }
+
     public Collection<String> getTables() {
         return tables;
     }
@@ -56,6 +66,7 @@ public class WriteOk {
     public WriteOk combine(final WriteOk other) {
         this.success += other.success;
         this.failed += other.failed;
+        this.spilled += other.spilled;
         if (this.tables == null) {
             this.tables = other.tables;
         } else if (other.tables != null) {
@@ -73,6 +84,7 @@ public class WriteOk {
         return "WriteOk{" + //
                "success=" + success + //
                ", failed=" + failed + //
+               ", spilled=" + spilled + //
                ", tables=" + tables + //
                '}';
     }
@@ -81,6 +93,12 @@ public class WriteOk {
         return ok(0, 0, null);
     }
 
+    public static WriteOk spilled(final int spilled) {
+        final WriteOk ok = emptyOk();
+        ok.spilled = spilled;
+        return ok;
+    }
+
     public static WriteOk ok(final int success, final int failed, final Set<String> tables) {
         final WriteOk ok = new WriteOk();
         ok.success = success;
@@ -3,13 +3,20 @@
  */
 package org.apache.horaedb.options;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 import org.apache.horaedb.limit.LimitedPolicy;
+import org.apache.horaedb.retry.RetryPolicy;
+import org.apache.horaedb.AggregateFunc;
 import org.apache.horaedb.RouteMode;
+import org.apache.horaedb.StreamFlowControl;
+import org.apache.horaedb.WriteErrorListener;
 import org.apache.horaedb.rpc.RpcOptions;
 import org.apache.horaedb.common.Copiable;
 import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.common.util.Cpus;
 import org.apache.horaedb.common.util.Requires;
 
 /**
@@ -181,8 +188,47 @@ public class HoraeDBOptions implements Copiable<HoraeDBOptions> {
         private int writeMaxRetries = 1;
         // Write flow control: maximum number of data rows in-flight.
         private int maxInFlightWritePoints = 8192;
+        // Write flow control: maximum estimated bytes in-flight, 0 means limit by points.
+        private int maxInFlightWriteBytes = 0;
         // Write flow control: limited policy
         private LimitedPolicy writeLimitedPolicy = LimitedPolicy.defaultWriteLimitedPolicy();
+        // Write flow control: acquire the permits without blocking the caller
+        private boolean writeAsyncLimit = false;
+        // Encode write requests directly into the wire format, only works with the gRPC transport.
+        private boolean writeDirectEncoding = false;
+        // Batching writer: linger time and the maximum estimated bytes of a batch.
+        private long writeBatchingLingerMs = 5;
+        private int  writeBatchingMaxBytes = 1 << 20;
+        // Spill store of the points failed with transient errors, disabled by default.
+        private String writeSpillDir;
+        private long   writeSpillMaxDiskBytes          = 1L << 30;
+        private int    writeSpillReplayPointsPerSecond = 10000;
+        // Stream write: backpressure when the stream is not ready, and auto flush, disabled by default.
+        private StreamFlowControl streamFlowControl        = StreamFlowControl.BLOCK;
+        private long              streamReadyTimeoutMs     = 10_000;
+        private int               streamMaxPendingRequests = 64;
+        private int               streamAutoFlushPoints    = 0;
+        private long              streamAutoFlushMaxAgeMs  = 0;
+        // The maximum number of the encoded tags cached, 0 to disable.
+        private int writeTagCacheSize = 10_000;
+        // The parallelism of encoding the requests of a large or multi-endpoint write.
+        private int writeEncodeParallelism = Cpus.cpus();
+        // Sorted encoding of the write requests, disabled by default.
+        private boolean writeSortedEncoding = false;
+        // Reports the failures of the writes without result.
+        private WriteErrorListener writeErrorListener;
+        // The maximum batches in flight of an iterator write.
+        private int writePipelineMaxInFlight = 8;
+        // Adaptive write size per endpoint, disabled by default.
+        private boolean writeAdaptiveSize            = false;
+        private int     writeAdaptiveMinSize         = 64;
+        private int     writeAdaptiveMaxSize         = 4096;
+        private long    writeAdaptiveTargetLatencyMs = 200;
+        // Client-side pre-aggregation of the writes, disabled by default.
+        private long                             writeAggregationWindowMs    = 0;
+        private int                              writeAggregationMaxSeries   = 100_000;
+        private AggregateFunc                    writeAggregationDefaultFunc = AggregateFunc.LAST;
+        private final Map<String, AggregateFunc> writeAggregationFuncs       = new HashMap<>();
         // Query options
         // In the case of routing table failure, a retry of the read is attempted.
         private int readMaxRetries = 1;
@@ -190,6 +236,15 @@ public class HoraeDBOptions implements Copiable<HoraeDBOptions> {
         private int maxInFlightQueryRequests = 8;
         // Query flow control: limited policy
         private LimitedPolicy queryLimitedPolicy = LimitedPolicy.defaultQueryLimitedPolicy();
+        // Query flow control: acquire the permits without blocking the caller
+        private boolean queryAsyncLimit = false;
+        // The maximum off-heap memory of the arrow results being decoded
+        private long queryMaxArrowMemory = 1024L * 1024 * 1024;
+        // The parallelism of decoding the record batches of a query response.
+        private int queryDecodeParallelism        = Cpus.cpus();
+        private int queryParallelDecodeMinBatches = 4;
+        // Retry policy shared by writes and queries, so that they share one retry budget
+        private RetryPolicy retryPolicy = RetryPolicy.defaultPolicy();
         // Specifies the maximum number of routing table caches. When the number reaches the limit, the ones that
         // have not been used for a long time are cleared first
         private int routeTableMaxCachedSize = 10_000;
@@ -284,6 +339,20 @@ public class HoraeDBOptions implements Copiable<HoraeDBOptions> {
             return this;
         }
 
+        /**
+         * Write flow control: maximum estimated bytes of data rows in-flight. When
+         * it is greater than 0, writes are limited by bytes instead of by
+         * {@link #maxInFlightWritePoints(int)}, so that wide rows cost more than
+         * narrow ones.
+         *
+         * @param maxInFlightWriteBytes maximum bytes in-flight, 0 to disable
+         * @return this builder
+         */
+        public Builder maxInFlightWriteBytes(final int maxInFlightWriteBytes) {
+            this.maxInFlightWriteBytes = maxInFlightWriteBytes;
+            return this;
+        }
+
         /**
          * Write flow control: limited policy.
          *
@@ -295,6 +364,229 @@ public class HoraeDBOptions implements Copiable<HoraeDBOptions> {
             return this;
         }
 
+        /**
+         * Write flow control: acquires the permits asynchronously. The waiters are
+         * queued in FIFO order and the write is sent once its permits are released
+         * by earlier writes, the calling thread is never blocked, the timeout of
+         * the limited policy still applies.
+         *
+         * @param writeAsyncLimit whether to acquire the permits asynchronously
+         * @return this builder
+         */
+        public Builder writeAsyncLimit(final boolean writeAsyncLimit) {
+            this.writeAsyncLimit = writeAsyncLimit;
+            return this;
+        }
+
+        /**
+         * Encodes write requests directly into the protobuf wire format into pooled
+         * buffers, instead of building the request messages first. It saves most
+         * of the allocations of a write, only works with the gRPC transport.
+         *
+         * @param writeDirectEncoding whether to enable direct encoding
+         * @return this builder
+         */
+        public Builder writeDirectEncoding(final boolean writeDirectEncoding) {
+            this.writeDirectEncoding = writeDirectEncoding;
+            return this;
+        }
+
+        /**
+         * Options of the {@code BatchingWriter}, which batches the points of many
+         * small writes together. A batch is flushed when it reaches
+         * {@code maxWriteSize} points, {@code maxBytes} estimated bytes, or when
+         * its first point has waited for {@code lingerMs}.
+         *
+         * @param lingerMs the linger time in milliseconds
+         * @param maxBytes the maximum estimated bytes of a batch
+         * @return this builder
+         */
+        public Builder writeBatching(final long lingerMs, final int maxBytes) {
+            this.writeBatchingLingerMs = lingerMs;
+            this.writeBatchingMaxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Spills the points failed with transient errors, e.g. when the cluster
+         * or a node is unavailable, into memory-mapped segment files under the
+         * given directory, and replays them in the background once the cluster
+         * recovers. The write still fails, {@link org.apache.horaedb.models.WriteOk#getSpilled()}
+         * of its sub ok counts the spilled points, which must not be written again.
+         *
+         * @param dir                   the spill directory
+         * @param maxDiskBytes          the maximum disk usage of the spill store
+         * @param replayPointsPerSecond the maximum replay rate
+         * @return this builder
+         */
+        public Builder writeSpill(final String dir, final long maxDiskBytes, final int replayPointsPerSecond) {
+            this.writeSpillDir = dir;
+            this.writeSpillMaxDiskBytes = maxDiskBytes;
+            this.writeSpillReplayPointsPerSecond = replayPointsPerSecond;
+            return this;
+        }
+
+        /**
+         * What a stream writer does when the stream is not ready, i.e., the
+         * transport is still busy with the previous requests: blocks for at
+         * most {@code readyTimeoutMs}, fails fast, or queues the requests and
+         * sends them once the stream is ready.
+         *
+         * @param mode           the flow control mode
+         * @param readyTimeoutMs the maximum time to block in {@link StreamFlowControl#BLOCK} mode
+         * @return this builder
+         */
+        public Builder streamWriteFlowControl(final StreamFlowControl mode, final long readyTimeoutMs) {
+            this.streamFlowControl = mode;
+            this.streamReadyTimeoutMs = readyTimeoutMs;
+            return this;
+        }
+
+        /**
+         * The maximum number of the requests a stream writer queues in
+         * {@link StreamFlowControl#ASYNC} mode, once reached the flushes fail
+         * fast with a {@code LimitedException} until the queue drains.
+         *
+         * @param maxPendingRequests the maximum number of the queued requests
+         * @return this builder
+         */
+        public Builder streamWriteMaxPending(final int maxPendingRequests) {
+            this.streamMaxPendingRequests = maxPendingRequests;
+            return this;
+        }
+
+        /**
+         * A stream writer flushes its buffer once it holds {@code maxPoints}
+         * points, or once its first point has been buffered for
+         * {@code maxAgeMs}, which is checked on each write. 0 disables either.
+         *
+         * @param maxPoints the maximum points buffered
+         * @param maxAgeMs  the maximum age of the buffered points
+         * @return this builder
+         */
+        public Builder streamWriteAutoFlush(final int maxPoints, final long maxAgeMs) {
+            this.streamAutoFlushPoints = maxPoints;
+            this.streamAutoFlushMaxAgeMs = maxAgeMs;
+            return this;
+        }
+
+        /**
+         * The maximum number of the encoded tags (name index, value) cached and
+         * shared by all write requests, 0 disables the cache.
+         *
+         * @param tagCacheSize the maximum number of the cached tags
+         * @return this builder
+         */
+        public Builder writeTagCacheSize(final int tagCacheSize) {
+            this.writeTagCacheSize = tagCacheSize;
+            return this;
+        }
+
+        /**
+         * The requests of a write, split by endpoint or by {@code maxWriteSize},
+         * are encoded in parallel on a dedicated work-stealing pool of the given
+         * parallelism. A value less than or equal to 1 encodes them one by one
+         * on the calling thread.
+         *
+         * @param parallelism the parallelism of the encode pool
+         * @return this builder
+         */
+        public Builder writeEncodeParallelism(final int parallelism) {
+            this.writeEncodeParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Orders the series of each write request by their tags and the points
+         * of each series by timestamp, the server ingests and compresses the
+         * ordered input faster, and the same points always encode to the same
+         * bytes whatever their arrival order, at the cost of the sorting on
+         * the client.
+         *
+         * @param sortedEncoding whether to sort the write requests
+         * @return this builder
+         */
+        public Builder writeSortedEncoding(final boolean sortedEncoding) {
+            this.writeSortedEncoding = sortedEncoding;
+            return this;
+        }
+
+        /**
+         * Reports the failures of the writes without result, see
+         * {@code Write#writeAsyncNoResult}, they are only recorded in the
+         * metrics if not set.
+         *
+         * @param errorListener the listener called on the failed writes
+         * @return this builder
+         */
+        public Builder writeErrorListener(final WriteErrorListener errorListener) {
+            this.writeErrorListener = errorListener;
+            return this;
+        }
+
+        /**
+         * The maximum number of batches, of {@code maxWriteSize} points each,
+         * written at the same time by a write of an iterator or a stream of
+         * points.
+         *
+         * @param maxInFlight the maximum batches in flight
+         * @return this builder
+         */
+        public Builder writePipelineMaxInFlight(final int maxInFlight) {
+            this.writePipelineMaxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Picks the points per write request of each endpoint adaptively
+         * instead of the static {@code maxWriteSize}, which becomes the initial
+         * size: it grows while the full-sized requests are acknowledged within
+         * {@code targetLatencyMs}, and halves on a flow control error or a
+         * request slower than twice the target.
+         *
+         * @param minSize         the minimum points per request
+         * @param maxSize         the maximum points per request
+         * @param targetLatencyMs the latency under which the size grows
+         * @return this builder
+         */
+        public Builder writeAdaptiveSize(final int minSize, final int maxSize, final long targetLatencyMs) {
+            this.writeAdaptiveSize = true;
+            this.writeAdaptiveMinSize = minSize;
+            this.writeAdaptiveMaxSize = maxSize;
+            this.writeAdaptiveTargetLatencyMs = targetLatencyMs;
+            return this;
+        }
+
+        /**
+         * Pre-aggregates the points of the writes on the client side: the points
+         * of each series are folded into windows of {@code windowMs} and one
+         * point per series per window is written, see {@code AggregatingWriter}.
+         *
+         * @param windowMs    the aggregation window, 0 disables the aggregation
+         * @param maxSeries   the maximum series aggregated, the points of more
+         *                    series are written without aggregation
+         * @param defaultFunc the aggregate function of the fields without one
+         * @return this builder
+         */
+        public Builder writeAggregation(final long windowMs, final int maxSeries, final AggregateFunc defaultFunc) {
+            this.writeAggregationWindowMs = windowMs;
+            this.writeAggregationMaxSeries = maxSeries;
+            this.writeAggregationDefaultFunc = defaultFunc;
+            return this;
+        }
+
+        /**
+         * The aggregate function of the given field, of any table.
+         *
+         * @param field the field name
+         * @param func  the aggregate function
+         * @return this builder
+         */
+        public Builder writeAggregationFunc(final String field, final AggregateFunc func) {
+            this.writeAggregationFuncs.put(field, func);
+            return this;
+        }
+
         /**
          * In the case of routing table failure, a retry of the rpc is attempted.
          *
@@ -328,6 +620,63 @@ public class HoraeDBOptions implements Copiable<HoraeDBOptions> {
             return this;
         }
 
+        /**
+         * Query flow control: acquires the permits asynchronously, same as
+         * {@link #writeAsyncLimit(boolean)}.
+         *
+         * @param queryAsyncLimit whether to acquire the permits asynchronously
+         * @return this builder
+         */
+        public Builder queryAsyncLimit(final boolean queryAsyncLimit) {
+            this.queryAsyncLimit = queryAsyncLimit;
+            return this;
+        }
+
+        /**
+         * The maximum off-heap memory of the arrow results being decoded, or
+         * held as columnar results, by all the queries of the client. A query
+         * exceeding it fails fast with {@code Result.RESULT_TOO_LARGE}.
+         *
+         * @param queryMaxArrowMemory the maximum off-heap memory in bytes
+         * @return this builder
+         */
+        public Builder queryMaxArrowMemory(final long queryMaxArrowMemory) {
+            this.queryMaxArrowMemory = queryMaxArrowMemory;
+            return this;
+        }
+
+        /**
+         * The record batches of a query response, if there are at least
+         * {@code minBatches} of them, are decompressed and decoded in parallel
+         * on a dedicated work-stealing pool of the given parallelism, the rows
+         * keep the order of the batches. A parallelism less than or equal to 1
+         * decodes them one by one on the calling thread.
+         *
+         * @param parallelism the parallelism of the decode pool
+         * @param minBatches  the minimum number of record batches to decode in
+         *                    parallel
+         * @return this builder
+         */
+        public Builder queryDecodeParallelism(final int parallelism, final int minBatches) {
+            this.queryDecodeParallelism = parallelism;
+            this.queryParallelDecodeMinBatches = minBatches;
+            return this;
+        }
+
+        /**
+         * The retry policy of writes and queries. It classifies errors into
+         * retryable, route refreshing and fatal ones, and decides the backoff
+         * before a retry. The default one backs off exponentially with jitter
+         * and bounds the retries to 20% of the requests.
+         *
+         * @param retryPolicy the retry policy
+         * @return this builder
+         */
+        public Builder retryPolicy(final RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
         /**
          * Specifies the maximum number of routing table caches. When the number reaches
          * the limit, the ones that have not been used for a long time are cleared first.
@@ -391,11 +740,43 @@ public class HoraeDBOptions implements Copiable<HoraeDBOptions> {
             opts.writeOptions.setMaxWriteSize(this.maxWriteSize);
             opts.writeOptions.setMaxRetries(this.writeMaxRetries);
             opts.writeOptions.setMaxInFlightWritePoints(this.maxInFlightWritePoints);
+            opts.writeOptions.setMaxInFlightWriteBytes(this.maxInFlightWriteBytes);
             opts.writeOptions.setLimitedPolicy(this.writeLimitedPolicy);
+            opts.writeOptions.setAsyncLimit(this.writeAsyncLimit);
+            opts.writeOptions.setRetryPolicy(this.retryPolicy);
+            opts.writeOptions.setDirectEncoding(this.writeDirectEncoding);
+            opts.writeOptions.setBatchingLingerMs(this.writeBatchingLingerMs);
+            opts.writeOptions.setBatchingMaxBytes(this.writeBatchingMaxBytes);
+            opts.writeOptions.setSpillDir(this.writeSpillDir);
+            opts.writeOptions.setSpillMaxDiskBytes(this.writeSpillMaxDiskBytes);
+            opts.writeOptions.setSpillReplayPointsPerSecond(this.writeSpillReplayPointsPerSecond);
+            opts.writeOptions.setStreamFlowControl(this.streamFlowControl);
+            opts.writeOptions.setStreamReadyTimeoutMs(this.streamReadyTimeoutMs);
+            opts.writeOptions.setStreamMaxPendingRequests(this.streamMaxPendingRequests);
+            opts.writeOptions.setStreamAutoFlushPoints(this.streamAutoFlushPoints);
+            opts.writeOptions.setStreamAutoFlushMaxAgeMs(this.streamAutoFlushMaxAgeMs);
+            opts.writeOptions.setTagCacheSize(this.writeTagCacheSize);
+            opts.writeOptions.setEncodeParallelism(this.writeEncodeParallelism);
+            opts.writeOptions.setSortedEncoding(this.writeSortedEncoding);
+            opts.writeOptions.setErrorListener(this.writeErrorListener);
+            opts.writeOptions.setPipelineMaxInFlight(this.writePipelineMaxInFlight);
+            opts.writeOptions.setAdaptiveWriteSize(this.writeAdaptiveSize);
+            opts.writeOptions.setAdaptiveMinWriteSize(this.writeAdaptiveMinSize);
+            opts.writeOptions.setAdaptiveMaxWriteSize(this.writeAdaptiveMaxSize);
+            opts.writeOptions.setAdaptiveTargetLatencyMs(this.writeAdaptiveTargetLatencyMs);
+            opts.writeOptions.setAggregationWindowMs(this.writeAggregationWindowMs);
+            opts.writeOptions.setAggregationMaxSeries(this.writeAggregationMaxSeries);
+            opts.writeOptions.setAggregationDefaultFunc(this.writeAggregationDefaultFunc);
+            opts.writeOptions.setAggregationFuncs(new HashMap<>(this.writeAggregationFuncs));
             opts.queryOptions = new QueryOptions();
             opts.queryOptions.setMaxRetries(this.readMaxRetries);
             opts.queryOptions.setMaxInFlightQueryRequests(this.maxInFlightQueryRequests);
             opts.queryOptions.setLimitedPolicy(this.queryLimitedPolicy);
+            opts.queryOptions.setAsyncLimit(this.queryAsyncLimit);
+            opts.queryOptions.setMaxArrowMemory(this.queryMaxArrowMemory);
+            opts.queryOptions.setDecodeParallelism(this.queryDecodeParallelism);
+            opts.queryOptions.setParallelDecodeMinBatches(this.queryParallelDecodeMinBatches);
+            opts.queryOptions.setRetryPolicy(this.retryPolicy);
             return HoraeDBOptions.check(opts);
         }
     }
@@ -6,8 +6,10 @@ package org.apache.horaedb.options;
 import java.util.concurrent.Executor;
 
 import org.apache.horaedb.limit.LimitedPolicy;
+import org.apache.horaedb.retry.RetryPolicy;
 import org.apache.horaedb.RouterClient;
 import org.apache.horaedb.common.Copiable;
+import org.apache.horaedb.common.util.Cpus;
 
 /**
  * Query options.
@@ -23,6 +25,18 @@ public class QueryOptions implements Copiable<QueryOptions> {
     // Query flow limit: maximum number of query requests in-flight.
     private int           maxInFlightQueryRequests = 8;
     private LimitedPolicy limitedPolicy            = LimitedPolicy.defaultQueryLimitedPolicy();
+    // Query flow limit: acquire the permits asynchronously, callers are never blocked by the limiter.
+    private boolean asyncLimit = false;
+    // Classifies the errors, and decides the backoff and the budget of retries.
+    private RetryPolicy retryPolicy = RetryPolicy.defaultPolicy();
+    // The maximum off-heap memory, in bytes, of the arrow results being decoded or held as columnar results,
+    // a query exceeding it fails with `Result.RESULT_TOO_LARGE`.
+    private long maxArrowMemory = 1024L * 1024 * 1024;
+    // The parallelism of the pool decoding the record batches of a query response, <= 1 to decode them one by one
+    // on the calling thread.
+    private int decodeParallelism = Cpus.cpus();
+    // A response with fewer record batches is decoded on the calling thread, saving a thread hop.
+    private int parallelDecodeMinBatches = 4;
 
     public String getDatabase() {
         return database;
@@ -64,6 +78,22 @@ public class QueryOptions implements Copiable<QueryOptions> {
         this.maxInFlightQueryRequests = maxInFlightQueryRequests;
     }
 
+    public boolean isAsyncLimit() {
+        return asyncLimit;
+    }
+
+    public void setAsyncLimit(boolean asyncLimit) {
+        this.asyncLimit = asyncLimit;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     public LimitedPolicy getLimitedPolicy() {
         return limitedPolicy;
     }
@@ -72,6 +102,30 @@ public class QueryOptions implements Copiable<QueryOptions> {
         this.limitedPolicy = limitedPolicy;
     }
 
+    public long getMaxArrowMemory() {
+        return maxArrowMemory;
+    }
+
+    public void setMaxArrowMemory(long maxArrowMemory) {
+        this.maxArrowMemory = maxArrowMemory;
+    }
+
+    public int getDecodeParallelism() {
+        return decodeParallelism;
+    }
+
+    public void setDecodeParallelism(int decodeParallelism) {
+        this.decodeParallelism = decodeParallelism;
+    }
+
+    public int getParallelDecodeMinBatches() {
+        return parallelDecodeMinBatches;
+    }
+
+    public void setParallelDecodeMinBatches(int parallelDecodeMinBatches) {
+        this.parallelDecodeMinBatches = parallelDecodeMinBatches;
+    }
+
     @Override
     public QueryOptions copy() {
         final QueryOptions opts = new QueryOptions();
@@ -81,6 +135,11 @@ public class QueryOptions implements Copiable<QueryOptions> {
         opts.maxRetries = this.maxRetries;
         opts.maxInFlightQueryRequests = this.maxInFlightQueryRequests;
         opts.limitedPolicy = this.limitedPolicy;
+        opts.asyncLimit = this.asyncLimit;
+        opts.retryPolicy = this.retryPolicy;
+        opts.maxArrowMemory = this.maxArrowMemory;
+        opts.decodeParallelism = this.decodeParallelism;
+        opts.parallelDecodeMinBatches = this.parallelDecodeMinBatches;
         return opts;
     }
 
@@ -93,6 +152,11 @@ public class QueryOptions implements Copiable<QueryOptions> {
                ", maxRetries=" + maxRetries + //
                ", maxInFlightQueryRequests=" + maxInFlightQueryRequests + //
                ", limitedPolicy=" + limitedPolicy + //
+               ", asyncLimit=" + asyncLimit + //
+               ", retryPolicy=" + retryPolicy + //
+               ", maxArrowMemory=" + maxArrowMemory + //
+               ", decodeParallelism=" + decodeParallelism + //
+               ", parallelDecodeMinBatches=" + parallelDecodeMinBatches + //
                '}';
     }
 }
@@ -3,11 +3,18 @@
  */
 package org.apache.horaedb.options;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 import org.apache.horaedb.limit.LimitedPolicy;
+import org.apache.horaedb.retry.RetryPolicy;
+import org.apache.horaedb.AggregateFunc;
 import org.apache.horaedb.RouterClient;
+import org.apache.horaedb.StreamFlowControl;
+import org.apache.horaedb.WriteErrorListener;
 import org.apache.horaedb.common.Copiable;
+import org.apache.horaedb.common.util.Cpus;
 
 /**
  * Write options.
@@ -26,6 +33,55 @@ public class WriteOptions implements Copiable<WriteOptions> {
     // Write flow limit: maximum number of data points in-flight.
     private int           maxInFlightWritePoints = 8192;
     private LimitedPolicy limitedPolicy          = LimitedPolicy.defaultWriteLimitedPolicy();
+    // Write flow limit: maximum estimated bytes of data points in-flight, it replaces
+    // maxInFlightWritePoints when it is greater than 0.
+    private int maxInFlightWriteBytes = 0;
+    // Write flow limit: acquire the permits asynchronously, callers are never blocked by the limiter.
+    private boolean asyncLimit = false;
+    // Classifies the errors, and decides the backoff and the budget of retries.
+    private RetryPolicy retryPolicy = RetryPolicy.defaultPolicy();
+    // Encode write requests directly into the wire format, without building protobuf messages.
+    private boolean directEncoding = false;
+    // Batching writer: how long points wait for more points to be batched together.
+    private long batchingLingerMs = 5;
+    // Batching writer: flush once the estimated size of the pending points reaches it.
+    private int batchingMaxBytes = 1 << 20;
+    // Spill store: the directory to spill the points failed with transient errors, null to disable.
+    private String spillDir;
+    private int    spillSegmentBytes          = 64 << 20;
+    private long   spillMaxDiskBytes          = 1L << 30;
+    private int    spillReplayPointsPerSecond = 10000;
+    // Stream write: what to do when the stream is not ready, and how long to wait for it in BLOCK mode.
+    private StreamFlowControl streamFlowControl    = StreamFlowControl.BLOCK;
+    private long              streamReadyTimeoutMs = 10_000;
+    // Stream write: the maximum number of the requests queued in ASYNC mode, the following ones fail fast.
+    private int streamMaxPendingRequests = 64;
+    // Stream write: flush once the buffer holds so many points or its first point is so old, 0 to disable.
+    private int  streamAutoFlushPoints   = 0;
+    private long streamAutoFlushMaxAgeMs = 0;
+    // The maximum number of the encoded tags cached and shared by the write requests, 0 to disable.
+    private int tagCacheSize = 10_000;
+    // The parallelism of the pool encoding the requests of a write split by endpoint or size, <= 1 to encode
+    // them one by one on the calling thread.
+    private int encodeParallelism = Cpus.cpus();
+    // Orders the series of a write request by their tags and the points of a series by timestamp.
+    private boolean sortedEncoding = false;
+    // Reports the failures of the writes without result, null to record them only in the metrics.
+    private WriteErrorListener errorListener;
+    // The maximum number of the batches of maxWriteSize points in flight of an iterator write.
+    private int pipelineMaxInFlight = 8;
+    // Adaptive write size: the points per request of each endpoint are picked in [min, max] from the latency
+    // and the flow control errors of the requests, starting from maxWriteSize.
+    private boolean adaptiveWriteSize       = false;
+    private int     adaptiveMinWriteSize    = 64;
+    private int     adaptiveMaxWriteSize    = 4096;
+    private long    adaptiveTargetLatencyMs = 200;
+    // Aggregating writer: the window of the client-side pre-aggregation, 0 to disable, the aggregate
+    // function of each field (the default one for the others), and the maximum series aggregated.
+    private long                       aggregationWindowMs    = 0;
+    private AggregateFunc              aggregationDefaultFunc = AggregateFunc.LAST;
+    private Map<String, AggregateFunc> aggregationFuncs       = new HashMap<>();
+    private int                        aggregationMaxSeries   = 100_000;
 
     public String getDatabase() {
         return database;
@@ -75,6 +131,206 @@ public class WriteOptions implements Copiable<WriteOptions> {
         this.maxInFlightWritePoints = maxInFlightWritePoints;
     }
 
+    public int getMaxInFlightWriteBytes() {
+        return maxInFlightWriteBytes;
+    }
+
+    public void setMaxInFlightWriteBytes(int maxInFlightWriteBytes) {
+        this.maxInFlightWriteBytes = maxInFlightWriteBytes;
+    }
+
+    public boolean isAsyncLimit() {
+        return asyncLimit;
+    }
+
+    public void setAsyncLimit(boolean asyncLimit) {
+        this.asyncLimit = asyncLimit;
+    }
+
+    public String getSpillDir() {
+        return spillDir;
+    }
+
+    public void setSpillDir(String spillDir) {
+        this.spillDir = spillDir;
+    }
+
+    public int getSpillSegmentBytes() {
+        return spillSegmentBytes;
+    }
+
+    public void setSpillSegmentBytes(int spillSegmentBytes) {
+        this.spillSegmentBytes = spillSegmentBytes;
+    }
+
+    public long getSpillMaxDiskBytes() {
+        return spillMaxDiskBytes;
+    }
+
+    public void setSpillMaxDiskBytes(long spillMaxDiskBytes) {
+        this.spillMaxDiskBytes = spillMaxDiskBytes;
+    }
+
+    public int getSpillReplayPointsPerSecond() {
+        return spillReplayPointsPerSecond;
+    }
+
+    public void setSpillReplayPointsPerSecond(int spillReplayPointsPerSecond) {
+        this.spillReplayPointsPerSecond = spillReplayPointsPerSecond;
+    }
+
+    public StreamFlowControl getStreamFlowControl() {
+        return streamFlowControl;
+    }
+
+    public void setStreamFlowControl(StreamFlowControl streamFlowControl) {
+        this.streamFlowControl = streamFlowControl;
+    }
+
+    public long getStreamReadyTimeoutMs() {
+        return streamReadyTimeoutMs;
+    }
+
+    public void setStreamReadyTimeoutMs(long streamReadyTimeoutMs) {
+        this.streamReadyTimeoutMs = streamReadyTimeoutMs;
+    }
+
+    public int getStreamMaxPendingRequests() {
+        return streamMaxPendingRequests;
+    }
+
+    public void setStreamMaxPendingRequests(int streamMaxPendingRequests) {
+        this.streamMaxPendingRequests = streamMaxPendingRequests;
+    }
+
+    public int getStreamAutoFlushPoints() {
+        return streamAutoFlushPoints;
+    }
+
+    public void setStreamAutoFlushPoints(int streamAutoFlushPoints) {
+        this.streamAutoFlushPoints = streamAutoFlushPoints;
+    }
+
+    public long getStreamAutoFlushMaxAgeMs() {
+        return streamAutoFlushMaxAgeMs;
+    }
+
+    public void setStreamAutoFlushMaxAgeMs(long streamAutoFlushMaxAgeMs) {
+        this.streamAutoFlushMaxAgeMs = streamAutoFlushMaxAgeMs;
+    }
+
+    public int getTagCacheSize() {
+        return tagCacheSize;
+    }
+
+    public void setTagCacheSize(int tagCacheSize) {
+        this.tagCacheSize = tagCacheSize;
+    }
+
+    public boolean isSortedEncoding() {
+        return sortedEncoding;
+    }
+
+    public void setSortedEncoding(boolean sortedEncoding) {
+        this.sortedEncoding = sortedEncoding;
+    }
+
+    public WriteErrorListener getErrorListener() {
+        return errorListener;
+    }
+
+    public void setErrorListener(WriteErrorListener errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    public int getPipelineMaxInFlight() {
+        return pipelineMaxInFlight;
+    }
+
+    public void setPipelineMaxInFlight(int pipelineMaxInFlight) {
+        this.pipelineMaxInFlight = pipelineMaxInFlight;
+    }
+
+    public boolean isAdaptiveWriteSize() {
+        return adaptiveWriteSize;
+    }
+
+    public void setAdaptiveWriteSize(boolean adaptiveWriteSize) {
+        this.adaptiveWriteSize = adaptiveWriteSize;
+    }
+
+    public int getAdaptiveMinWriteSize() {
+        return adaptiveMinWriteSize;
+    }
+
+    public void setAdaptiveMinWriteSize(int adaptiveMinWriteSize) {
+        this.adaptiveMinWriteSize = adaptiveMinWriteSize;
+    }
+
+    public int getAdaptiveMaxWriteSize() {
+        return adaptiveMaxWriteSize;
+    }
+
+    public void setAdaptiveMaxWriteSize(int adaptiveMaxWriteSize) {
+        this.adaptiveMaxWriteSize = adaptiveMaxWriteSize;
+    }
+
+    public long getAdaptiveTargetLatencyMs() {
+        return adaptiveTargetLatencyMs;
+    }
+
+    public void setAdaptiveTargetLatencyMs(long adaptiveTargetLatencyMs) {
+        this.adaptiveTargetLatencyMs = adaptiveTargetLatencyMs;
+    }
+
+    public int getEncodeParallelism() {
+        return encodeParallelism;
+    }
+
+    public void setEncodeParallelism(int encodeParallelism) {
+        this.encodeParallelism = encodeParallelism;
+    }
+
+    public long getAggregationWindowMs() {
+        return aggregationWindowMs;
+    }
+
+    public void setAggregationWindowMs(long aggregationWindowMs) {
+        this.aggregationWindowMs = aggregationWindowMs;
+    }
+
+    public AggregateFunc getAggregationDefaultFunc() {
+        return aggregationDefaultFunc;
+    }
+
+    public void setAggregationDefaultFunc(AggregateFunc aggregationDefaultFunc) {
+        this.aggregationDefaultFunc = aggregationDefaultFunc;
+    }
+
+    public Map<String, AggregateFunc> getAggregationFuncs() {
+        return aggregationFuncs;
+    }
+
+    public void setAggregationFuncs(Map<String, AggregateFunc> aggregationFuncs) {
+        this.aggregationFuncs = aggregationFuncs;
+    }
+
+    public int getAggregationMaxSeries() {
+        return aggregationMaxSeries;
+    }
+
+    public void setAggregationMaxSeries(int aggregationMaxSeries) {
+        this.aggregationMaxSeries = aggregationMaxSeries;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     public LimitedPolicy getLimitedPolicy() {
         return limitedPolicy;
     }
@@ -83,6 +339,30 @@ public class WriteOptions implements Copiable<WriteOptions> {
         this.limitedPolicy = limitedPolicy;
     }
 
+    public boolean isDirectEncoding() {
+        return directEncoding;
+    }
+
+    public void setDirectEncoding(boolean directEncoding) {
+        this.directEncoding = directEncoding;
+    }
+
+    public long getBatchingLingerMs() {
+        return batchingLingerMs;
+    }
+
+    public void setBatchingLingerMs(long batchingLingerMs) {
+        this.batchingLingerMs = batchingLingerMs;
+    }
+
+    public int getBatchingMaxBytes() {
+        return batchingMaxBytes;
+    }
+
+    public void setBatchingMaxBytes(int batchingMaxBytes) {
+        this.batchingMaxBytes = batchingMaxBytes;
+    }
+
     @Override
     public WriteOptions copy() {
         final WriteOptions opts = new WriteOptions();
@@ -92,7 +372,35 @@ public class WriteOptions implements Copiable<WriteOptions> {
         opts.maxRetries = this.maxRetries;
         opts.maxWriteSize = this.maxWriteSize;
         opts.maxInFlightWritePoints = this.maxInFlightWritePoints;
+        opts.maxInFlightWriteBytes = this.maxInFlightWriteBytes;
+        opts.asyncLimit = this.asyncLimit;
+        opts.retryPolicy = this.retryPolicy;
         opts.limitedPolicy = this.limitedPolicy;
+        opts.directEncoding = this.directEncoding;
+        opts.batchingLingerMs = this.batchingLingerMs;
+        opts.batchingMaxBytes = this.batchingMaxBytes;
+        opts.spillDir = this.spillDir;
+        opts.spillSegmentBytes = this.spillSegmentBytes;
+        opts.spillMaxDiskBytes = this.spillMaxDiskBytes;
+        opts.spillReplayPointsPerSecond = this.spillReplayPointsPerSecond;
+        opts.streamFlowControl = this.streamFlowControl;
+        opts.streamReadyTimeoutMs = this.streamReadyTimeoutMs;
+        opts.streamMaxPendingRequests = this.streamMaxPendingRequests;
+        opts.streamAutoFlushPoints = this.streamAutoFlushPoints;
+        opts.streamAutoFlushMaxAgeMs = this.streamAutoFlushMaxAgeMs;
+        opts.tagCacheSize = this.tagCacheSize;
+        opts.encodeParallelism = this.encodeParallelism;
+        opts.sortedEncoding = this.sortedEncoding;
+        opts.errorListener = this.errorListener;
+        opts.pipelineMaxInFlight = this.pipelineMaxInFlight;
+        opts.adaptiveWriteSize = this.adaptiveWriteSize;
+        opts.adaptiveMinWriteSize = this.adaptiveMinWriteSize;
+        opts.adaptiveMaxWriteSize = this.adaptiveMaxWriteSize;
+        opts.adaptiveTargetLatencyMs = this.adaptiveTargetLatencyMs;
+        opts.aggregationWindowMs = this.aggregationWindowMs;
+        opts.aggregationDefaultFunc = this.aggregationDefaultFunc;
+        opts.aggregationFuncs = this.aggregationFuncs == null ? null : new HashMap<>(this.aggregationFuncs);
+        opts.aggregationMaxSeries = this.aggregationMaxSeries;
         return opts;
     }
 
@@ -105,7 +413,35 @@ public class WriteOptions implements Copiable<WriteOptions> {
                ", maxRetries=" + maxRetries + //
                ", maxWriteSize=" + maxWriteSize + //
                ", maxInFlightWritePoints=" + maxInFlightWritePoints + //
+               ", maxInFlightWriteBytes=" + maxInFlightWriteBytes + //
+               ", asyncLimit=" + asyncLimit + //
+               ", retryPolicy=" + retryPolicy + //
                ", limitedPolicy=" + limitedPolicy + //
+               ", directEncoding=" + directEncoding + //
+               ", batchingLingerMs=" + batchingLingerMs + //
+               ", batchingMaxBytes=" + batchingMaxBytes + //
+               ", spillDir=" + spillDir + //
+               ", spillSegmentBytes=" + spillSegmentBytes + //
+               ", spillMaxDiskBytes=" + spillMaxDiskBytes + //
+               ", spillReplayPointsPerSecond=" + spillReplayPointsPerSecond + //
+               ", streamFlowControl=" + streamFlowControl + //
+               ", streamReadyTimeoutMs=" + streamReadyTimeoutMs + //
+               ", streamMaxPendingRequests=" + streamMaxPendingRequests + //
+               ", streamAutoFlushPoints=" + streamAutoFlushPoints + //
+               ", streamAutoFlushMaxAgeMs=" + streamAutoFlushMaxAgeMs + //
+               ", tagCacheSize=" + tagCacheSize + //
+               ", encodeParallelism=" + encodeParallelism + //
+               ", sortedEncoding=" + sortedEncoding + //
+               ", errorListener=" + errorListener + //
+               ", pipelineMaxInFlight=" + pipelineMaxInFlight + //
+               ", adaptiveWriteSize=" + adaptiveWriteSize + //
+               ", adaptiveMinWriteSize=" + adaptiveMinWriteSize + //
+               ", adaptiveMaxWriteSize=" + adaptiveMaxWriteSize + //
+               ", adaptiveTargetLatencyMs=" + adaptiveTargetLatencyMs + //
+               ", aggregationWindowMs=" + aggregationWindowMs + //
+               ", aggregationDefaultFunc=" + aggregationDefaultFunc + //
+               ", aggregationFuncs=" + aggregationFuncs + //
+               ", aggregationMaxSeries=" + aggregationMaxSeries + //
                '}';
     }
 }
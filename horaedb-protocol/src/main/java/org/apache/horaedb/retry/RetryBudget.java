@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.horaedb.common.util.Clock;
+import org.apache.horaedb.common.util.Requires;
+
+/**
+ * A token bucket that bounds retries to a fraction of the live traffic.
+ *
+ * <p> Every first attempt deposits {@code ratio} tokens and every retry
+ * withdraws one, so that at most {@code ratio} of the requests are retried
+ * in the long run. {@code minRetriesPerSecond} tokens are refilled over
+ * time, so that a client with very little traffic can still retry. When a
+ * node goes down the budget runs dry quickly and the retries stop instead
+ * of amplifying the outage.
+ *
+ */
+public class RetryBudget {
+
+    // the tokens are kept in millionths, so that they fit in a long updated by CAS
+    private static final long SCALE = 1_000_000L;
+
+    private final double     ratio;
+    private final long       deposit;
+    private final double     minRetriesPerMs;
+    private final long       refillPerMs;
+    private final long       maxTokens;
+    private final AtomicLong tokens;
+    private final AtomicLong lastRefill;
+
+    /**
+     * @param ratio               the tokens deposited by each request, e.g. 0.2 allows
+     *                            retrying 20% of the requests
+     * @param minRetriesPerSecond the retries allowed per second regardless of the traffic
+     * @param maxTokens           the maximum tokens saved up, bounds a burst of retries
+     */
+    public RetryBudget(double ratio, int minRetriesPerSecond, int maxTokens) {
+        Requires.requireTrue(ratio >= 0, "Invalid ratio: %s", ratio);
+        Requires.requireTrue(minRetriesPerSecond >= 0, "Invalid minRetriesPerSecond: %d", minRetriesPerSecond);
+        Requires.requireTrue(maxTokens > 0, "Invalid maxTokens: %d", maxTokens);
+        this.ratio = ratio;
+        this.deposit = Math.round(ratio * SCALE);
+        this.minRetriesPerMs = minRetriesPerSecond / 1000.0;
+        this.refillPerMs = minRetriesPerSecond * SCALE / 1000;
+        this.maxTokens = maxTokens * SCALE;
+        this.tokens = new AtomicLong(this.maxTokens);
+        this.lastRefill = new AtomicLong(Clock.defaultClock().getTick());
+    }
+
+    public static RetryBudget newDefault() {
+        return new RetryBudget(0.2, 10, 100);
+    }
+
+    /**
+     * Called on every first attempt of a request.
+     */
+    public void deposit() {
+        add(this.deposit);
+    }
+
+    /**
+     * Called before a retry.
+     *
+     * @return true if the retry is allowed
+     */
+    public boolean tryWithdraw() {
+        refill();
+        for (;;) {
+            final long cur = this.tokens.get();
+            if (cur < SCALE) {
+                return false;
+            }
+            if (this.tokens.compareAndSet(cur, cur - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    public double availableTokens() {
+        return (double) this.tokens.get() / SCALE;
+    }
+
+    private void refill() {
+        if (this.refillPerMs <= 0) {
+            return;
+        }
+        final long now = Clock.defaultClock().getTick();
+        final long last = this.lastRefill.get();
+        // only the thread moving lastRefill forward adds the elapsed tokens
+        if (now > last && this.lastRefill.compareAndSet(last, now)) {
+            add(Math.min(this.maxTokens, (now - last) * this.refillPerMs));
+        }
+    }
+
+    private void add(final long delta) {
+        for (;;) {
+            final long cur = this.tokens.get();
+            if (cur >= this.maxTokens || delta <= 0) {
+                // full already, the common case under steady traffic, no write at all
+                return;
+            }
+            if (this.tokens.compareAndSet(cur, Math.min(this.maxTokens, cur + delta))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget{" + //
+               "ratio=" + ratio + //
+               ", minRetriesPerSecond=" + (int) (minRetriesPerMs * 1000) + //
+               ", maxTokens=" + maxTokens / SCALE + //
+               '}';
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.retry;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.horaedb.common.util.Requires;
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.rpc.errors.AbortedException;
+import org.apache.horaedb.rpc.errors.ConnectFailException;
+import org.apache.horaedb.rpc.errors.InvokeTimeoutException;
+import org.apache.horaedb.rpc.errors.ResourceExhaustedException;
+import org.apache.horaedb.rpc.errors.UnavailableException;
+
+/**
+ * Decides whether and when a failed write or query is retried.
+ *
+ */
+public interface RetryPolicy {
+
+    enum Decision {
+        /**
+         * Retry on the same route.
+         */
+        RETRY,
+        /**
+         * The route is stale, refresh it and then retry.
+         */
+        REFRESH_ROUTE,
+        /**
+         * Do not retry.
+         */
+        FATAL
+    }
+
+    /**
+     * Classifies an error returned by the server.
+     *
+     * @param err the error
+     * @return the decision
+     */
+    Decision classify(final Err err);
+
+    /**
+     * Classifies an exception raised by the transport.
+     *
+     * @param err the exception
+     * @return the decision
+     */
+    Decision classify(final Throwable err);
+
+    /**
+     * The time to wait before the given retry.
+     *
+     * @param retries the number of retries done so far, starts from 0
+     * @return the delay in milliseconds
+     */
+    long backoffMs(final int retries);
+
+    /**
+     * Called on every first attempt of a request.
+     */
+    void onRequest();
+
+    /**
+     * Called before a retry, it can deny the retry to bound the retry traffic.
+     *
+     * @return true if the retry is allowed
+     */
+    boolean tryAcquireRetry();
+
+    static RetryPolicy defaultPolicy() {
+        return new DefaultRetryPolicy(50, 2000, RetryBudget.newDefault());
+    }
+
+    /**
+     * Retries on {@link Result#SHOULD_RETRY}, refreshes the route and then
+     * retries on {@link Result#INVALID_ROUTE}, and backs off exponentially
+     * with an equal jitter, i.e., a delay in
+     * {@code [d / 2, d)} where {@code d = min(maxBackoffMs, baseBackoffMs * 2^retries)}.
+     * Retries are bounded by a {@link RetryBudget}.
+     *
+     * <p> Transport errors are classified by their remoting exception, a node
+     * that is unavailable or can not be connected may have been moved so the
+     * route is refreshed, timeouts, exhausted resources and aborted calls are
+     * retried on the same route.
+     */
+    class DefaultRetryPolicy implements RetryPolicy {
+
+        private final long        baseBackoffMs;
+        private final long        maxBackoffMs;
+        private final RetryBudget budget;
+
+        public DefaultRetryPolicy(long baseBackoffMs, long maxBackoffMs, RetryBudget budget) {
+            Requires.requireTrue(baseBackoffMs > 0, "Invalid baseBackoffMs: %d", baseBackoffMs);
+            Requires.requireTrue(maxBackoffMs >= baseBackoffMs, "Invalid maxBackoffMs: %d", maxBackoffMs);
+            this.baseBackoffMs = baseBackoffMs;
+            this.maxBackoffMs = maxBackoffMs;
+            this.budget = Requires.requireNonNull(budget, "DefaultRetryPolicy.budget");
+        }
+
+        @Override
+        public Decision classify(final Err err) {
+            if (err == null) {
+                return Decision.FATAL;
+            }
+            switch (err.getCode()) {
+                case Result.INVALID_ROUTE:
+                    return Decision.REFRESH_ROUTE;
+                case Result.SHOULD_RETRY:
+                    return Decision.RETRY;
+                default:
+                    return Decision.FATAL;
+            }
+        }
+
+        @Override
+        public Decision classify(final Throwable err) {
+            Throwable t = err;
+            while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+                t = t.getCause();
+            }
+            if (t instanceof ConnectFailException || t instanceof UnavailableException) {
+                return Decision.REFRESH_ROUTE;
+            }
+            if (t instanceof InvokeTimeoutException || t instanceof TimeoutException
+                || t instanceof ResourceExhaustedException || t instanceof AbortedException) {
+                return Decision.RETRY;
+            }
+            return Decision.FATAL;
+        }
+
+        @Override
+        public long backoffMs(final int retries) {
+            final long backoff = this.baseBackoffMs << Math.min(retries, 20);
+            final long delay = Math.min(this.maxBackoffMs, backoff > 0 ? backoff : this.maxBackoffMs);
+            final long half = delay >> 1;
+            return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+        }
+
+        @Override
+        public void onRequest() {
+            this.budget.deposit();
+        }
+
+        @Override
+        public boolean tryAcquireRetry() {
+            return this.budget.tryWithdraw();
+        }
+
+        @Override
+        public String toString() {
+            return "DefaultRetryPolicy{" + //
+                   "baseBackoffMs=" + baseBackoffMs + //
+                   ", maxBackoffMs=" + maxBackoffMs + //
+                   ", budget=" + budget + //
+                   '}';
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.spill;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.Value;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * A compact binary form of a batch of points, used by the spill store.
+ *
+ * <pre>
+ * batch  := database:string count:uint32 point*
+ * point  := table:name delta_ts:sint64 tag_count:uint32 (name value)* field_count:uint32 (name value)*
+ * name   := id:uint32 [string if id is new]
+ * value  := type:byte [payload if not null]
+ * </pre>
+ *
+ * Names are written once per batch and then referenced by their id, and
+ * timestamps are delta encoded against the previous point.
+ *
+ */
+final class PointCodec {
+
+    private static final Value.DataType[] TYPES     = Value.DataType.values();
+    private static final int              NULL_FLAG = 0x80;
+
+    static byte[] encode(final String database, final List<Point> points) {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(64 + points.size() * 32);
+        final CodedOutputStream out = CodedOutputStream.newInstance(buf);
+        final Map<String, Integer> names = new HashMap<>();
+        try {
+            out.writeStringNoTag(database);
+            out.writeUInt32NoTag(points.size());
+            long prevTs = 0;
+            for (final Point point : points) {
+                writeName(out, names, point.getTable());
+                out.writeSInt64NoTag(point.getTimestamp() - prevTs);
+                prevTs = point.getTimestamp();
+                writeValues(out, names, point.getTags());
+                writeValues(out, names, point.getFields());
+            }
+            out.flush();
+        } catch (final IOException e) {
+            // never happens with an in-memory output
+            throw new IllegalStateException(e);
+        }
+        return buf.toByteArray();
+    }
+
+    static Batch decode(final byte[] bytes) throws IOException {
+        final CodedInputStream in = CodedInputStream.newInstance(bytes);
+        final List<String> names = new ArrayList<>();
+        final String database = in.readString();
+        final int count = in.readUInt32();
+        final List<Point> points = new ArrayList<>(count);
+        long ts = 0;
+        for (int i = 0; i < count; i++) {
+            final Point.PointBuilder builder = Point.newPointBuilder(readName(in, names));
+            ts += in.readSInt64();
+            builder.setTimestamp(ts);
+            final int tagCount = in.readUInt32();
+            for (int j = 0; j < tagCount; j++) {
+                builder.addTag(readName(in, names), readValue(in));
+            }
+            final int fieldCount = in.readUInt32();
+            for (int j = 0; j < fieldCount; j++) {
+                builder.addField(readName(in, names), readValue(in));
+            }
+            points.add(builder.build());
+        }
+        return new Batch(database, points);
+    }
+
+    private static void writeName(final CodedOutputStream out, final Map<String, Integer> names, final String name)
+            throws IOException {
+        final Integer id = names.get(name);
+        if (id != null) {
+            out.writeUInt32NoTag(id);
+            return;
+        }
+        final int newId = names.size();
+        names.put(name, newId);
+        out.writeUInt32NoTag(newId);
+        out.writeStringNoTag(name);
+    }
+
+    private static String readName(final CodedInputStream in, final List<String> names) throws IOException {
+        final int id = in.readUInt32();
+        if (id < names.size()) {
+            return names.get(id);
+        }
+        if (id != names.size()) {
+            throw new IOException("Corrupted name id: " + id);
+        }
+        final String name = in.readString();
+        names.add(name);
+        return name;
+    }
+
+    private static void writeValues(final CodedOutputStream out, final Map<String, Integer> names,
+                                    final Map<String, Value> values)
+            throws IOException {
+        out.writeUInt32NoTag(values.size());
+        for (final Map.Entry<String, Value> e : values.entrySet()) {
+            writeName(out, names, e.getKey());
+            writeValue(out, e.getValue());
+        }
+    }
+
+    private static void writeValue(final CodedOutputStream out, final Value value) throws IOException {
+        final Value.DataType type = value.getDataType();
+        if (value.isNull()) {
+            out.writeRawByte(type.ordinal() | NULL_FLAG);
+            return;
+        }
+        out.writeRawByte(type.ordinal());
+        switch (type) {
+            case String:
+                out.writeStringNoTag(value.getString());
+                break;
+            case Boolean:
+                out.writeBoolNoTag(value.getBoolean());
+                break;
+            case Double:
+                out.writeDoubleNoTag(value.getDouble());
+                break;
+            case Float:
+                out.writeFloatNoTag(value.getFloat());
+                break;
+            case Int64:
+            case UInt64:
+            case Timestamp:
+                out.writeSInt64NoTag((Long) value.getObject());
+                break;
+            case Int32:
+            case Int16:
+            case Int8:
+            case UInt32:
+            case UInt16:
+            case UInt8:
+                out.writeSInt32NoTag((Integer) value.getObject());
+                break;
+            case Varbinary:
+                out.writeByteArrayNoTag(value.getVarbinary());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported data type: " + type);
+        }
+    }
+
+    private static Value readValue(final CodedInputStream in) throws IOException {
+        final int b = in.readRawByte() & 0xff;
+        final int ordinal = b & ~NULL_FLAG;
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Corrupted data type: " + ordinal);
+        }
+        final Value.DataType type = TYPES[ordinal];
+        if ((b & NULL_FLAG) != 0) {
+            return new Value(type, null);
+        }
+        switch (type) {
+            case String:
+                return new Value(type, in.readString());
+            case Boolean:
+                return new Value(type, in.readBool());
+            case Double:
+                return new Value(type, in.readDouble());
+            case Float:
+                return new Value(type, in.readFloat());
+            case Int64:
+            case UInt64:
+            case Timestamp:
+                return new Value(type, in.readSInt64());
+            case Int32:
+            case Int16:
+            case Int8:
+            case UInt32:
+            case UInt16:
+            case UInt8:
+                return new Value(type, in.readSInt32());
+            case Varbinary:
+                return new Value(type, in.readByteArray());
+            default:
+                throw new IOException("Unsupported data type: " + type);
+        }
+    }
+
+    static final class Batch {
+        final String      database;
+        final List<Point> points;
+
+        Batch(String database, List<Point> points) {
+            this.database = database;
+            this.points = points;
+        }
+    }
+
+    private PointCodec() {
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.spill;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.apache.horaedb.common.util.Clock;
+import org.apache.horaedb.common.util.ExecutorServiceHelper;
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.NamedThreadFactory;
+import org.apache.horaedb.common.util.Requires;
+import org.apache.horaedb.common.util.ThreadPoolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.horaedb.errors.LimitedException;
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.retry.RetryPolicy;
+
+import com.codahale.metrics.Meter;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Replays the spilled points in the background, one record at a time and
+ * at most {@code pointsPerSecond} points per second, so that a recovering
+ * cluster is not flooded. While the writes keep failing with transient
+ * errors the replay backs off as the retry policy decides.
+ *
+ */
+public class SpillReplayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillReplayer.class);
+
+    static final long   TICK_MS          = 100;
+    static final String REPLAY_POOL_NAME = "spill_replay";
+
+    static final class InnerMetrics {
+        static final Meter REPLAY_POINTS  = MetricsUtil.meter("spill_replay_points");
+        static final Meter REPLAY_FAILED  = MetricsUtil.meter("spill_replay_failed");
+        static final Meter REPLAY_DROPPED = MetricsUtil.meter("spill_replay_dropped_points");
+
+        static Meter replayPoints() {
+            return REPLAY_POINTS;
+        }
+
+        static Meter replayFailed() {
+            return REPLAY_FAILED;
+        }
+
+        static Meter replayDropped() {
+            return REPLAY_DROPPED;
+        }
+    }
+
+    /**
+     * Writes the replayed points, without spilling them again, it must not
+     * block, e.g. it is rejected with flow control when the limiter has no
+     * permits, the replay pauses then.
+     */
+    @FunctionalInterface
+    public interface Writer {
+        CompletableFuture<Result<WriteOk, Err>> write(final RequestContext reqCtx, final List<Point> points);
+    }
+
+    private final SpillStore    store;
+    private final Writer        writer;
+    private final RetryPolicy   retryPolicy;
+    private final RateLimiter   rateLimiter;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    private ScheduledFuture<?> task;
+    private ExecutorService    replayPool;
+    private volatile long      pausedUntil;
+    private int                failures;
+
+    public SpillReplayer(SpillStore store, Writer writer, RetryPolicy retryPolicy, int pointsPerSecond) {
+        Requires.requireTrue(pointsPerSecond > 0, "Invalid pointsPerSecond: %d", pointsPerSecond);
+        this.store = Requires.requireNonNull(store, "SpillReplayer.store");
+        this.writer = Requires.requireNonNull(writer, "SpillReplayer.writer");
+        this.retryPolicy = Requires.requireNonNull(retryPolicy, "SpillReplayer.retryPolicy");
+        this.rateLimiter = RateLimiter.create(pointsPerSecond);
+    }
+
+    /**
+     * Starts replaying, the timer only ticks, each replay step (reading and
+     * decoding the record, routing and encoding the write) runs on a thread
+     * of the replayer, so that it never holds the shared timer thread, which
+     * also runs the retry backoffs and the limiter timeouts.
+     *
+     * @param timer the timer
+     */
+    public void start(final ScheduledExecutorService timer) {
+        // one step at a time, a tick arriving while a step is queued is dropped
+        this.replayPool = ThreadPoolUtil.newBuilder() //
+                .poolName(REPLAY_POOL_NAME) //
+                .enableMetric(true) //
+                .coreThreads(1) //
+                .maximumThreads(1) //
+                .keepAliveSeconds(60L) //
+                .workQueue(new ArrayBlockingQueue<>(1)) //
+                .threadFactory(new NamedThreadFactory(REPLAY_POOL_NAME, true)) //
+                .rejectedHandler(new ThreadPoolExecutor.DiscardPolicy()) //
+                .build();
+        this.task = timer.scheduleWithFixedDelay(() -> this.replayPool.execute(this::replayOnce), TICK_MS, TICK_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel(false);
+        }
+        if (this.replayPool != null) {
+            ExecutorServiceHelper.shutdownAndAwaitTermination(this.replayPool);
+        }
+    }
+
+    /**
+     * Whether an error is transient, i.e., the points may be written later,
+     * a flow control rejection by the client is transient too.
+     *
+     * @param retryPolicy the retry policy
+     * @param err         the error
+     * @return true if the points of the error are worth spilling
+     */
+    public static boolean isTransient(final RetryPolicy retryPolicy, final Err err) {
+        return err.getCode() == Result.FLOW_CONTROL || retryPolicy.classify(err) != RetryPolicy.Decision.FATAL;
+    }
+
+    void replayOnce() {
+        if (Clock.defaultClock().getTick() < this.pausedUntil || !this.replaying.compareAndSet(false, true)) {
+            return;
+        }
+        final SpillStore.Record record = this.store.peek();
+        if (record == null) {
+            this.replaying.set(false);
+            return;
+        }
+
+        final PointCodec.Batch batch;
+        try {
+            batch = record.decode();
+        } catch (final IOException e) {
+            LOG.error("Drop a corrupted spill record, size={}.", record.size(), e);
+            this.store.commit(record);
+            this.replaying.set(false);
+            return;
+        }
+
+        if (!this.rateLimiter.tryAcquire(Math.max(1, batch.points.size()))) {
+            this.replaying.set(false);
+            return;
+        }
+
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase(batch.database);
+        CompletableFuture<Result<WriteOk, Err>> f;
+        try {
+            f = this.writer.write(reqCtx, batch.points);
+        } catch (final Throwable t) {
+            f = new CompletableFuture<>();
+            f.completeExceptionally(t);
+        }
+        f.whenComplete((r, e) -> {
+            try {
+                onReplayed(record, batch, r, e);
+            } finally {
+                this.replaying.set(false);
+            }
+        });
+    }
+
+    private void onReplayed(final SpillStore.Record record, final PointCodec.Batch batch, final Result<WriteOk, Err> r,
+                            final Throwable e) {
+        if (e != null) {
+            if (e instanceof LimitedException || e.getCause() instanceof LimitedException
+                || this.retryPolicy.classify(e) != RetryPolicy.Decision.FATAL) {
+                pause(e);
+                return;
+            }
+            LOG.error("Drop {} spilled points, failed with a fatal error.", batch.points.size(), e);
+            InnerMetrics.replayDropped().mark(batch.points.size());
+            this.store.commit(record);
+            return;
+        }
+
+        if (r.isOk()) {
+            InnerMetrics.replayPoints().mark(batch.points.size());
+            this.store.commit(record);
+            this.failures = 0;
+            return;
+        }
+
+        final Err err = r.getErr();
+        final List<Point> retryable = err.stream() //
+                .filter(sub -> isTransient(this.retryPolicy, sub)) //
+                .flatMap(sub -> sub.getFailedWrites().stream()) //
+                .collect(Collectors.toList());
+        if (retryable.size() == batch.points.size()) {
+            // nothing written, try the whole record again later
+            pause(err);
+            return;
+        }
+
+        final Optional<Err> fatal = err.stream().filter(sub -> !isTransient(this.retryPolicy, sub)).findAny();
+        if (fatal.isPresent()) {
+            final int dropped = batch.points.size() - retryable.size() - countSuccess(err);
+            LOG.error("Drop {} spilled points, failed with a fatal error: {}.", dropped, fatal.get());
+            InnerMetrics.replayDropped().mark(dropped);
+        }
+        InnerMetrics.replayPoints().mark(countSuccess(err));
+        // keeps the part still worth retrying, the record itself is done
+        if (!retryable.isEmpty() && !this.store.append(batch.database, retryable)) {
+            LOG.error("Drop {} spilled points, the spill store is full.", retryable.size());
+            InnerMetrics.replayDropped().mark(retryable.size());
+        }
+        this.store.commit(record);
+    }
+
+    private static int countSuccess(final Err err) {
+        return err.stream() //
+                .map(Err::getSubOk) //
+                .filter(ok -> ok != null) //
+                .mapToInt(WriteOk::getSuccess) //
+                .sum();
+    }
+
+    private void pause(final Object cause) {
+        InnerMetrics.replayFailed().mark();
+        final long backoffMs = this.retryPolicy.backoffMs(Math.min(this.failures++, 10));
+        this.pausedUntil = Clock.defaultClock().getTick() + backoffMs;
+        LOG.warn("Fail to replay spilled points, pause {} ms, cause={}.", backoffMs, cause);
+    }
+
+    @Override
+    public String toString() {
+        return "SpillReplayer{" + //
+               "store=" + store + //
+               ", pointsPerSecond=" + rateLimiter.getRate() + //
+               '}';
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.spill;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.Requires;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.horaedb.models.Point;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * A memory-mapped, segment-based append log of the points that could not
+ * be written, they are replayed later by a {@link SpillReplayer}.
+ *
+ * <p> Each segment is a file of {@code segmentBytes} bytes, holding records
+ * of {@code [length:int][crc32:int][payload]}, a zero length marks the end
+ * of the written records. A segment is deleted once all of its records have
+ * been replayed. New records are rejected when the segments would take more
+ * than {@code maxDiskBytes}.
+ *
+ * <p> The replay progress is kept in memory only, after a restart the
+ * remaining segments are replayed from the start, i.e., a record may be
+ * written more than once, which is harmless for points with the same
+ * timestamp and tags.
+ *
+ */
+public class SpillStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillStore.class);
+
+    static final String SUFFIX        = ".seg";
+    static final int    RECORD_HEADER = 8;
+
+    static final class InnerMetrics {
+        static final Counter DISK_BYTES = MetricsUtil.counter("spill_disk_bytes");
+
+        static Counter diskBytes() {
+            return DISK_BYTES;
+        }
+    }
+
+    private final File                dir;
+    private final int                 segmentBytes;
+    private final long                maxDiskBytes;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long                      nextSegmentId;
+
+    public SpillStore(String dir, int segmentBytes, long maxDiskBytes) throws IOException {
+        Requires.requireTrue(segmentBytes > RECORD_HEADER, "Invalid segmentBytes: %d", segmentBytes);
+        Requires.requireTrue(maxDiskBytes >= segmentBytes, "Invalid maxDiskBytes: %d", maxDiskBytes);
+        this.dir = new File(Requires.requireNonNull(dir, "SpillStore.dir"));
+        this.segmentBytes = segmentBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("Fail to create spill directory: " + this.dir);
+        }
+        recover();
+    }
+
+    /**
+     * Appends a batch of points.
+     *
+     * @param database the database the points belong to
+     * @param points   the points
+     * @return false if the disk usage cap is reached
+     */
+    public boolean append(final String database, final List<Point> points) {
+        final byte[] payload = PointCodec.encode(database, points);
+        final int size = RECORD_HEADER + payload.length;
+        if (size + RECORD_HEADER > this.segmentBytes) {
+            LOG.warn("Too large to spill, size={}, segmentBytes={}.", size, this.segmentBytes);
+            return false;
+        }
+        synchronized (this) {
+            Segment tail = this.segments.peekLast();
+            // always leaves room for the end marker
+            if (tail == null || tail.writePos + size + RECORD_HEADER > this.segmentBytes) {
+                if (diskBytes() + this.segmentBytes > this.maxDiskBytes) {
+                    return false;
+                }
+                try {
+                    tail = newSegment(this.nextSegmentId++);
+                } catch (final IOException e) {
+                    LOG.error("Fail to create spill segment in {}.", this.dir, e);
+                    return false;
+                }
+                this.segments.addLast(tail);
+            }
+            tail.append(payload);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the oldest record not replayed yet, it stays in the store until
+     * it is committed.
+     *
+     * @return the oldest record, or null if there is none
+     */
+    public synchronized Record peek() {
+        for (final Segment seg : this.segments) {
+            if (seg.readPos < seg.writePos) {
+                return seg.read();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks the given record replayed, a segment is deleted once all its
+     * records are replayed.
+     *
+     * @param record the record returned by {@link #peek()}
+     */
+    public synchronized void commit(final Record record) {
+        final Segment seg = record.segment;
+        if (seg.readPos != record.offset) {
+            return; // committed already
+        }
+        seg.readPos = record.nextOffset;
+        Segment head;
+        while ((head = this.segments.peekFirst()) != null && head.readPos >= head.writePos) {
+            if (head == this.segments.peekLast()) {
+                // the tail is still appended to, start over to reuse its space
+                if (head.writePos > 0) {
+                    head.reset();
+                }
+                break;
+            }
+            this.segments.pollFirst();
+            head.delete();
+        }
+    }
+
+    public synchronized long diskBytes() {
+        return (long) this.segments.size() * this.segmentBytes;
+    }
+
+    public synchronized boolean isEmpty() {
+        for (final Segment seg : this.segments) {
+            if (seg.readPos < seg.writePos) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void close() {
+        for (final Segment seg : this.segments) {
+            seg.buf.force();
+        }
+    }
+
+    private void recover() throws IOException {
+        final File[] files = this.dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (final File file : files) {
+            final long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+            } catch (final NumberFormatException e) {
+                continue;
+            }
+            this.nextSegmentId = Math.max(this.nextSegmentId, id + 1);
+            if (file.length() != this.segmentBytes) {
+                LOG.warn("Skip spill segment {} with a different size {}.", file, file.length());
+                continue;
+            }
+            final Segment seg = newSegment(id);
+            seg.recover();
+            if (seg.writePos == 0) {
+                seg.delete();
+                continue;
+            }
+            this.segments.addLast(seg);
+            LOG.info("Recovered spill segment {}, bytes={}.", file, seg.writePos);
+        }
+    }
+
+    private Segment newSegment(final long id) throws IOException {
+        final File file = new File(this.dir, String.format("%020d%s", id, SUFFIX));
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(this.segmentBytes);
+            final MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentBytes);
+            InnerMetrics.diskBytes().inc(this.segmentBytes);
+            return new Segment(file, buf);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SpillStore{" + //
+               "dir=" + dir + //
+               ", segmentBytes=" + segmentBytes + //
+               ", maxDiskBytes=" + maxDiskBytes + //
+               '}';
+    }
+
+    public static final class Record {
+        private final Segment segment;
+        private final int     offset;
+        private final int     nextOffset;
+        private final byte[]  payload;
+
+        Record(Segment segment, int offset, int nextOffset, byte[] payload) {
+            this.segment = segment;
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.payload = payload;
+        }
+
+        public int size() {
+            return this.payload.length;
+        }
+
+        PointCodec.Batch decode() throws IOException {
+            return PointCodec.decode(this.payload);
+        }
+    }
+
+    final class Segment {
+        final File             file;
+        final MappedByteBuffer buf;
+        int                    writePos;
+        int                    readPos;
+
+        Segment(File file, MappedByteBuffer buf) {
+            this.file = file;
+            this.buf = buf;
+        }
+
+        void append(final byte[] payload) {
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            final int next = this.writePos + RECORD_HEADER + payload.length;
+            final ByteBuffer dup = this.buf.duplicate();
+            // the end marker, a reused segment may have stale records after it
+            dup.putInt(next, 0);
+            dup.position(this.writePos + 4);
+            dup.putInt((int) crc.getValue());
+            dup.put(payload);
+            // the length is written last, a record is visible only when it is complete
+            dup.putInt(this.writePos, payload.length);
+            this.writePos = next;
+        }
+
+        Record read() {
+            final ByteBuffer dup = this.buf.duplicate();
+            final int len = dup.getInt(this.readPos);
+            final byte[] payload = new byte[len];
+            dup.position(this.readPos + RECORD_HEADER);
+            dup.get(payload);
+            return new Record(this, this.readPos, this.readPos + RECORD_HEADER + len, payload);
+        }
+
+        void recover() {
+            final ByteBuffer dup = this.buf.duplicate();
+            int pos = 0;
+            while (pos + RECORD_HEADER <= segmentBytes) {
+                final int len = dup.getInt(pos);
+                if (len <= 0 || pos + RECORD_HEADER + len > segmentBytes) {
+                    break;
+                }
+                final byte[] payload = new byte[len];
+                dup.position(pos + RECORD_HEADER);
+                dup.get(payload);
+                final CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != dup.getInt(pos + 4)) {
+                    LOG.warn("Corrupted spill record in {} at {}, drop the rest.", this.file, pos);
+                    break;
+                }
+                pos += RECORD_HEADER + len;
+            }
+            this.writePos = pos;
+            if (pos + RECORD_HEADER <= segmentBytes) {
+                // drops a torn record after the last complete one
+                dup.putInt(pos, 0);
+            }
+        }
+
+        void reset() {
+            this.buf.putInt(0, 0);
+            this.writePos = 0;
+            this.readPos = 0;
+        }
+
+        void delete() {
+            InnerMetrics.diskBytes().dec(segmentBytes);
+            if (!this.file.delete()) {
+                LOG.warn("Fail to delete spill segment {}.", this.file);
+            }
+        }
+    }
+}
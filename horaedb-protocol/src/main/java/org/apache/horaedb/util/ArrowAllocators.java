@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+
+import org.apache.horaedb.common.util.MetricsUtil;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * The off-heap memory used to decode the arrow results of the queries. All of
+ * it is accounted by one process-wide root allocator, each query client takes
+ * a child bounded by {@code QueryOptions.maxArrowMemory}, and each query a
+ * child of its client, closed once the result is decoded (or, for a columnar
+ * result, closed).
+ *
+ */
+public final class ArrowAllocators {
+
+    private static final AtomicLong    QUERY_IDS = new AtomicLong();
+    private static final RootAllocator ROOT      = new RootAllocator(Long.MAX_VALUE);
+
+    static {
+        MetricsUtil.gauge("query_arrow_allocated_bytes", (Gauge<Long>) ROOT::getAllocatedMemory);
+        MetricsUtil.gauge("query_arrow_peak_bytes", (Gauge<Long>) ROOT::getPeakMemoryAllocation);
+    }
+
+    private ArrowAllocators() {
+    }
+
+    /**
+     * @return the process-wide root of the arrow allocators
+     */
+    public static BufferAllocator root() {
+        return ROOT;
+    }
+
+    /**
+     * Creates the allocator of a query client.
+     *
+     * @param name  the name of the allocator
+     * @param limit the maximum off-heap memory of all the queries of the
+     *              client, in bytes
+     * @return the allocator, closed by the client on shutdown
+     */
+    public static BufferAllocator newClientAllocator(final String name, final long limit) {
+        return ROOT.newChildAllocator(name, 0, limit);
+    }
+
+    /**
+     * Creates the allocator of one query, bounded by its parent.
+     *
+     * @param parent the allocator of the client
+     * @return the allocator, to close once the result is released
+     */
+    public static BufferAllocator newQueryAllocator(final BufferAllocator parent) {
+        return parent.newChildAllocator("query-" + QUERY_IDS.incrementAndGet(), 0, parent.getLimit());
+    }
+}
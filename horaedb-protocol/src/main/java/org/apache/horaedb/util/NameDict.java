@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A dictionary of tag or field names, the index of a name is the order in
+ * which it was first inserted.
+ *
+ */
+public final class NameDict {
+    private final Map<String, Integer> nameIndexes = new HashMap<>();
+    private int                        index       = 0;
+
+    public int insert(final String name) {
+        return this.nameIndexes.computeIfAbsent(name, s -> this.index++);
+    }
+
+    public int indexOf(final String name) {
+        final Integer idx = this.nameIndexes.get(name);
+        return idx == null ? -1 : idx;
+    }
+
+    public int size() {
+        return this.index;
+    }
+
+    public String[] toArray() {
+        final String[] arr = new String[this.index];
+        this.nameIndexes.forEach((name, i) -> arr[i] = name);
+        return arr;
+    }
+
+    public Iterable<String> toOrdered() {
+        final String[] arr = toArray();
+
+        return () -> new Iterator<String>() {
+
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < arr.length;
+            }
+
+            @Override
+            public String next() {
+                return arr[this.index++];
+            }
+        };
+    }
+}
@@ -35,6 +35,18 @@ public interface StreamWriteBuf<V, R> {
      */
     StreamWriteBuf<V, R> flush();
 
+    /**
+     * Flush buffer data to server without blocking on a busy stream. The
+     * default implementation flushes the data and returns a completed
+     * future.
+     *
+     * @return a future completed once the data is handed to the transport
+     */
+    default CompletableFuture<Void> flushAsync() {
+        flush();
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Flush the given data to the server directly. The default
      * implementation write data to the buffer first and then
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.stream.Stream;
+
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.Value;
+
+/**
+ * The points of one table grouped by series, together with the tag and
+ * field name dictionaries of the table. It is the common input of the
+ * write request encoders.
+ *
+ */
+public final class TableGroup {
+
+    private final String      table;
+    private final NameDict    tagDict   = new NameDict();
+    private final NameDict    fieldDict = new NameDict();
+    private final SeriesIndex series    = new SeriesIndex();
+
+    private TableGroup(String table) {
+        this.table = table;
+    }
+
+    /**
+     * Groups the given points by table and then by series, tables and series
+     * keep the order in which they first appear.
+     *
+     * @param data the points to group
+     * @return the table groups
+     */
+    public static Collection<TableGroup> group(final Stream<Point> data) {
+        return group(data, false);
+    }
+
+    /**
+     * Groups the given points by table and then by series, if {@code sorted}
+     * the series of a table are ordered by their tags and the points of a
+     * series by timestamp, so the same points always group the same way
+     * whatever their arrival order, otherwise tables and series keep the
+     * order in which they first appear.
+     *
+     * @param data   the points to group
+     * @param sorted whether to sort the series and the points
+     * @return the table groups
+     */
+    public static Collection<TableGroup> group(final Stream<Point> data, final boolean sorted) {
+        final Map<String, TableGroup> groups = new LinkedHashMap<>();
+        data.forEach(point -> groups.computeIfAbsent(point.getTable(), TableGroup::new).add(point));
+        if (sorted) {
+            groups.values().forEach(group -> group.series.sort());
+        }
+        return groups.values();
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public NameDict getTagDict() {
+        return tagDict;
+    }
+
+    public NameDict getFieldDict() {
+        return fieldDict;
+    }
+
+    public Collection<Series> getSeries() {
+        return this.series.values();
+    }
+
+    private void add(final Point point) {
+        // The tags of a point are sorted by name, so the same tag set always
+        // produces the same hash
+        int hash = 1;
+        int tagCount = 0;
+        for (final Map.Entry<String, Value> tag : point.getTags().entrySet()) {
+            final int nameIndex = this.tagDict.insert(tag.getKey());
+            final Value tagV = tag.getValue();
+            if (Value.isNull(tagV)) {
+                continue;
+            }
+            hash = 31 * hash + (mix(nameIndex) ^ valueHash(tagV));
+            tagCount++;
+        }
+        this.series.getOrAdd(point, mix(hash), tagCount).points.add(point);
+
+        point.getFields().forEach((fieldK, fieldV) -> {
+            if (!Value.isNull(fieldV)) {
+                this.fieldDict.insert(fieldK);
+            }
+        });
+    }
+
+    private static int mix(final int h) {
+        final int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+    private static int valueHash(final Value value) {
+        final Object v = value.getObject();
+        return v instanceof byte[] ? Arrays.hashCode((byte[]) v) : v.hashCode();
+    }
+
+    /**
+     * Compares the non-null tags of two series as sequences of (name, value),
+     * the values by data type and then by value.
+     */
+    static int compareTags(final Series s1, final Series s2) {
+        final Iterator<Map.Entry<String, Value>> it1 = s1.tags.entrySet().iterator();
+        final Iterator<Map.Entry<String, Value>> it2 = s2.tags.entrySet().iterator();
+        for (;;) {
+            final Map.Entry<String, Value> t1 = nextNonNull(it1);
+            final Map.Entry<String, Value> t2 = nextNonNull(it2);
+            if (t1 == null || t2 == null) {
+                return t1 == null ? (t2 == null ? 0 : -1) : 1;
+            }
+            int c = t1.getKey().compareTo(t2.getKey());
+            if (c == 0) {
+                c = compareValues(t1.getValue(), t2.getValue());
+            }
+            if (c != 0) {
+                return c;
+            }
+        }
+    }
+
+    private static Map.Entry<String, Value> nextNonNull(final Iterator<Map.Entry<String, Value>> it) {
+        while (it.hasNext()) {
+            final Map.Entry<String, Value> tag = it.next();
+            if (!Value.isNull(tag.getValue())) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(final Value v1, final Value v2) {
+        if (v1.getDataType() != v2.getDataType()) {
+            return v1.getDataType().compareTo(v2.getDataType());
+        }
+        final Object o1 = v1.getObject();
+        final Object o2 = v2.getObject();
+        if (o1 instanceof byte[]) {
+            final byte[] b1 = (byte[]) o1;
+            final byte[] b2 = (byte[]) o2;
+            for (int i = 0; i < Math.min(b1.length, b2.length); i++) {
+                final int c = Integer.compare(b1[i] & 0xFF, b2[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(b1.length, b2.length);
+        }
+        return ((Comparable) o1).compareTo(o2);
+    }
+
+    private static boolean valueEquals(final Value v1, final Value v2) {
+        if (v1.getDataType() != v2.getDataType()) {
+            return false;
+        }
+        final Object o1 = v1.getObject();
+        final Object o2 = v2.getObject();
+        if (o1 instanceof byte[]) {
+            return Arrays.equals((byte[]) o1, (byte[]) o2);
+        }
+        return o1.equals(o2);
+    }
+
+    /**
+     * The points of one series, the tags of a series are the tags of its
+     * first point.
+     */
+    public static final class Series {
+        private final SortedMap<String, Value> tags;
+        private final int                      hash;
+        private final int                      tagCount;                  // non-null tags
+        private final List<Point>              points = new ArrayList<>();
+
+        Series(Point first, int hash, int tagCount) {
+            this.tags = first.getTags();
+            this.hash = hash;
+            this.tagCount = tagCount;
+        }
+
+        boolean isSameSeries(final Point point, final int tagCount) {
+            if (this.tagCount != tagCount) {
+                return false;
+            }
+            for (final Map.Entry<String, Value> tag : point.getTags().entrySet()) {
+                final Value tagV = tag.getValue();
+                if (Value.isNull(tagV)) {
+                    continue;
+                }
+                final Value thisV = this.tags.get(tag.getKey());
+                if (Value.isNull(thisV) || !valueEquals(thisV, tagV)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public SortedMap<String, Value> getTags() {
+            return tags;
+        }
+
+        public List<Point> getPoints() {
+            return points;
+        }
+
+        void sortByTimestamp() {
+            final int n = this.points.size();
+            if (n < 2) {
+                return;
+            }
+            final long[] ts = new long[n];
+            for (int i = 0; i < n; i++) {
+                ts[i] = this.points.get(i).getTimestamp();
+            }
+            final int[] order = TimestampSorter.sortedOrder(ts);
+            if (order == null) {
+                return;
+            }
+            final Point[] sorted = new Point[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = this.points.get(order[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                this.points.set(i, sorted[i]);
+            }
+        }
+    }
+
+    /**
+     * Series identity of a table, an open addressing table over the hashes
+     * of the (tag name index, tag value) tuples, a hit is verified against
+     * the tags of the series so that hash collisions never merge series.
+     * Series keep the order in which they first appear.
+     */
+    static final class SeriesIndex {
+        private final List<Series> values = new ArrayList<>();
+        private int[]              slots  = new int[16];      // series index + 1, 0 means empty
+
+        Series getOrAdd(final Point point, final int hash, final int tagCount) {
+            final int mask = this.slots.length - 1;
+            int i = hash & mask;
+            int slot;
+            while ((slot = this.slots[i]) != 0) {
+                final Series series = this.values.get(slot - 1);
+                if (series.hash == hash && series.isSameSeries(point, tagCount)) {
+                    return series;
+                }
+                i = (i + 1) & mask;
+            }
+
+            final Series series = new Series(point, hash, tagCount);
+            this.values.add(series);
+            this.slots[i] = this.values.size();
+            if (this.values.size() << 1 > this.slots.length) {
+                rehash();
+            }
+            return series;
+        }
+
+        Collection<Series> values() {
+            return this.values;
+        }
+
+        /**
+         * Orders the series by their tags and the points of each series by
+         * timestamp.
+         */
+        void sort() {
+            this.values.sort(TableGroup::compareTags);
+            this.values.forEach(Series::sortByTimestamp);
+            rehash(this.slots.length);
+        }
+
+        private void rehash() {
+            rehash(this.slots.length << 1);
+        }
+
+        private void rehash(final int capacity) {
+            final int[] newSlots = new int[capacity];
+            final int mask = newSlots.length - 1;
+            for (int n = 0; n < this.values.size(); n++) {
+                int i = this.values.get(n).hash & mask;
+                while (newSlots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                newSlots[i] = n + 1;
+            }
+            this.slots = newSlots;
+        }
+    }
+}
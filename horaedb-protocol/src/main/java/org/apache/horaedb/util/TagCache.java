@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import org.apache.horaedb.common.util.Cpus;
+import org.apache.horaedb.common.util.MetricsUtil;
+import org.apache.horaedb.common.util.Requires;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.proto.internal.Storage;
+
+import com.codahale.metrics.Meter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded, concurrent cache of the encoded {@link Storage.Tag} messages,
+ * keyed by (name index, string value). Tag values are highly repetitive
+ * (host, region, service...), so the same messages are shared by the series
+ * of all write requests instead of being rebuilt per series per request.
+ *
+ * <p> An encoded tag only depends on its name index and value, so the entries
+ * are shared by all tables. Only string values are cached, the other types
+ * are encoded on each call.
+ *
+ */
+public final class TagCache {
+
+    static final class InnerMetrics {
+        static final Meter HIT  = MetricsUtil.meter("write_tag_cache_hit");
+        static final Meter MISS = MetricsUtil.meter("write_tag_cache_miss");
+
+        static Meter hit() {
+            return HIT;
+        }
+
+        static Meter miss() {
+            return MISS;
+        }
+    }
+
+    private final Cache<Key, Storage.Tag> cache;
+
+    public TagCache(long maxSize) {
+        Requires.requireTrue(maxSize > 0, "maxSize must > 0");
+        this.cache = CacheBuilder.newBuilder() //
+                .maximumSize(maxSize) //
+                .concurrencyLevel(Cpus.cpus()) //
+                .build();
+    }
+
+    /**
+     * Returns the encoded tag of the given name index and non-null value.
+     *
+     * @param nameIndex the index of the tag name in the table request
+     * @param value     the tag value
+     * @return the encoded tag
+     */
+    public Storage.Tag getTag(final int nameIndex, final Value value) {
+        if (value.getDataType() != Value.DataType.String) {
+            return encode(nameIndex, value);
+        }
+        final Key key = new Key(nameIndex, value.getString());
+        Storage.Tag tag = this.cache.getIfPresent(key);
+        if (tag != null) {
+            InnerMetrics.hit().mark();
+            return tag;
+        }
+        InnerMetrics.miss().mark();
+        tag = encode(nameIndex, value);
+        this.cache.put(key, tag);
+        return tag;
+    }
+
+    public long size() {
+        return this.cache.size();
+    }
+
+    public static Storage.Tag encode(final int nameIndex, final Value value) {
+        return Storage.Tag.newBuilder() //
+                .setNameIndex(nameIndex) //
+                .setValue(Utils.toProtoValue(value)) //
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "TagCache{" + //
+               "size=" + size() + //
+               '}';
+    }
+
+    private static final class Key {
+        private final int    nameIndex;
+        private final String value;
+        private final int    hash;
+
+        Key(int nameIndex, String value) {
+            this.nameIndex = nameIndex;
+            this.value = value;
+            this.hash = 31 * nameIndex + value.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return this.nameIndex == key.nameIndex && this.value.equals(key.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+/**
+ * Sorts rows by their timestamps extracted into a {@code long[]}, on
+ * primitive arrays only: a stable bottom-up merge sort of the row indexes,
+ * with insertion sorted runs, so the rows with the same timestamp keep
+ * their order and the result is deterministic.
+ *
+ */
+public final class TimestampSorter {
+
+    private static final int RUN = 32;
+
+    private TimestampSorter() {
+    }
+
+    /**
+     * Returns the order of the rows sorted by timestamp.
+     *
+     * @param ts the timestamps of the rows
+     * @return the indexes of the rows in timestamp order, or null if the rows
+     *         are already in timestamp order
+     */
+    public static int[] sortedOrder(final long[] ts) {
+        final int n = ts.length;
+        if (isSorted(ts)) {
+            return null;
+        }
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int lo = 0; lo < n; lo += RUN) {
+            insertionSort(ts, order, lo, Math.min(n, lo + RUN));
+        }
+
+        int[] tmp = new int[n];
+        for (int width = RUN; width < n; width <<= 1) {
+            for (int lo = 0; lo < n; lo += width << 1) {
+                final int mid = Math.min(n, lo + width);
+                final int hi = Math.min(n, lo + (width << 1));
+                merge(ts, order, tmp, lo, mid, hi);
+            }
+            final int[] t = order;
+            order = tmp;
+            tmp = t;
+        }
+        return order;
+    }
+
+    private static boolean isSorted(final long[] ts) {
+        for (int i = 1; i < ts.length; i++) {
+            if (ts[i - 1] > ts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void insertionSort(final long[] ts, final int[] order, final int lo, final int hi) {
+        for (int i = lo + 1; i < hi; i++) {
+            final int row = order[i];
+            final long key = ts[row];
+            int j = i;
+            while (j > lo && ts[order[j - 1]] > key) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = row;
+        }
+    }
+
+    private static void merge(final long[] ts, final int[] src, final int[] dst, final int lo, final int mid,
+                              final int hi) {
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+            // takes from the left run on ties, so the sort is stable
+            if (j >= hi || (i < mid && ts[src[i]] <= ts[src[j]])) {
+                dst[k] = src[i++];
+            } else {
+                dst[k] = src[j++];
+            }
+        }
+    }
+}
@@ -3,34 +3,37 @@
  */
 package org.apache.horaedb.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.horaedb.Route;
 
+import org.apache.horaedb.models.ColumnarBatch;
+import org.apache.horaedb.models.ColumnarResult;
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.Keyword;
 import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
 import org.apache.horaedb.models.Row;
+import org.apache.horaedb.models.RowBatch;
 import org.apache.horaedb.models.SqlQueryOk;
 import org.apache.horaedb.models.Result;
 import org.apache.horaedb.models.Value;
@@ -39,35 +42,21 @@ import org.apache.horaedb.proto.internal.Common;
 import org.apache.horaedb.proto.internal.Storage;
 import org.apache.horaedb.rpc.Observer;
 
-import org.apache.arrow.memory.RootAllocator;
-import org.apache.arrow.vector.BigIntVector;
-import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.OutOfMemoryException;
 import org.apache.arrow.vector.FieldVector;
-import org.apache.arrow.vector.Float4Vector;
-import org.apache.arrow.vector.Float8Vector;
-import org.apache.arrow.vector.IntVector;
-import org.apache.arrow.vector.SmallIntVector;
-import org.apache.arrow.vector.TimeStampMilliVector;
-import org.apache.arrow.vector.TinyIntVector;
-import org.apache.arrow.vector.UInt1Vector;
-import org.apache.arrow.vector.UInt2Vector;
-import org.apache.arrow.vector.UInt4Vector;
-import org.apache.arrow.vector.UInt8Vector;
-import org.apache.arrow.vector.VarBinaryVector;
-import org.apache.arrow.vector.VarCharVector;
 import org.apache.arrow.vector.VectorSchemaRoot;
 import org.apache.arrow.vector.ipc.ArrowStreamReader;
-import org.apache.arrow.vector.types.Types;
-import org.apache.arrow.vector.types.pojo.Field;
-import org.apache.arrow.vector.types.pojo.Schema;
-import com.github.luben.zstd.Zstd;
-import com.github.luben.zstd.ZstdInputStream;
+import org.apache.arrow.vector.util.TransferPair;
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.ByteStringHelper;
 import org.apache.horaedb.common.Display;
 import org.apache.horaedb.common.Endpoint;
 import org.apache.horaedb.common.OptKeys;
 import org.apache.horaedb.common.util.*;
+import org.apache.horaedb.common.util.internal.ThrowUtil;
 
 /**
  * Utils for CeresDBClient.
@@ -79,7 +68,9 @@ public final class Utils {
 
     private static final AtomicBoolean RW_LOGGING;
 
-    private static final int                      REPORT_PERIOD_MIN;
+    private static final int REPORT_PERIOD_MIN;
+    // The tags and length prefixes of a tag or a field and its value
+    private static final int                      POINT_ENTRY_OVERHEAD = 6;
     private static final ScheduledExecutorService DISPLAY;
 
     static {
@@ -135,6 +126,35 @@ public final class Utils {
         DISPLAY.scheduleWithFixedDelay(() -> display.display(printer), 0, autoReportPeriodMin(), TimeUnit.MINUTES);
     }
 
+    /**
+     * Returns a future completed after the given delay, without blocking
+     * any thread.
+     *
+     * @param timer   the timer to schedule the completion
+     * @param delayMs the delay in milliseconds
+     * @return a future completed after the delay
+     */
+    public static CompletableFuture<Void> delay(final ScheduledExecutorService timer, final long delayMs) {
+        if (delayMs <= 0) {
+            return completedCf(null);
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        timer.schedule(() -> future.complete(null), delayMs, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * Returns the executor to run the callbacks of the given key, a
+     * {@link StripedExecutor} runs them in the lane of the key, in order.
+     *
+     * @param pool the async pool
+     * @param key  the key, e.g., an endpoint
+     * @return the executor of the key
+     */
+    public static Executor laneFor(final Executor pool, final Object key) {
+        return pool instanceof StripedExecutor ? ((StripedExecutor) pool).laneFor(key) : pool;
+    }
+
     /**
      * Create a shared scheduler pool with the given name.
      *
@@ -215,6 +235,34 @@ public final class Utils {
         }
     }
 
+    /**
+     * Converts the given {@link Storage.WriteResponse} of a columnar write to
+     * {@link Result}, the failed rows are materialized as {@link Point}s only
+     * if the write failed.
+     *
+     * @param resp  response of the write RPC
+     * @param to    the server address wrote to
+     * @param batch the batch wrote in this write
+     * @param from  the first row (inclusive) wrote
+     * @param end   the last row (exclusive) wrote
+     * @return a {@link Result}
+     */
+    public static Result<WriteOk, Err> toResult(final Storage.WriteResponse resp, //
+                                                final Endpoint to, //
+                                                final PointBatch batch, //
+                                                final int from, //
+                                                final int end) {
+        final Common.ResponseHeader header = resp.getHeader();
+        final int code = header.getCode();
+
+        if (code == Result.SUCCESS) {
+            final Set<String> tables = WriteOk.isCollectWroteDetail() ? Collections.singleton(batch.getTable()) : null;
+            return WriteOk.ok(resp.getSuccess(), resp.getFailed(), tables).mapToResult();
+        } else {
+            return Err.writeErr(code, header.getError(), to, batch.toPoints(from, end)).mapToResult();
+        }
+    }
+
     /**
      * Converts the given {@link Storage.SqlQueryResponse} to {@link Result} that
      * upper-level readable.
@@ -223,12 +271,56 @@ public final class Utils {
      * @param to         the server address wrote to
      * @param tables    the metrics who query failed
      * @param errHandler the error handler
+     * @param allocator  the bounded arrow allocator of the client, the rows are
+     *                   decoded in a child of it, closed once they are built
      * @return a {@link Result}
      */
     public static Result<SqlQueryOk, Err> toResult(final Storage.SqlQueryResponse resp, //
                                                    final String sql, //
                                                    final Endpoint to, //
-                                                   final Collection<String> tables, final Runnable errHandler) {
+                                                   final Collection<String> tables, //
+                                                   final Runnable errHandler, //
+                                                   final BufferAllocator allocator) {
+        try {
+            // without a decode pool the future is already completed
+            return toResultAsync(resp, sql, to, tables, errHandler, false, allocator, null).join();
+        } catch (final CompletionException e) {
+            ThrowUtil.throwException(e.getCause());
+            return null; // never get here
+        }
+    }
+
+    /**
+     * Converts the response of a query to a {@link Result}, with the arrow
+     * batches kept as they are if {@code columnar}. The arrow buffers are
+     * allocated from a child of the given allocator, a result exceeding its
+     * limit is turned into an {@link Err} of {@link Result#RESULT_TOO_LARGE},
+     * a result failing to decode into one of {@link Result#INVALID_RESULT}.
+     * The record batches are decoded in parallel on {@code decodePool} if
+     * not null, the rows keep the order of the batches, and the returned
+     * future completes on the thread decoding the last batch, the calling
+     * thread never waits for the others.
+     *
+     * @param resp       the server response
+     * @param sql        the query sql
+     * @param to         the server address wrote to
+     * @param tables     the metrics who query failed
+     * @param errHandler the error handler
+     * @param columnar   whether to return a {@link ColumnarResult} instead of rows
+     * @param allocator  the arrow allocator of the client
+     * @param decodePool the pool to decode the record batches, null to decode
+     *                   them one by one on the calling thread, the future
+     *                   is then completed when returned
+     * @return a future of the {@link Result}
+     */
+    public static CompletableFuture<Result<SqlQueryOk, Err>> toResultAsync(final Storage.SqlQueryResponse resp, //
+                                                                           final String sql, //
+                                                                           final Endpoint to, //
+                                                                           final Collection<String> tables, //
+                                                                           final Runnable errHandler, //
+                                                                           final boolean columnar, //
+                                                                           final BufferAllocator allocator, //
+                                                                           final Executor decodePool) {
         final Common.ResponseHeader header = resp.getHeader();
         final int code = header.getCode();
         final String msg = header.getError();
@@ -237,18 +329,46 @@ public final class Utils {
             if (errHandler != null) {
                 errHandler.run();
             }
-            return Err.queryErr(code, msg, to, sql, tables).mapToResult();
+            return completedCf(Err.queryErr(code, msg, to, sql, tables).mapToResult());
         }
 
         if (resp.getArrow().getRecordBatchesCount() == 0) {
-            return SqlQueryOk.ok(sql, resp.getAffectedRows(), null).mapToResult();
+            return completedCf(
+                    columnar ? SqlQueryOk.columnar(sql, resp.getAffectedRows(), ColumnarResult.empty()).mapToResult() :
+                            SqlQueryOk.ok(sql, resp.getAffectedRows(), null).mapToResult());
         }
 
-        List<Row> rows = resp.getArrow().getRecordBatchesList().stream()
-                .flatMap(batch -> parseArrowBatch(batch, resp.getArrow().getCompression()).stream())
-                .collect(Collectors.toList());
-
-        return SqlQueryOk.ok(sql, resp.getAffectedRows(), rows).mapToResult();
+        final CompletableFuture<SqlQueryOk> okf = columnar ?
+                parseArrowColumns(resp.getArrow(), allocator, decodePool)
+                        .thenApply(columns -> SqlQueryOk.columnar(sql, resp.getAffectedRows(), columns)) :
+                parseArrowRows(resp.getArrow(), allocator, decodePool)
+                        .thenApply(rows -> SqlQueryOk.ok(sql, resp.getAffectedRows(), rows));
+        return okf.handle((ok, e) -> {
+            if (e == null) {
+                return ok.mapToResult();
+            }
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof OutOfMemoryException) {
+                if (errHandler != null) {
+                    errHandler.run();
+                }
+                MetricsUtil.meter("read_arrow_memory_exceeded").mark();
+                return Err
+                        .queryErr(
+                                Result.RESULT_TOO_LARGE, "The arrow result exceeds the memory limit of "
+                                                         + allocator.getLimit() + " bytes: " + cause.getMessage(),
+                                to, sql, tables)
+                        .mapToResult();
+            }
+            if (cause instanceof IllegalStateException) {
+                if (errHandler != null) {
+                    errHandler.run();
+                }
+                return Err.queryErr(Result.INVALID_RESULT, String.valueOf(cause), to, sql, tables).mapToResult();
+            }
+            ThrowUtil.throwException(cause);
+            return null; // never get here
+        });
     }
 
     /**
@@ -289,6 +409,26 @@ public final class Utils {
         return err;
     }
 
+    /**
+     * Cancels the source future when the dependent one is cancelled, a stage
+     * derived by {@code thenApply}/{@code thenCompose} does not pass its
+     * cancellation back to the source.
+     *
+     * @param dependent the future returned to the caller
+     * @param source    the future the dependent is derived from
+     * @param <U>       the type of the dependent's value
+     * @return the dependent future
+     */
+    public static <U> CompletableFuture<U> propagateCancel(final CompletableFuture<U> dependent,
+                                                           final CompletableFuture<?> source) {
+        dependent.whenComplete((r, e) -> {
+            if (dependent.isCancelled()) {
+                source.cancel(false);
+            }
+        });
+        return dependent;
+    }
+
     /**
      * Break data stream into multiple requests based on the routing table
      * information given.
@@ -322,14 +462,6 @@ public final class Utils {
         return splits;
     }
 
-    public static boolean shouldNotRetry(final Err err) {
-        return !shouldRetry(err);
-    }
-
-    public static boolean shouldRetry(final Err err) {
-        return false;
-    }
-
     public static boolean shouldRefreshRouteTable(final Err err) {
         return err != null;
     }
@@ -385,6 +517,136 @@ public final class Utils {
         }
     }
 
+    public static Storage.Value toProtoValue(final PointBatch batch, final int field, final int row) {
+        final Storage.Value.Builder vb = Storage.Value.newBuilder();
+        switch (batch.getFieldType(field)) {
+            case Double:
+                return vb.setFloat64Value(batch.getDouble(field, row)).build();
+            case String:
+                return vb.setStringValue(batch.getString(field, row)).build();
+            case Int64:
+                return vb.setInt64Value(batch.getLong(field, row)).build();
+            case Float:
+                return vb.setFloat32Value((float) batch.getDouble(field, row)).build();
+            case Int32:
+                return vb.setInt32Value((int) batch.getLong(field, row)).build();
+            case Int16:
+                return vb.setInt16Value((int) batch.getLong(field, row)).build();
+            case Int8:
+                return vb.setInt8Value((int) batch.getLong(field, row)).build();
+            case Boolean:
+                return vb.setBoolValue(batch.getBoolean(field, row)).build();
+            case UInt64:
+                return vb.setUint64Value(batch.getLong(field, row)).build();
+            case UInt32:
+                return vb.setUint32Value((int) batch.getLong(field, row)).build();
+            case UInt16:
+                return vb.setUint16Value((int) batch.getLong(field, row)).build();
+            case UInt8:
+                return vb.setUint8Value((int) batch.getLong(field, row)).build();
+            case Timestamp:
+                return vb.setTimestampValue(batch.getLong(field, row)).build();
+            case Varbinary:
+                return vb.setVarbinaryValue(ByteStringHelper.wrap(batch.getVarbinary(field, row))).build();
+            default:
+                throw new IllegalArgumentException("Invalid type " + batch.getFieldType(field));
+        }
+    }
+
+    /**
+     * A cheap estimate of the encoded size of a point in bytes, strings
+     * are counted as one byte per char.
+     *
+     * @param point the point
+     * @return the estimated size in bytes
+     */
+    public static int estimatedSize(final Point point) {
+        int size = 8 /* timestamp */ + point.getTable().length();
+        for (final Map.Entry<String, Value> tag : point.getTags().entrySet()) {
+            size += estimatedSize(tag.getKey(), tag.getValue());
+        }
+        for (final Map.Entry<String, Value> field : point.getFields().entrySet()) {
+            size += estimatedSize(field.getKey(), field.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * The same estimate as {@link #estimatedSize(Point)} for all rows of a
+     * columnar batch.
+     *
+     * @param batch the batch
+     * @return the estimated size in bytes
+     */
+    public static long estimatedSize(final PointBatch batch) {
+        final int rowCount = batch.getRowCount();
+        long size = (8L /* timestamp */ + batch.getTable().length()) * rowCount;
+        for (int tag = 0; tag < batch.getTagCount(); tag++) {
+            final int nameSize = POINT_ENTRY_OVERHEAD + batch.getTagName(tag).length();
+            for (int row = 0; row < rowCount; row++) {
+                final String v = batch.getTagValue(tag, row);
+                if (v != null) {
+                    size += nameSize + v.length();
+                }
+            }
+        }
+        for (int field = 0; field < batch.getFieldCount(); field++) {
+            final Value.DataType type = batch.getFieldType(field);
+            final int nameSize = POINT_ENTRY_OVERHEAD + batch.getFieldName(field).length();
+            for (int row = 0; row < rowCount; row++) {
+                if (batch.isNull(field, row)) {
+                    continue;
+                }
+                size += nameSize;
+                switch (type) {
+                    case String:
+                        size += batch.getString(field, row).length();
+                        break;
+                    case Varbinary:
+                        size += batch.getVarbinary(field, row).length;
+                        break;
+                    default:
+                        size += fixedSize(type);
+                }
+            }
+        }
+        return size;
+    }
+
+    // Null values are not encoded at all
+    private static int estimatedSize(final String name, final Value value) {
+        if (Value.isNull(value)) {
+            return 0;
+        }
+        final int size = POINT_ENTRY_OVERHEAD + name.length();
+        switch (value.getDataType()) {
+            case String:
+                return size + value.getString().length();
+            case Varbinary:
+                return size + value.getVarbinary().length;
+            default:
+                return size + fixedSize(value.getDataType());
+        }
+    }
+
+    private static int fixedSize(final Value.DataType type) {
+        switch (type) {
+            case Boolean:
+            case Int8:
+            case UInt8:
+                return 1;
+            case Int16:
+            case UInt16:
+                return 2;
+            case Float:
+            case Int32:
+            case UInt32:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
     public static long randomInitialDelay(final long delay) {
         return ThreadLocalRandom.current().nextLong(delay, delay << 1);
     }
@@ -419,211 +681,155 @@ public final class Utils {
         throw new IllegalArgumentException("Invalid type " + value);
     }
 
-    private static List<Row> parseArrowBatch(ByteString batch, Storage.ArrowPayload.Compression compression) {
-        try {
-            InputStream arrowStream = batch.newInput();
-            if (compression == Storage.ArrowPayload.Compression.ZSTD) {
-                byte[] batchBuffer = batch.toByteArray();
-                long decompressedSize = Zstd.decompressedSize(batchBuffer);
-                if (decompressedSize > 0) {
-                    // batch compress mode
-                    byte[] decompressedByteBuffer = Zstd.decompress(batchBuffer, (int) decompressedSize);
-                    arrowStream = new ByteArrayInputStream(decompressedByteBuffer);
-                } else {
-                    // stream compress mode
-                    ZstdInputStream zstdInputStream = new ZstdInputStream(batch.newInput());
-                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(batch.size());
-                    byte[] block = new byte[128 * 1024];
-                    int size = zstdInputStream.read(block);
-                    byteArrayOutputStream.write(block);
-                    while (size > 0) {
-                        size = zstdInputStream.read(block);
-                        byteArrayOutputStream.write(block);
-                    }
-                    arrowStream = new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
-                }
+    /**
+     * Decodes the arrow record batches of the payload into vectors owned by
+     * one allocator, the vectors of each batch are transferred out of the
+     * reader without copying.
+     */
+    private static CompletableFuture<ColumnarResult> parseArrowColumns(final Storage.ArrowPayload arrow,
+                                                                       final BufferAllocator parent,
+                                                                       final Executor decodePool) {
+        final BufferAllocator allocator = ArrowAllocators.newQueryAllocator(parent);
+        final List<ColumnarBatch> batches = new ArrayList<>();
+        return decodeInOrder(arrow.getRecordBatchesList(),
+                batch -> parseArrowColumnBatch(batch, arrow.getCompression(), allocator), decodePool, batches)
+                        .whenComplete((v, e) -> {
+                            if (e != null) {
+                                new ColumnarResult(allocator, batches).close();
+                            }
+                        }) //
+                        .thenApply(v -> new ColumnarResult(allocator, batches));
+    }
+
+    private static List<ColumnarBatch> parseArrowColumnBatch(final ByteString batch,
+                                                             final Storage.ArrowPayload.Compression compression,
+                                                             final BufferAllocator allocator) {
+        final List<ColumnarBatch> batches = new ArrayList<>();
+        try (final ArrowStreamReader reader = new ArrowStreamReader(openArrowStream(batch, compression), allocator)) {
+            final VectorSchemaRoot readRoot = reader.getVectorSchemaRoot();
+            while (reader.loadNextBatch()) {
+                batches.add(new ColumnarBatch(transfer(readRoot, allocator)));
             }
+        } catch (final IOException e) {
+            batches.forEach(b -> b.getRoot().close());
+            throw new IllegalStateException("Fail to decode the arrow record batches", e);
+        } catch (final RuntimeException e) {
+            batches.forEach(b -> b.getRoot().close());
+            throw e;
+        }
+        return batches;
+    }
 
-            ArrowStreamReader arrowStreamReader = new ArrowStreamReader(arrowStream, new RootAllocator());
+    /**
+     * Decodes the record batches into {@code out}, in the order of the
+     * batches. With a decode pool, the first batch is decoded on the calling
+     * thread while the others are decoded on the pool, and the returned
+     * future completes once all of them are decoded, without blocking any
+     * thread to wait for them. Even if one fails, what the others decoded is
+     * in {@code out} to be released, and the future completes with the first
+     * failure.
+     */
+    private static <T> CompletableFuture<List<T>> decodeInOrder(final List<ByteString> batches,
+                                                                final Function<ByteString, List<T>> decoder,
+                                                                final Executor decodePool, final List<T> out) {
+        if (decodePool == null || batches.size() < 2) {
+            try {
+                for (final ByteString batch : batches) {
+                    out.addAll(decoder.apply(batch));
+                }
+                return completedCf(out);
+            } catch (final RuntimeException e) {
+                return errorCf(e);
+            }
+        }
 
-            VectorSchemaRoot readRoot = arrowStreamReader.getVectorSchemaRoot();
-            Schema schema = readRoot.getSchema();
+        final List<CompletableFuture<List<T>>> futures = new ArrayList<>(batches.size());
+        futures.add(null); // the first batch, decoded below
+        for (int i = 1; i < batches.size(); i++) {
+            final ByteString batch = batches.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> decoder.apply(batch), decodePool));
+        }
+        try {
+            futures.set(0, completedCf(decoder.apply(batches.get(0))));
+        } catch (final RuntimeException e) {
+            futures.set(0, errorCf(e));
+        }
 
-            List<Row> batchRows = new LinkedList<>();
-            while (arrowStreamReader.loadNextBatch()) {
-                batchRows.addAll(parseArrowRecord(schema, readRoot));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).handle((v, e) -> {
+            Throwable err = null;
+            for (final CompletableFuture<List<T>> f : futures) {
+                try {
+                    out.addAll(f.join());
+                } catch (final CompletionException ex) {
+                    if (err == null) {
+                        err = ex.getCause() != null ? ex.getCause() : ex;
+                    }
+                }
+            }
+            if (err != null) {
+                ThrowUtil.throwException(err);
             }
-            return batchRows;
-        } catch (IOException e) {
-            return Collections.EMPTY_LIST;
+            return out;
+        });
+    }
+
+    private static VectorSchemaRoot transfer(final VectorSchemaRoot root, final BufferAllocator allocator) {
+        final List<FieldVector> vectors = new ArrayList<>(root.getFieldVectors().size());
+        for (final FieldVector vector : root.getFieldVectors()) {
+            final TransferPair pair = vector.getTransferPair(allocator);
+            pair.transfer();
+            vectors.add((FieldVector) pair.getTo());
         }
+        return new VectorSchemaRoot(root.getSchema().getFields(), vectors, root.getRowCount());
     }
 
-    private static List<Row> parseArrowRecord(Schema schema, VectorSchemaRoot root) {
-        // init row builders
-        List<Row.RowBuilder> builders = new ArrayList<>(root.getRowCount());
-        for (int i = 0; i < root.getRowCount(); i++) {
-            builders.add(Row.newRowBuilder(schema.getFields().size()));
+    /**
+     * Opens the arrow stream of a record batch, a ZSTD one is decompressed on
+     * the fly as the arrow reader consumes it: the compressed bytes are read
+     * in place from the {@link ByteString}, and only the decompression window
+     * (pooled) is held on heap, never a full copy of the batch.
+     */
+    private static InputStream openArrowStream(final ByteString batch,
+                                               final Storage.ArrowPayload.Compression compression)
+            throws IOException {
+        // `newInput` reads the backing bytes of the `ByteString` without copying them
+        final InputStream in = batch.newInput();
+        if (compression == Storage.ArrowPayload.Compression.ZSTD) {
+            // Handles both the batch compress mode (one frame with its content size) and the stream compress mode
+            return new ZstdInputStreamNoFinalizer(in, RecyclingBufferPool.INSTANCE);
         }
+        return in;
+    }
 
-        String[] fields = new String[schema.getFields().size()];
-        for (int fieldIdx = 0; fieldIdx < schema.getFields().size(); fieldIdx++) {
-            Field field = schema.getFields().get(fieldIdx);
-            fields[fieldIdx] = field.getName();
-
-            FieldVector vector = root.getVector(fieldIdx);
-            switch (Types.getMinorTypeForArrowType(field.getType())) {
-                case VARCHAR:
-                    VarCharVector varCharVector = (VarCharVector) vector;
-                    for (int rowIdx = 0; rowIdx < varCharVector.getValueCount(); rowIdx++) {
-                        if (varCharVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withStringOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx,
-                                    Value.withString(new String(varCharVector.get(rowIdx), StandardCharsets.UTF_8)));
-                        }
-                    }
-                    break;
-                case BIT:
-                    BitVector bitVector = (BitVector) vector;
-                    for (int rowIdx = 0; rowIdx < bitVector.getValueCount(); rowIdx++) {
-                        if (bitVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withBooleanOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withBoolean(bitVector.get(rowIdx) > 0));
-                        }
-                    }
-                    break;
-                case FLOAT8:
-                    Float8Vector float8Vector = (Float8Vector) vector;
-                    for (int rowIdx = 0; rowIdx < float8Vector.getValueCount(); rowIdx++) {
-                        if (float8Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withDoubleOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withDouble(float8Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case FLOAT4:
-                    Float4Vector float4Vector = (Float4Vector) vector;
-                    for (int rowIdx = 0; rowIdx < float4Vector.getValueCount(); rowIdx++) {
-                        if (float4Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withFloatOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withFloat(float4Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case BIGINT:
-                    BigIntVector bigIntVector = (BigIntVector) vector;
-                    for (int rowIdx = 0; rowIdx < bigIntVector.getValueCount(); rowIdx++) {
-                        if (bigIntVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt64OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt64(bigIntVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case INT:
-                    IntVector intVector = (IntVector) vector;
-                    for (int rowIdx = 0; rowIdx < intVector.getValueCount(); rowIdx++) {
-                        if (intVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt32OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt32(intVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case SMALLINT:
-                    SmallIntVector smallIntVector = (SmallIntVector) vector;
-                    for (int rowIdx = 0; rowIdx < smallIntVector.getValueCount(); rowIdx++) {
-                        if (smallIntVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt16OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt16(smallIntVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case TINYINT:
-                    TinyIntVector tinyIntVector = (TinyIntVector) vector;
-                    for (int rowIdx = 0; rowIdx < tinyIntVector.getValueCount(); rowIdx++) {
-                        if (tinyIntVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt8OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withInt8(tinyIntVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT8:
-                    UInt8Vector uInt8Vector = (UInt8Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt8Vector.getValueCount(); rowIdx++) {
-                        if (uInt8Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt64OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt64(uInt8Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT4:
-                    UInt4Vector uInt4Vector = (UInt4Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt4Vector.getValueCount(); rowIdx++) {
-                        if (uInt4Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt32OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt32(uInt4Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT2:
-                    UInt2Vector uInt2Vector = (UInt2Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt2Vector.getValueCount(); rowIdx++) {
-                        if (uInt2Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt16OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt16(uInt2Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case UINT1:
-                    UInt1Vector uInt1Vector = (UInt1Vector) vector;
-                    for (int rowIdx = 0; rowIdx < uInt1Vector.getValueCount(); rowIdx++) {
-                        if (uInt1Vector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt8OrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withUInt8(uInt1Vector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case TIMESTAMPMILLI:
-                    TimeStampMilliVector timeStampMilliVector = (TimeStampMilliVector) vector;
-                    for (int rowIdx = 0; rowIdx < timeStampMilliVector.getValueCount(); rowIdx++) {
-                        if (timeStampMilliVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withTimestampOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx,
-                                    Value.withTimestamp(timeStampMilliVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                case VARBINARY:
-                    VarBinaryVector varBinaryVector = (VarBinaryVector) vector;
-                    for (int rowIdx = 0; rowIdx < varBinaryVector.getValueCount(); rowIdx++) {
-                        if (varBinaryVector.isNull(rowIdx)) {
-                            builders.get(rowIdx).setValue(fieldIdx, Value.withVarbinaryOrNull(null));
-                        } else {
-                            builders.get(rowIdx).setValue(fieldIdx,
-                                    Value.withVarbinaryOrNull(varBinaryVector.get(rowIdx)));
-                        }
-                    }
-                    break;
-                default:
-                    // paas
+    /**
+     * Decodes the arrow record batches of the payload into rows, the arrow
+     * buffers are all released once the rows are built.
+     */
+    private static CompletableFuture<List<Row>> parseArrowRows(final Storage.ArrowPayload arrow,
+                                                               final BufferAllocator parent,
+                                                               final Executor decodePool) {
+        final BufferAllocator allocator = ArrowAllocators.newQueryAllocator(parent);
+        return decodeInOrder(arrow.getRecordBatchesList(),
+                batch -> parseArrowBatch(batch, arrow.getCompression(), allocator), decodePool,
+                new ArrayList<RowBatch>()) //
+                        .whenComplete((v, e) -> allocator.close()) //
+                        .thenApply(RowBatch::rowsOf);
+    }
 
+    private static List<RowBatch> parseArrowBatch(ByteString batch, Storage.ArrowPayload.Compression compression,
+                                                  BufferAllocator allocator) {
+        try (ArrowStreamReader arrowStreamReader = new ArrowStreamReader(openArrowStream(batch, compression),
+                allocator)) {
+            VectorSchemaRoot readRoot = arrowStreamReader.getVectorSchemaRoot();
+
+            List<RowBatch> batches = new ArrayList<>();
+            while (arrowStreamReader.loadNextBatch()) {
+                batches.add(RowBatch.decode(readRoot));
             }
+            return batches;
+        } catch (final IOException e) {
+            throw new IllegalStateException("Fail to decode the arrow record batches", e);
         }
-
-        builders.stream().forEach(builder -> builder.setFields(fields));
-        return builders.stream().map(builder -> builder.build()).collect(Collectors.toList());
     }
 
     private Utils() {
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.apache.horaedb.common.OptKeys;
+import org.apache.horaedb.common.util.Cpus;
+import org.apache.horaedb.common.util.SystemPropertyUtil;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.proto.internal.Storage;
+import org.apache.horaedb.rpc.SerializedRequest;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Encodes points into the wire format of {@link Storage.WriteRequest}
+ * directly with a {@link CodedOutputStream}, without building any protobuf
+ * message. The first pass computes the size of every nested message, the
+ * second pass writes the bytes into a pooled buffer, the output is byte
+ * for byte the same as {@code WriteClient#toWriteRequestObj(...).toByteArray()}.
+ *
+ */
+public final class WriteRequestEncoder {
+
+    // Field numbers, see storage.proto
+    private static final int REQ_CONTEXT         = 1;
+    private static final int REQ_TABLE_REQUESTS  = 2;
+    private static final int CTX_DATABASE        = 1;
+    private static final int TABLE_TABLE         = 1;
+    private static final int TABLE_TAG_NAMES     = 2;
+    private static final int TABLE_FIELD_NAMES   = 3;
+    private static final int TABLE_ENTRIES       = 4;
+    private static final int SERIES_TAGS         = 1;
+    private static final int SERIES_FIELD_GROUPS = 2;
+    private static final int FG_TIMESTAMP        = 1;
+    private static final int FG_FIELDS           = 2;
+    private static final int CELL_NAME_INDEX     = 1; // Tag and Field
+    private static final int CELL_VALUE          = 2; // Tag and Field
+
+    private static final BufferPool POOL = new BufferPool(
+            SystemPropertyUtil.getInt(OptKeys.WRITE_ENCODE_POOL_SIZE, Cpus.cpus() << 1), //
+            SystemPropertyUtil.getInt(OptKeys.WRITE_ENCODE_MAX_POOLED_BYTES, 4 << 20));
+
+    private WriteRequestEncoder() {
+    }
+
+    /**
+     * Encodes the given points into a {@link SerializedRequest} of
+     * {@link Storage.WriteRequest}, the request must be sent or released.
+     *
+     * @param reqCtx the request context
+     * @param data   the points to encode
+     * @return the serialized request
+     */
+    public static EncodedRequest encode(final RequestContext reqCtx, final Stream<Point> data) {
+        return encode(reqCtx, data, false);
+    }
+
+    /**
+     * Encodes the given points, with the series ordered by tags and the
+     * points of each series by timestamp if {@code sorted}.
+     *
+     * @param reqCtx the request context
+     * @param data   the points to encode
+     * @param sorted whether to sort the series and the points
+     * @return the serialized request
+     * @see TableGroup#group(Stream, boolean)
+     */
+    public static EncodedRequest encode(final RequestContext reqCtx, final Stream<Point> data, final boolean sorted) {
+        final Collection<TableGroup> groups = TableGroup.group(data, sorted);
+        final Sizes sizes = new Sizes();
+
+        // 1. Compute sizes
+        final String database = reqCtx.getDatabase();
+        final int ctxSize = isEmpty(database) ? 0 : CodedOutputStream.computeStringSize(CTX_DATABASE, database);
+        int total = lengthDelimitedSize(REQ_CONTEXT, ctxSize);
+        for (final TableGroup group : groups) {
+            total += lengthDelimitedSize(REQ_TABLE_REQUESTS, tableSize(group, sizes));
+        }
+
+        // 2. Write
+        final byte[] buf = POOL.acquire(total);
+        final CodedOutputStream out = CodedOutputStream.newInstance(buf, 0, total);
+        try {
+            writeLengthDelimited(out, REQ_CONTEXT, ctxSize);
+            if (!isEmpty(database)) {
+                out.writeString(CTX_DATABASE, database);
+            }
+            sizes.rewind();
+            for (final TableGroup group : groups) {
+                writeTable(out, group, sizes);
+            }
+            out.checkNoSpaceLeft();
+        } catch (final IOException e) {
+            POOL.release(buf);
+            throw new IllegalStateException("Fail to encode write request", e);
+        }
+
+        return new EncodedRequest(buf, total);
+    }
+
+    private static int tableSize(final TableGroup group, final Sizes sizes) {
+        final int slot = sizes.reserve();
+        int size = isEmpty(group.getTable()) ? 0 : CodedOutputStream.computeStringSize(TABLE_TABLE, group.getTable());
+        for (final String name : group.getTagDict().toOrdered()) {
+            size += CodedOutputStream.computeStringSize(TABLE_TAG_NAMES, name);
+        }
+        for (final String name : group.getFieldDict().toOrdered()) {
+            size += CodedOutputStream.computeStringSize(TABLE_FIELD_NAMES, name);
+        }
+        for (final TableGroup.Series series : group.getSeries()) {
+            size += lengthDelimitedSize(TABLE_ENTRIES, seriesSize(group, series, sizes));
+        }
+        sizes.set(slot, size);
+        return size;
+    }
+
+    private static int seriesSize(final TableGroup group, final TableGroup.Series series, final Sizes sizes) {
+        final int slot = sizes.reserve();
+        int size = 0;
+        for (final Map.Entry<String, Value> tag : series.getTags().entrySet()) {
+            if (Value.isNull(tag.getValue())) {
+                continue;
+            }
+            size += lengthDelimitedSize(SERIES_TAGS,
+                    cellSize(group.getTagDict().indexOf(tag.getKey()), tag.getValue(), sizes));
+        }
+        for (final Point point : series.getPoints()) {
+            size += lengthDelimitedSize(SERIES_FIELD_GROUPS, fieldGroupSize(group, point, sizes));
+        }
+        sizes.set(slot, size);
+        return size;
+    }
+
+    private static int fieldGroupSize(final TableGroup group, final Point point, final Sizes sizes) {
+        final int slot = sizes.reserve();
+        final long timestamp = point.getTimestamp();
+        int size = timestamp == 0 ? 0 : CodedOutputStream.computeInt64Size(FG_TIMESTAMP, timestamp);
+        for (final Map.Entry<String, Value> field : point.getFields().entrySet()) {
+            if (Value.isNull(field.getValue())) {
+                continue;
+            }
+            size += lengthDelimitedSize(FG_FIELDS,
+                    cellSize(group.getFieldDict().indexOf(field.getKey()), field.getValue(), sizes));
+        }
+        sizes.set(slot, size);
+        return size;
+    }
+
+    // The size of a Tag or a Field
+    private static int cellSize(final int nameIndex, final Value value, final Sizes sizes) {
+        final int slot = sizes.reserve();
+        final int valueSize = valueSize(value);
+        sizes.add(valueSize);
+        final int size = (nameIndex == 0 ? 0 : CodedOutputStream.computeUInt32Size(CELL_NAME_INDEX, nameIndex))
+                         + lengthDelimitedSize(CELL_VALUE, valueSize);
+        sizes.set(slot, size);
+        return size;
+    }
+
+    private static int valueSize(final Value value) {
+        switch (value.getDataType()) {
+            case Double:
+                return CodedOutputStream.computeDoubleSize(Storage.Value.FLOAT64_VALUE_FIELD_NUMBER, value.getDouble());
+            case String:
+                return CodedOutputStream.computeStringSize(Storage.Value.STRING_VALUE_FIELD_NUMBER, value.getString());
+            case Int64:
+                return CodedOutputStream.computeInt64Size(Storage.Value.INT64_VALUE_FIELD_NUMBER, value.getInt64());
+            case Float:
+                return CodedOutputStream.computeFloatSize(Storage.Value.FLOAT32_VALUE_FIELD_NUMBER, value.getFloat());
+            case Int32:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT32_VALUE_FIELD_NUMBER, value.getInt32());
+            case Int16:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT16_VALUE_FIELD_NUMBER, value.getInt16());
+            case Int8:
+                return CodedOutputStream.computeInt32Size(Storage.Value.INT8_VALUE_FIELD_NUMBER, value.getInt8());
+            case Boolean:
+                return CodedOutputStream.computeBoolSize(Storage.Value.BOOL_VALUE_FIELD_NUMBER, value.getBoolean());
+            case UInt64:
+                return CodedOutputStream.computeUInt64Size(Storage.Value.UINT64_VALUE_FIELD_NUMBER, value.getUInt64());
+            case UInt32:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT32_VALUE_FIELD_NUMBER, value.getUInt32());
+            case UInt16:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT16_VALUE_FIELD_NUMBER, value.getUInt16());
+            case UInt8:
+                return CodedOutputStream.computeUInt32Size(Storage.Value.UINT8_VALUE_FIELD_NUMBER, value.getUInt8());
+            case Timestamp:
+                return CodedOutputStream.computeInt64Size(Storage.Value.TIMESTAMP_VALUE_FIELD_NUMBER,
+                        value.getTimestamp());
+            case Varbinary:
+                return CodedOutputStream.computeByteArraySize(Storage.Value.VARBINARY_VALUE_FIELD_NUMBER,
+                        value.getVarbinary());
+            default:
+                throw new IllegalArgumentException("Invalid type " + value);
+        }
+    }
+
+    private static void writeTable(final CodedOutputStream out, final TableGroup group, final Sizes sizes)
+            throws IOException {
+        writeLengthDelimited(out, REQ_TABLE_REQUESTS, sizes.next());
+        if (!isEmpty(group.getTable())) {
+            out.writeString(TABLE_TABLE, group.getTable());
+        }
+        for (final String name : group.getTagDict().toOrdered()) {
+            out.writeString(TABLE_TAG_NAMES, name);
+        }
+        for (final String name : group.getFieldDict().toOrdered()) {
+            out.writeString(TABLE_FIELD_NAMES, name);
+        }
+        for (final TableGroup.Series series : group.getSeries()) {
+            writeLengthDelimited(out, TABLE_ENTRIES, sizes.next());
+            for (final Map.Entry<String, Value> tag : series.getTags().entrySet()) {
+                if (Value.isNull(tag.getValue())) {
+                    continue;
+                }
+                writeCell(out, SERIES_TAGS, group.getTagDict().indexOf(tag.getKey()), tag.getValue(), sizes);
+            }
+            for (final Point point : series.getPoints()) {
+                writeLengthDelimited(out, SERIES_FIELD_GROUPS, sizes.next());
+                if (point.getTimestamp() != 0) {
+                    out.writeInt64(FG_TIMESTAMP, point.getTimestamp());
+                }
+                for (final Map.Entry<String, Value> field : point.getFields().entrySet()) {
+                    if (Value.isNull(field.getValue())) {
+                        continue;
+                    }
+                    writeCell(out, FG_FIELDS, group.getFieldDict().indexOf(field.getKey()), field.getValue(), sizes);
+                }
+            }
+        }
+    }
+
+    private static void writeCell(final CodedOutputStream out, final int fieldNumber, final int nameIndex,
+                                  final Value value, final Sizes sizes)
+            throws IOException {
+        writeLengthDelimited(out, fieldNumber, sizes.next());
+        if (nameIndex != 0) {
+            out.writeUInt32(CELL_NAME_INDEX, nameIndex);
+        }
+        writeLengthDelimited(out, CELL_VALUE, sizes.next());
+        writeValue(out, value);
+    }
+
+    private static void writeValue(final CodedOutputStream out, final Value value) throws IOException {
+        switch (value.getDataType()) {
+            case Double:
+                out.writeDouble(Storage.Value.FLOAT64_VALUE_FIELD_NUMBER, value.getDouble());
+                break;
+            case String:
+                out.writeString(Storage.Value.STRING_VALUE_FIELD_NUMBER, value.getString());
+                break;
+            case Int64:
+                out.writeInt64(Storage.Value.INT64_VALUE_FIELD_NUMBER, value.getInt64());
+                break;
+            case Float:
+                out.writeFloat(Storage.Value.FLOAT32_VALUE_FIELD_NUMBER, value.getFloat());
+                break;
+            case Int32:
+                out.writeInt32(Storage.Value.INT32_VALUE_FIELD_NUMBER, value.getInt32());
+                break;
+            case Int16:
+                out.writeInt32(Storage.Value.INT16_VALUE_FIELD_NUMBER, value.getInt16());
+                break;
+            case Int8:
+                out.writeInt32(Storage.Value.INT8_VALUE_FIELD_NUMBER, value.getInt8());
+                break;
+            case Boolean:
+                out.writeBool(Storage.Value.BOOL_VALUE_FIELD_NUMBER, value.getBoolean());
+                break;
+            case UInt64:
+                out.writeUInt64(Storage.Value.UINT64_VALUE_FIELD_NUMBER, value.getUInt64());
+                break;
+            case UInt32:
+                out.writeUInt32(Storage.Value.UINT32_VALUE_FIELD_NUMBER, value.getUInt32());
+                break;
+            case UInt16:
+                out.writeUInt32(Storage.Value.UINT16_VALUE_FIELD_NUMBER, value.getUInt16());
+                break;
+            case UInt8:
+                out.writeUInt32(Storage.Value.UINT8_VALUE_FIELD_NUMBER, value.getUInt8());
+                break;
+            case Timestamp:
+                out.writeInt64(Storage.Value.TIMESTAMP_VALUE_FIELD_NUMBER, value.getTimestamp());
+                break;
+            case Varbinary:
+                out.writeByteArray(Storage.Value.VARBINARY_VALUE_FIELD_NUMBER, value.getVarbinary());
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid type " + value);
+        }
+    }
+
+    private static int lengthDelimitedSize(final int fieldNumber, final int size) {
+        return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    private static void writeLengthDelimited(final CodedOutputStream out, final int fieldNumber, final int size)
+            throws IOException {
+        out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+    }
+
+    private static boolean isEmpty(final String s) {
+        return s == null || s.isEmpty();
+    }
+
+    /**
+     * The sizes of nested messages in the order they are written, the
+     * second pass reads them back in the same order.
+     */
+    private static final class Sizes {
+        private int[] values = new int[64];
+        private int   count;
+        private int   cursor;
+
+        int reserve() {
+            if (this.count == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.count << 1);
+            }
+            return this.count++;
+        }
+
+        void add(final int size) {
+            // reserves first, the array may be grown
+            final int slot = reserve();
+            this.values[slot] = size;
+        }
+
+        void set(final int slot, final int size) {
+            this.values[slot] = size;
+        }
+
+        void rewind() {
+            this.cursor = 0;
+        }
+
+        int next() {
+            return this.values[this.cursor++];
+        }
+    }
+
+    /**
+     * A bounded pool of byte arrays, arrays larger than {@code maxPooledBytes}
+     * are never pooled. A buffer that is not released is simply garbage
+     * collected.
+     */
+    static final class BufferPool {
+        private static final int MIN_BUFFER_SIZE = 4096;
+
+        private final BlockingQueue<byte[]> buffers;
+        private final int                   maxPooledBytes;
+
+        BufferPool(int capacity, int maxPooledBytes) {
+            this.buffers = new ArrayBlockingQueue<>(Math.max(1, capacity));
+            this.maxPooledBytes = maxPooledBytes;
+        }
+
+        byte[] acquire(final int size) {
+            final byte[] buf = this.buffers.poll();
+            if (buf != null && buf.length >= size) {
+                return buf;
+            }
+            // Too small, drop it and allocate a larger one rounded up to a power of two,
+            // so that it can serve the following requests of similar sizes
+            if (size > this.maxPooledBytes) {
+                return new byte[size];
+            }
+            return new byte[Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(Math.max(1, size - 1)) << 1)];
+        }
+
+        void release(final byte[] buf) {
+            if (buf.length <= this.maxPooledBytes) {
+                this.buffers.offer(buf);
+            }
+        }
+    }
+
+    /**
+     * An encoded {@link Storage.WriteRequest} backed by a pooled buffer.
+     */
+    public static final class EncodedRequest implements SerializedRequest {
+        private final byte[]        buf;
+        private final int           size;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        EncodedRequest(byte[] buf, int size) {
+            this.buf = buf;
+            this.size = size;
+        }
+
+        @Override
+        public Class<?> messageType() {
+            return Storage.WriteRequest.class;
+        }
+
+        @Override
+        public byte[] array() {
+            return this.buf;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public void release() {
+            if (this.released.compareAndSet(false, true)) {
+                POOL.release(this.buf);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "EncodedRequest{" + //
+                   "messageType=" + Storage.WriteRequest.class.getSimpleName() + //
+                   ", size=" + size + //
+                   '}';
+        }
+    }
+}
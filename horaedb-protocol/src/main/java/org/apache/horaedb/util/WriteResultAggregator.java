@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.WriteOk;
+
+/**
+ * Combines the results of a fan-out write in a single pass, each result is
+ * merged in place as soon as its future completes and the combined future
+ * is completed once, by the last one.
+ *
+ * <p> The combined result is the same as reducing the results with
+ * {@link Utils#combineResult}, but without a chain of dependent stages.
+ * If any of the futures completes exceptionally, so does the combined one.
+ *
+ */
+public final class WriteResultAggregator {
+
+    private final CompletableFuture<Result<WriteOk, Err>> future = new CompletableFuture<>();
+    private final AtomicInteger                           remaining;
+
+    private WriteOk ok;
+    private Err     err;
+
+    private WriteResultAggregator(int count) {
+        this.remaining = new AtomicInteger(count);
+    }
+
+    /**
+     * Combines the results of all the given futures.
+     *
+     * @param fs the futures of the sub writes
+     * @return the future of the combined result, an empty ok if there is no
+     *         future at all
+     */
+    public static CompletableFuture<Result<WriteOk, Err>> combineAll(final Collection<CompletableFuture<Result<WriteOk, Err>>> fs) {
+        if (fs.isEmpty()) {
+            return Utils.completedCf(WriteOk.emptyOk().mapToResult());
+        }
+        if (fs.size() == 1) {
+            return fs.iterator().next();
+        }
+        final WriteResultAggregator aggregator = new WriteResultAggregator(fs.size());
+        for (final CompletableFuture<Result<WriteOk, Err>> f : fs) {
+            f.whenComplete(aggregator::onComplete);
+        }
+        return aggregator.future;
+    }
+
+    private void onComplete(final Result<WriteOk, Err> r, final Throwable t) {
+        if (t != null) {
+            this.future.completeExceptionally(t);
+            return;
+        }
+        synchronized (this) {
+            merge(r);
+        }
+        if (this.remaining.decrementAndGet() == 0) {
+            this.future.complete(result());
+        }
+    }
+
+    private void merge(final Result<WriteOk, Err> r) {
+        if (r.isOk()) {
+            if (this.ok == null) {
+                this.ok = r.getOk();
+            } else {
+                this.ok.combine(r.getOk());
+            }
+        } else {
+            if (this.err == null) {
+                this.err = r.getErr();
+            } else {
+                this.err.combine(r.getErr());
+            }
+        }
+    }
+
+    private synchronized Result<WriteOk, Err> result() {
+        if (this.err == null) {
+            return this.ok.mapToResult();
+        }
+        return this.ok == null ? this.err.mapToResult() : this.err.combine(this.ok).mapToResult();
+    }
+}
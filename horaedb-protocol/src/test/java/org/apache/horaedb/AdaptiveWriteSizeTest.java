@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.limit.AdaptiveWriteSize;
+
+public class AdaptiveWriteSizeTest {
+
+    private static final Endpoint EP1 = Endpoint.of("127.0.0.1", 8831);
+    private static final Endpoint EP2 = Endpoint.of("127.0.0.2", 8831);
+
+    @Test
+    public void additiveIncreaseTest() {
+        final AdaptiveWriteSize sizer = new AdaptiveWriteSize(64, 128, 100, 1_000);
+        Assert.assertEquals(100, sizer.sizeFor(EP1));
+
+        // not full-sized, tells nothing
+        sizer.onResult(EP1, 10, 1, false);
+        Assert.assertEquals(100, sizer.sizeFor(EP1));
+
+        sizer.onResult(EP1, 100, 1, false);
+        Assert.assertEquals(101, sizer.sizeFor(EP1));
+
+        for (int i = 0; i < 100; i++) {
+            sizer.onResult(EP1, sizer.sizeFor(EP1), 1, false);
+        }
+        Assert.assertEquals(128, sizer.sizeFor(EP1));
+        // the other endpoint is not affected
+        Assert.assertEquals(100, sizer.sizeFor(EP2));
+    }
+
+    @Test
+    public void multiplicativeDecreaseTest() {
+        final AdaptiveWriteSize sizer = new AdaptiveWriteSize(16, 1024, 1024, 1_000);
+        sizer.onResult(EP1, 1024, 1, true);
+        Assert.assertEquals(512, sizer.sizeFor(EP1));
+
+        // the requests in flight with the old size do not halve it again
+        sizer.onResult(EP1, 1024, 1, true);
+        sizer.onResult(EP1, 1024, 5_000, false);
+        Assert.assertEquals(512, sizer.sizeFor(EP1));
+
+        // between the target and twice the target, holds
+        sizer.onResult(EP1, 512, 1_500, false);
+        Assert.assertEquals(512, sizer.sizeFor(EP1));
+    }
+
+    @Test
+    public void slowRequestDecreaseToMinTest() throws InterruptedException {
+        final AdaptiveWriteSize sizer = new AdaptiveWriteSize(16, 1024, 64, 10);
+        for (int i = 0; i < 5; i++) {
+            sizer.onResult(EP1, 64, 100, false);
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(16, sizer.sizeFor(EP1));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.models.WriteRequest;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.Utils;
+
+@RunWith(value = MockitoJUnitRunner.class)
+public class AggregatingWriterTest {
+
+    private static final String TABLE  = "aggregating_test_table";
+    private static final long   WINDOW = 60_000;
+
+    private AggregatingWriter  aggregatingWriter;
+    private List<WriteRequest> requests;
+    @Mock
+    private Write              write;
+
+    @Before
+    public void before() {
+        this.requests = new CopyOnWriteArrayList<>();
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))) //
+                .thenAnswer(invocation -> {
+                    final WriteRequest req = (WriteRequest) invocation.getArguments()[0];
+                    this.requests.add(req);
+                    return Utils.completedCf(WriteOk.ok(req.getPoints().size(), 0, null).mapToResult());
+                });
+    }
+
+    @After
+    public void after() {
+        if (this.aggregatingWriter != null) {
+            this.aggregatingWriter.shutdownGracefully();
+        }
+    }
+
+    private void init(final int maxSeries) {
+        final WriteOptions opts = new WriteOptions();
+        opts.setDatabase("public");
+        opts.setAggregationWindowMs(WINDOW);
+        opts.setAggregationMaxSeries(maxSeries);
+        opts.getAggregationFuncs().put("sum", AggregateFunc.SUM);
+        opts.getAggregationFuncs().put("max", AggregateFunc.MAX);
+        opts.getAggregationFuncs().put("cnt", AggregateFunc.COUNT);
+        this.aggregatingWriter = new AggregatingWriter(this.write);
+        this.aggregatingWriter.init(opts);
+    }
+
+    private static Point newPoint(final String host, final long ts, final long v) {
+        return Point.newPointBuilder(TABLE) //
+                .setTimestamp(ts) //
+                .addTag("host", host) //
+                .addField("sum", Value.withInt64(v)) //
+                .addField("max", Value.withDouble(v)) //
+                .addField("cnt", Value.withInt64(v)) //
+                .addField("last", Value.withString("s" + v)) //
+                .build();
+    }
+
+    private List<Point> emitted() {
+        final List<Point> points = new ArrayList<>();
+        this.requests.forEach(req -> points.addAll(req.getPoints()));
+        return points;
+    }
+
+    @Test
+    public void aggregateTest() throws Exception {
+        init(100);
+        final List<Point> points = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            points.add(newPoint("h1", WINDOW + i, i));
+            points.add(newPoint("h2", WINDOW + i, -i));
+        }
+        final Result<WriteOk, Err> r = this.aggregatingWriter.write(new WriteRequest(points)).get();
+        Assert.assertTrue(r.isOk());
+        Assert.assertEquals(200, r.getOk().getSuccess());
+        Assert.assertTrue(this.requests.isEmpty());
+        Assert.assertEquals(2, this.aggregatingWriter.seriesCount());
+
+        this.aggregatingWriter.emit(true);
+        final List<Point> out = emitted();
+        Assert.assertEquals(2, out.size());
+        for (final Point p : out) {
+            Assert.assertEquals(WINDOW, p.getTimestamp());
+            final boolean h1 = "h1".equals(p.getTags().get("host").getString());
+            Assert.assertEquals(h1 ? 5050 : -5050, p.getFields().get("sum").getInt64());
+            Assert.assertEquals(h1 ? 100 : -1, p.getFields().get("max").getDouble(), 0.000001);
+            Assert.assertEquals(100, p.getFields().get("cnt").getInt64());
+            Assert.assertEquals(h1 ? "s100" : "s-100", p.getFields().get("last").getString());
+        }
+
+        // no point in the last window, evicted
+        this.aggregatingWriter.emit(true);
+        Assert.assertEquals(2, emitted().size());
+        Assert.assertEquals(0, this.aggregatingWriter.seriesCount());
+    }
+
+    @Test
+    public void windowRolloverTest() throws Exception {
+        init(100);
+        final List<Point> points = new ArrayList<>();
+        points.add(newPoint("h1", WINDOW + 1, 1));
+        points.add(newPoint("h1", 2 * WINDOW + 1, 2));
+        // late, written through
+        points.add(newPoint("h1", WINDOW + 2, 3));
+        this.aggregatingWriter.write(new WriteRequest(points)).get();
+        Assert.assertEquals(1, this.requests.size());
+        Assert.assertEquals(WINDOW + 2, this.requests.get(0).getPoints().get(0).getTimestamp());
+
+        this.aggregatingWriter.emit(true);
+        final List<Point> out = emitted();
+        Assert.assertEquals(3, out.size());
+        Assert.assertEquals(WINDOW, out.get(1).getTimestamp());
+        Assert.assertEquals(2 * WINDOW, out.get(2).getTimestamp());
+        Assert.assertEquals(2, out.get(2).getFields().get("sum").getInt64());
+    }
+
+    @Test
+    public void latePointAfterEmitTest() throws Exception {
+        init(100);
+        this.aggregatingWriter.write(new WriteRequest(Collections.singletonList(newPoint("h1", WINDOW + 1, 1)))).get();
+        // the window is long closed, emitted by the tick
+        this.aggregatingWriter.emit(false);
+        Assert.assertEquals(1, emitted().size());
+
+        // late, of the emitted window, written through instead of aggregated again
+        this.aggregatingWriter.write(new WriteRequest(Collections.singletonList(newPoint("h1", WINDOW + 2, 2)))).get();
+        Assert.assertEquals(2, this.requests.size());
+        Assert.assertEquals(WINDOW + 2, this.requests.get(1).getPoints().get(0).getTimestamp());
+
+        this.aggregatingWriter.emit(false);
+        Assert.assertEquals(2, emitted().size());
+    }
+
+    @Test
+    public void latePointAfterEvictTest() throws Exception {
+        init(100);
+        this.aggregatingWriter.write(new WriteRequest(Collections.singletonList(newPoint("h1", WINDOW + 1, 1)))).get();
+        this.aggregatingWriter.emit(false);
+        // no point in the last window, evicted
+        this.aggregatingWriter.emit(false);
+        Assert.assertEquals(1, emitted().size());
+        Assert.assertEquals(0, this.aggregatingWriter.seriesCount());
+
+        // late, of the window emitted before the eviction, written through instead of emitted again
+        this.aggregatingWriter.write(new WriteRequest(Collections.singletonList(newPoint("h1", WINDOW + 2, 2)))).get();
+        Assert.assertEquals(2, this.requests.size());
+        Assert.assertEquals(WINDOW + 2, this.requests.get(1).getPoints().get(0).getTimestamp());
+        Assert.assertEquals(0, this.aggregatingWriter.seriesCount());
+
+        this.aggregatingWriter.emit(true);
+        Assert.assertEquals(2, emitted().size());
+    }
+
+    @Test
+    public void writeAsyncNoResultTest() {
+        init(1);
+        final List<Point> points = new ArrayList<>();
+        points.add(newPoint("h1", WINDOW + 1, 1));
+        points.add(newPoint("h2", WINDOW + 1, 2));
+        this.aggregatingWriter.writeAsyncNoResult(new WriteRequest(points), Context.newDefault());
+
+        // the point over the max series is handed to the write without result, no future at all
+        final ArgumentCaptor<WriteRequest> captor = ArgumentCaptor.forClass(WriteRequest.class);
+        Mockito.verify(this.write).writeAsyncNoResult(captor.capture(), Mockito.any(Context.class));
+        Mockito.verify(this.write, Mockito.never()).write(Mockito.any(WriteRequest.class), Mockito.any(Context.class));
+        Assert.assertEquals(1, captor.getValue().getPoints().size());
+        Assert.assertEquals("h2", captor.getValue().getPoints().get(0).getTags().get("host").getString());
+        Assert.assertEquals("public", captor.getValue().getReqCtx().getDatabase());
+
+        this.aggregatingWriter.emit(true);
+        Assert.assertEquals(1, emitted().size());
+        Assert.assertEquals(1, emitted().get(0).getFields().get("sum").getInt64());
+    }
+
+    @Test
+    public void emitOffTimerThreadTest() throws Exception {
+        final WriteOptions opts = new WriteOptions();
+        opts.setDatabase("public");
+        opts.setAggregationWindowMs(20);
+        this.aggregatingWriter = new AggregatingWriter(this.write);
+        this.aggregatingWriter.init(opts);
+
+        final CompletableFuture<String> writeThread = new CompletableFuture<>();
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))) //
+                .thenAnswer(invocation -> {
+                    writeThread.complete(Thread.currentThread().getName());
+                    return Utils.completedCf(WriteOk.emptyOk().mapToResult());
+                });
+        this.aggregatingWriter.write(new WriteRequest(Collections.singletonList(newPoint("h1", 1, 1)))).get();
+
+        // the shared timer only collects the closed window, its point is written by the emit pool of the writer
+        final String name = writeThread.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(name, name.contains(AggregatingWriter.EMIT_POOL_NAME));
+    }
+
+    @Test
+    public void maxSeriesTest() throws Exception {
+        init(1);
+        final List<Point> points = new ArrayList<>();
+        points.add(newPoint("h1", WINDOW, 1));
+        points.add(newPoint("h2", WINDOW, 2));
+        points.add(newPoint("h1", WINDOW, 3));
+        final Result<WriteOk, Err> r = this.aggregatingWriter.write(new WriteRequest(points)).get();
+        Assert.assertEquals(3, r.getOk().getSuccess());
+        Assert.assertEquals(1, this.requests.size());
+        Assert.assertEquals("h2", this.requests.get(0).getPoints().get(0).getTags().get("host").getString());
+        Assert.assertEquals(1, this.aggregatingWriter.seriesCount());
+    }
+}
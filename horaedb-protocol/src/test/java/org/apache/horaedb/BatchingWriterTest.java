@@ -0,0 +1,216 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.models.WriteRequest;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.TestUtil;
+import org.apache.horaedb.util.Utils;
+
+@RunWith(value = MockitoJUnitRunner.class)
+public class BatchingWriterTest {
+
+    private static final String   TABLE = "batching_test_table";
+    private static final Endpoint EP    = Endpoint.of("127.0.0.1", 8081);
+
+    private BatchingWriter     batchingWriter;
+    private List<WriteRequest> requests;
+    @Mock
+    private Write              write;
+    @Mock
+    private RouterClient       routerClient;
+
+    @Before
+    public void before() {
+        this.requests = new CopyOnWriteArrayList<>();
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(Collections.singletonMap(TABLE, Route.of(TABLE, EP))));
+    }
+
+    @After
+    public void after() {
+        if (this.batchingWriter != null) {
+            this.batchingWriter.shutdownGracefully();
+        }
+    }
+
+    private void init(final int maxWriteSize, final long lingerMs) {
+        final WriteOptions opts = new WriteOptions();
+        opts.setDatabase("public");
+        opts.setRoutedClient(this.routerClient);
+        opts.setMaxWriteSize(maxWriteSize);
+        opts.setBatchingLingerMs(lingerMs);
+        this.batchingWriter = new BatchingWriter(this.write);
+        this.batchingWriter.init(opts);
+    }
+
+    private void mockWriteOk() {
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))) //
+                .thenAnswer(invocation -> {
+                    final WriteRequest req = (WriteRequest) invocation.getArguments()[0];
+                    this.requests.add(req);
+                    return Utils.completedCf(WriteOk.ok(req.getPoints().size(), 0, null).mapToResult());
+                });
+    }
+
+    @Test
+    public void lingerTest() throws Exception {
+        init(512, 100);
+        mockWriteOk();
+
+        final int callers = 10;
+        final ExecutorService pool = Executors.newFixedThreadPool(callers);
+        final CountDownLatch latch = new CountDownLatch(callers);
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new CopyOnWriteArrayList<>();
+        try {
+            for (int i = 0; i < callers; i++) {
+                pool.execute(() -> {
+                    fs.add(this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE)));
+                    latch.countDown();
+                });
+            }
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+
+        for (final CompletableFuture<Result<WriteOk, Err>> f : fs) {
+            final Result<WriteOk, Err> r = f.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(r.isOk());
+            Assert.assertEquals(2, r.getOk().getSuccess());
+        }
+        Assert.assertTrue(this.requests.size() < callers);
+        Assert.assertEquals(2 * callers, this.requests.stream().mapToInt(r -> r.getPoints().size()).sum());
+        Assert.assertEquals("public", this.requests.get(0).getReqCtx().getDatabase());
+    }
+
+    @Test
+    public void lingerFlushOffTimerThreadTest() throws Exception {
+        init(512, 10);
+        final CompletableFuture<String> writeThread = new CompletableFuture<>();
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))) //
+                .thenAnswer(invocation -> {
+                    writeThread.complete(Thread.currentThread().getName());
+                    return Utils.completedCf(WriteOk.emptyOk().mapToResult());
+                });
+
+        this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE)).get(5, TimeUnit.SECONDS);
+        // the shared linger timer only ticks, the batch is written by the flush pool of the writer
+        final String name = writeThread.get();
+        Assert.assertTrue(name, name.contains(BatchingWriter.FLUSH_POOL_NAME));
+    }
+
+    @Test
+    public void shutdownAwaitsInFlightTest() throws Exception {
+        init(2, 60_000);
+        final CompletableFuture<Result<WriteOk, Err>> written = new CompletableFuture<>();
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))) //
+                .thenReturn(written);
+
+        final CompletableFuture<Result<WriteOk, Err>> f = this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE));
+        Assert.assertFalse(f.isDone());
+        final Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (final InterruptedException ignored) {
+                // ignored
+            }
+            written.complete(WriteOk.ok(2, 0, null).mapToResult());
+        });
+        t.start();
+
+        // returns only once the batch in flight is written
+        this.batchingWriter.shutdownGracefully();
+        Assert.assertTrue(f.isDone());
+        Assert.assertEquals(2, f.get().getOk().getSuccess());
+    }
+
+    @Test
+    public void flushBySizeTest() throws Exception {
+        init(4, 60_000);
+        mockWriteOk();
+
+        final CompletableFuture<Result<WriteOk, Err>> f1 = this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE));
+        Assert.assertFalse(f1.isDone());
+        Assert.assertEquals(2, this.batchingWriter.pendingPoints());
+
+        final CompletableFuture<Result<WriteOk, Err>> f2 = this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE));
+        Assert.assertEquals(2, f1.get(5, TimeUnit.SECONDS).getOk().getSuccess());
+        Assert.assertEquals(2, f2.get(5, TimeUnit.SECONDS).getOk().getSuccess());
+        Assert.assertEquals(1, this.requests.size());
+        Assert.assertEquals(4, this.requests.get(0).getPoints().size());
+
+        final CompletableFuture<Result<WriteOk, Err>> f3 = this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE));
+        Assert.assertFalse(f3.isDone());
+        this.batchingWriter.flush();
+        Assert.assertEquals(2, f3.get(5, TimeUnit.SECONDS).getOk().getSuccess());
+        Assert.assertEquals(0, this.batchingWriter.pendingPoints());
+    }
+
+    @Test
+    public void errOfEachCallerTest() throws Exception {
+        init(4, 60_000);
+
+        final List<Point> points1 = TestUtil.newTableTwoPoints(TABLE);
+        final List<Point> points2 = TestUtil.newTableTwoPoints(TABLE);
+        final List<Point> failed = new ArrayList<>();
+        failed.add(points1.get(1));
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))) //
+                .thenReturn(Utils.completedCf(Err.writeErr(500, "test err", EP, failed) //
+                        .combine(WriteOk.ok(3, 0, null)) //
+                        .mapToResult()));
+
+        final CompletableFuture<Result<WriteOk, Err>> f1 = this.batchingWriter.write(points1);
+        final CompletableFuture<Result<WriteOk, Err>> f2 = this.batchingWriter.write(points2);
+
+        final Result<WriteOk, Err> r1 = f1.get(5, TimeUnit.SECONDS);
+        Assert.assertFalse(r1.isOk());
+        Assert.assertEquals(500, r1.getErr().getCode());
+        Assert.assertEquals(1, r1.getErr().getFailedWrites().size());
+        Assert.assertSame(points1.get(1), r1.getErr().getFailedWrites().iterator().next());
+        Assert.assertEquals(1, r1.getErr().getSubOk().getSuccess());
+
+        final Result<WriteOk, Err> r2 = f2.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(r2.isOk());
+        Assert.assertEquals(2, r2.getOk().getSuccess());
+    }
+
+    @Test
+    public void writeErrorTest() {
+        init(4, 60_000);
+        final CompletableFuture<Result<WriteOk, Err>> f = new CompletableFuture<>();
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))).thenReturn(f);
+
+        final CompletableFuture<Result<WriteOk, Err>> f1 = this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE));
+        final CompletableFuture<Result<WriteOk, Err>> f2 = this.batchingWriter.write(TestUtil.newTableTwoPoints(TABLE));
+        f.completeExceptionally(new IllegalStateException("test"));
+        Assert.assertTrue(f1.isCompletedExceptionally());
+        Assert.assertTrue(f2.isCompletedExceptionally());
+    }
+}
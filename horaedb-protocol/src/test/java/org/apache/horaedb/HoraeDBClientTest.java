@@ -75,15 +75,30 @@ public class HoraeDBClientTest {
         Assert.assertTrue(HoraeDBClient.instances().isEmpty());
     }
 
+    @Test
+    public void lazyBatchingWriterTest() {
+        this.client.init(this.opts);
+        final ReferenceFieldUpdater<HoraeDBClient, BatchingWriter> updater = Updaters
+                .newReferenceFieldUpdater(HoraeDBClient.class, "batchingWriter");
+        Assert.assertNull(updater.get(this.client));
+
+        final BatchingWriter batchingWriter = this.client.batchingWriter();
+        Assert.assertNotNull(batchingWriter);
+        Assert.assertSame(batchingWriter, this.client.batchingWriter());
+
+        this.client.shutdownGracefully();
+        Assert.assertNull(updater.get(this.client));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void helloWorldTest() throws ExecutionException, InterruptedException {
-        initAndMockWriteClient();
-
         final List<Point> points = TestUtil.newTableTwoPoints("test_table1");
 
+        // stubs before the client displays the mock
         Mockito.when(this.writeClient.write(new WriteRequest(Mockito.anyList()), Mockito.any())) //
                 .thenReturn(Utils.completedCf(WriteOk.ok(2, 0, null).mapToResult()));
+        initAndMockWriteClient();
         final CompletableFuture<Result<WriteOk, Err>> f = this.client.write(new WriteRequest(points));
         final Result<WriteOk, Err> ret = f.get();
         Assert.assertTrue(ret.isOk());
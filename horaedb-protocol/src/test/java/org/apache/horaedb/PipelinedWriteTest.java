@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.models.WriteRequest;
+import org.apache.horaedb.rpc.Context;
+import org.apache.horaedb.util.StreamWriteBuf;
+
+@RunWith(value = MockitoJUnitRunner.class)
+public class PipelinedWriteTest {
+
+    private List<CompletableFuture<Result<WriteOk, Err>>> pending;
+    private List<WriteRequest>                            requests;
+    @Mock
+    private Write                                         write;
+
+    @Before
+    public void before() {
+        this.pending = new CopyOnWriteArrayList<>();
+        this.requests = new CopyOnWriteArrayList<>();
+        Mockito.when(this.write.write(Mockito.any(WriteRequest.class), Mockito.any(Context.class))) //
+                .thenAnswer(invocation -> {
+                    final CompletableFuture<Result<WriteOk, Err>> f = new CompletableFuture<>();
+                    this.requests.add((WriteRequest) invocation.getArguments()[0]);
+                    this.pending.add(f);
+                    return f;
+                });
+    }
+
+    private static Iterator<Point> points(final int n, final AtomicInteger pulled) {
+        return IntStream.range(0, n).mapToObj(i -> {
+            pulled.incrementAndGet();
+            return Point.newPointBuilder("pipelined_test_table") //
+                    .setTimestamp(i + 1) //
+                    .addTag("host", "h" + i) //
+                    .addField("v", Value.withInt64(i)) //
+                    .build();
+        }).iterator();
+    }
+
+    private void completeNext(final boolean ok) {
+        final CompletableFuture<Result<WriteOk, Err>> f = this.pending.remove(0);
+        final WriteRequest req = this.requests.remove(0);
+        final int n = req.getPoints().size();
+        f.complete(ok ? WriteOk.ok(n, 0, Collections.emptySet()).mapToResult() :
+                Err.writeErr(503, "flow control", Endpoint.of("127.0.0.1", 8831), req.getPoints()).mapToResult());
+    }
+
+    @Test
+    public void boundedInFlightTest() throws Exception {
+        final AtomicInteger pulled = new AtomicInteger();
+        final CompletableFuture<Result<WriteOk, Err>> f = PipelinedWrite.write(this.write, null, points(100, pulled),
+                Context.newDefault(), 10, 2);
+
+        // only the window is pulled
+        Assert.assertEquals(2, this.pending.size());
+        Assert.assertEquals(20, pulled.get());
+
+        completeNext(true);
+        Assert.assertEquals(2, this.pending.size());
+        Assert.assertEquals(30, pulled.get());
+
+        completeNext(false);
+        while (!this.pending.isEmpty()) {
+            completeNext(true);
+        }
+        final Result<WriteOk, Err> r = f.get();
+        Assert.assertEquals(100, pulled.get());
+        Assert.assertFalse(r.isOk());
+        Assert.assertEquals(10, r.getErr().getFailedWrites().size());
+        Assert.assertEquals(90, r.getErr().getSubOk().getSuccess());
+    }
+
+    @Test
+    public void allOkTest() throws Exception {
+        final CompletableFuture<Result<WriteOk, Err>> f = PipelinedWrite.write(this.write, null,
+                points(25, new AtomicInteger()), Context.newDefault(), 10, 8);
+        Assert.assertEquals(3, this.pending.size());
+        while (!this.pending.isEmpty()) {
+            completeNext(true);
+        }
+        Assert.assertTrue(f.get().isOk());
+        Assert.assertEquals(25, f.get().getOk().getSuccess());
+    }
+
+    @Test
+    public void emptyTest() throws Exception {
+        final CompletableFuture<Result<WriteOk, Err>> f = PipelinedWrite.write(this.write, null,
+                Collections.emptyIterator(), Context.newDefault(), 10, 8);
+        Assert.assertTrue(f.get().isOk());
+        Assert.assertEquals(0, f.get().getOk().getSuccess());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void iteratorErrorTest() throws Exception {
+        final Iterator<Point> it = new Iterator<Point>() {
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Point next() {
+                throw new IllegalStateException("broken input");
+            }
+        };
+        PipelinedWrite.write(this.write, null, it, Context.newDefault(), 10, 8).get();
+    }
+
+    @Test
+    public void defaultStreamWriteTest() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Stream<Point> points = StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(points(600, new AtomicInteger()), 0), false)
+                .onClose(() -> closed.set(true));
+
+        final CompletableFuture<Result<WriteOk, Err>> f = defaultWrite().write(points);
+        Assert.assertEquals(2, this.pending.size());
+        completeNext(true);
+        Assert.assertFalse(closed.get());
+        completeNext(true);
+
+        Assert.assertEquals(600, f.get().getOk().getSuccess());
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void defaultMultiStreamWriteTest() {
+        final StreamWriteBuf<Point, WriteOk> writer = defaultWrite().multiStreamWrite();
+        writer.write(Collections.singletonList(points(1, new AtomicInteger()).next())).flush();
+        final List<Point> points = new ArrayList<>();
+        points(3, new AtomicInteger()).forEachRemaining(points::add);
+        writer.writeAndFlush(points);
+        Assert.assertEquals(2, this.pending.size());
+
+        final CompletableFuture<WriteOk> f = writer.completed();
+        completeNext(true);
+        Assert.assertFalse(f.isDone());
+        completeNext(false);
+
+        final WriteOk ok = f.join();
+        Assert.assertEquals(1, ok.getSuccess());
+        Assert.assertEquals(3, ok.getFailed());
+    }
+
+    // only the abstract methods are implemented, the others are the defaults
+    private Write defaultWrite() {
+        return new Write() {
+
+            @Override
+            public CompletableFuture<Result<WriteOk, Err>> write(final WriteRequest req, final Context ctx) {
+                return PipelinedWriteTest.this.write.write(req, ctx);
+            }
+
+            @Override
+            public StreamWriteBuf<Point, WriteOk> streamWrite(final RequestContext reqCtx, final String table,
+                                                              final Context ctx) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
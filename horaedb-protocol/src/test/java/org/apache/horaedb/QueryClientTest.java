@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
@@ -41,6 +42,8 @@ import org.apache.arrow.vector.VarCharVector;
 import org.apache.arrow.vector.VectorSchemaRoot;
 import org.apache.arrow.vector.ipc.ArrowStreamWriter;
 import org.apache.arrow.vector.types.pojo.Field;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
 import org.apache.horaedb.proto.internal.Common;
 import org.apache.horaedb.proto.internal.Storage;
 import org.junit.After;
@@ -54,6 +57,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import org.apache.horaedb.errors.IteratorException;
 import org.apache.horaedb.errors.StreamException;
+import org.apache.horaedb.models.ColumnarBatch;
+import org.apache.horaedb.models.ColumnarResult;
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.SqlQueryOk;
 import org.apache.horaedb.models.SqlQueryRequest;
@@ -61,6 +66,7 @@ import org.apache.horaedb.models.Result;
 import org.apache.horaedb.options.QueryOptions;
 import org.apache.horaedb.rpc.Context;
 import org.apache.horaedb.rpc.Observer;
+import org.apache.horaedb.util.ArrowAllocators;
 import org.apache.horaedb.util.Utils;
 
 import com.google.protobuf.ByteStringHelper;
@@ -253,8 +259,366 @@ public class QueryClientTest {
         Assert.assertTrue(row.getColumn("f1").getValue().isNull());
     }
 
+    @Test
+    public void queryByArrowColumnarTest() throws ExecutionException, InterruptedException, IOException {
+        final Result<SqlQueryOk, Err> r = queryByArrow(3, true);
+        Assert.assertTrue(r.isOk());
+        final SqlQueryOk queryOk = r.getOk();
+        Assert.assertTrue(queryOk.isColumnar());
+        Assert.assertEquals(3, queryOk.getRowCount());
+        Assert.assertEquals(0, queryOk.getRowList().size());
+
+        try (final ColumnarResult columns = queryOk.getColumns()) {
+            Assert.assertEquals(1, columns.getBatchCount());
+            Assert.assertEquals(14, columns.getSchema().getFields().size());
+
+            final ColumnarBatch batch = columns.getBatches().get(0);
+            Assert.assertEquals(3, batch.getRowCount());
+            Assert.assertEquals(-1, batch.getColumnIndex("notExist"));
+            for (int row = 0; row < batch.getRowCount(); row++) {
+                Assert.assertEquals("test", batch.getString(batch.getColumnIndex("fString"), row));
+                Assert.assertTrue(batch.getBoolean(batch.getColumnIndex("fBool"), row));
+                Assert.assertEquals(0.64, batch.getDouble(batch.getColumnIndex("fDouble"), row), 0.000001);
+                Assert.assertEquals(0.32f, batch.getDouble(batch.getColumnIndex("fFloat"), row), 0.000001);
+                Assert.assertEquals(-64, batch.getLong(batch.getColumnIndex("fInt64"), row));
+                Assert.assertEquals(-8, batch.getLong(batch.getColumnIndex("fInt8"), row));
+                Assert.assertEquals(64, batch.getLong(batch.getColumnIndex("fUint64"), row));
+                Assert.assertEquals(8, batch.getLong(batch.getColumnIndex("fUint8"), row));
+                Assert.assertEquals(1675345488158L, batch.getLong(batch.getColumnIndex("fTimestamp"), row));
+                Assert.assertArrayEquals(new byte[] { 1, 2, 3 },
+                        batch.getBytes(batch.getColumnIndex("fVarbinary"), row));
+                Assert.assertFalse(batch.isNull(batch.getColumnIndex("fInt32"), row));
+            }
+            try {
+                batch.getLong(batch.getColumnIndex("fString"), 0);
+                Assert.fail();
+            } catch (final IllegalArgumentException ignored) {
+                // expected
+            }
+            columns.close();
+            Assert.assertTrue(columns.isClosed());
+        }
+    }
+
+    @Test
+    public void queryByArrowMemoryLimitTest() throws ExecutionException, InterruptedException, IOException {
+        final Result<SqlQueryOk, Err> ok = queryByArrow(3, false);
+        Assert.assertTrue(ok.isOk());
+        Assert.assertEquals(3, ok.getOk().getRowCount());
+        // all the arrow buffers are released once the rows are decoded
+        Assert.assertEquals(0, this.queryClient.getArrowAllocator().getAllocatedMemory());
+
+        final Result<SqlQueryOk, Err> columnar = queryByArrow(3, true);
+        Assert.assertTrue(columnar.isOk());
+        Assert.assertTrue(this.queryClient.getArrowAllocator().getAllocatedMemory() > 0);
+        columnar.getOk().getColumns().close();
+        Assert.assertEquals(0, this.queryClient.getArrowAllocator().getAllocatedMemory());
+
+        this.queryClient.shutdownGracefully();
+        final QueryOptions queryOpts = new QueryOptions();
+        queryOpts.setAsyncPool(ForkJoinPool.commonPool());
+        queryOpts.setRouterClient(this.routerClient);
+        queryOpts.setDatabase("public");
+        queryOpts.setMaxArrowMemory(1024);
+        this.queryClient = new QueryClient();
+        this.queryClient.init(queryOpts);
+
+        final Result<SqlQueryOk, Err> tooLarge = queryByArrow(1000, false);
+        Assert.assertFalse(tooLarge.isOk());
+        Assert.assertEquals(Result.RESULT_TOO_LARGE, tooLarge.getErr().getCode());
+        Assert.assertEquals(0, this.queryClient.getArrowAllocator().getAllocatedMemory());
+    }
+
+    @Test
+    public void queryByArrowZstdTest() throws IOException {
+        final Storage.SqlQueryResponse resp = mockAllTypeQueryResponse(100);
+        final byte[] batch = resp.getArrow().getRecordBatches(0).toByteArray();
+
+        // batch compress mode, the frame carries its decompressed size
+        checkZstdResponse(resp, Zstd.compress(batch));
+
+        // stream compress mode
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ZstdOutputStream zstdOut = new ZstdOutputStream(out)) {
+            zstdOut.write(batch);
+        }
+        checkZstdResponse(resp, out.toByteArray());
+    }
+
+    private void checkZstdResponse(final Storage.SqlQueryResponse resp, final byte[] compressed) {
+        final Storage.SqlQueryResponse zstdResp = resp.toBuilder() //
+                .setArrow(Storage.ArrowPayload.newBuilder() //
+                        .setCompression(Storage.ArrowPayload.Compression.ZSTD) //
+                        .addRecordBatches(ByteStringHelper.wrap(compressed))) //
+                .build();
+        final Result<SqlQueryOk, Err> r;
+        try (final BufferAllocator allocator = ArrowAllocators.newClientAllocator("test", 1024L * 1024 * 1024)) {
+            r = Utils.toResult(zstdResp, "select * from query_test_table", Endpoint.of("127.0.0.1", 8081),
+                    Collections.singletonList("query_test_table"), null, allocator);
+        }
+        Assert.assertTrue(r.isOk());
+        Assert.assertEquals(100, r.getOk().getRowCount());
+        r.getOk().stream().forEach(this::checkFullTypeRow);
+    }
+
+    @Test
+    public void queryByArrowCorruptedTest() throws IOException {
+        final Storage.SqlQueryResponse resp = mockAllTypeQueryResponse(100);
+        final byte[] batch = resp.getArrow().getRecordBatches(0).toByteArray();
+        final Storage.SqlQueryResponse corrupted = resp.toBuilder() //
+                .setArrow(Storage.ArrowPayload.newBuilder() //
+                        .addRecordBatches(ByteStringHelper.wrap(Arrays.copyOf(batch, batch.length / 2)))) //
+                .build();
+
+        final Result<SqlQueryOk, Err> r;
+        try (final BufferAllocator allocator = ArrowAllocators.newClientAllocator("test", 1024L * 1024 * 1024)) {
+            r = Utils.toResult(corrupted, "select * from query_test_table", Endpoint.of("127.0.0.1", 8081),
+                    Collections.singletonList("query_test_table"), null, allocator);
+        }
+        Assert.assertFalse(r.isOk());
+        Assert.assertEquals(Result.INVALID_RESULT, r.getErr().getCode());
+    }
+
+    @Test
+    public void parallelDecodeKeepsOrderTest() throws ExecutionException, InterruptedException, IOException {
+        initParallelDecodeClient();
+
+        final Storage.SqlQueryResponse resp = mockMultiBatchQueryResponse(16, 50);
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+
+        final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                .sql("select id from query_test_table") //
+                .build();
+        final Result<SqlQueryOk, Err> rows = this.queryClient.sqlQuery(req, Context.newDefault()).get();
+        Assert.assertTrue(rows.isOk());
+        Assert.assertEquals(800, rows.getOk().getRowCount());
+        final List<Row> rowList = rows.getOk().getRowList();
+        for (int i = 0; i < rowList.size(); i++) {
+            Assert.assertEquals(i, rowList.get(i).getLong("id"));
+        }
+
+        req.setColumnar(true);
+        final Result<SqlQueryOk, Err> columnar = this.queryClient.sqlQuery(req, Context.newDefault()).get();
+        Assert.assertTrue(columnar.isOk());
+        try (final ColumnarResult columns = columnar.getOk().getColumns()) {
+            Assert.assertEquals(16, columns.getBatchCount());
+            long id = 0;
+            for (final ColumnarBatch batch : columns.getBatches()) {
+                for (int row = 0; row < batch.getRowCount(); row++) {
+                    Assert.assertEquals(id++, batch.getLong(0, row));
+                }
+            }
+        }
+        Assert.assertEquals(0, this.queryClient.getArrowAllocator().getAllocatedMemory());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void parallelDecodeStreamKeepsOrderTest() throws ExecutionException, InterruptedException, IOException {
+        initParallelDecodeClient();
+
+        // decoded in parallel, on the calling thread, then in parallel again
+        final List<Storage.SqlQueryResponse> resps = Arrays.asList(mockMultiBatchQueryResponse(16, 50),
+                mockMultiBatchQueryResponse(1, 7), mockMultiBatchQueryResponse(8, 10));
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+        Mockito.doAnswer(invocation -> {
+            final Observer<Storage.SqlQueryResponse> obs = (Observer<Storage.SqlQueryResponse>) invocation
+                    .getArguments()[3];
+            resps.forEach(obs::onNext);
+            obs.onCompleted();
+            return null;
+        }).when(this.routerClient).invokeServerStreaming(Mockito.eq(ep), Mockito.any(), Mockito.any(), Mockito.any());
+
+        final List<Integer> rowCounts = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+        final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                .sql("select id from query_test_table") //
+                .build();
+        this.queryClient.streamSqlQuery(req, Context.newDefault(), new Observer<SqlQueryOk>() {
+
+            @Override
+            public void onNext(final SqlQueryOk value) {
+                rowCounts.add(value.getRowCount());
+            }
+
+            @Override
+            public void onError(final Throwable err) {
+                completed.completeExceptionally(err);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed.complete(null);
+            }
+        });
+
+        completed.get();
+        Assert.assertEquals(Arrays.asList(800, 7, 80), rowCounts);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void streamQueryStopsAfterErrorTest() throws IOException {
+        final Storage.SqlQueryResponse resp = mockAllTypeQueryResponse(10);
+        final byte[] batch = resp.getArrow().getRecordBatches(0).toByteArray();
+        final Storage.SqlQueryResponse corrupted = resp.toBuilder() //
+                .setArrow(Storage.ArrowPayload.newBuilder() //
+                        .addRecordBatches(ByteStringHelper.wrap(Arrays.copyOf(batch, batch.length / 2)))) //
+                .build();
+        final List<Storage.SqlQueryResponse> resps = Arrays.asList(resp, corrupted, resp);
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+        Mockito.doAnswer(invocation -> {
+            final Observer<Storage.SqlQueryResponse> obs = (Observer<Storage.SqlQueryResponse>) invocation
+                    .getArguments()[3];
+            resps.forEach(obs::onNext);
+            obs.onCompleted();
+            return null;
+        }).when(this.routerClient).invokeServerStreaming(Mockito.eq(ep), Mockito.any(), Mockito.any(), Mockito.any());
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                .sql("select * from query_test_table") //
+                .build();
+        // the single batch responses are decoded and delivered on the calling thread
+        this.queryClient.streamSqlQuery(req, Context.newDefault(), new Observer<SqlQueryOk>() {
+
+            @Override
+            public void onNext(final SqlQueryOk value) {
+                events.add("onNext");
+            }
+
+            @Override
+            public void onError(final Throwable err) {
+                events.add("onError");
+            }
+
+            @Override
+            public void onCompleted() {
+                events.add("onCompleted");
+            }
+        });
+
+        // nothing is delivered after the first terminal signal
+        Assert.assertEquals(Arrays.asList("onNext", "onError"), events);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void streamQueryFailingObserverTest() throws ExecutionException, InterruptedException, IOException {
+        initParallelDecodeClient();
+
+        final List<Storage.SqlQueryResponse> resps = Arrays.asList(mockMultiBatchQueryResponse(16, 50),
+                mockMultiBatchQueryResponse(8, 10), mockMultiBatchQueryResponse(8, 10));
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(new HashMap<>()));
+        Mockito.when(this.routerClient.clusterRoute()) //
+                .thenReturn(Route.of(ep));
+        Mockito.doAnswer(invocation -> {
+            final Observer<Storage.SqlQueryResponse> obs = (Observer<Storage.SqlQueryResponse>) invocation
+                    .getArguments()[3];
+            resps.forEach(obs::onNext);
+            obs.onCompleted();
+            return null;
+        }).when(this.routerClient).invokeServerStreaming(Mockito.eq(ep), Mockito.any(), Mockito.any(), Mockito.any());
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Void> terminated = new CompletableFuture<>();
+        final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
+                .sql("select id from query_test_table") //
+                .build();
+        req.setColumnar(true);
+        this.queryClient.streamSqlQuery(req, Context.newDefault(), new Observer<SqlQueryOk>() {
+
+            @Override
+            public void onNext(final SqlQueryOk value) {
+                threads.add(Thread.currentThread().getName());
+                events.add("onNext");
+                value.getColumns().close();
+                throw new IllegalStateException("observer failure");
+            }
+
+            @Override
+            public void onError(final Throwable err) {
+                threads.add(Thread.currentThread().getName());
+                events.add("onError:" + err.getMessage());
+                terminated.complete(null);
+            }
+
+            @Override
+            public void onCompleted() {
+                events.add("onCompleted");
+                terminated.complete(null);
+            }
+        });
+
+        terminated.get();
+        // the failure of the observer ends the stream, and the results after it are released
+        Assert.assertEquals(Arrays.asList("onNext", "onError:observer failure"), events);
+        Assert.assertEquals(0, this.queryClient.getArrowAllocator().getAllocatedMemory());
+        // the observer has no executor, so it is not called on the decode pool
+        threads.forEach(name -> Assert.assertFalse(name, name.startsWith("query_decode-")));
+    }
+
+    private void initParallelDecodeClient() {
+        this.queryClient.shutdownGracefully();
+        final QueryOptions queryOpts = new QueryOptions();
+        queryOpts.setAsyncPool(ForkJoinPool.commonPool());
+        queryOpts.setRouterClient(this.routerClient);
+        queryOpts.setDatabase("public");
+        queryOpts.setDecodeParallelism(4);
+        queryOpts.setParallelDecodeMinBatches(2);
+        this.queryClient = new QueryClient();
+        this.queryClient.init(queryOpts);
+    }
+
+    private Storage.SqlQueryResponse mockMultiBatchQueryResponse(final int batchCount, final int rowsPerBatch)
+            throws IOException {
+        final Storage.ArrowPayload.Builder arrowPayload = Storage.ArrowPayload.newBuilder()
+                .setCompression(Storage.ArrowPayload.Compression.ZSTD);
+        try (final BufferAllocator allocator = new RootAllocator()) {
+            for (int b = 0; b < batchCount; b++) {
+                final BigIntVector idVector = new BigIntVector("id", allocator);
+                for (int i = 0; i < rowsPerBatch; i++) {
+                    idVector.setSafe(i, (long) b * rowsPerBatch + i);
+                }
+                idVector.setValueCount(rowsPerBatch);
+                try (final VectorSchemaRoot root = new VectorSchemaRoot(Collections.singletonList(idVector))) {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    try (final ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out)) {
+                        writer.writeBatch();
+                    }
+                    arrowPayload.addRecordBatches(ByteStringHelper.wrap(Zstd.compress(out.toByteArray())));
+                }
+            }
+        }
+        return Storage.SqlQueryResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setArrow(arrowPayload).build();
+    }
+
     private Result<SqlQueryOk, Err> queryByArrow() throws IOException, ExecutionException, InterruptedException {
-        final Storage.SqlQueryResponse resp = mockAllTypeQueryResponse(1);
+        return queryByArrow(1, false);
+    }
+
+    private Result<SqlQueryOk, Err> queryByArrow(final int rowCount, final boolean columnar)
+            throws IOException, ExecutionException, InterruptedException {
+        final Storage.SqlQueryResponse resp = mockAllTypeQueryResponse(rowCount);
         final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
 
         Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
@@ -267,6 +631,7 @@ public class QueryClientTest {
         final SqlQueryRequest req = SqlQueryRequest.newBuilder().forTables("query_test_table") //
                 .sql("select number from query_test_table") //
                 .build();
+        req.setColumnar(columnar);
         final CompletableFuture<Result<SqlQueryOk, Err>> f = this.queryClient.sqlQuery(req, Context.newDefault());
 
         return f.get();
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.errors.LimitedException;
+import org.apache.horaedb.errors.StreamException;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.options.WriteOptions;
+import org.apache.horaedb.rpc.Observer;
+import org.apache.horaedb.util.TestUtil;
+import org.apache.horaedb.util.Utils;
+
+public class StreamSenderTest {
+
+    static final class ToggleObserver implements Observer<String> {
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        volatile boolean   ready;
+        volatile boolean   completed;
+        volatile Runnable  onReadyHandler;
+
+        void setReady() {
+            this.ready = true;
+            this.onReadyHandler.run();
+        }
+
+        @Override
+        public void onNext(final String value) {
+            this.sent.add(value);
+        }
+
+        @Override
+        public void onError(final Throwable err) {
+        }
+
+        @Override
+        public void onCompleted() {
+            this.completed = true;
+        }
+
+        @Override
+        public boolean isReady() {
+            return this.ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(final Runnable onReadyHandler) {
+            this.onReadyHandler = onReadyHandler;
+        }
+    }
+
+    @Test
+    public void failFastTest() {
+        final ToggleObserver obs = new ToggleObserver();
+        final StreamSender<String> sender = new StreamSender<>(obs, StreamFlowControl.FAIL_FAST, 1000, 64);
+        try {
+            sender.send("req1");
+            Assert.fail();
+        } catch (final LimitedException ignored) {
+            // expected
+        }
+        obs.setReady();
+        Assert.assertTrue(sender.send("req2").isDone());
+        Assert.assertEquals(1, obs.sent.size());
+    }
+
+    @Test
+    public void blockTest() throws InterruptedException {
+        final ToggleObserver obs = new ToggleObserver();
+        final StreamSender<String> sender = new StreamSender<>(obs, StreamFlowControl.BLOCK, 100, 64);
+        try {
+            sender.send("req1");
+            Assert.fail();
+        } catch (final StreamException ignored) {
+            // timed out
+        }
+        Assert.assertTrue(obs.sent.isEmpty());
+
+        final StreamSender<String> longer = new StreamSender<>(obs, StreamFlowControl.BLOCK, 5000, 64);
+        final Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (final InterruptedException ignored) {
+                // ignored
+            }
+            obs.setReady();
+        });
+        t.start();
+        longer.send("req2");
+        t.join();
+        Assert.assertEquals(1, obs.sent.size());
+    }
+
+    @Test
+    public void asyncTest() {
+        final ToggleObserver obs = new ToggleObserver();
+        final StreamSender<String> sender = new StreamSender<>(obs, StreamFlowControl.ASYNC, 1000, 64);
+        final CompletableFuture<Void> f1 = sender.send("req1");
+        final CompletableFuture<Void> f2 = sender.send("req2");
+        sender.complete();
+        Assert.assertFalse(f1.isDone());
+        Assert.assertFalse(obs.completed);
+
+        obs.setReady();
+        Assert.assertTrue(f1.isDone() && f2.isDone());
+        Assert.assertEquals("req1", obs.sent.get(0));
+        Assert.assertEquals("req2", obs.sent.get(1));
+        // completes the stream once the queued requests are sent
+        Assert.assertTrue(obs.completed);
+    }
+
+    @Test
+    public void asyncMaxPendingTest() {
+        final ToggleObserver obs = new ToggleObserver();
+        final StreamSender<String> sender = new StreamSender<>(obs, StreamFlowControl.ASYNC, 1000, 2);
+        final CompletableFuture<Void> f1 = sender.send("req1");
+        final CompletableFuture<Void> f2 = sender.send("req2");
+        try {
+            sender.send("req3");
+            Assert.fail();
+        } catch (final LimitedException ignored) {
+            // expected
+        }
+
+        obs.setReady();
+        Assert.assertTrue(f1.isDone() && f2.isDone());
+        Assert.assertTrue(sender.send("req3").isDone());
+        Assert.assertEquals(3, obs.sent.size());
+    }
+
+    @Test
+    public void asyncFailTest() {
+        final ToggleObserver obs = new ToggleObserver();
+        final StreamSender<String> sender = new StreamSender<>(obs, StreamFlowControl.ASYNC, 1000, 64);
+        final CompletableFuture<Void> f = sender.send("req1");
+        sender.fail(new IllegalStateException("test"));
+        Assert.assertTrue(f.isCompletedExceptionally());
+        try {
+            sender.send("req2");
+            Assert.fail();
+        } catch (final StreamException ignored) {
+            // expected
+        }
+    }
+
+    @Test
+    public void autoFlushTest() {
+        final WriteOptions opts = new WriteOptions();
+        opts.setStreamAutoFlushPoints(4);
+        final List<List<Point>> flushed = new ArrayList<>();
+        final AbstractStreamWriteBuf buf = new AbstractStreamWriteBuf(opts) {
+
+            @Override
+            protected CompletableFuture<Void> send(final List<Point> points) {
+                flushed.add(points);
+                return Utils.completedCf(null);
+            }
+
+            @Override
+            protected CompletableFuture<WriteOk> complete() {
+                return Utils.completedCf(WriteOk.emptyOk());
+            }
+        };
+        buf.write(TestUtil.newTableTwoPoints("auto_flush_table"));
+        Assert.assertTrue(flushed.isEmpty());
+        buf.write(TestUtil.newTableTwoPoints("auto_flush_table"));
+        Assert.assertEquals(1, flushed.size());
+        Assert.assertEquals(4, flushed.get(0).size());
+
+        buf.write(TestUtil.newTableTwoPoints("auto_flush_table"));
+        buf.completed();
+        Assert.assertEquals(2, flushed.size());
+    }
+}
@@ -5,13 +5,16 @@ package org.apache.horaedb;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -21,6 +24,7 @@ import java.util.stream.Stream;
 import org.apache.horaedb.common.Endpoint;
 import org.apache.horaedb.common.util.Clock;
 import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
 import org.apache.horaedb.models.RequestContext;
 import org.apache.horaedb.models.Value;
 import org.apache.horaedb.models.WriteRequest;
@@ -41,6 +45,7 @@ import org.apache.horaedb.models.WriteOk;
 import org.apache.horaedb.options.WriteOptions;
 import org.apache.horaedb.rpc.Context;
 import org.apache.horaedb.rpc.Observer;
+import org.apache.horaedb.rpc.errors.InvokeTimeoutException;
 import org.apache.horaedb.util.StreamWriteBuf;
 import org.apache.horaedb.util.TestUtil;
 import org.apache.horaedb.util.Utils;
@@ -112,6 +117,83 @@ public class WriteClientTest {
         Assert.assertEquals(new Integer(0), ret.mapOr(-1, WriteOk::getFailed));
     }
 
+    @Test
+    public void writeRetryOnTransportErrTest() throws ExecutionException, InterruptedException {
+        final String table = "write_client_retry_table";
+        final List<Point> data = TestUtil.newTableTwoPoints(table);
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+
+        final Storage.WriteResponse resp = Storage.WriteResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS)) //
+                .setSuccess(2) //
+                .build();
+        final CompletableFuture<Object> timeout = new CompletableFuture<>();
+        timeout.completeExceptionally(new InvokeTimeoutException());
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(timeout) //
+                .thenReturn(Utils.completedCf((Object) resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(Collections.singletonMap(table, Route.of(table, ep))));
+
+        final Result<WriteOk, Err> ret = this.writeClient.write(new WriteRequest(data), Context.newDefault()).get();
+
+        Assert.assertTrue(ret.isOk());
+        Assert.assertEquals(2, ret.getOk().getSuccess());
+        Mockito.verify(this.routerClient, Mockito.times(2)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void writeNoRetryOnFatalErrTest() throws ExecutionException, InterruptedException {
+        final String table = "write_client_fatal_table";
+        final List<Point> data = TestUtil.newTableTwoPoints(table);
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+
+        final Storage.WriteResponse resp = Storage.WriteResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(500).setError("internal")) //
+                .build();
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(Collections.singletonMap(table, Route.of(table, ep))));
+
+        final Result<WriteOk, Err> ret = this.writeClient.write(new WriteRequest(data), Context.newDefault()).get();
+
+        Assert.assertFalse(ret.isOk());
+        Assert.assertEquals(500, ret.getErr().getCode());
+        Mockito.verify(this.routerClient, Mockito.times(1)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void writeNoResultErrorListenerTest() throws ExecutionException, InterruptedException {
+        final String table = "write_client_no_result_table";
+        final List<Point> data = TestUtil.newTableTwoPoints(table);
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+
+        final CompletableFuture<Err> listened = new CompletableFuture<>();
+        final WriteOptions writeOpts = new WriteOptions();
+        writeOpts.setAsyncPool(ForkJoinPool.commonPool());
+        writeOpts.setRoutedClient(this.routerClient);
+        writeOpts.setDatabase("public");
+        writeOpts.setErrorListener((reqCtx, err, cause) -> listened.complete(err));
+        this.writeClient.shutdownGracefully();
+        this.writeClient = new WriteClient();
+        this.writeClient.init(writeOpts);
+
+        final Storage.WriteResponse resp = Storage.WriteResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(500).setError("internal")) //
+                .build();
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(Collections.singletonMap(table, Route.of(table, ep))));
+
+        this.writeClient.writeAsyncNoResult(new WriteRequest(data), Context.newDefault());
+
+        final Err err = listened.get();
+        Assert.assertEquals(500, err.getCode());
+        Assert.assertEquals(2, err.getFailedWrites().size());
+    }
+
     @Test
     public void writeSplitTest() throws ExecutionException, InterruptedException {
         writeSplit(1, 1);
@@ -177,6 +259,127 @@ public class WriteClientTest {
         Assert.assertEquals(new Integer(0), ret.mapOr(-1, WriteOk::getFailed));
     }
 
+    @Test
+    public void writeBatchTest() throws ExecutionException, InterruptedException {
+        // re-init
+        this.writeClient.shutdownGracefully();
+        final WriteOptions writeOpts = new WriteOptions();
+        writeOpts.setDatabase("public");
+        writeOpts.setAsyncPool(ForkJoinPool.commonPool());
+        writeOpts.setRoutedClient(this.routerClient);
+        writeOpts.setMaxWriteSize(3);
+        this.writeClient = new WriteClient();
+        this.writeClient.init(writeOpts);
+
+        final String testTable = "write_batch_test_table";
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+
+        final Storage.WriteResponse resp = Storage.WriteResponse.newBuilder() //
+                .setHeader(Common.ResponseHeader.newBuilder().setCode(Result.SUCCESS).build()) //
+                .setSuccess(3) //
+                .build();
+        Mockito.when(this.routerClient.invoke(Mockito.eq(ep), Mockito.any(), Mockito.any())) //
+                .thenReturn(Utils.completedCf(resp));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.eq(Collections.singleton(testTable)))) //
+                .thenReturn(Utils.completedCf(new HashMap<String, Route>() {
+                    private static final long serialVersionUID = -3271323053870289591L;
+
+                    {
+                        put(testTable, Route.of(testTable, ep));
+                    }
+                }));
+
+        final PointBatch batch = PointBatch.newBuilder(testTable) //
+                .addTag("host") //
+                .addField("cpu", Value.DataType.Double) //
+                .build();
+        for (int i = 0; i < 9; i++) {
+            batch.addRow(i).setTag(0, "h" + (i % 2)).setDouble(0, i);
+        }
+
+        final Result<WriteOk, Err> ret = this.writeClient.write(null, batch, Context.newDefault()).get();
+
+        Assert.assertTrue(ret.isOk());
+        Assert.assertEquals(new Integer(9), ret.mapOr(0, WriteOk::getSuccess));
+        Mockito.verify(this.routerClient, Mockito.times(3)).invoke(Mockito.eq(ep), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void sortedBatchToWriteProtoTest() {
+        final WriteOptions writeOpts = new WriteOptions();
+        writeOpts.setAsyncPool(ForkJoinPool.commonPool());
+        writeOpts.setRoutedClient(this.routerClient);
+        writeOpts.setDatabase("public");
+        writeOpts.setSortedEncoding(true);
+        this.writeClient.shutdownGracefully();
+        this.writeClient = new WriteClient();
+        this.writeClient.init(writeOpts);
+
+        final PointBatch batch = PointBatch.newBuilder("table1") //
+                .addTags("host") //
+                .addField("v", Value.DataType.Int64) //
+                .build();
+        batch.addRow(3).setTag(0, "h2").setLong(0, 3);
+        batch.addRow(2).setTag(0, "h1").setLong(0, 2);
+        batch.addRow(1).setTag(0, "h2").setLong(0, 1);
+        batch.addRow(1).setTag(0, "h1").setLong(0, 1);
+
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        final Storage.WriteTableRequest tableRequest = this.writeClient
+                .toWriteRequestObj(reqCtx, batch, 0, batch.getRowCount()).getTableRequests(0);
+
+        Assert.assertEquals(2, tableRequest.getEntriesCount());
+        Assert.assertEquals("h1", tableRequest.getEntries(0).getTags(0).getValue().getStringValue());
+        Assert.assertEquals("h2", tableRequest.getEntries(1).getTags(0).getValue().getStringValue());
+        for (final Storage.WriteSeriesEntry entry : tableRequest.getEntriesList()) {
+            Assert.assertEquals(2, entry.getFieldGroupsCount());
+            Assert.assertEquals(1, entry.getFieldGroups(0).getTimestamp());
+            Assert.assertTrue(entry.getFieldGroups(1).getTimestamp() > 1);
+        }
+    }
+
+    @Test
+    public void batchToWriteProtoTest() {
+        final PointBatch batch = PointBatch.newBuilder("table1") //
+                .addTags("t1_tag1", "t1_tag2") //
+                .addField("t1_field1", Value.DataType.Double) //
+                .addField("t1_field2", Value.DataType.String) //
+                .addField("t1_field3", Value.DataType.UInt8) //
+                .build();
+        batch.addRow(1).setTag(0, "v1").setTag(1, "v2").setDouble(0, 0.1).setString(1, "he");
+        batch.addRow(2).setTag(0, "v1").setDouble(0, 0.2);
+        batch.addRow(3).setTag(0, "v1").setTag(1, "v2").setDouble(0, 0.3).setLong(2, 8);
+
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+
+        final Storage.WriteRequest writeReq = this.writeClient.toWriteRequestObj(reqCtx, batch, 0, batch.getRowCount());
+
+        Assert.assertEquals("public", writeReq.getContext().getDatabase());
+        Assert.assertEquals(1, writeReq.getTableRequestsCount());
+        final Storage.WriteTableRequest tableRequest = writeReq.getTableRequests(0);
+        Assert.assertEquals("table1", tableRequest.getTable());
+        Assert.assertEquals(Arrays.asList("t1_tag1", "t1_tag2"), tableRequest.getTagNamesList());
+        Assert.assertEquals(Arrays.asList("t1_field1", "t1_field2", "t1_field3"), tableRequest.getFieldNamesList());
+        Assert.assertEquals(2, tableRequest.getEntriesCount());
+
+        final Storage.WriteSeriesEntry series1 = tableRequest.getEntries(0);
+        Assert.assertEquals(2, series1.getTagsCount());
+        Assert.assertEquals(1, series1.getTags(1).getNameIndex());
+        Assert.assertEquals("v2", series1.getTags(1).getValue().getStringValue());
+        Assert.assertEquals(2, series1.getFieldGroupsCount());
+        Assert.assertEquals(2, series1.getFieldGroups(0).getFieldsCount());
+        Assert.assertEquals(3, series1.getFieldGroups(1).getTimestamp());
+        Assert.assertEquals(8, series1.getFieldGroups(1).getFields(1).getValue().getUint8Value());
+        Assert.assertEquals(2, series1.getFieldGroups(1).getFields(1).getNameIndex());
+
+        final Storage.WriteSeriesEntry series2 = tableRequest.getEntries(1);
+        Assert.assertEquals(1, series2.getTagsCount());
+        Assert.assertEquals(1, series2.getFieldGroupsCount());
+        Assert.assertEquals(0.2, series2.getFieldGroups(0).getFields(0).getValue().getFloat64Value(), 0.000001);
+    }
+
     @Test
     public void streamWriteTest() {
         final String testTable = "stream_table_test";
@@ -236,6 +439,78 @@ public class WriteClientTest {
         Assert.assertEquals(12, ret.join().getSuccess());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void multiStreamWriteTest() {
+        final String table1 = "multi_stream_table1";
+        final String table2 = "multi_stream_table2";
+        final Endpoint ep1 = Endpoint.of("127.0.0.1", 8081);
+        final Endpoint ep2 = Endpoint.of("127.0.0.2", 8081);
+        final Endpoint ep3 = Endpoint.of("127.0.0.3", 8081);
+        final Map<String, Route> routeTable = new HashMap<>();
+        routeTable.put(table1, Route.of(table1, ep1));
+        routeTable.put(table2, Route.of(table2, ep2));
+        Mockito.when(this.routerClient.routeFor(Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            final Collection<String> tables = (Collection<String>) invocation.getArguments()[1];
+            return Utils.completedCf(tables.stream().collect(Collectors.toMap(t -> t, routeTable::get)));
+        });
+
+        final Map<Endpoint, AtomicInteger> opened = new ConcurrentHashMap<>();
+        final Map<Endpoint, AtomicInteger> completed = new ConcurrentHashMap<>();
+        Mockito.when(this.routerClient.invokeClientStreaming(Mockito.any(), Mockito.any(Storage.WriteRequest.class),
+                Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+                    final Endpoint ep = (Endpoint) invocation.getArguments()[0];
+                    final Observer<Storage.WriteResponse> respObs = (Observer<Storage.WriteResponse>) invocation
+                            .getArguments()[3];
+                    opened.computeIfAbsent(ep, k -> new AtomicInteger()).incrementAndGet();
+                    final AtomicInteger dataCount = new AtomicInteger();
+                    return new Observer<Storage.WriteRequest>() {
+
+                        @Override
+                        public void onNext(final Storage.WriteRequest value) {
+                            value.getTableRequestsList().forEach(tableReq -> {
+                                // each table is sent to the endpoint it routes to
+                                Assert.assertEquals(ep, routeTable.get(tableReq.getTable()).getEndpoint());
+                                tableReq.getEntriesList()
+                                        .forEach(entry -> dataCount.addAndGet(entry.getFieldGroupsCount()));
+                            });
+                        }
+
+                        @Override
+                        public void onError(final Throwable err) {
+                            respObs.onError(err);
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            completed.computeIfAbsent(ep, k -> new AtomicInteger()).incrementAndGet();
+                            respObs.onNext(TestUtil.newSuccessWriteResp(dataCount.get()));
+                        }
+                    };
+                });
+
+        final StreamWriteBuf<Point, WriteOk> writer = this.writeClient.multiStreamWrite();
+        writer.write(TestUtil.newMultiTablePoints(table1, table2)) //
+                .flush() //
+                .write(TestUtil.newTableTwoPoints(table1)) //
+                .flush();
+        Assert.assertEquals(1, opened.get(ep1).get());
+        Assert.assertEquals(1, opened.get(ep2).get());
+        Assert.assertTrue(completed.isEmpty());
+
+        // table2 moves to ep3, no table routes to ep2 anymore
+        routeTable.put(table2, Route.of(table2, ep3));
+        writer.writeAndFlush(TestUtil.newMultiTablePoints(table1, table2));
+        Assert.assertEquals(1, completed.get(ep2).get());
+        Assert.assertEquals(1, opened.get(ep3).get());
+
+        final WriteOk ok = writer.completed().join();
+        Assert.assertEquals(10, ok.getSuccess());
+        Assert.assertEquals(1, opened.get(ep1).get());
+        Assert.assertEquals(1, completed.get(ep1).get());
+        Assert.assertEquals(1, completed.get(ep3).get());
+    }
+
     @Test
     public void rowsToWriteProtoTest() {
         List<Point> table1 = new ArrayList<>();
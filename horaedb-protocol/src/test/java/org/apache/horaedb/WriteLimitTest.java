@@ -3,9 +3,12 @@
  */
 package org.apache.horaedb;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -17,7 +20,9 @@ import org.apache.horaedb.limit.LimitedPolicy;
 import org.apache.horaedb.limit.WriteLimiter;
 import org.apache.horaedb.models.Err;
 import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.PointBatch;
 import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.Value;
 import org.apache.horaedb.models.WriteOk;
 import org.apache.horaedb.util.TestUtil;
 import org.apache.horaedb.util.Utils;
@@ -79,6 +84,27 @@ public class WriteLimitTest {
         Assert.assertTrue(t.isInterrupted());
     }
 
+    @Test
+    public void tryAcquireNeverBlocksTest() throws ExecutionException, InterruptedException {
+        final WriteLimiter limiter = new WriteClient.DefaultWriteLimiter(1,
+                new LimitedPolicy.BlockingTimeoutPolicy(3, TimeUnit.SECONDS));
+        final List<Point> points = TestUtil.newMultiTablePoints("test1", "test2");
+
+        // consume the permits
+        final CompletableFuture<Result<WriteOk, Err>> inFlight = new CompletableFuture<>();
+        limiter.acquireAndDo(points, () -> inFlight);
+
+        final long start = System.nanoTime();
+        final Result<WriteOk, Err> ret = limiter.tryAcquireAndDo(points, this::emptyOk).get();
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        Assert.assertFalse(ret.isOk());
+        Assert.assertEquals(Result.FLOW_CONTROL, ret.getErr().getCode());
+
+        // the permits are released
+        inFlight.complete(WriteOk.emptyOk().mapToResult());
+        Assert.assertTrue(limiter.tryAcquireAndDo(points, this::emptyOk).get().isOk());
+    }
+
     @Test
     public void blockingTimeoutWriteLimitTest() throws ExecutionException, InterruptedException {
         final int timeoutSecs = 2;
@@ -117,6 +143,110 @@ public class WriteLimitTest {
         }
     }
 
+    @Test
+    public void asyncBlockingTimeoutWriteLimitTest() throws Exception {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final WriteLimiter limiter = new WriteClient.DefaultWriteLimiter(4,
+                    new LimitedPolicy.BlockingTimeoutPolicy(5, TimeUnit.SECONDS), timer);
+            final List<Point> points = TestUtil.newMultiTablePoints("test1", "test2");
+
+            // consume the permits
+            final CompletableFuture<Result<WriteOk, Err>> first = new CompletableFuture<>();
+            limiter.acquireAndDo(points, () -> first);
+
+            // does not block the caller, the action runs once the permits are released
+            final AtomicBoolean executed = new AtomicBoolean();
+            final CompletableFuture<Result<WriteOk, Err>> second = limiter.acquireAndDo(points, () -> {
+                executed.set(true);
+                return emptyOk();
+            });
+            Assert.assertFalse(second.isDone());
+            Assert.assertFalse(executed.get());
+
+            first.complete(WriteOk.emptyOk().mapToResult());
+            Assert.assertTrue(second.get(1, TimeUnit.SECONDS).isOk());
+            Assert.assertTrue(executed.get());
+
+            // times out without blocking
+            final WriteLimiter fastLimiter = new WriteClient.DefaultWriteLimiter(4,
+                    new LimitedPolicy.BlockingTimeoutPolicy(100, TimeUnit.MILLISECONDS), timer);
+            fastLimiter.acquireAndDo(points, CompletableFuture::new);
+            final Result<WriteOk, Err> ret = fastLimiter.acquireAndDo(points, this::emptyOk).get(5, TimeUnit.SECONDS);
+            Assert.assertFalse(ret.isOk());
+            Assert.assertEquals(Result.FLOW_CONTROL, ret.getErr().getCode());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void asyncCancelWriteLimitTest() throws Exception {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final WriteLimiter limiter = new WriteClient.DefaultWriteLimiter(4,
+                    new LimitedPolicy.AbortOnBlockingTimeoutPolicy(5, TimeUnit.SECONDS), timer);
+            final List<Point> points = TestUtil.newMultiTablePoints("test1", "test2");
+
+            // consume the permits
+            final CompletableFuture<Result<WriteOk, Err>> first = new CompletableFuture<>();
+            limiter.acquireAndDo(points, () -> first);
+
+            final AtomicBoolean executed = new AtomicBoolean();
+            final CompletableFuture<Result<WriteOk, Err>> second = limiter.acquireAndDo(points, () -> {
+                executed.set(true);
+                return emptyOk();
+            });
+            Assert.assertTrue(second.cancel(false));
+
+            // the cancelled waiter gives up its place, the released permits are left to the next write
+            first.complete(WriteOk.emptyOk().mapToResult());
+            Assert.assertFalse(executed.get());
+            Assert.assertTrue(limiter.acquireAndDo(points, this::emptyOk).get(1, TimeUnit.SECONDS).isOk());
+            Assert.assertFalse(executed.get());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void byteSizeWriteLimitTest() throws ExecutionException, InterruptedException {
+        final List<Point> narrow = TestUtil.newTableTwoPoints("test1");
+        final Point.PointBuilder wideBuilder = Point.newPointBuilder("test1") //
+                .setTimestamp(1) //
+                .addTag("tag1", Value.withString("tag_v1"));
+        for (int i = 0; i < 200; i++) {
+            wideBuilder.addField("field" + i, Value.withString("string_value_" + i));
+        }
+        final List<Point> wide = Collections.singletonList(wideBuilder.build());
+
+        final WriteLimiter limiter = new WriteClient.ByteSizeWriteLimiter(1024, new LimitedPolicy.DiscardPolicy());
+        final int narrowBytes = limiter.calculatePermits(narrow);
+        final int wideBytes = limiter.calculatePermits(wide);
+        Assert.assertTrue(narrowBytes < 1024);
+        Assert.assertTrue(wideBytes > 1024);
+        Assert.assertTrue(wideBytes > 10 * narrowBytes / narrow.size());
+
+        // consume part of the permits
+        limiter.acquireAndDo(narrow, CompletableFuture::new);
+
+        final Result<WriteOk, Err> ret = limiter.acquireAndDo(wide, this::emptyOk).get();
+        Assert.assertFalse(ret.isOk());
+        Assert.assertEquals(Result.FLOW_CONTROL, ret.getErr().getCode());
+        Assert.assertEquals(String.format("Write limited by client, acquireBytes=%d, maxBytes=1024, availableBytes=%d.",
+                wideBytes, 1024 - narrowBytes), ret.getErr().getError());
+
+        final PointBatch batch = PointBatch.newBuilder("test1") //
+                .addTag("tag1") //
+                .addField("field1", Value.DataType.Double) //
+                .addField("field2", Value.DataType.String) //
+                .build();
+        batch.addRow(1).setTag(0, "tag_v1").setDouble(0, 0.1).setString(1, "string_value");
+        batch.addRow(2).setTag(0, "tag_v1").setDouble(0, 0.2).setString(1, "string_value_2");
+        final List<Point> points = batch.toPoints();
+        Assert.assertEquals(limiter.calculatePermits(points), limiter.calculatePermits(batch));
+    }
+
     private CompletableFuture<Result<WriteOk, Err>> emptyOk() {
         return Utils.completedCf(Result.ok(WriteOk.emptyOk()));
     }
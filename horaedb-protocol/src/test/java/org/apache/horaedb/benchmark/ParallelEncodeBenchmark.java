@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.apache.horaedb.WriteClient;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.proto.internal.Storage;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Encodes a write of 100k points split into requests of {@code maxWriteSize}
+ * points the way {@code WriteClient} does with {@code encodeParallelism}:
+ * the requests are encoded on a work-stealing pool of the given parallelism,
+ * 1 means one by one on the calling thread. The throughput should scale
+ * with the parallelism up to the number of cores.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ParallelEncodeBenchmark {
+
+    private static final int POINTS         = 100_000;
+    private static final int MAX_WRITE_SIZE = 512;
+
+    @Param({ "1", "2", "4", "8" })
+    private int parallelism;
+
+    private final WriteClient writeClient = new WriteClient();
+    private RequestContext    reqCtx;
+    private List<List<Point>> parts;
+    private ForkJoinPool      pool;
+
+    @Setup
+    public void setup() {
+        this.reqCtx = new RequestContext();
+        this.reqCtx.setDatabase("public");
+        final List<Point> data = new ArrayList<>(POINTS);
+        for (int i = 0; i < POINTS; i++) {
+            data.add(Point.newPointBuilder("machine_metric") //
+                    .setTimestamp(1_700_000_000_000L + i) //
+                    .addTag("city", Value.withString("city_" + (i % 10))) //
+                    .addTag("host", Value.withString("host_" + (i % 1000))) //
+                    .addField("cpu", Value.withDouble(i * 0.1)) //
+                    .addField("mem", Value.withInt64(i)) //
+                    .build());
+        }
+        this.parts = Lists.partition(data, MAX_WRITE_SIZE);
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism, //
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        if (this.pool == null) {
+            int n = 0;
+            for (final List<Point> part : this.parts) {
+                n += this.writeClient.toWriteRequestObj(this.reqCtx, part.stream()).getTableRequestsCount();
+            }
+            return n;
+        }
+
+        final List<CompletableFuture<Storage.WriteRequest>> fs = new ArrayList<>(this.parts.size());
+        for (final List<Point> part : this.parts) {
+            fs.add(CompletableFuture.supplyAsync(() -> this.writeClient.toWriteRequestObj(this.reqCtx, part.stream()),
+                    this.pool));
+        }
+        int n = 0;
+        for (final CompletableFuture<Storage.WriteRequest> f : fs) {
+            n += f.join().getTableRequestsCount();
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(ParallelEncodeBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+}
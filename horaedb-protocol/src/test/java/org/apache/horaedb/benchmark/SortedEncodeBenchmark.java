@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.util.WriteRequestEncoder;
+
+/**
+ * Measures the client-side cost of the sorted encoding, {@code sorted}
+ * false is the current path. The points arrive either in timestamp order,
+ * where sorting only checks the order, or shuffled, where both the series
+ * and the points of each series are sorted.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class SortedEncodeBenchmark {
+
+    @Param({ "512", "4096" })
+    private int     points;
+    @Param({ "false", "true" })
+    private boolean shuffled;
+    @Param({ "false", "true" })
+    private boolean sorted;
+
+    private RequestContext reqCtx;
+    private List<Point>    data;
+
+    @Setup
+    public void setup() {
+        this.reqCtx = new RequestContext();
+        this.reqCtx.setDatabase("public");
+        this.data = new ArrayList<>(this.points);
+        for (int i = 0; i < this.points; i++) {
+            this.data.add(Point.newPointBuilder("machine_metric") //
+                    .setTimestamp(1_700_000_000_000L + i) //
+                    .addTag("city", Value.withString("city_" + (i % 10))) //
+                    .addTag("host", Value.withString("host_" + (i % 100))) //
+                    .addField("cpu", Value.withDouble(i * 0.1)) //
+                    .addField("mem", Value.withInt64(i)) //
+                    .build());
+        }
+        if (this.shuffled) {
+            Collections.shuffle(this.data, new Random(42));
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        final WriteRequestEncoder.EncodedRequest req = WriteRequestEncoder.encode(this.reqCtx, this.data.stream(),
+                this.sorted);
+        final int size = req.size();
+        req.release();
+        return size;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options opt = new OptionsBuilder() //
+                .include(SortedEncodeBenchmark.class.getSimpleName()) //
+                .build();
+        new Runner(opt).run();
+    }
+}
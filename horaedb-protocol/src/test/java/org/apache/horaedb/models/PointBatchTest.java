@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PointBatchTest {
+
+    private static PointBatch newBatch(final int capacity) {
+        return PointBatch.newBuilder("test_table") //
+                .addTags("tag1", "tag2") //
+                .addField("f1", Value.DataType.Double) //
+                .addField("f2", Value.DataType.Int64) //
+                .addField("f3", Value.DataType.Boolean) //
+                .addField("f4", Value.DataType.String) //
+                .capacity(capacity) //
+                .build();
+    }
+
+    @Test
+    public void addRowsTest() {
+        final PointBatch batch = newBatch(1);
+        for (int i = 0; i < 100; i++) {
+            batch.addRow(i) //
+                    .setTag(0, "t1") //
+                    .setTag("tag2", i % 2 == 0 ? "even" : null) //
+                    .setDouble(0, i * 0.1) //
+                    .setLong(1, i);
+            if (i % 3 == 0) {
+                batch.setBoolean(2, true).setString(3, "s" + i);
+            }
+        }
+
+        Assert.assertEquals(100, batch.getRowCount());
+        Assert.assertEquals(1, batch.getTagCardinality(0));
+        Assert.assertEquals(1, batch.getTagCardinality(1));
+        Assert.assertEquals(99, batch.getTimestamp(99));
+        Assert.assertEquals("t1", batch.getTagValue(0, 99));
+        Assert.assertNull(batch.getTagValue(1, 99));
+        Assert.assertEquals(-1, batch.getTagCode(1, 99));
+        Assert.assertEquals(9.9, batch.getDouble(0, 99), 0.000001);
+        Assert.assertEquals(99, batch.getLong(1, 99));
+        Assert.assertTrue(batch.isNull(2, 98));
+        Assert.assertTrue(batch.getBoolean(2, 99));
+        Assert.assertEquals("s99", batch.getString(3, 99));
+        Assert.assertEquals(1, batch.fieldIndex("f2"));
+        Assert.assertEquals(-1, batch.fieldIndex("not_exists"));
+    }
+
+    @Test
+    public void toPointsTest() {
+        final PointBatch batch = newBatch(16);
+        batch.addRow(1).setTag(0, "t1").setDouble(0, 0.5);
+        batch.addRow(2).setTag(1, "t2").setLong(1, 7).setString(3, "s");
+
+        final List<Point> points = batch.toPoints();
+        Assert.assertEquals(2, points.size());
+        Assert.assertEquals("test_table", points.get(0).getTable());
+        Assert.assertEquals(1, points.get(0).getTimestamp());
+        Assert.assertEquals("t1", points.get(0).getTags().get("tag1").getString());
+        Assert.assertFalse(points.get(0).getTags().containsKey("tag2"));
+        Assert.assertEquals(0.5, points.get(0).getFields().get("f1").getDouble(), 0.000001);
+        Assert.assertTrue(points.get(0).getFields().get("f2").isNull());
+        Assert.assertEquals(7, points.get(1).getFields().get("f2").getInt64());
+        Assert.assertEquals("s", points.get(1).getFields().get("f4").getString());
+    }
+
+    @Test
+    public void clearTest() {
+        final PointBatch batch = newBatch(16);
+        batch.addRow(1).setTag(0, "t1").setDouble(0, 0.5);
+        batch.clear();
+        Assert.assertTrue(batch.isEmpty());
+        Assert.assertEquals(0, batch.getTagCardinality(0));
+
+        batch.addRow(2);
+        Assert.assertTrue(batch.isNull(0, 0));
+        Assert.assertNull(batch.getTagValue(0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTypeTest() {
+        newBatch(16).addRow(1).setLong(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noRowTest() {
+        newBatch(16).setDouble(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keywordTest() {
+        PointBatch.newBuilder("test_table").addTag("timestamp").addField("f1", Value.DataType.Double).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNameTest() {
+        PointBatch.newBuilder("test_table").addTag("t1").addField("t1", Value.DataType.Double).build();
+    }
+}
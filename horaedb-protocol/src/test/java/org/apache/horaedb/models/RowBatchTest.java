@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.UInt2Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RowBatchTest {
+
+    @Test
+    public void decodeTest() {
+        final RowBatch batch = decode(0, 4);
+
+        Assert.assertEquals(4, batch.getRowCount());
+        Assert.assertEquals(4, batch.getColumnCount());
+        Assert.assertEquals(1, batch.getColumnIndex("host"));
+        Assert.assertEquals(-1, batch.getColumnIndex("notExist"));
+        Assert.assertEquals(Value.DataType.Float, batch.getColumnType(2));
+
+        Assert.assertEquals(2, batch.getLong(0, 2));
+        Assert.assertEquals("host_3", batch.getString(1, 3));
+        Assert.assertArrayEquals("host_3".getBytes(StandardCharsets.UTF_8), batch.getBytes(1, 3));
+        Assert.assertEquals(0.5, batch.getDouble(2, 1), 0.000001);
+        Assert.assertEquals(7, batch.getLong(3, 0));
+
+        // every other cell is null
+        Assert.assertTrue(batch.isNull(1, 0));
+        Assert.assertNull(batch.getString(1, 0));
+        Assert.assertTrue(batch.getValue(1, 0).isNull());
+        Assert.assertTrue(batch.isNull(2, 2));
+        Assert.assertEquals(0, batch.getDouble(2, 2), 0);
+        Assert.assertFalse(batch.isNull(0, 0));
+
+        Assert.assertEquals(Value.withString("host_1"), batch.getValue(1, 1));
+        Assert.assertEquals(Value.withFloat(0.5f), batch.getValue(2, 1));
+        Assert.assertEquals(Value.withUInt16(7), batch.getValue(3, 0));
+
+        try {
+            batch.getLong(1, 1);
+            Assert.fail();
+        } catch (final IllegalArgumentException ignored) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rowViewTest() {
+        final Row row = decode(0, 4).row(1);
+
+        Assert.assertEquals(4, row.getColumnCount());
+        Assert.assertTrue(row.hasColumn("host"));
+        Assert.assertEquals(1, row.getLong("ts"));
+        Assert.assertEquals("host_1", row.getString("host"));
+        Assert.assertEquals(0.5, row.getDouble("cpu"), 0.000001);
+        Assert.assertEquals("host_1", row.getColumn("host").getValue().getString());
+        Assert.assertNull(row.getColumn("notExist"));
+        Assert.assertEquals(Arrays.asList("ts", "host", "cpu", "port"),
+                row.getColumns().stream().map(Row.Column::getName).collect(Collectors.toList()));
+        Assert.assertEquals("ts:" + Value.withInt64(1) + "|host:" + Value.withString("host_1") + "|cpu:"
+                            + Value.withFloat(0.5f) + "|port:" + Value.withUInt16(7),
+                row.toString());
+    }
+
+    @Test
+    public void rowsOfTest() {
+        final List<RowBatch> batches = Arrays.asList(decode(0, 3), decode(3, 0), decode(3, 2), decode(5, 0));
+        final List<Row> rows = RowBatch.rowsOf(batches);
+
+        Assert.assertEquals(5, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Assert.assertEquals(i, rows.get(i).getLong(0));
+        }
+        Assert.assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L),
+                rows.stream().map(row -> row.getLong("ts")).collect(Collectors.toList()));
+        Assert.assertTrue(RowBatch.rowsOf(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void mutableRowListTest() {
+        final SqlQueryOk ok = SqlQueryOk.ok("select * from test", 0,
+                RowBatch.rowsOf(Arrays.asList(decode(0, 3), decode(3, 2))));
+        Assert.assertEquals(5, ok.stream().count());
+
+        final List<Row> rows = ok.getRowList();
+        Assert.assertSame(rows, ok.getRowList());
+        rows.remove(0);
+        Assert.assertEquals(4, ok.getRowCount());
+        Assert.assertEquals(1, ok.stream().findFirst().get().getLong("ts"));
+    }
+
+    private static RowBatch decode(final int start, final int rowCount) {
+        try (final BufferAllocator allocator = new RootAllocator()) {
+            final BigIntVector ts = new BigIntVector("ts", allocator);
+            final VarCharVector host = new VarCharVector("host", allocator);
+            final Float4Vector cpu = new Float4Vector("cpu", allocator);
+            final UInt2Vector port = new UInt2Vector("port", allocator);
+            for (int i = 0; i < rowCount; i++) {
+                final int n = start + i;
+                ts.setSafe(i, n);
+                if (n % 2 == 0) {
+                    host.setNull(i);
+                    cpu.setNull(i);
+                } else {
+                    host.setSafe(i, ("host_" + n).getBytes(StandardCharsets.UTF_8));
+                    cpu.setSafe(i, n * 0.5f);
+                }
+                port.setSafe(i, 7);
+            }
+            final List<FieldVector> vectors = Arrays.asList(ts, host, cpu, port);
+            vectors.forEach(v -> v.setValueCount(rowCount));
+            try (final VectorSchemaRoot root = new VectorSchemaRoot(vectors)) {
+                // the batch does not reference the arrow buffers, they are released here
+                return RowBatch.decode(root);
+            }
+        }
+    }
+}
@@ -36,4 +36,34 @@ public class RowTest {
         Assert.assertEquals(columns.get(1).getValue().getString(), "bar");
         Assert.assertEquals(columns.get(4).getValue().getInt64(), 123);
     }
+
+    @Test
+    public void typedGetterTest() {
+        Row.RowBuilder builder = new Row.RowBuilder(4);
+        builder.setFields(new String[] { "ts", "host", "cpu", "idle" });
+        builder.setValue(0, Value.withTimestamp(12345678L));
+        builder.setValue(1, Value.withString("bar"));
+        builder.setValue(2, Value.withFloat(0.5f));
+        builder.setValue(3, Value.withUInt8OrNull(null));
+
+        Row row = builder.build();
+
+        Assert.assertEquals(12345678L, row.getLong("ts"));
+        Assert.assertEquals("bar", row.getString(1));
+        Assert.assertEquals(0.5, row.getDouble("cpu"), 0.000001);
+        Assert.assertTrue(row.isNull(3));
+        Assert.assertEquals(0, row.getLong(3));
+        try {
+            row.getDouble("host");
+            Assert.fail();
+        } catch (final IllegalArgumentException ignored) {
+            // expected
+        }
+        try {
+            row.getLong("notExist");
+            Assert.fail();
+        } catch (final IllegalArgumentException ignored) {
+            // expected
+        }
+    }
 }
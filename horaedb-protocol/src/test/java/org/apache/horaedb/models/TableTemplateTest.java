@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.models;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TableTemplateTest {
+
+    private static final TableTemplate TEMPLATE = TableTemplate.newBuilder("test_table") //
+            .addTags("tag1", "tag2") //
+            .addField("f1", Value.DataType.Double) //
+            .addField("f2", Value.DataType.String) //
+            .build();
+
+    @Test
+    public void newBatchTest() {
+        final PointBatch batch1 = TEMPLATE.newBatch();
+        final PointBatch batch2 = TEMPLATE.newBatch(1);
+        Assert.assertSame(TEMPLATE, batch1.getTemplate());
+        Assert.assertSame(TEMPLATE, batch2.getTemplate());
+
+        batch1.addRow(1).setTag("tag2", "t2").setDouble(0, 0.5);
+        batch2.addRow(2).setTag(0, "t1").setString(1, "s");
+        Assert.assertEquals(1, batch1.getRowCount());
+        Assert.assertEquals(1, batch2.getRowCount());
+        Assert.assertEquals("t2", batch1.getTagValue(1, 0));
+        Assert.assertEquals("s", batch2.getString(1, 0));
+        Assert.assertEquals(1, batch2.fieldIndex("f2"));
+    }
+
+    @Test
+    public void newPointTest() {
+        final Point point = TEMPLATE.newPoint(100) //
+                .setTag(0, "t1") //
+                .setField(0, Value.withDouble(0.1)) //
+                .setField(1, Value.withStringOrNull(null)) //
+                .build();
+        Assert.assertEquals("test_table", point.getTable());
+        Assert.assertEquals(100, point.getTimestamp());
+        Assert.assertEquals("t1", point.getTags().get("tag1").getString());
+        Assert.assertEquals(0.1, point.getFields().get("f1").getDouble(), 0.000001);
+        Assert.assertTrue(point.getFields().get("f2").isNull());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFieldTypeTest() {
+        TEMPLATE.newPoint(100).setField(0, Value.withInt64(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keywordTest() {
+        TableTemplate.newBuilder("test_table") //
+                .addTag("timestamp") //
+                .addField("f1", Value.DataType.Double) //
+                .build();
+    }
+}
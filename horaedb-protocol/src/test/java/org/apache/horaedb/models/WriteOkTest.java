@@ -23,6 +23,12 @@ public class WriteOkTest {
         Assert.assertEquals(300, writeOk.getSuccess());
         Assert.assertEquals(2, writeOk.getFailed());
         Assert.assertEquals(new HashSet<>(Arrays.asList("test1", "test2", "test3")), writeOk.getTables());
+
+        writeOk.combine(WriteOk.spilled(5));
+
+        Assert.assertEquals(300, writeOk.getSuccess());
+        Assert.assertEquals(2, writeOk.getFailed());
+        Assert.assertEquals(5, writeOk.getSpilled());
     }
 
     @Test
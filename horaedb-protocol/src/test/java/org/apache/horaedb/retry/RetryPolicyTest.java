@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.retry;
+
+import java.util.Collections;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.rpc.errors.AbortedException;
+import org.apache.horaedb.rpc.errors.ConnectFailException;
+import org.apache.horaedb.rpc.errors.InvokeTimeoutException;
+import org.apache.horaedb.rpc.errors.RemotingException;
+import org.apache.horaedb.rpc.errors.ResourceExhaustedException;
+import org.apache.horaedb.rpc.errors.UnavailableException;
+
+import io.grpc.Status;
+
+public class RetryPolicyTest {
+
+    private static Err err(final int code) {
+        return Err.writeErr(code, "test", Endpoint.of("127.0.0.1", 8081), Collections.emptyList());
+    }
+
+    @Test
+    public void classifyErrTest() {
+        final RetryPolicy policy = RetryPolicy.defaultPolicy();
+        Assert.assertEquals(RetryPolicy.Decision.REFRESH_ROUTE, policy.classify(err(Result.INVALID_ROUTE)));
+        Assert.assertEquals(RetryPolicy.Decision.RETRY, policy.classify(err(Result.SHOULD_RETRY)));
+        Assert.assertEquals(RetryPolicy.Decision.FATAL, policy.classify(err(Result.BAD_REQUEST)));
+        Assert.assertEquals(RetryPolicy.Decision.FATAL, policy.classify(err(Result.FLOW_CONTROL)));
+        Assert.assertEquals(RetryPolicy.Decision.FATAL, policy.classify(err(500)));
+    }
+
+    @Test
+    public void classifyThrowableTest() {
+        final RetryPolicy policy = RetryPolicy.defaultPolicy();
+        Assert.assertEquals(RetryPolicy.Decision.RETRY,
+                policy.classify(new CompletionException(new InvokeTimeoutException())));
+        Assert.assertEquals(RetryPolicy.Decision.REFRESH_ROUTE, policy.classify(new ConnectFailException()));
+        Assert.assertEquals(RetryPolicy.Decision.REFRESH_ROUTE,
+                policy.classify(new UnavailableException("io exception")));
+        Assert.assertEquals(RetryPolicy.Decision.RETRY,
+                policy.classify(new CompletionException(new ResourceExhaustedException())));
+        Assert.assertEquals(RetryPolicy.Decision.RETRY, policy.classify(new AbortedException()));
+        Assert.assertEquals(RetryPolicy.Decision.FATAL, policy.classify(new RemotingException("bad")));
+        // the gRPC status exceptions are mapped by the transport, a raw one is not retried
+        Assert.assertEquals(RetryPolicy.Decision.FATAL,
+                policy.classify(Status.UNAVAILABLE.withDescription("io exception").asRuntimeException()));
+        Assert.assertEquals(RetryPolicy.Decision.FATAL, policy.classify(new IllegalStateException("test")));
+    }
+
+    @Test
+    public void backoffTest() {
+        final RetryPolicy policy = new RetryPolicy.DefaultRetryPolicy(100, 1000, RetryBudget.newDefault());
+        for (int i = 0; i < 100; i++) {
+            final long first = policy.backoffMs(0);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            final long third = policy.backoffMs(2);
+            Assert.assertTrue(third >= 200 && third <= 400);
+            final long capped = policy.backoffMs(60);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void budgetTest() {
+        final RetryBudget budget = new RetryBudget(0.5, 0, 2);
+        Assert.assertTrue(budget.tryWithdraw());
+        Assert.assertTrue(budget.tryWithdraw());
+        // exhausted, and no time based refill
+        Assert.assertFalse(budget.tryWithdraw());
+
+        budget.deposit();
+        Assert.assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        Assert.assertTrue(budget.tryWithdraw());
+
+        // never saves up more than the max tokens
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        Assert.assertEquals(2, budget.availableTokens(), 0.001);
+    }
+}
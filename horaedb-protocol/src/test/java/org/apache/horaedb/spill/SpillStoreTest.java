@@ -0,0 +1,253 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.spill;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.common.util.NamedThreadFactory;
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.models.WriteOk;
+import org.apache.horaedb.retry.RetryPolicy;
+import org.apache.horaedb.util.TestUtil;
+import org.apache.horaedb.util.Utils;
+
+public class SpillStoreTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        this.dir = Files.createTempDirectory("horaedb_spill_test").toFile();
+    }
+
+    @After
+    public void after() {
+        final File[] files = this.dir.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                Assert.assertTrue(f.delete());
+            }
+        }
+        Assert.assertTrue(this.dir.delete());
+    }
+
+    private int segmentFiles() {
+        final File[] files = this.dir.listFiles((d, name) -> name.endsWith(SpillStore.SUFFIX));
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void codecTest() throws IOException {
+        final List<Point> points = new ArrayList<>();
+        points.add(Point.newPointBuilder("codec_table") //
+                .setTimestamp(1_700_000_000_000L) //
+                .addTag("tag1", "tv1") //
+                .addTag("tag2", Value.withStringOrNull(null)) //
+                .addField("string", Value.withString("s")) //
+                .addField("boolean", Value.withBoolean(true)) //
+                .addField("double", Value.withDouble(0.1)) //
+                .addField("float", Value.withFloat(0.2f)) //
+                .addField("int64", Value.withInt64(-1)) //
+                .addField("int32", Value.withInt32(-2)) //
+                .addField("int16", Value.withInt16(3)) //
+                .addField("int8", Value.withInt8(4)) //
+                .addField("uint64", Value.withUInt64(5)) //
+                .addField("uint32", Value.withUInt32(6)) //
+                .addField("uint16", Value.withUInt16(7)) //
+                .addField("uint8", Value.withUInt8(8)) //
+                .addField("ts", Value.withTimestamp(9)) //
+                .addField("varbinary", Value.withVarbinary(new byte[] { 1, 2, 3 })) //
+                .addField("null", Value.withDoubleOrNull(null)) //
+                .build());
+        points.addAll(TestUtil.newTableTwoPoints("codec_table"));
+
+        final PointCodec.Batch batch = PointCodec.decode(PointCodec.encode("public", points));
+        Assert.assertEquals("public", batch.database);
+        Assert.assertEquals(points.size(), batch.points.size());
+        for (int i = 0; i < points.size(); i++) {
+            final Point expected = points.get(i);
+            final Point actual = batch.points.get(i);
+            Assert.assertEquals(expected.getTable(), actual.getTable());
+            Assert.assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertValues(expected.getTags(), actual.getTags());
+            assertValues(expected.getFields(), actual.getFields());
+        }
+    }
+
+    private static void assertValues(final Map<String, Value> expected, final Map<String, Value> actual) {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (final String name : expected.keySet()) {
+            final Value v1 = expected.get(name);
+            final Value v2 = actual.get(name);
+            Assert.assertEquals(v1.getDataType(), v2.getDataType());
+            if (v1.getDataType() == Value.DataType.Varbinary) {
+                Assert.assertArrayEquals(v1.getVarbinary(), v2.getVarbinary());
+            } else {
+                Assert.assertEquals(v1.getObject(), v2.getObject());
+            }
+        }
+    }
+
+    @Test
+    public void appendAndCommitTest() throws IOException {
+        final SpillStore store = new SpillStore(this.dir.getPath(), SEGMENT_BYTES, SEGMENT_BYTES * 4);
+        Assert.assertNull(store.peek());
+
+        int appended = 0;
+        while (store.diskBytes() < SEGMENT_BYTES * 3) {
+            Assert.assertTrue(store.append("public", TestUtil.newTableTwoPoints("spill_table_" + appended)));
+            appended++;
+        }
+        Assert.assertEquals(3, segmentFiles());
+
+        for (int i = 0; i < appended; i++) {
+            final SpillStore.Record record = store.peek();
+            Assert.assertNotNull(record);
+            Assert.assertEquals("spill_table_" + i, record.decode().points.get(0).getTable());
+            store.commit(record);
+            // committing twice is a no-op
+            store.commit(record);
+        }
+        Assert.assertNull(store.peek());
+        Assert.assertTrue(store.isEmpty());
+        // drained segments are deleted, except the one still appended to
+        Assert.assertEquals(1, segmentFiles());
+        Assert.assertEquals(SEGMENT_BYTES, store.diskBytes());
+        store.close();
+    }
+
+    @Test
+    public void diskCapTest() throws IOException {
+        final SpillStore store = new SpillStore(this.dir.getPath(), SEGMENT_BYTES, SEGMENT_BYTES * 2);
+        int appended = 0;
+        while (store.append("public", TestUtil.newTableTwoPoints("spill_table"))) {
+            appended++;
+        }
+        Assert.assertTrue(appended > 0);
+        Assert.assertEquals(SEGMENT_BYTES * 2, store.diskBytes());
+
+        final List<Point> tooLarge = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            tooLarge.addAll(TestUtil.newTableTwoPoints("spill_table_" + i));
+        }
+        final SpillStore another = new SpillStore(this.dir.getPath() + "/another", SEGMENT_BYTES, SEGMENT_BYTES * 2);
+        Assert.assertFalse(another.append("public", tooLarge));
+        Assert.assertTrue(new File(this.dir, "another").delete());
+    }
+
+    @Test
+    public void recoverTest() throws IOException {
+        final SpillStore store = new SpillStore(this.dir.getPath(), SEGMENT_BYTES, SEGMENT_BYTES * 4);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(store.append("public", TestUtil.newTableTwoPoints("spill_table_" + i)));
+        }
+        store.commit(store.peek());
+        store.close();
+
+        // the replay progress is not persisted, all the records are replayed again
+        final SpillStore reopened = new SpillStore(this.dir.getPath(), SEGMENT_BYTES, SEGMENT_BYTES * 4);
+        for (int i = 0; i < 5; i++) {
+            final SpillStore.Record record = reopened.peek();
+            Assert.assertEquals("spill_table_" + i, record.decode().points.get(0).getTable());
+            reopened.commit(record);
+        }
+        Assert.assertNull(reopened.peek());
+
+        // appends after the recovered records
+        Assert.assertTrue(reopened.append("public", TestUtil.newTableTwoPoints("spill_table_new")));
+        Assert.assertEquals("spill_table_new", reopened.peek().decode().points.get(0).getTable());
+        reopened.close();
+    }
+
+    @Test
+    public void replayTest() throws IOException, InterruptedException {
+        final SpillStore store = new SpillStore(this.dir.getPath(), SEGMENT_BYTES, SEGMENT_BYTES * 4);
+        Assert.assertTrue(store.append("public", TestUtil.newTableTwoPoints("spill_table")));
+
+        final AtomicInteger calls = new AtomicInteger();
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final SpillReplayer replayer = new SpillReplayer(store, (reqCtx, points) -> {
+            Assert.assertEquals("public", reqCtx.getDatabase());
+            if (calls.getAndIncrement() == 0) {
+                return Utils.completedCf(Err.writeErr(Result.SHOULD_RETRY, "unavailable", ep, points) //
+                        .mapToResult());
+            }
+            return Utils.completedCf(WriteOk.ok(points.size(), 0, Collections.emptySet()).mapToResult());
+        }, RetryPolicy.defaultPolicy(), 1000);
+
+        // a transient error keeps the record and pauses the replay
+        replayer.replayOnce();
+        Assert.assertEquals(1, calls.get());
+        Assert.assertNotNull(store.peek());
+        replayer.replayOnce();
+        Assert.assertEquals(1, calls.get());
+
+        Thread.sleep(200);
+        replayer.replayOnce();
+        Assert.assertEquals(2, calls.get());
+        Assert.assertNull(store.peek());
+        store.close();
+    }
+
+    @Test
+    public void replayOffTimerThreadTest() throws Exception {
+        final SpillStore store = new SpillStore(this.dir.getPath(), SEGMENT_BYTES, SEGMENT_BYTES * 4);
+        Assert.assertTrue(store.append("public", TestUtil.newTableTwoPoints("spill_table")));
+
+        final ScheduledExecutorService timer = Executors
+                .newSingleThreadScheduledExecutor(new NamedThreadFactory("spill_test_timer", true));
+        final CompletableFuture<String> replayThread = new CompletableFuture<>();
+        final SpillReplayer replayer = new SpillReplayer(store, (reqCtx, points) -> {
+            replayThread.complete(Thread.currentThread().getName());
+            return Utils.completedCf(WriteOk.ok(points.size(), 0, Collections.emptySet()).mapToResult());
+        }, RetryPolicy.defaultPolicy(), 1000);
+        try {
+            replayer.start(timer);
+            // the timer only ticks, the record is read, decoded and written on the thread of the replayer
+            final String name = replayThread.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(name, name.contains(SpillReplayer.REPLAY_POOL_NAME));
+        } finally {
+            replayer.stop();
+            timer.shutdownNow();
+            store.close();
+        }
+    }
+
+    @Test
+    public void replayDropsFatalTest() throws IOException {
+        final SpillStore store = new SpillStore(this.dir.getPath(), SEGMENT_BYTES, SEGMENT_BYTES * 4);
+        Assert.assertTrue(store.append("public", TestUtil.newTableTwoPoints("spill_table")));
+
+        final SpillReplayer replayer = new SpillReplayer(store, (reqCtx, points) -> {
+            final CompletableFuture<Result<WriteOk, Err>> f = new CompletableFuture<>();
+            f.completeExceptionally(new IllegalStateException("fatal"));
+            return f;
+        }, RetryPolicy.defaultPolicy(), 1000);
+        replayer.replayOnce();
+        Assert.assertNull(store.peek());
+        store.close();
+    }
+}
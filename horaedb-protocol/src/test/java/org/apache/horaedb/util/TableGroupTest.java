@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.Value;
+
+public class TableGroupTest {
+
+    private static Point newPoint(final long ts, final Value tag1, final Value tag2) {
+        return Point.newPointBuilder("test_table") //
+                .setTimestamp(ts) //
+                .addTag("tag1", tag1) //
+                .addTag("tag2", tag2) //
+                .addField("field1", Value.withDouble(0.1)) //
+                .build();
+    }
+
+    private static TableGroup groupOne(final List<Point> points) {
+        final List<TableGroup> groups = new ArrayList<>(TableGroup.group(points.stream()));
+        Assert.assertEquals(1, groups.size());
+        return groups.get(0);
+    }
+
+    @Test
+    public void concatenatedTagsTest() {
+        final List<Point> points = new ArrayList<>();
+        points.add(newPoint(1, Value.withString("a"), Value.withString("bc")));
+        points.add(newPoint(2, Value.withString("ab"), Value.withString("c")));
+        points.add(newPoint(3, Value.withString("a"), Value.withString("bc")));
+
+        final List<TableGroup.Series> series = new ArrayList<>(groupOne(points).getSeries());
+        Assert.assertEquals(2, series.size());
+        Assert.assertEquals(2, series.get(0).getPoints().size());
+        Assert.assertEquals(1, series.get(1).getPoints().size());
+        Assert.assertEquals("ab", series.get(1).getTags().get("tag1").getString());
+    }
+
+    @Test
+    public void nullAndTypedTagsTest() {
+        final List<Point> points = new ArrayList<>();
+        points.add(newPoint(1, Value.withString("a"), Value.withStringOrNull(null)));
+        points.add(newPoint(2, Value.withString("a"), Value.withStringOrNull(null)));
+        // same value, different tag
+        points.add(newPoint(3, Value.withStringOrNull(null), Value.withString("a")));
+        // varbinary tags are compared by content
+        points.add(newPoint(4, Value.withVarbinary(new byte[] { 1, 2 }), Value.withInt64(1)));
+        points.add(newPoint(5, Value.withVarbinary(new byte[] { 1, 2 }), Value.withInt64(1)));
+        // same number, different type
+        points.add(newPoint(6, Value.withVarbinary(new byte[] { 1, 2 }), Value.withInt32(1)));
+
+        final List<TableGroup.Series> series = new ArrayList<>(groupOne(points).getSeries());
+        Assert.assertEquals(4, series.size());
+        Assert.assertEquals(2, series.get(0).getPoints().size());
+        Assert.assertEquals(1, series.get(1).getPoints().size());
+        Assert.assertEquals(2, series.get(2).getPoints().size());
+        Assert.assertEquals(1, series.get(3).getPoints().size());
+    }
+
+    @Test
+    public void highCardinalityTest() {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            points.add(newPoint(i, Value.withString("host_" + (i % 1000)), Value.withInt64(i % 3)));
+        }
+
+        final TableGroup group = groupOne(points);
+        // lcm(1000, 3) distinct tag sets
+        Assert.assertEquals(3000, group.getSeries().size());
+        for (final TableGroup.Series s : group.getSeries()) {
+            final Value tag1 = s.getTags().get("tag1");
+            for (final Point p : s.getPoints()) {
+                Assert.assertEquals(tag1, p.getTags().get("tag1"));
+                Assert.assertEquals(s.getTags().get("tag2"), p.getTags().get("tag2"));
+            }
+        }
+    }
+
+    @Test
+    public void hashCollisionTest() {
+        final TableGroup.SeriesIndex index = new TableGroup.SeriesIndex();
+        final Point p1 = newPoint(1, Value.withString("a"), Value.withString("b"));
+        final Point p2 = newPoint(2, Value.withString("c"), Value.withString("d"));
+
+        final TableGroup.Series s1 = index.getOrAdd(p1, 42, 2);
+        final TableGroup.Series s2 = index.getOrAdd(p2, 42, 2);
+        Assert.assertNotSame(s1, s2);
+        Assert.assertSame(s1, index.getOrAdd(p1, 42, 2));
+        Assert.assertSame(s2, index.getOrAdd(p2, 42, 2));
+        Assert.assertEquals(2, index.values().size());
+    }
+
+    @Test
+    public void sortedGroupTest() {
+        final List<Point> points = new ArrayList<>();
+        points.add(newPoint(3, Value.withString("b"), Value.withString("x")));
+        points.add(newPoint(2, Value.withString("a"), Value.withString("y")));
+        points.add(newPoint(1, Value.withString("b"), Value.withString("x")));
+        points.add(newPoint(2, Value.withString("b"), Value.withString("x")));
+        points.add(newPoint(1, Value.withString("a"), Value.withStringOrNull(null)));
+
+        final List<TableGroup> groups = new ArrayList<>(TableGroup.group(points.stream(), true));
+        final List<TableGroup.Series> series = new ArrayList<>(groups.get(0).getSeries());
+        Assert.assertEquals(3, series.size());
+        // the series with fewer tags first, then by tag values
+        Assert.assertTrue(Value.isNull(series.get(0).getTags().get("tag2")));
+        Assert.assertEquals("y", series.get(1).getTags().get("tag2").getString());
+        Assert.assertEquals("b", series.get(2).getTags().get("tag1").getString());
+        final List<Point> sorted = series.get(2).getPoints();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i + 1, sorted.get(i).getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.proto.internal.Storage;
+
+public class TagCacheTest {
+
+    @Test
+    public void getTagTest() {
+        final TagCache cache = new TagCache(16);
+        final long hits = TagCache.InnerMetrics.hit().getCount();
+        final long misses = TagCache.InnerMetrics.miss().getCount();
+
+        final Storage.Tag t1 = cache.getTag(0, Value.withString("host1"));
+        Assert.assertEquals(0, t1.getNameIndex());
+        Assert.assertEquals("host1", t1.getValue().getStringValue());
+        Assert.assertSame(t1, cache.getTag(0, Value.withString("host1")));
+        // same value, another name index
+        final Storage.Tag t2 = cache.getTag(1, Value.withString("host1"));
+        Assert.assertNotSame(t1, t2);
+        Assert.assertEquals(1, t2.getNameIndex());
+
+        Assert.assertEquals(1, TagCache.InnerMetrics.hit().getCount() - hits);
+        Assert.assertEquals(2, TagCache.InnerMetrics.miss().getCount() - misses);
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void nonStringNotCachedTest() {
+        final TagCache cache = new TagCache(16);
+        final Storage.Tag t = cache.getTag(0, Value.withInt64(7));
+        Assert.assertEquals(7, t.getValue().getInt64Value());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void boundedTest() {
+        final TagCache cache = new TagCache(8);
+        for (int i = 0; i < 100; i++) {
+            cache.getTag(0, Value.withString("v" + i));
+        }
+        Assert.assertTrue(cache.size() <= 8);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimestampSorterTest {
+
+    @Test
+    public void sortedInputTest() {
+        Assert.assertNull(TimestampSorter.sortedOrder(new long[0]));
+        Assert.assertNull(TimestampSorter.sortedOrder(new long[] { 1, 1, 2, 3 }));
+    }
+
+    @Test
+    public void stableSortTest() {
+        final Random random = new Random(42);
+        final long[] ts = new long[1000];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = random.nextInt(100);
+        }
+        final int[] order = TimestampSorter.sortedOrder(ts);
+        Assert.assertEquals(ts.length, order.length);
+        for (int i = 1; i < order.length; i++) {
+            final long prev = ts[order[i - 1]];
+            final long cur = ts[order[i]];
+            Assert.assertTrue(prev <= cur);
+            if (prev == cur) {
+                Assert.assertTrue(order[i - 1] < order[i]);
+            }
+        }
+    }
+}
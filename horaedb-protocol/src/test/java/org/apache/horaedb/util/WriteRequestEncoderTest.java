@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.WriteClient;
+import org.apache.horaedb.models.Point;
+import org.apache.horaedb.models.RequestContext;
+import org.apache.horaedb.models.Value;
+import org.apache.horaedb.proto.internal.Storage;
+
+public class WriteRequestEncoderTest {
+
+    private static List<Point> newPoints() {
+        final List<Point> points = new ArrayList<>(TestUtil.newMultiTablePoints("table1", "table2"));
+        points.add(Point.newPointBuilder("table1") //
+                .setTimestamp(0) //
+                .addTag("tag1", Value.withString("")) //
+                .addTag("tag3", Value.withInt64(-1)) //
+                .addField("field1", Value.withDoubleOrNull(null)) //
+                .addField("f_float", Value.withFloat(1.5f)) //
+                .addField("f_int32", Value.withInt32(-32)) //
+                .addField("f_int16", Value.withInt16(16)) //
+                .addField("f_int8", Value.withInt8(8)) //
+                .addField("f_bool", Value.withBoolean(false)) //
+                .addField("f_uint64", Value.withUInt64(-1L)) //
+                .addField("f_uint32", Value.withUInt32(32)) //
+                .addField("f_uint16", Value.withUInt16(0)) //
+                .addField("f_uint8", Value.withUInt8(8)) //
+                .addField("f_ts", Value.withTimestamp(1L)) //
+                .addField("f_bytes", Value.withVarbinary(new byte[] { 1, 2, 3 })) //
+                .build());
+        return points;
+    }
+
+    @Test
+    public void sameBytesAsProtoTest() throws Exception {
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        final List<Point> points = newPoints();
+
+        final byte[] expected = new WriteClient().toWriteRequestObj(reqCtx, points.stream()).toByteArray();
+        final WriteRequestEncoder.EncodedRequest req = WriteRequestEncoder.encode(reqCtx, points.stream());
+        try {
+            Assert.assertEquals(Storage.WriteRequest.class, req.messageType());
+            Assert.assertEquals(expected.length, req.size());
+            Assert.assertArrayEquals(expected, Arrays.copyOf(req.array(), req.size()));
+            Assert.assertEquals(Storage.WriteRequest.parseFrom(expected),
+                    Storage.WriteRequest.parseFrom(Arrays.copyOf(req.array(), req.size())));
+        } finally {
+            req.release();
+        }
+    }
+
+    @Test
+    public void manySizesTest() throws Exception {
+        final RequestContext reqCtx = new RequestContext();
+        reqCtx.setDatabase("public");
+        final List<Point> points = new ArrayList<>();
+        // more nested messages than the initial capacity of the sizes
+        for (int i = 0; i < 1000; i++) {
+            points.add(Point.newPointBuilder("test_table") //
+                    .setTimestamp(i + 1) //
+                    .addTag("host", "h" + (i % 10)) //
+                    .addField("f1", Value.withInt64(i)) //
+                    .addField("f2", Value.withDouble(i)) //
+                    .build());
+        }
+
+        final byte[] expected = new WriteClient().toWriteRequestObj(reqCtx, points.stream()).toByteArray();
+        final WriteRequestEncoder.EncodedRequest req = WriteRequestEncoder.encode(reqCtx, points.stream());
+        try {
+            Assert.assertArrayEquals(expected, Arrays.copyOf(req.array(), req.size()));
+        } finally {
+            req.release();
+        }
+    }
+
+    @Test
+    public void bufferPoolTest() {
+        final WriteRequestEncoder.BufferPool pool = new WriteRequestEncoder.BufferPool(1, 1 << 16);
+        final byte[] buf = pool.acquire(5000);
+        Assert.assertEquals(8192, buf.length);
+        pool.release(buf);
+        Assert.assertSame(buf, pool.acquire(100));
+        // too large to be pooled
+        final byte[] large = pool.acquire((1 << 16) + 1);
+        Assert.assertEquals((1 << 16) + 1, large.length);
+        pool.release(large);
+        Assert.assertNotSame(large, pool.acquire(100));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.horaedb.common.Endpoint;
+import org.apache.horaedb.models.Err;
+import org.apache.horaedb.models.Result;
+import org.apache.horaedb.models.WriteOk;
+
+public class WriteResultAggregatorTest {
+
+    @Test
+    public void emptyTest() throws ExecutionException, InterruptedException {
+        final Result<WriteOk, Err> r = WriteResultAggregator.combineAll(Collections.emptyList()).get();
+        Assert.assertTrue(r.isOk());
+        Assert.assertEquals(0, r.getOk().getSuccess());
+    }
+
+    @Test
+    public void combineOkTest() throws ExecutionException, InterruptedException {
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            fs.add(new CompletableFuture<>());
+        }
+        final CompletableFuture<Result<WriteOk, Err>> f = WriteResultAggregator.combineAll(fs);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertFalse(f.isDone());
+            final int success = i;
+            // completes out of order, from different threads
+            new Thread(() -> fs.get(9 - success).complete(WriteOk.ok(success, 1, null).mapToResult())).start();
+        }
+        final Result<WriteOk, Err> r = f.get();
+        Assert.assertTrue(r.isOk());
+        Assert.assertEquals(45, r.getOk().getSuccess());
+        Assert.assertEquals(10, r.getOk().getFailed());
+    }
+
+    @Test
+    public void combineErrTest() throws ExecutionException, InterruptedException {
+        final Endpoint ep = Endpoint.of("127.0.0.1", 8081);
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>();
+        fs.add(Utils.completedCf(WriteOk.ok(2, 0, null).mapToResult()));
+        fs.add(Utils.completedCf(Err.writeErr(500, "err1", ep, Collections.emptyList()).mapToResult()));
+        fs.add(Utils.completedCf(WriteOk.ok(3, 0, null).mapToResult()));
+        fs.add(Utils.completedCf(Err.writeErr(500, "err2", ep, Collections.emptyList()).mapToResult()));
+
+        final Result<WriteOk, Err> r = WriteResultAggregator.combineAll(fs).get();
+        Assert.assertFalse(r.isOk());
+        Assert.assertEquals(2, r.getErr().stream().count());
+        Assert.assertEquals(5, r.getErr().getSubOk().getSuccess());
+    }
+
+    @Test
+    public void exceptionallyTest() {
+        final CompletableFuture<Result<WriteOk, Err>> failed = new CompletableFuture<>();
+        final CompletableFuture<Result<WriteOk, Err>> pending = new CompletableFuture<>();
+        final List<CompletableFuture<Result<WriteOk, Err>>> fs = new ArrayList<>();
+        fs.add(pending);
+        fs.add(failed);
+
+        final CompletableFuture<Result<WriteOk, Err>> f = WriteResultAggregator.combineAll(fs);
+        failed.completeExceptionally(new IllegalStateException("test"));
+        // fails fast, without waiting for the others
+        Assert.assertTrue(f.isCompletedExceptionally());
+    }
+}
@@ -49,6 +49,29 @@ public interface Observer<V> {
         return null;
     }
 
+    /**
+     * Whether the stream can accept more values without buffering them
+     * excessively, only meaningful for a request observer of a
+     * client-streaming call. It is advisory, {@link #onNext} still
+     * accepts values when not ready.
+     *
+     * @return true if the stream is ready for more values
+     */
+    default boolean isReady() {
+        return true;
+    }
+
+    /**
+     * Sets a handler invoked each time {@link #isReady()} turns from false
+     * to true, only meaningful for a request observer of a client-streaming
+     * call.
+     *
+     * @param onReadyHandler the handler to invoke
+     */
+    default void setOnReadyHandler(final Runnable onReadyHandler) {
+        // NO-OP
+    }
+
     class RejectedObserver<V> implements Observer<V> {
 
         private final Throwable err;
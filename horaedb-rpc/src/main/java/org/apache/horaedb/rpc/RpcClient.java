@@ -162,7 +162,9 @@ public interface RpcClient extends Lifecycle<RpcOptions>, Display {
 
     /**
      * Executes a client-streaming call with a request {@link Observer}
-     * and a response {@link Observer}.
+     * and a response {@link Observer}. The request observer reports the
+     * transport readiness by {@link Observer#isReady()}, callers should
+     * stop sending when it is not ready to apply backpressure.
      *
      * @param endpoint      target address
      * @param defaultReqIns the default request instance
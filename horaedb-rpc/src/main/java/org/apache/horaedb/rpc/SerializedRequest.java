@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.rpc;
+
+/**
+ * A request that has already been serialized into the wire format of
+ * {@link #messageType()}. Rpc implementations send its bytes as they are
+ * instead of serializing the request a second time.
+ *
+ */
+public interface SerializedRequest {
+
+    /**
+     * The request message type these bytes were encoded from, it is used to
+     * find the remote method just like a regular request.
+     *
+     * @return the request message type
+     */
+    Class<?> messageType();
+
+    /**
+     * The serialized bytes, only the first {@link #size()} bytes are valid.
+     *
+     * @return the backing array
+     */
+    byte[] array();
+
+    /**
+     * The number of serialized bytes.
+     *
+     * @return the size in bytes
+     */
+    int size();
+
+    /**
+     * Called once the bytes have been sent (or will never be sent), the
+     * backing array may be reused after that, so it must not be accessed
+     * any more.
+     */
+    void release();
+}
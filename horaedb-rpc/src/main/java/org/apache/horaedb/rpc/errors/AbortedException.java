@@ -0,0 +1,33 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.rpc.errors;
+
+/**
+ * The call is aborted by the server, usually by a concurrency conflict.
+ * Mapped from the gRPC status {@code ABORTED}.
+ *
+ */
+public class AbortedException extends RemotingException {
+
+    private static final long serialVersionUID = 1053183867999067970L;
+
+    public AbortedException() {
+    }
+
+    public AbortedException(String message) {
+        super(message);
+    }
+
+    public AbortedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public AbortedException(Throwable cause) {
+        super(cause);
+    }
+
+    public AbortedException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.rpc.errors;
+
+/**
+ * The server is out of some resource, e.g., a quota or its memory.
+ * Mapped from the gRPC status {@code RESOURCE_EXHAUSTED}.
+ *
+ */
+public class ResourceExhaustedException extends RemotingException {
+
+    private static final long serialVersionUID = -7321769129436312829L;
+
+    public ResourceExhaustedException() {
+    }
+
+    public ResourceExhaustedException(String message) {
+        super(message);
+    }
+
+    public ResourceExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ResourceExhaustedException(Throwable cause) {
+        super(cause);
+    }
+
+    public ResourceExhaustedException(String message, Throwable cause, boolean enableSuppression,
+                                      boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
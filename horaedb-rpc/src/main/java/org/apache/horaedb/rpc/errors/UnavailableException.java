@@ -0,0 +1,34 @@
+/*
+ * Copyright 2023 CeresDB Project Authors. Licensed under Apache-2.0.
+ */
+package org.apache.horaedb.rpc.errors;
+
+/**
+ * The server is unavailable, e.g., the node is down or moved, or the client
+ * limit is reached. Mapped from the gRPC status {@code UNAVAILABLE}.
+ *
+ */
+public class UnavailableException extends RemotingException {
+
+    private static final long serialVersionUID = 2081960357506828195L;
+
+    public UnavailableException() {
+    }
+
+    public UnavailableException(String message) {
+        super(message);
+    }
+
+    public UnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public UnavailableException(Throwable cause) {
+        super(cause);
+    }
+
+    public UnavailableException(String message, Throwable cause, boolean enableSuppression,
+                                boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}